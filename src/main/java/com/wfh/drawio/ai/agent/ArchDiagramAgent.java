@@ -5,19 +5,25 @@ import com.wfh.drawio.ai.advisor.MyLoggerAdvisor;
 import com.wfh.drawio.ai.config.MultiModelFactory;
 import com.wfh.drawio.ai.model.StreamEvent;
 import com.wfh.drawio.ai.tools.CreateDiagramTool;
+import com.wfh.drawio.ai.tools.DiagramEditSession;
+import com.wfh.drawio.ai.tools.DiagramToolContext;
 import com.wfh.drawio.ai.utils.PromptUtil;
 import com.wfh.drawio.service.DiagramService;
+import jakarta.annotation.PostConstruct;
 import jakarta.annotation.Resource;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.ai.chat.client.ChatClient;
-import org.springframework.ai.chat.model.ChatModel;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.core.io.ClassPathResource;
 import org.springframework.stereotype.Component;
 import reactor.core.publisher.Flux;
 import reactor.core.publisher.Sinks;
 
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.Map;
 import java.util.Objects;
+import java.util.concurrent.ConcurrentHashMap;
 
 /**
  * @Title: ArchDiagramAgent
@@ -71,30 +77,38 @@ public class ArchDiagramAgent {
             """;
 
     /**
-     * 创建带有架构图生成工具的 ChatClient
-     *
-     * @param modelId   模型 ID
-     * @param diagramId 图表 ID（用于保存生成的架构图）
-     * @param sink      旁路管道（用于推送工具执行日志）
-     * @return ChatClient
+     * 按模型ID缓存的 client，图表ID与旁路管道通过 toolContext 按请求传入
      */
-    private ChatClient createChatClient(String modelId, String diagramId, Sinks.Many<StreamEvent> sink) {
-        String targetModelId = (modelId == null || modelId.isEmpty()) ? defaultModelId : modelId;
-        ChatModel chatModel = multiModelFactory.getChatModel(targetModelId);
+    private final Map<String, ChatClient> chatClientCache = new ConcurrentHashMap<>();
 
-        // 实例化带有上下文的创建图表工具
-        CreateDiagramTool createTool = new CreateDiagramTool(diagramService, diagramId, sink);
+    private CreateDiagramTool createTool;
 
-        // 加载 draw.io XML 生成指南
-        ClassPathResource xmlGuide = new ClassPathResource("/doc/xml_guide.md");
+    /**
+     * draw.io XML 生成指南
+     */
+    private String xmlGuide;
 
-        return ChatClient.builder(chatModel)
+    @PostConstruct
+    public void init() throws IOException {
+        createTool = new CreateDiagramTool(diagramService);
+        xmlGuide = new ClassPathResource("/doc/xml_guide.md").getContentAsString(StandardCharsets.UTF_8);
+    }
+
+    /**
+     * 获取带有架构图生成工具的 ChatClient（首次使用时构建）
+     *
+     * @param modelId 模型 ID
+     * @return ChatClient
+     */
+    private ChatClient getChatClient(String modelId) {
+        String targetModelId = (modelId == null || modelId.isEmpty()) ? defaultModelId : modelId;
+        return chatClientCache.computeIfAbsent(targetModelId, id -> ChatClient.builder(multiModelFactory.getChatModel(id))
                 .defaultTools(createTool)
                 .defaultSystem(xmlGuide)
-                .defaultSystem(PromptUtil.getSystemPrompt(targetModelId, true))
+                .defaultSystem(PromptUtil.getSystemPrompt(id, true))
                 .defaultSystem(ARCH_DIAGRAM_PROMPT)
                 .defaultAdvisors(new MyLoggerAdvisor())
-                .build();
+                .build());
     }
 
     /**
@@ -109,7 +123,7 @@ public class ArchDiagramAgent {
         // 创建旁路管道（用于推送工具执行日志）
         Sinks.Many<StreamEvent> sideChannelSink = Sinks.many().unicast().onBackpressureBuffer();
 
-        ChatClient chatClient = createChatClient(modelId, diagramId, sideChannelSink);
+        ChatClient chatClient = getChatClient(modelId);
 
         String userPrompt = "请根据以下 YAML 架构摘要生成项目架构图：\n\n" + yamlSummary;
 
@@ -117,9 +131,13 @@ public class ArchDiagramAgent {
         Flux<String> toolLogFlux = sideChannelSink.asFlux()
                 .map(JSONUtil::toJsonStr);
 
+        // 图表工作副本，生成结束时统一保存
+        DiagramEditSession editSession = openEditSession(diagramId);
+
         // AI 主回复流
         Flux<String> aiResFlux = chatClient.prompt()
                 .user(userPrompt)
+                .toolContext(DiagramToolContext.of(diagramId, sideChannelSink, editSession))
                 .stream()
                 .content()
                 .filter(Objects::nonNull)
@@ -128,7 +146,8 @@ public class ArchDiagramAgent {
                         .content(text)
                         .build()))
                 .doOnTerminate(sideChannelSink::tryEmitComplete)
-                .doOnError(e -> log.error("架构图生成流式响应异常: {}", e.getMessage()));
+                .doOnError(e -> log.error("架构图生成流式响应异常: {}", e.getMessage()))
+                .doFinally(signal -> flushEditSession(editSession));
 
         // 合并流
         return Flux.merge(toolLogFlux, aiResFlux);
@@ -143,16 +162,38 @@ public class ArchDiagramAgent {
      * @return 生成的架构图 XML
      */
     public String genArchDiagramSync(String modelId, String diagramId, String yamlSummary) {
-        ChatClient chatClient = createChatClient(modelId, diagramId, null);
+        ChatClient chatClient = getChatClient(modelId);
 
         String userPrompt = "请根据以下 YAML 架构摘要生成项目架构图：\n\n" + yamlSummary;
 
-        String result = chatClient.prompt()
-                .user(userPrompt)
-                .call()
-                .content();
+        DiagramEditSession editSession = openEditSession(diagramId);
+        String result;
+        try {
+            result = chatClient.prompt()
+                    .user(userPrompt)
+                    .toolContext(DiagramToolContext.of(diagramId, null, editSession))
+                    .call()
+                    .content();
+        } finally {
+            flushEditSession(editSession);
+        }
 
         log.info("架构图生成完成，结果长度: {} 字符", result != null ? result.length() : 0);
         return result;
     }
-}
\ No newline at end of file
+
+    private DiagramEditSession openEditSession(String diagramId) {
+        return diagramId == null ? null : new DiagramEditSession(diagramService, diagramId, true);
+    }
+
+    private void flushEditSession(DiagramEditSession editSession) {
+        if (editSession == null) {
+            return;
+        }
+        try {
+            editSession.flush();
+        } catch (Exception e) {
+            log.warn("保存架构图失败", e);
+        }
+    }
+}
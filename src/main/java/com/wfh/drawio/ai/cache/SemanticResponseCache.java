@@ -0,0 +1,314 @@
+package com.wfh.drawio.ai.cache;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.github.benmanes.caffeine.cache.RemovalCause;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import jakarta.annotation.Resource;
+import lombok.extern.slf4j.Slf4j;
+import org.apache.commons.lang3.StringUtils;
+import org.apache.lucene.document.Document;
+import org.apache.lucene.document.Field;
+import org.apache.lucene.document.KnnFloatVectorField;
+import org.apache.lucene.document.StringField;
+import org.apache.lucene.index.IndexWriter;
+import org.apache.lucene.index.IndexWriterConfig;
+import org.apache.lucene.index.Term;
+import org.apache.lucene.index.VectorSimilarityFunction;
+import org.apache.lucene.search.IndexSearcher;
+import org.apache.lucene.search.KnnFloatVectorQuery;
+import org.apache.lucene.search.ScoreDoc;
+import org.apache.lucene.search.SearcherManager;
+import org.apache.lucene.search.TermQuery;
+import org.apache.lucene.search.TopDocs;
+import org.apache.lucene.store.ByteBuffersDirectory;
+import org.apache.lucene.store.Directory;
+import org.springframework.ai.embedding.EmbeddingModel;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.io.IOException;
+import java.time.Duration;
+import java.util.Locale;
+import java.util.regex.Pattern;
+
+/**
+ * AI 绘图结果的语义缓存
+ * <p>
+ * 大量用户的需求几乎相同（"画一个登录流程图"），每次都完整调用一次大模型。这里按 模型ID + 归一化后的提示词
+ * 精确匹配；未命中时对提示词做向量化，在进程内的 Lucene HNSW 索引中查找同一模型下最相近的提示词，
+ * 余弦相似度达到阈值即复用其生成的图表，不依赖外部向量服务。条目数与存活时间受限，淘汰时同步删除向量。
+ * <p>
+ * 命中次数、节省的生成耗时与 token 通过 Micrometer 暴露。
+ *
+ * @author fenghuanwang
+ */
+@Component
+@Slf4j
+public class SemanticResponseCache {
+
+    private static final String FIELD_KEY = "key";
+
+    private static final String FIELD_MODEL = "model";
+
+    private static final String FIELD_VECTOR = "vector";
+
+    private static final Pattern PUNCTUATION = Pattern.compile("[\\p{P}\\p{S}]+");
+
+    private static final Pattern WHITESPACE = Pattern.compile("\\s+");
+
+    @Value("${drawio.ai-cache.enabled:true}")
+    private boolean enabled;
+
+    /**
+     * 语义命中所需的最小余弦相似度
+     */
+    @Value("${drawio.ai-cache.similarity-threshold:0.95}")
+    private double similarityThreshold;
+
+    @Value("${drawio.ai-cache.max-entries:10000}")
+    private int maxEntries;
+
+    @Value("${drawio.ai-cache.ttl-hours:168}")
+    private long ttlHours;
+
+    /**
+     * 超过该长度的提示词通常带有具体细节，不参与缓存
+     */
+    @Value("${drawio.ai-cache.max-prompt-chars:500}")
+    private int maxPromptChars;
+
+    @Resource
+    private EmbeddingModel embeddingModel;
+
+    @Resource
+    private MeterRegistry meterRegistry;
+
+    private Cache<String, CachedResponse> entries;
+
+    /**
+     * 未命中时算出的向量，写入缓存时复用，避免同一提示词向量化两次
+     */
+    private final Cache<String, float[]> recentEmbeddings = Caffeine.newBuilder()
+            .maximumSize(1000)
+            .expireAfterWrite(Duration.ofMinutes(30))
+            .build();
+
+    private Directory directory;
+
+    private IndexWriter indexWriter;
+
+    private SearcherManager searcherManager;
+
+    private Counter exactHitCounter;
+
+    private Counter semanticHitCounter;
+
+    private Counter missCounter;
+
+    private Counter tokensSavedCounter;
+
+    private Timer latencySavedTimer;
+
+    @PostConstruct
+    public void init() throws IOException {
+        if (!enabled) {
+            return;
+        }
+        directory = new ByteBuffersDirectory();
+        indexWriter = new IndexWriter(directory, new IndexWriterConfig());
+        searcherManager = new SearcherManager(indexWriter, null);
+        entries = Caffeine.newBuilder()
+                .maximumSize(maxEntries)
+                .expireAfterWrite(Duration.ofHours(ttlHours))
+                // 同步执行，保证向量删除先于同 key 的重新写入
+                .executor(Runnable::run)
+                .removalListener((String key, CachedResponse value, RemovalCause cause) -> {
+                    if (key != null && cause != RemovalCause.REPLACED) {
+                        deleteVector(key);
+                    }
+                })
+                .build();
+        exactHitCounter = Counter.builder("drawio.ai.cache.requests").tag("result", "exact").register(meterRegistry);
+        semanticHitCounter = Counter.builder("drawio.ai.cache.requests").tag("result", "semantic").register(meterRegistry);
+        missCounter = Counter.builder("drawio.ai.cache.requests").tag("result", "miss").register(meterRegistry);
+        tokensSavedCounter = Counter.builder("drawio.ai.cache.tokens.saved").register(meterRegistry);
+        latencySavedTimer = Timer.builder("drawio.ai.cache.latency.saved").register(meterRegistry);
+        Gauge.builder("drawio.ai.cache.size", entries, Cache::estimatedSize).register(meterRegistry);
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    /**
+     * 查找可复用的生成结果
+     *
+     * @param modelId 模型ID
+     * @param prompt  用户提示词
+     * @return 命中的结果，未命中返回 null
+     */
+    public CachedResponse get(String modelId, String prompt) {
+        String normalized = normalize(prompt);
+        if (!enabled || normalized == null) {
+            return null;
+        }
+        CachedResponse exact = entries.getIfPresent(cacheKey(modelId, normalized));
+        if (exact != null) {
+            recordHit(exactHitCounter, exact);
+            return exact;
+        }
+        float[] vector = embed(normalized);
+        if (vector != null) {
+            CachedResponse similar = searchSimilar(modelId, vector);
+            if (similar != null) {
+                recordHit(semanticHitCounter, similar);
+                return similar;
+            }
+        }
+        missCounter.increment();
+        return null;
+    }
+
+    /**
+     * 写入生成结果
+     *
+     * @param modelId  模型ID
+     * @param prompt   用户提示词
+     * @param response 生成结果
+     */
+    public void put(String modelId, String prompt, CachedResponse response) {
+        String normalized = normalize(prompt);
+        if (!enabled || normalized == null) {
+            return;
+        }
+        String key = cacheKey(modelId, normalized);
+        entries.put(key, response);
+        float[] vector = recentEmbeddings.getIfPresent(normalized);
+        if (vector == null) {
+            vector = embed(normalized);
+        }
+        if (vector == null) {
+            // 只能精确命中
+            return;
+        }
+        Document document = new Document();
+        document.add(new StringField(FIELD_KEY, key, Field.Store.YES));
+        document.add(new StringField(FIELD_MODEL, modelId, Field.Store.NO));
+        document.add(new KnnFloatVectorField(FIELD_VECTOR, vector, VectorSimilarityFunction.COSINE));
+        try {
+            indexWriter.updateDocument(new Term(FIELD_KEY, key), document);
+            searcherManager.maybeRefresh();
+        } catch (IOException | IllegalArgumentException e) {
+            // 向量维度变化等，语义查找失效但精确命中仍可用
+            log.warn("写入语义缓存向量失败: modelId={}", modelId, e);
+        }
+    }
+
+    @PreDestroy
+    public void destroy() {
+        if (!enabled) {
+            return;
+        }
+        try {
+            searcherManager.close();
+            indexWriter.close();
+            directory.close();
+        } catch (IOException e) {
+            log.warn("关闭语义缓存索引失败", e);
+        }
+    }
+
+    /**
+     * 归一化提示词：小写、去标点、合并空白；空白或过长的提示词不缓存
+     */
+    String normalize(String prompt) {
+        if (StringUtils.isBlank(prompt) || prompt.length() > maxPromptChars) {
+            return null;
+        }
+        String normalized = PUNCTUATION.matcher(prompt.toLowerCase(Locale.ROOT)).replaceAll(" ");
+        normalized = WHITESPACE.matcher(normalized).replaceAll(" ").trim();
+        return normalized.isEmpty() ? null : normalized;
+    }
+
+    private CachedResponse searchSimilar(String modelId, float[] vector) {
+        IndexSearcher searcher = null;
+        try {
+            searcher = searcherManager.acquire();
+            KnnFloatVectorQuery query = new KnnFloatVectorQuery(FIELD_VECTOR, vector, 1,
+                    new TermQuery(new Term(FIELD_MODEL, modelId)));
+            TopDocs topDocs = searcher.search(query, 1);
+            if (topDocs.scoreDocs.length == 0) {
+                return null;
+            }
+            ScoreDoc best = topDocs.scoreDocs[0];
+            // Lucene 的 COSINE 得分为 (1 + cos) / 2
+            double cosine = 2 * best.score - 1;
+            if (cosine < similarityThreshold) {
+                return null;
+            }
+            return entries.getIfPresent(searcher.storedFields().document(best.doc).get(FIELD_KEY));
+        } catch (IOException | IllegalArgumentException e) {
+            log.warn("语义缓存查找失败: modelId={}", modelId, e);
+            return null;
+        } finally {
+            if (searcher != null) {
+                try {
+                    searcherManager.release(searcher);
+                } catch (IOException e) {
+                    log.warn("释放语义缓存 searcher 失败", e);
+                }
+            }
+        }
+    }
+
+    private float[] embed(String normalized) {
+        float[] cached = recentEmbeddings.getIfPresent(normalized);
+        if (cached != null) {
+            return cached;
+        }
+        try {
+            float[] vector = embeddingModel.embed(normalized);
+            recentEmbeddings.put(normalized, vector);
+            return vector;
+        } catch (Exception e) {
+            log.warn("提示词向量化失败，跳过语义缓存查找", e);
+            return null;
+        }
+    }
+
+    private void deleteVector(String key) {
+        try {
+            indexWriter.deleteDocuments(new Term(FIELD_KEY, key));
+            searcherManager.maybeRefresh();
+        } catch (IOException e) {
+            log.warn("删除语义缓存向量失败: {}", key, e);
+        }
+    }
+
+    private void recordHit(Counter counter, CachedResponse response) {
+        counter.increment();
+        tokensSavedCounter.increment(response.totalTokens());
+        latencySavedTimer.record(Duration.ofMillis(response.generationMillis()));
+    }
+
+    private static String cacheKey(String modelId, String normalized) {
+        return modelId + "|" + normalized;
+    }
+
+    /**
+     * 缓存的生成结果
+     *
+     * @param diagramXml       生成的完整图表 XML
+     * @param text             模型的文字回复
+     * @param totalTokens      生成消耗的 token
+     * @param generationMillis 生成耗时
+     */
+    public record CachedResponse(String diagramXml, String text, long totalTokens, long generationMillis) {
+    }
+}
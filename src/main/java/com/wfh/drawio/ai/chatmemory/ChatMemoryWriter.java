@@ -0,0 +1,309 @@
+package com.wfh.drawio.ai.chatmemory;
+
+import com.wfh.drawio.model.entity.Conversion;
+import com.wfh.drawio.service.ConversionService;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import jakarta.annotation.Resource;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.dao.DataIntegrityViolationException;
+import org.springframework.stereotype.Component;
+
+import java.sql.SQLException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 对话记忆异步批量写入
+ * <p>
+ * AI 流式响应过程中产生的消息先进入内存队列，由单个写线程按入队顺序批量插入，
+ * 同一会话的消息按顺序落库，AI 流不再等待 MySQL。写入失败的批次留在队首退避重试；
+ * 整批多次失败或数据本身有问题（违反约束、超长等）时改为逐条写入，记录并丢弃写不进去的行，
+ * 连接类等暂时性错误则一直退避重试，直到成功或关闭。
+ * 队列满时由调用线程直接写库，同样跳过有问题的行，暂时性错误重试 {@link #MAX_RETRIES} 次后丢弃。
+ * 应用正常关闭时写线程先写完队列中剩余的消息再退出。
+ * <p>
+ * 消息的 id 与 createTime 在入队前已确定，尚未落库的消息可通过 {@link #pending} 读取。
+ *
+ * @author fenghuanwang
+ */
+@Component
+@Slf4j
+public class ChatMemoryWriter {
+
+    private static final int MAX_RETRIES = 3;
+
+    private static final long MAX_BACKOFF_MILLIS = TimeUnit.SECONDS.toMillis(5);
+
+    @Value("${drawio.chat-memory.queue-capacity:10000}")
+    private int queueCapacity;
+
+    @Value("${drawio.chat-memory.batch-size:500}")
+    private int batchSize;
+
+    @Value("${drawio.chat-memory.shutdown-timeout-ms:30000}")
+    private long shutdownTimeoutMillis;
+
+    @Resource
+    private ConversionService conversionService;
+
+    @Resource
+    private MeterRegistry meterRegistry;
+
+    private LinkedBlockingQueue<Conversion> queue;
+
+    /**
+     * 丢弃的消息数
+     */
+    private Counter droppedCounter;
+
+    /**
+     * 已出队、正在写库的批次，写入失败时保留到下次重试
+     */
+    private volatile List<Conversion> inFlight = List.of();
+
+    private volatile boolean running;
+
+    private Thread writerThread;
+
+    @PostConstruct
+    public void init() {
+        queue = new LinkedBlockingQueue<>(queueCapacity);
+        running = true;
+        writerThread = new Thread(this::runLoop, "chat-memory-writer");
+        writerThread.setDaemon(true);
+        writerThread.start();
+        Gauge.builder("drawio.chat-memory.pending", queue, LinkedBlockingQueue::size).register(meterRegistry);
+        droppedCounter = Counter.builder("drawio.chat-memory.dropped").register(meterRegistry);
+    }
+
+    /**
+     * 提交待写入的消息（同一会话的消息需由调用方按顺序提交）
+     *
+     * @param conversions 消息，id 与 createTime 已赋值
+     */
+    public void submit(List<Conversion> conversions) {
+        if (conversions.isEmpty()) {
+            return;
+        }
+        synchronized (this) {
+            // 整批入队，不与其他会话交错
+            if (running && queue.remainingCapacity() >= conversions.size()) {
+                queue.addAll(conversions);
+                notifyAll();
+                return;
+            }
+        }
+        // 队列满或已关闭时同步写入，不阻塞写线程上重试中的批次
+        if (running) {
+            log.warn("对话记忆写入队列已满，同步写入: {}", conversions.size());
+        }
+        write(conversions);
+    }
+
+    /**
+     * 某个图表尚未落库的消息
+     *
+     * @param diagramId 图表ID
+     * @return 按入队顺序
+     */
+    public synchronized List<Conversion> pending(Long diagramId) {
+        List<Conversion> result = new ArrayList<>();
+        for (Conversion conversion : inFlight) {
+            if (diagramId.equals(conversion.getDiagramId())) {
+                result.add(conversion);
+            }
+        }
+        for (Conversion conversion : queue) {
+            if (diagramId.equals(conversion.getDiagramId())) {
+                result.add(conversion);
+            }
+        }
+        return result;
+    }
+
+    /**
+     * 正常关闭：通知写线程写完剩余消息后退出
+     * <p>
+     * 剩余消息只由写线程写入，超时后写线程仍在写库时不另外写，避免与进行中的批次重复或乱序
+     */
+    @PreDestroy
+    public void destroy() throws InterruptedException {
+        synchronized (this) {
+            running = false;
+            notifyAll();
+        }
+        // 不中断 JDBC 调用
+        writerThread.join(shutdownTimeoutMillis);
+        if (writerThread.isAlive()) {
+            int unwritten;
+            synchronized (this) {
+                unwritten = inFlight.size() + queue.size();
+            }
+            log.error("对话记忆写线程 {} ms 内未结束，未落库消息: {}", shutdownTimeoutMillis, unwritten);
+        }
+    }
+
+    private void runLoop() {
+        int failures = 0;
+        boolean split = false;
+        while (true) {
+            List<Conversion> batch;
+            synchronized (this) {
+                while (running && queue.isEmpty() && inFlight.isEmpty()) {
+                    try {
+                        wait();
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                        return;
+                    }
+                }
+                if (inFlight.isEmpty()) {
+                    if (queue.isEmpty()) {
+                        // 已关闭且全部写完
+                        return;
+                    }
+                    // 出队与标记写入中在同一把锁内，pending 不会漏掉正在写的消息
+                    batch = new ArrayList<>(batchSize);
+                    queue.drainTo(batch, batchSize);
+                    inFlight = batch;
+                } else {
+                    // 上次写入失败的批次，先于队列中后来的消息重试
+                    batch = inFlight;
+                }
+            }
+            try {
+                if (split) {
+                    Deque<Conversion> rows = new ArrayDeque<>(batch);
+                    try {
+                        writeRows(rows);
+                    } finally {
+                        // 已写入或丢弃的行移出，重试时从出错的行继续
+                        synchronized (this) {
+                            inFlight = new ArrayList<>(rows);
+                        }
+                    }
+                } else {
+                    conversionService.saveBatch(batch);
+                }
+            } catch (Exception e) {
+                failures++;
+                if (!running && failures > MAX_RETRIES) {
+                    int unwritten;
+                    synchronized (this) {
+                        unwritten = inFlight.size() + queue.size();
+                    }
+                    log.error("关闭时对话记忆写入失败，未落库消息: {}", unwritten, e);
+                    return;
+                }
+                // 整批多次失败或数据本身有问题：改为逐条写入，找出写不进去的行
+                split = failures >= MAX_RETRIES || isDataError(e);
+                if (isDataError(e)) {
+                    // 整批回滚，逐条写入不需要等待
+                    log.warn("对话记忆批量写入数据异常，改为逐条写入: {}", e.getMessage());
+                    continue;
+                }
+                long backoff = Math.min(MAX_BACKOFF_MILLIS, 200L << Math.min(failures - 1, 5));
+                log.warn("对话记忆写入失败，{} ms 后第 {} 次重试", backoff, failures, e);
+                synchronized (this) {
+                    try {
+                        // 关闭时 notifyAll 提前唤醒
+                        wait(backoff);
+                    } catch (InterruptedException ie) {
+                        Thread.currentThread().interrupt();
+                        return;
+                    }
+                }
+                continue;
+            }
+            failures = 0;
+            split = false;
+            synchronized (this) {
+                inFlight = List.of();
+            }
+        }
+    }
+
+    /**
+     * 逐条写入：数据本身有问题的行记录后丢弃，遇到暂时性错误时抛出，未处理的行留在 rows 中
+     */
+    private void writeRows(Deque<Conversion> rows) {
+        while (!rows.isEmpty()) {
+            Conversion conversion = rows.peekFirst();
+            try {
+                conversionService.save(conversion);
+            } catch (Exception e) {
+                if (!isDataError(e)) {
+                    throw e;
+                }
+                droppedCounter.increment();
+                log.error("对话记忆写入失败，丢弃: id={}, diagramId={}", conversion.getId(), conversion.getDiagramId(), e);
+            }
+            rows.pollFirst();
+        }
+    }
+
+    /**
+     * 数据本身的问题（违反约束、超长、类型不符），重试不会成功；其余（连接、超时、死锁等）按暂时性错误重试
+     */
+    static boolean isDataError(Throwable e) {
+        for (Throwable cause = e; cause != null; cause = cause.getCause()) {
+            if (cause instanceof DataIntegrityViolationException) {
+                return true;
+            }
+            if (cause instanceof SQLException sqlException) {
+                // SQLState 22：数据异常，23：违反完整性约束
+                String sqlState = sqlException.getSQLState();
+                return sqlState != null && (sqlState.startsWith("22") || sqlState.startsWith("23"));
+            }
+        }
+        return false;
+    }
+
+    /**
+     * 队列满或已关闭时由调用线程同步写入：数据有问题的行跳过，暂时性错误重试 {@link #MAX_RETRIES} 次后丢弃，
+     * 不让请求线程无限等待
+     */
+    private void write(List<Conversion> batch) {
+        // 整批数据异常后改为逐条写入，rows 为尚未处理的行
+        Deque<Conversion> rows = null;
+        for (int attempt = 1; attempt <= MAX_RETRIES; attempt++) {
+            try {
+                if (rows == null) {
+                    conversionService.saveBatch(batch);
+                } else {
+                    writeRows(rows);
+                }
+                return;
+            } catch (Exception e) {
+                boolean dataError = rows == null && isDataError(e);
+                if (dataError) {
+                    rows = new ArrayDeque<>(batch);
+                }
+                if (attempt == MAX_RETRIES) {
+                    int unwritten = rows == null ? batch.size() : rows.size();
+                    droppedCounter.increment(unwritten);
+                    log.error("对话记忆写入失败，丢弃 {} 条消息", unwritten, e);
+                    return;
+                }
+                log.warn("对话记忆写入失败，重试第 {} 次", attempt, e);
+                if (dataError) {
+                    continue;
+                }
+                try {
+                    TimeUnit.MILLISECONDS.sleep(200L * attempt);
+                } catch (InterruptedException ie) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+        }
+    }
+}
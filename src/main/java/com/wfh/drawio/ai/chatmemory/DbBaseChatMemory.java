@@ -1,23 +1,39 @@
 package com.wfh.drawio.ai.chatmemory;
 
+import cn.hutool.core.util.IdUtil;
+import cn.hutool.json.JSONUtil;
 import com.baomidou.mybatisplus.core.conditions.query.QueryWrapper;
+import com.baomidou.mybatisplus.core.toolkit.IdWorker;
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.wfh.drawio.mapper.ConversionMapper;
 import com.wfh.drawio.model.entity.Conversion;
 import com.wfh.drawio.model.entity.Diagram;
 import com.wfh.drawio.service.ConversionService;
 import com.wfh.drawio.service.DiagramService;
+import jakarta.annotation.PostConstruct;
 import jakarta.annotation.Resource;
 import jakarta.validation.constraints.NotNull;
+import lombok.Data;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.ai.chat.memory.ChatMemory;
 import org.springframework.ai.chat.messages.AssistantMessage;
 import org.springframework.ai.chat.messages.Message;
 import org.springframework.ai.chat.messages.UserMessage;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.listener.ChannelTopic;
+import org.springframework.data.redis.listener.RedisMessageListenerContainer;
 import org.springframework.stereotype.Component;
-import org.springframework.transaction.annotation.Transactional;
 import org.springframework.util.StringUtils;
 
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.ArrayDeque;
 import java.util.ArrayList;
+import java.util.Date;
 import java.util.List;
+import java.util.Optional;
+import java.util.TreeMap;
 
 /**
  * @Title: DbBaseChatMemory
@@ -29,14 +45,79 @@ import java.util.List;
 @Component
 @Slf4j
 public class DbBaseChatMemory implements ChatMemory {
-    
-    
+
+    /**
+     * 默认读取的最近消息条数，也是内存窗口大小
+     */
+    private static final int WINDOW_SIZE = 20;
+
+    private static final int MAX_ACTIVE_CONVERSATIONS = 10_000;
+
+    private static final String CONVERSATION_ID_SEPARATOR = ":";
+
+    /**
+     * 窗口变更广播，其他节点据此追加或清除本地窗口
+     */
+    private static final String WINDOW_CHANNEL = "chat:memory:window";
+
+    /**
+     * 本节点标识，忽略自己发出的广播
+     */
+    private final String nodeId = IdUtil.fastSimpleUUID();
+
+    /**
+     * 活跃会话最近 {@link #WINDOW_SIZE} 条消息的环形缓冲，保存消息时同步追加，
+     * 热会话读取记忆不访问数据库；长时间不活跃的会话自动淘汰，下次读取时从库里加载最近一页。
+     * 追加与清除通过 Redis 广播到其他节点，消息随广播一起发送（发出节点可能尚未落库）
+     */
+    private final Cache<Long, MessageWindow> windowCache = Caffeine.newBuilder()
+            .maximumSize(MAX_ACTIVE_CONVERSATIONS)
+            .expireAfterAccess(Duration.ofMinutes(30))
+            .build();
+
     @Resource
     private ConversionService conversionService;
 
+    @Resource
+    private ConversionMapper conversionMapper;
+
     @Resource
     private DiagramService diagramService;
 
+    @Resource
+    private ChatMemoryWriter chatMemoryWriter;
+
+    @Resource
+    private StringRedisTemplate stringRedisTemplate;
+
+    @Resource
+    private RedisMessageListenerContainer redisMessageListenerContainer;
+
+    /**
+     * 会话ID只含图表ID（旧调用方式）时，图表所属用户的缓存
+     */
+    private final Cache<Long, Optional<Long>> ownerCache = Caffeine.newBuilder()
+            .maximumSize(MAX_ACTIVE_CONVERSATIONS)
+            .expireAfterWrite(Duration.ofMinutes(30))
+            .build();
+
+    @PostConstruct
+    public void init() {
+        redisMessageListenerContainer.addMessageListener((message, pattern) ->
+                onRemoteChange(new String(message.getBody(), StandardCharsets.UTF_8)), new ChannelTopic(WINDOW_CHANNEL));
+    }
+
+    /**
+     * 构建会话ID：图表ID:用户ID，写记忆时直接使用会话ID中的用户，不再查询图表
+     *
+     * @param diagramId 图表ID
+     * @param userId    图表所属用户ID（免费试用为空），与对话历史查询的过滤条件一致
+     * @return 会话ID
+     */
+    public static String conversationId(String diagramId, Long userId) {
+        return diagramId + CONVERSATION_ID_SEPARATOR + (userId == null ? "" : userId);
+    }
+
 
     /**
      * 加入消息
@@ -58,7 +139,7 @@ public class DbBaseChatMemory implements ChatMemory {
      */
     @Override
     public List<Message> get(String conversationId) {
-        return get(conversationId, 20);
+        return get(conversationId, WINDOW_SIZE);
     }
 
     /**
@@ -68,39 +149,39 @@ public class DbBaseChatMemory implements ChatMemory {
      * @return
      */
     public List<Message> get(String conversationId, int lastN) {
-        List<Message> messageList = getOrCreateConversation(conversationId);
-        int fromIndex = Math.max(0, messageList.size() - lastN);
-        return new ArrayList<>(messageList.subList(fromIndex, messageList.size()));
+        Long diagramId = parseDiagramId(conversationId);
+        if (diagramId == null || lastN <= 0) {
+            return new ArrayList<>();
+        }
+        if (lastN > WINDOW_SIZE) {
+            return toMessages(loadLatest(diagramId, lastN));
+        }
+        return windowCache.get(diagramId, id -> new MessageWindow(loadLatest(id, WINDOW_SIZE))).last(lastN);
     }
 
     /**
-     * 保存消息
-     * @param diagramId
+     * 保存消息：交给 {@link ChatMemoryWriter} 异步批量写库，并追加到已加载的窗口
+     * @param conversationId
      * @param messages
      */
-    @Transactional(rollbackFor = Exception.class)
-    public void saveConversation(String diagramId, List<Message> messages) {
-        Long id = Long.valueOf(diagramId);
-
-        // 只查询 userId 字段，避免加载整个 Diagram 对象
-        Diagram diagram = diagramService.lambdaQuery()
-                .select(Diagram::getUserId)
-                .eq(Diagram::getId, id)
-                .one();
-
-        if (diagram == null) {
-            log.error("对话不存在: {}", diagramId);
+    public void saveConversation(String conversationId, List<Message> messages) {
+        Long id = parseDiagramId(conversationId);
+        if (id == null) {
             return;
         }
-        Long userId = diagram.getUserId();
+        Long userId = resolveUserId(conversationId, id);
+        Date now = new Date();
 
         // 准备一个列表用于批量插入
         List<Conversion> batchList = new ArrayList<>(messages.size());
 
         for (Message message : messages) {
             Conversion conversion = new Conversion();
+            // 入队前确定 id 与时间，保证未落库的消息也能按顺序读取
+            conversion.setId(IdWorker.getId());
             conversion.setDiagramId(id);
             conversion.setUserId(userId);
+            conversion.setCreateTime(now);
             boolean needSave = false; // 标记是否生成了有效内容
 
             // 1. 处理 AI 消息
@@ -150,52 +231,222 @@ public class DbBaseChatMemory implements ChatMemory {
             }
         }
 
-        // 循环结束后，一次性批量插入
+        // 循环结束后，整批提交异步写入
         if (!batchList.isEmpty()) {
-            conversionService.saveBatch(batchList);
+            chatMemoryWriter.submit(batchList);
+            // 已加载的窗口同步追加；窗口正在加载时 computeIfPresent 会等加载完成，按 id 去重
+            windowCache.asMap().computeIfPresent(id, (key, window) -> window.append(batchList));
+            broadcast(id, batchList);
         }
     }
 
     /**
-     * 获取或创建消息
+     * 获取全部消息
      * @param conversationId
      * @return
      */
     public List<Message> getOrCreateConversation(String conversationId) {
         List<Conversion> conversions = conversionService.getBaseMapper().selectList(
                 new QueryWrapper<>(Conversion.class)
-                        .eq("diagramId", conversationId)
+                        .eq("diagramId", parseDiagramId(conversationId))
                         .orderByAsc("id")
         );
+        return toMessages(conversions);
+    }
+
+    /**
+     * 读取最近 limit 条消息（含尚未落库的），按写入顺序返回
+     */
+    private List<Conversion> loadLatest(Long diagramId, int limit) {
+        // 先取未落库的再查库：写入中的消息要么仍在 pending 中，要么已经提交
+        List<Conversion> pending = chatMemoryWriter.pending(diagramId);
+        TreeMap<Long, Conversion> merged = new TreeMap<>();
+        for (Conversion conversion : conversionMapper.selectLatestByDiagramId(diagramId, limit)) {
+            merged.put(conversion.getId(), conversion);
+        }
+        for (Conversion conversion : pending) {
+            merged.put(conversion.getId(), conversion);
+        }
+        List<Conversion> conversions = new ArrayList<>(merged.values());
+        return conversions.subList(Math.max(0, conversions.size() - limit), conversions.size());
+    }
+
+    /**
+     * 会话ID带用户ID时直接使用；旧格式（只有图表ID）查询图表所属用户
+     */
+    private Long resolveUserId(String conversationId, Long diagramId) {
+        int index = conversationId.indexOf(CONVERSATION_ID_SEPARATOR);
+        if (index >= 0) {
+            String userId = conversationId.substring(index + 1);
+            return userId.isEmpty() ? null : Long.valueOf(userId);
+        }
+        return ownerCache.get(diagramId, id -> {
+            // 只查询 userId 字段，避免加载整个 Diagram 对象
+            Diagram diagram = diagramService.lambdaQuery()
+                    .select(Diagram::getUserId)
+                    .eq(Diagram::getId, id)
+                    .one();
+            return Optional.ofNullable(diagram == null ? null : diagram.getUserId());
+        }).orElse(null);
+    }
+
+    private static List<Message> toMessages(List<Conversion> conversions) {
         List<Message> messageList = new ArrayList<>();
-        if (conversions != null && !conversions.isEmpty()) {
+        if (conversions != null) {
             for (Conversion conversion : conversions) {
-                String type = conversion.getMessageType();
-                String content = conversion.getMessage();
-                if (!StringUtils.hasText(content)) continue;
-
-                if ("user".equals(type)) {
-                    messageList.add(new UserMessage(content));
-                } else if ("ai".equals(type)) {
-                    messageList.add(new AssistantMessage(content));
+                Message message = toMessage(conversion);
+                if (message != null) {
+                    messageList.add(message);
                 }
             }
         }
         return messageList;
     }
 
+    private static Message toMessage(Conversion conversion) {
+        String type = conversion.getMessageType();
+        String content = conversion.getMessage();
+        if (!StringUtils.hasText(content)) {
+            return null;
+        }
+        if ("user".equals(type)) {
+            return new UserMessage(content);
+        } else if ("ai".equals(type)) {
+            return new AssistantMessage(content);
+        }
+        return null;
+    }
+
+    private static Long parseDiagramId(String conversationId) {
+        try {
+            int index = conversationId.indexOf(CONVERSATION_ID_SEPARATOR);
+            return Long.valueOf(index >= 0 ? conversationId.substring(0, index) : conversationId);
+        } catch (NumberFormatException e) {
+            log.warn("会话ID非法: {}", conversationId);
+            return null;
+        }
+    }
+
     /**
      * 清除消息
      * @param conversationId
      */
     @Override
     public void clear(String conversationId) {
-        try {
-            Long diagramId = Long.valueOf(conversationId);
+        Long diagramId = parseDiagramId(conversationId);
+        if (diagramId != null) {
             conversionService.getBaseMapper()
                     .delete(new QueryWrapper<Conversion>().eq("diagramId", diagramId));
-        } catch (NumberFormatException e) {
-            log.warn("无法清除会话，ID 非法: {}", conversationId);
+            windowCache.invalidate(diagramId);
+            broadcast(diagramId, null);
+        }
+    }
+
+    /**
+     * 广播窗口变更
+     *
+     * @param conversions 追加的消息，为空表示清除
+     */
+    private void broadcast(Long diagramId, List<Conversion> conversions) {
+        WindowChange change = new WindowChange();
+        change.setNodeId(nodeId);
+        change.setDiagramId(diagramId);
+        change.setConversions(conversions);
+        try {
+            stringRedisTemplate.convertAndSend(WINDOW_CHANNEL, JSONUtil.toJsonStr(change));
+        } catch (Exception e) {
+            // 本节点已更新，其他节点的窗口最迟在淘汰后重新加载
+            log.warn("广播对话记忆窗口变更失败: diagramId={}", diagramId, e);
+        }
+    }
+
+    /**
+     * 其他节点的窗口变更：本地已加载的窗口按 id 顺序追加；乱序（其他节点并发写同一会话）或清除时丢弃窗口，下次读取重新加载
+     */
+    void onRemoteChange(String body) {
+        WindowChange change;
+        try {
+            change = JSONUtil.toBean(body, WindowChange.class);
+        } catch (Exception e) {
+            log.warn("忽略无法解析的对话记忆窗口变更消息", e);
+            return;
+        }
+        if (nodeId.equals(change.getNodeId()) || change.getDiagramId() == null) {
+            return;
+        }
+        List<Conversion> conversions = change.getConversions();
+        if (conversions == null || conversions.isEmpty()) {
+            windowCache.invalidate(change.getDiagramId());
+            return;
+        }
+        windowCache.asMap().computeIfPresent(change.getDiagramId(),
+                (key, window) -> window.appendInOrder(conversions) ? window : null);
+    }
+
+    /**
+     * 窗口变更广播消息
+     */
+    @Data
+    static class WindowChange {
+
+        private String nodeId;
+
+        private Long diagramId;
+
+        /**
+         * 追加的消息，为空表示清除
+         */
+        private List<Conversion> conversions;
+    }
+
+    /**
+     * 单个会话的最近消息窗口，超出容量时丢弃最早的消息
+     */
+    static final class MessageWindow {
+
+        private final ArrayDeque<Conversion> conversions = new ArrayDeque<>(WINDOW_SIZE);
+
+        /**
+         * 窗口中最新一条消息的 id，追加时跳过不比它新的（加载时已包含）
+         */
+        private long lastId = Long.MIN_VALUE;
+
+        MessageWindow(List<Conversion> latest) {
+            append(latest);
+        }
+
+        synchronized MessageWindow append(List<Conversion> batch) {
+            for (Conversion conversion : batch) {
+                if (conversion.getId() == null || conversion.getId() <= lastId) {
+                    continue;
+                }
+                lastId = conversion.getId();
+                if (conversions.size() == WINDOW_SIZE) {
+                    conversions.pollFirst();
+                }
+                conversions.addLast(conversion);
+            }
+            return this;
+        }
+
+        /**
+         * 只在消息都比窗口中的新时追加
+         *
+         * @return 是否追加；否则窗口已不完整，调用方应丢弃
+         */
+        synchronized boolean appendInOrder(List<Conversion> batch) {
+            for (Conversion conversion : batch) {
+                if (conversion.getId() == null || conversion.getId() <= lastId) {
+                    return false;
+                }
+            }
+            append(batch);
+            return true;
+        }
+
+        synchronized List<Message> last(int n) {
+            List<Conversion> all = new ArrayList<>(conversions);
+            return toMessages(all.subList(Math.max(0, all.size() - n), all.size()));
         }
     }
 }
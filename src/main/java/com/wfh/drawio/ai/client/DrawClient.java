@@ -1,31 +1,50 @@
 package com.wfh.drawio.ai.client;
 
+import cn.hutool.crypto.digest.DigestUtil;
 import cn.hutool.json.JSONUtil;
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
 import com.wfh.drawio.ai.advisor.MyLoggerAdvisor;
+import com.wfh.drawio.ai.cache.SemanticResponseCache;
 import com.wfh.drawio.ai.chatmemory.DbBaseChatMemory;
 import com.wfh.drawio.ai.config.MultiModelFactory;
+import com.wfh.drawio.ai.model.EditConflict;
 import com.wfh.drawio.ai.model.StreamEvent;
 import org.springframework.ai.chat.client.advisor.vectorstore.QuestionAnswerAdvisor;
 import com.wfh.drawio.ai.tools.AppendDiagramTool;
 import com.wfh.drawio.ai.tools.CreateDiagramTool;
+import com.wfh.drawio.ai.tools.DiagramEditSession;
+import com.wfh.drawio.ai.tools.DiagramToolContext;
 import com.wfh.drawio.ai.tools.EditDiagramTool;
 import com.wfh.drawio.ai.utils.PromptUtil;
+import com.wfh.drawio.exception.VersionConflictException;
 import com.wfh.drawio.model.dto.diagram.CustomChatRequest;
 import com.wfh.drawio.service.DiagramService;
+import lombok.extern.slf4j.Slf4j;
 import org.jetbrains.annotations.NotNull;
 import org.springframework.ai.chat.client.ChatClient;
 import org.springframework.ai.chat.client.advisor.MessageChatMemoryAdvisor;
 import org.springframework.ai.chat.memory.ChatMemory;
-import org.springframework.ai.chat.model.ChatModel;
+import org.springframework.ai.chat.messages.AssistantMessage;
+import org.springframework.ai.chat.messages.UserMessage;
+import org.springframework.ai.chat.metadata.Usage;
 import org.springframework.ai.chat.model.ChatResponse;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.core.io.ClassPathResource;
-import org.springframework.core.io.Resource;
 import org.springframework.stereotype.Component;
 import reactor.core.publisher.Flux;
+import reactor.core.publisher.SignalType;
 import reactor.core.publisher.Sinks;
+import reactor.core.scheduler.Schedulers;
 
-import java.util.Objects;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
 
 /**
  * @Title: DrawClient
@@ -35,79 +54,101 @@ import java.util.Objects;
  * @description: 画图ai客户端
  */
 @Component
+@Slf4j
 public class DrawClient {
 
+    /**
+     * 自定义模型 client 缓存上限
+     */
+    private static final int CUSTOM_CLIENT_CACHE_SIZE = 256;
+
     private final MultiModelFactory multiModelFactory;
 
-    private final DbBaseChatMemory dbBaseChatMemory;
+    private final QuestionAnswerAdvisor questionAnswerAdvisor;
 
     private final DiagramService diagramService;
 
-    private final QuestionAnswerAdvisor questionAnswerAdvisor;
+    private final DbBaseChatMemory dbBaseChatMemory;
+
+    private final SemanticResponseCache semanticResponseCache;
+
+    /**
+     * 按模型ID缓存的 client，创建后不再变化
+     */
+    private final Map<String, ChatClient> chatClientCache = new ConcurrentHashMap<>();
+
+    /**
+     * 自定义模型 client，按 模型ID + 地址 + apiKey 摘要 缓存，长时间不用自动淘汰
+     */
+    private final Cache<String, ChatClient> customChatClientCache = Caffeine.newBuilder()
+            .maximumSize(CUSTOM_CLIENT_CACHE_SIZE)
+            .expireAfterAccess(Duration.ofMinutes(30))
+            .build();
+
+    /**
+     * 工具与 advisor 均无请求级状态，所有 client 共用
+     */
+    private final Object[] tools;
+
+    private final MyLoggerAdvisor loggerAdvisor = new MyLoggerAdvisor();
+
+    private final MessageChatMemoryAdvisor chatMemoryAdvisor;
+
+    /**
+     * XML 绘图指南，启动时读取一次
+     */
+    private final String xmlGuide;
 
     @Value("${spring.ai.openai.chat.options.model}")
     private String defaultModelId;
 
     public DrawClient(MultiModelFactory multiModelFactory, DbBaseChatMemory dbBaseChatMemory,
-                      DiagramService diagramService, QuestionAnswerAdvisor questionAnswerAdvisor) {
+                      DiagramService diagramService, QuestionAnswerAdvisor questionAnswerAdvisor,
+                      SemanticResponseCache semanticResponseCache) throws IOException {
         this.multiModelFactory = multiModelFactory;
-        this.dbBaseChatMemory = dbBaseChatMemory;
-        this.diagramService = diagramService;
         this.questionAnswerAdvisor = questionAnswerAdvisor;
+        this.diagramService = diagramService;
+        this.dbBaseChatMemory = dbBaseChatMemory;
+        this.semanticResponseCache = semanticResponseCache;
+        this.tools = new Object[]{new CreateDiagramTool(diagramService), new EditDiagramTool(diagramService),
+                new AppendDiagramTool(diagramService)};
+        this.chatMemoryAdvisor = MessageChatMemoryAdvisor.builder(dbBaseChatMemory).build();
+        this.xmlGuide = new ClassPathResource("/doc/xml_guide.md").getContentAsString(StandardCharsets.UTF_8);
     }
 
     /**
-     * 动态构建client
+     * 获取模型对应的 client（首次使用时构建）
      * @param modelId
      * @return
      */
-    private ChatClient createChatClient(String modelId, String diagramId, Sinks.Many<StreamEvent> sink){
-        Resource cpRes = new ClassPathResource("/doc/xml_guide.md");
-        String targetModelId = (modelId == null || modelId.isEmpty()) ? defaultModelId : modelId;
-        ChatModel chatModel = multiModelFactory.getChatModel(targetModelId);
-        
-        // 实例化带有上下文的工具
-        CreateDiagramTool createTool = new CreateDiagramTool(diagramService, diagramId, sink);
-        EditDiagramTool editTool = new EditDiagramTool(diagramService, diagramId, sink);
-        AppendDiagramTool appendTool = new AppendDiagramTool(diagramService, diagramId, sink);
-
-        return ChatClient.builder(chatModel)
-                .defaultTools(createTool)
-                .defaultTools(editTool)
-                .defaultTools(appendTool)
-                .defaultSystem(cpRes)
-                .defaultSystem(PromptUtil.getSystemPrompt(targetModelId, true))
-                .defaultAdvisors(new MyLoggerAdvisor())
-                .defaultAdvisors(MessageChatMemoryAdvisor.builder(dbBaseChatMemory).build())
-                .defaultAdvisors(questionAnswerAdvisor)
-                .build();
+    ChatClient getChatClient(String modelId){
+        return chatClientCache.computeIfAbsent(resolveModelId(modelId), id -> ChatClient.builder(multiModelFactory.getChatModel(id))
+                .defaultTools(tools)
+                .defaultSystem(xmlGuide)
+                .defaultSystem(PromptUtil.getSystemPrompt(id, true))
+                .defaultAdvisors(loggerAdvisor, chatMemoryAdvisor, questionAnswerAdvisor)
+                .build());
+    }
+
+    private String resolveModelId(String modelId) {
+        return (modelId == null || modelId.isEmpty()) ? defaultModelId : modelId;
     }
 
     /**
-     * 创建自定义的client
+     * 获取自定义模型的 client
      *
      * @param modelId
      * @param apiKey
      * @param baseUrl
      * @return
      */
-    private ChatClient createCustomChatClient(String modelId, String apiKey, String baseUrl, String diagramId, Sinks.Many<StreamEvent> sink) {
-        ChatModel customModel = multiModelFactory.getCustomModel(modelId, apiKey, baseUrl);
-        
-        // 实例化带有上下文的工具
-        CreateDiagramTool createTool = new CreateDiagramTool(diagramService, diagramId, sink);
-        EditDiagramTool editTool = new EditDiagramTool(diagramService, diagramId, sink);
-        AppendDiagramTool appendTool = new AppendDiagramTool(diagramService, diagramId, sink);
-
-        return ChatClient.builder(customModel)
-                .defaultTools(createTool)
-                .defaultTools(editTool)
-                .defaultTools(appendTool)
+    private ChatClient getCustomChatClient(String modelId, String apiKey, String baseUrl) {
+        String cacheKey = modelId + "|" + baseUrl + "|" + DigestUtil.sha256Hex(String.valueOf(apiKey));
+        return customChatClientCache.get(cacheKey, key -> ChatClient.builder(multiModelFactory.getCustomModel(modelId, apiKey, baseUrl))
+                .defaultTools(tools)
                 .defaultSystem(PromptUtil.getSystemPrompt(modelId, true))
-                .defaultAdvisors(new MyLoggerAdvisor())
-                .defaultAdvisors(MessageChatMemoryAdvisor.builder(dbBaseChatMemory).build())
-                .defaultAdvisors(questionAnswerAdvisor)
-                .build();
+                .defaultAdvisors(loggerAdvisor, chatMemoryAdvisor, questionAnswerAdvisor)
+                .build());
     }
 
     /**
@@ -116,15 +157,21 @@ public class DrawClient {
      * @return
      */
     public String doChat(String message, String diagramId, String modelId){
-        ChatClient chatClient = createChatClient(modelId, diagramId, null);
-        ChatResponse chatResponse = chatClient
-                .prompt()
-                .user(message)
-                .advisors(spec -> spec.param(ChatMemory.CONVERSATION_ID, diagramId))
-                .call()
-                .chatResponse();
-        String text = chatResponse.getResult().getOutput().getText();
-        return text;
+        ChatClient chatClient = getChatClient(modelId);
+        DiagramEditSession editSession = openEditSession(diagramId);
+        try {
+            ChatResponse chatResponse = chatClient
+                    .prompt()
+                    .user(message)
+                    .toolContext(DiagramToolContext.of(diagramId, null, editSession))
+                    .advisors(spec -> spec.param(ChatMemory.CONVERSATION_ID, diagramId))
+                    .call()
+                    .chatResponse();
+            String text = chatResponse.getResult().getOutput().getText();
+            return text;
+        } finally {
+            flushEditSession(editSession);
+        }
     }
 
 
@@ -132,22 +179,30 @@ public class DrawClient {
      * 调用工具流式对话
      * @param message
      * @param diagramId
+     * @param userId 图表所属用户（写入对话记忆，免费试用为空）
      * @return
      */
-    public Flux<String> doChatStream(String message, String diagramId, String modelId) {
+    public Flux<String> doChatStream(String message, String diagramId, String modelId, Long userId) {
         // 1. 创建旁路管道
         Sinks.Many<StreamEvent> sideChannelSink = Sinks.many().unicast().onBackpressureBuffer();
-        ChatClient chatClient = createChatClient(modelId, diagramId, sideChannelSink);
-        return getStringFlux(message, diagramId, chatClient, sideChannelSink);
+        String targetModelId = resolveModelId(modelId);
+        ChatClient chatClient = getChatClient(targetModelId);
+        if (!semanticResponseCache.isEnabled() || diagramId == null) {
+            return getStringFlux(message, diagramId, userId, null, chatClient, sideChannelSink);
+        }
+        // 查缓存要读图表、向量化提示词，放到弹性线程上，不阻塞请求线程
+        return Flux.defer(() -> getStringFlux(message, diagramId, userId, targetModelId, chatClient, sideChannelSink))
+                .subscribeOn(Schedulers.boundedElastic());
     }
 
     /**
      * 自定义模型流式响应
      *
      * @param request
+     * @param userId 图表所属用户
      * @return
      */
-    public Flux<String> doCustomChatStream(CustomChatRequest request) {
+    public Flux<String> doCustomChatStream(CustomChatRequest request, Long userId) {
         String message = request.getMessage();
         String diagramId = request.getDiagramId();
         String modelId = request.getModelId();
@@ -156,8 +211,9 @@ public class DrawClient {
         
         // 1. 创建旁路管道
         Sinks.Many<StreamEvent> sideChannelSink = Sinks.many().unicast().onBackpressureBuffer();
-        ChatClient customChatClient = createCustomChatClient(modelId, apiKey, baseUrl, diagramId, sideChannelSink);
-        return getStringFlux(message, diagramId, customChatClient, sideChannelSink);
+        ChatClient customChatClient = getCustomChatClient(modelId, apiKey, baseUrl);
+        // 自定义模型不走语义缓存
+        return getStringFlux(message, diagramId, userId, null, customChatClient, sideChannelSink);
     }
 
     /**
@@ -165,28 +221,182 @@ public class DrawClient {
      *
      * @param message
      * @param diagramId
+     * @param userId
+     * @param cacheModelId 参与语义缓存的模型ID，为空时不使用缓存
      * @param chatClient
      * @return
      */
     @NotNull
-    private Flux<String> getStringFlux(String message, String diagramId, ChatClient chatClient, Sinks.Many<StreamEvent> sideChannelSink) {
-        // 2. 将管道转换为流，并处理 JSON 序列化
+    private Flux<String> getStringFlux(String message, String diagramId, Long userId, String cacheModelId,
+                                       ChatClient chatClient, Sinks.Many<StreamEvent> sideChannelSink) {
+        String conversationId = DbBaseChatMemory.conversationId(diagramId, userId);
+        // 1. 本次对话的图表工作副本，多次工具调用共用，对话结束时统一保存
+        DiagramEditSession editSession = openEditSession(diagramId);
+        // 2. 空白图表上、没有对话历史的需求才走语义缓存：已有内容时提示词是在修改当前图表，
+        //    有历史时回复依赖上下文，缓存键只含提示词，不能跨用户复用
+        boolean cacheable = cacheModelId != null && editSession != null && isBlank(editSession)
+                && dbBaseChatMemory.get(conversationId, 1).isEmpty();
+        if (cacheable) {
+            SemanticResponseCache.CachedResponse cached = semanticResponseCache.get(cacheModelId, message);
+            if (cached != null) {
+                Flux<String> replay = replayCached(cached, message, conversationId, editSession);
+                if (replay != null) {
+                    return replay;
+                }
+            }
+        }
+        // 3. 将管道转换为流，并处理 JSON 序列化
         Flux<String> toolLogFlux = sideChannelSink.asFlux()
                 .map(JSONUtil::toJsonStr);
-        // 3. AI 主回复流
+        StringBuilder replyText = new StringBuilder();
+        AtomicLong totalTokens = new AtomicLong();
+        long startNanos = System.nanoTime();
+        // 4. AI 主回复流
         Flux<String> aiResFlux = chatClient.prompt()
                 .user(message)
-                .advisors(advisorSpec -> advisorSpec.param(ChatMemory.CONVERSATION_ID, diagramId))
+                .toolContext(DiagramToolContext.of(diagramId, sideChannelSink, editSession))
+                .advisors(advisorSpec -> advisorSpec.param(ChatMemory.CONVERSATION_ID, conversationId))
                 .stream()
-                .content()
-                .filter(Objects::nonNull)
+                .chatResponse()
+                // 用量是截至当前的累计值
+                .doOnNext(response -> totalTokens.accumulateAndGet(totalTokensOf(response), Math::max))
+                .mapNotNull(DrawClient::textOf)
+                .doOnNext(text -> {
+                    if (cacheable) {
+                        replyText.append(text);
+                    }
+                })
                 .map(text -> JSONUtil.toJsonStr(StreamEvent.builder()
                         .type("text")
                         .content(text)
                         .build()))
-                // 当 AI 流结束时，关闭旁路管道。这是 Flux.merge 能结束的关键。
-                .doOnTerminate(sideChannelSink::tryEmitComplete);
-        // 4. 合并流 (不再需要注入上下文)
+                // 当 AI 流结束时，先保存工具的修改（失败时经旁路管道通知前端），再关闭旁路管道。这是 Flux.merge 能结束的关键。
+                .doOnTerminate(() -> {
+                    finishEditSession(editSession, sideChannelSink);
+                    sideChannelSink.tryEmitComplete();
+                })
+                .doOnComplete(() -> {
+                    if (cacheable) {
+                        cacheResult(cacheModelId, message, editSession, replyText.toString(), totalTokens.get(),
+                                TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startNanos));
+                    }
+                })
+                // 客户端断开时没有 terminate 信号，同样保存工具的修改
+                .doFinally(signal -> {
+                    if (signal == SignalType.CANCEL) {
+                        flushEditSession(editSession);
+                    }
+                });
+        // 5. 合并流 (图表ID与旁路管道已通过 toolContext 传给工具)
         return Flux.merge(toolLogFlux, aiResFlux);
     }
+
+    /**
+     * 命中缓存：直接写入缓存的图表并推送，不调用模型
+     *
+     * @return 推送内容；写入图表失败时返回 null，改为正常调用模型
+     */
+    private Flux<String> replayCached(SemanticResponseCache.CachedResponse cached, String message, String conversationId,
+                                      DiagramEditSession editSession) {
+        try {
+            if (!editSession.replace(cached.diagramXml())) {
+                return null;
+            }
+            editSession.flush();
+        } catch (Exception e) {
+            log.warn("写入缓存的图表失败，改为调用模型", e);
+            return null;
+        }
+        // 没有经过对话记忆 advisor，手动补上这一轮
+        dbBaseChatMemory.add(conversationId, List.of(new UserMessage(message), new AssistantMessage(cached.text())));
+        return Flux.just(
+                JSONUtil.toJsonStr(StreamEvent.builder().type("tool_call_result").content(cached.diagramXml()).build()),
+                JSONUtil.toJsonStr(StreamEvent.builder().type("text").content(cached.text()).build()));
+    }
+
+    /**
+     * 只缓存在空白图表上一次生成出图表的结果
+     */
+    private void cacheResult(String modelId, String message, DiagramEditSession editSession, String text,
+                             long totalTokens, long generationMillis) {
+        try {
+            if (editSession.cellCount() == 0) {
+                return;
+            }
+            String diagramXml = editSession.toXml();
+            if (totalTokens <= 0) {
+                // 提供方未返回用量时按输出字符粗略估算
+                totalTokens = (diagramXml.length() + text.length()) / 4;
+            }
+            semanticResponseCache.put(modelId, message,
+                    new SemanticResponseCache.CachedResponse(diagramXml, text, totalTokens, generationMillis));
+        } catch (Exception e) {
+            log.warn("写入语义缓存失败", e);
+        }
+    }
+
+    private static boolean isBlank(DiagramEditSession editSession) {
+        try {
+            return editSession.load() && editSession.cellCount() == 0;
+        } catch (Exception e) {
+            return false;
+        }
+    }
+
+    private static String textOf(ChatResponse response) {
+        return response.getResult() == null ? null : response.getResult().getOutput().getText();
+    }
+
+    private static long totalTokensOf(ChatResponse response) {
+        Usage usage = response.getMetadata() == null ? null : response.getMetadata().getUsage();
+        Integer total = usage == null ? null : usage.getTotalTokens();
+        return total == null ? 0 : total;
+    }
+
+    private DiagramEditSession openEditSession(String diagramId) {
+        return diagramId == null ? null : new DiagramEditSession(diagramService, diagramId, true);
+    }
+
+    /**
+     * 流式对话结束时保存工具的修改
+     * <p>
+     * 工具的修改已作为 tool_call_result 推送给前端，保存失败时推送 conflict / error 事件：
+     * 版本冲突时携带最新版本号与 AI 修改后的图表，由前端合并后重新保存
+     */
+    private void finishEditSession(DiagramEditSession editSession, Sinks.Many<StreamEvent> sideChannelSink) {
+        if (editSession == null) {
+            return;
+        }
+        try {
+            editSession.flush();
+        } catch (VersionConflictException e) {
+            String diagramXml;
+            try {
+                diagramXml = editSession.toXml();
+            } catch (Exception ex) {
+                diagramXml = null;
+            }
+            sideChannelSink.tryEmitNext(StreamEvent.builder()
+                    .type("conflict")
+                    .content(new EditConflict(e.getLatestVersion(), diagramXml))
+                    .build());
+        } catch (Exception e) {
+            log.warn("保存 AI 对话中的图表修改失败", e);
+            sideChannelSink.tryEmitNext(StreamEvent.builder()
+                    .type("error")
+                    .content("保存图表失败: " + e.getMessage())
+                    .build());
+        }
+    }
+
+    private void flushEditSession(DiagramEditSession editSession) {
+        if (editSession == null) {
+            return;
+        }
+        try {
+            editSession.flush();
+        } catch (Exception e) {
+            log.warn("保存 AI 对话中的图表修改失败", e);
+        }
+    }
 }
@@ -27,5 +27,10 @@ public class AiModelsProperties {
         private String apiKey;
 
         private String model;
+
+        /**
+         * 对冲请求的备用模型ID，为空时不对冲
+         */
+        private String hedgeModel;
     }
 }
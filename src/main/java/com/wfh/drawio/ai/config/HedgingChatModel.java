@@ -0,0 +1,343 @@
+package com.wfh.drawio.ai.config;
+
+import io.micrometer.core.instrument.Counter;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.ai.chat.metadata.Usage;
+import org.springframework.ai.chat.model.ChatModel;
+import org.springframework.ai.chat.model.ChatResponse;
+import org.springframework.ai.chat.prompt.ChatOptions;
+import org.springframework.ai.chat.prompt.Prompt;
+import org.springframework.ai.model.tool.ToolCallingChatOptions;
+import org.springframework.ai.openai.OpenAiChatOptions;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import reactor.core.publisher.Sinks;
+import reactor.core.scheduler.Schedulers;
+
+import java.time.Duration;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.BiConsumer;
+import java.util.function.Supplier;
+
+/**
+ * 带路由与对冲请求的 ChatModel
+ * <p>
+ * 记录每个模型首个响应的耗时与错误率。主模型错误率过高时优先使用备用模型；
+ * 配置了备用模型时，首选模型在其 p95 耗时内仍无响应（或直接失败）则并行请求备用模型，
+ * 先产生结果的一路胜出，另一路被取消。
+ * <p>
+ * "产生结果"包括首个输出和首次工具调用：工具在输出内容之前就会修改图表，
+ * 因此每一路的 toolContext 中带有 {@link #HEDGE_ATTEMPT}，工具执行前调用 {@link #claim} 抢占，
+ * 落后的一路不会再改动图表。
+ * <p>
+ * 每一路（包括落后被取消的一路）响应元数据中的 token 用量交给 usageRecorder 计量。
+ * <p>
+ * 备用模型只在首次使用时创建一次，创建失败（如 hedge-model 配置有误）时记录日志，之后不再对冲。
+ *
+ * @author fenghuanwang
+ */
+@Slf4j
+public class HedgingChatModel implements ChatModel {
+
+    /**
+     * toolContext 中当前请求路的 key
+     */
+    public static final String HEDGE_ATTEMPT = "hedgeAttempt";
+
+    private final Route primary;
+
+    private final Supplier<Route> backupSupplier;
+
+    private final Policy policy;
+
+    private final Counter hedgeCounter;
+
+    private final Counter backupWinCounter;
+
+    private final BiConsumer<String, Usage> usageRecorder;
+
+    private volatile Route backup;
+
+    private volatile boolean backupResolved;
+
+    /**
+     * @param primary        主模型
+     * @param backupSupplier 备用模型（可空，首次对冲时才创建）
+     * @param policy         对冲与路由参数
+     * @param hedgeCounter   启动备用请求次数
+     * @param backupWinCounter 备用请求胜出次数
+     * @param usageRecorder  按模型ID记录 token 用量
+     */
+    public HedgingChatModel(Route primary, Supplier<Route> backupSupplier, Policy policy,
+                            Counter hedgeCounter, Counter backupWinCounter, BiConsumer<String, Usage> usageRecorder) {
+        this.primary = primary;
+        this.backupSupplier = backupSupplier;
+        this.policy = policy;
+        this.hedgeCounter = hedgeCounter;
+        this.backupWinCounter = backupWinCounter;
+        this.usageRecorder = usageRecorder;
+    }
+
+    /**
+     * 工具执行前抢占：非对冲请求或本路已胜出时返回 true
+     *
+     * @param toolContext 工具上下文
+     * @return 本路是否可以继续修改
+     */
+    public static boolean claim(Map<String, Object> toolContext) {
+        Object attempt = toolContext == null ? null : toolContext.get(HEDGE_ATTEMPT);
+        return !(attempt instanceof Attempt a) || a.claim();
+    }
+
+    @Override
+    public ChatOptions getDefaultOptions() {
+        return primary.model().getDefaultOptions();
+    }
+
+    @Override
+    public ChatResponse call(Prompt prompt) {
+        Route[] routes = order();
+        Race race = new Race(routes);
+        Mono<ChatResponse> first = callAttempt(race, 0, prompt);
+        if (routes[1] == null) {
+            return first.block();
+        }
+        Mono<ChatResponse> second = hedgeTrigger(race).then(Mono.defer(() -> callAttempt(race, 1, prompt)));
+        return Mono.firstWithValue(first, second).doOnNext(r -> recordWinner(race)).block();
+    }
+
+    @Override
+    public Flux<ChatResponse> stream(Prompt prompt) {
+        Route[] routes = order();
+        Race race = new Race(routes);
+        Flux<ChatResponse> first = Flux.defer(() -> streamAttempt(race, 0, prompt));
+        if (routes[1] == null) {
+            return first;
+        }
+        Flux<ChatResponse> second = hedgeTrigger(race).thenMany(Flux.defer(() -> streamAttempt(race, 1, prompt)));
+        return Flux.firstWithValue(first, second).doOnComplete(() -> recordWinner(race));
+    }
+
+    /**
+     * 首选模型在对冲延迟内没有结果，或已失败时触发备用请求
+     */
+    private Mono<Void> hedgeTrigger(Race race) {
+        Duration delay = hedgeDelay(race.routes[0].health());
+        return Mono.firstWithSignal(Mono.delay(delay).then(), race.failed(0))
+                .then(Mono.defer(() -> {
+                    if (race.decided()) {
+                        // 首选已胜出，不再请求备用
+                        return Mono.never();
+                    }
+                    hedgeCounter.increment();
+                    return Mono.<Void>empty();
+                }));
+    }
+
+    private Mono<ChatResponse> callAttempt(Race race, int index, Prompt prompt) {
+        Route route = race.routes[index];
+        Prompt attemptPrompt = withAttempt(prompt, race, index);
+        return Mono.fromCallable(() -> {
+                    race.start(index);
+                    return route.model().call(attemptPrompt);
+                })
+                .subscribeOn(Schedulers.boundedElastic())
+                .doOnNext(response -> usageRecorder.accept(route.modelId(), usageOf(response)))
+                .filter(response -> race.claim(index))
+                .takeUntilOther(race.lostBy(index))
+                .doOnError(e -> race.fail(index));
+    }
+
+    private Flux<ChatResponse> streamAttempt(Race race, int index, Prompt prompt) {
+        Route route = race.routes[index];
+        race.start(index);
+        // 流式响应中的用量是截至当前的累计值（含工具调用的前几轮），结束时取最大的一次
+        AtomicReference<Usage> usage = new AtomicReference<>();
+        Runnable recordUsage = () -> usageRecorder.accept(route.modelId(), usage.getAndSet(null));
+        return route.model().stream(withAttempt(prompt, race, index))
+                .doOnNext(response -> usage.accumulateAndGet(usageOf(response), HedgingChatModel::larger))
+                // 先于下游收到结束信号记录，只记一次
+                .doOnTerminate(recordUsage)
+                .doOnCancel(recordUsage)
+                // 另一路已抢占时丢弃本路输出
+                .filter(response -> race.claim(index))
+                .takeUntilOther(race.lostBy(index))
+                .doOnError(e -> race.fail(index));
+    }
+
+    private static Usage usageOf(ChatResponse response) {
+        return response == null || response.getMetadata() == null ? null : response.getMetadata().getUsage();
+    }
+
+    private static Usage larger(Usage current, Usage candidate) {
+        if (candidate == null || candidate.getTotalTokens() == null) {
+            return current;
+        }
+        if (current == null || current.getTotalTokens() == null) {
+            return candidate;
+        }
+        return candidate.getTotalTokens() >= current.getTotalTokens() ? candidate : current;
+    }
+
+    /**
+     * 主模型错误率过高且备用更健康时，本次先请求备用模型
+     */
+    private Route[] order() {
+        Route backup = backup();
+        if (backup != null && primary.health().getErrorRate() > policy.maxErrorRate()
+                && backup.health().getErrorRate() < primary.health().getErrorRate()) {
+            return new Route[]{backup, primary};
+        }
+        return new Route[]{primary, backup};
+    }
+
+    private Route backup() {
+        if (!backupResolved) {
+            synchronized (this) {
+                if (!backupResolved) {
+                    try {
+                        backup = backupSupplier == null ? null : backupSupplier.get();
+                    } catch (RuntimeException e) {
+                        log.warn("模型 [{}] 的备用模型不可用，不再对冲", primary.modelId(), e);
+                    }
+                    backupResolved = true;
+                }
+            }
+        }
+        return backup;
+    }
+
+    private Duration hedgeDelay(ModelHealth health) {
+        long p95 = health.p95(policy.minSamples());
+        long millis = p95 < 0 ? policy.maxDelayMillis()
+                : Math.max(policy.minDelayMillis(), Math.min(policy.maxDelayMillis(), p95));
+        return Duration.ofMillis(millis);
+    }
+
+    private void recordWinner(Race race) {
+        if (race.winner.get() >= 0 && race.routes[race.winner.get()] != primary) {
+            backupWinCounter.increment();
+        }
+    }
+
+    /**
+     * 每一路使用自己的 toolContext；请求的不是本模型时改用本模型的模型名
+     */
+    private Prompt withAttempt(Prompt prompt, Race race, int index) {
+        if (!(prompt.getOptions() instanceof ToolCallingChatOptions options)) {
+            return prompt;
+        }
+        ToolCallingChatOptions copy = options.copy();
+        Map<String, Object> toolContext = new HashMap<>();
+        if (copy.getToolContext() != null) {
+            toolContext.putAll(copy.getToolContext());
+        }
+        toolContext.put(HEDGE_ATTEMPT, new Attempt(race, index));
+        copy.setToolContext(toolContext);
+        Route route = race.routes[index];
+        if (route != primary && copy instanceof OpenAiChatOptions openAiOptions
+                && route.model().getDefaultOptions() != null) {
+            openAiOptions.setModel(route.model().getDefaultOptions().getModel());
+        }
+        return new Prompt(prompt.getInstructions(), copy);
+    }
+
+    /**
+     * 参与路由的模型
+     *
+     * @param modelId 模型ID
+     * @param model   实际调用的模型
+     * @param health  健康统计
+     */
+    public record Route(String modelId, ChatModel model, ModelHealth health) {
+    }
+
+    /**
+     * 对冲与路由参数
+     *
+     * @param minDelayMillis 对冲延迟下限
+     * @param maxDelayMillis 对冲延迟上限（样本不足时使用）
+     * @param minSamples     按 p95 计算延迟所需的最少样本
+     * @param maxErrorRate   错误率超过该值时优先使用备用模型
+     */
+    public record Policy(long minDelayMillis, long maxDelayMillis, int minSamples, double maxErrorRate) {
+    }
+
+    /**
+     * 某一路请求的抢占句柄
+     */
+    static final class Attempt {
+        private final Race race;
+        private final int index;
+
+        Attempt(Race race, int index) {
+            this.race = race;
+            this.index = index;
+        }
+
+        boolean claim() {
+            return race.claim(index);
+        }
+    }
+
+    /**
+     * 一次请求中各路的竞争状态
+     */
+    static final class Race {
+        private final Route[] routes;
+        private final long[] startNanos = new long[2];
+        private final boolean[] failedFlags = new boolean[2];
+        private final AtomicInteger winner = new AtomicInteger(-1);
+        private final Sinks.One<Integer> decided = Sinks.one();
+        @SuppressWarnings("unchecked")
+        private final Sinks.Empty<Void>[] failed = new Sinks.Empty[]{Sinks.empty(), Sinks.empty()};
+
+        Race(Route[] routes) {
+            this.routes = routes;
+        }
+
+        void start(int index) {
+            startNanos[index] = System.nanoTime();
+        }
+
+        boolean claim(int index) {
+            if (winner.compareAndSet(-1, index)) {
+                long now = System.nanoTime();
+                routes[index].health().recordSuccess(TimeUnit.NANOSECONDS.toMillis(now - startNanos[index]));
+                if (index == 1 && !failedFlags[0]) {
+                    // 首选被备用超过：已等待的时间不短于对冲延迟，计入首选的耗时窗口。
+                    // 落后的备用启动较晚，已等待的时间不能代表它的耗时，不计入
+                    routes[0].health().recordTimeout(TimeUnit.NANOSECONDS.toMillis(now - startNanos[0]));
+                }
+                decided.tryEmitValue(index);
+                return true;
+            }
+            return winner.get() == index;
+        }
+
+        boolean decided() {
+            return winner.get() >= 0;
+        }
+
+        void fail(int index) {
+            failedFlags[index] = true;
+            routes[index].health().recordFailure();
+            failed[index].tryEmitEmpty();
+        }
+
+        Mono<Void> failed(int index) {
+            return failed[index].asMono();
+        }
+
+        /**
+         * 另一路胜出时发出信号；本路胜出时永不发出
+         */
+        Mono<Integer> lostBy(int index) {
+            return decided.asMono().flatMap(w -> w != index ? Mono.just(w) : Mono.never());
+        }
+    }
+}
@@ -0,0 +1,92 @@
+package com.wfh.drawio.ai.config;
+
+import java.util.Arrays;
+
+/**
+ * 单个模型的健康统计
+ * <p>
+ * 首个响应耗时的指数加权均值与最近 {@link #WINDOW_SIZE} 次的 p95，以及错误率的指数加权均值，
+ * 供路由判断是否绕开该模型、对冲请求何时启动备用模型。
+ * <p>
+ * 被备用模型超过而取消的请求没有真实耗时，按已等待的时间（真实耗时的下限）计入窗口，
+ * 否则只有快的请求留下样本，p95 越算越低、对冲越来越频繁。
+ *
+ * @author fenghuanwang
+ */
+public class ModelHealth {
+
+    static final int WINDOW_SIZE = 200;
+
+    private static final double ALPHA = 0.2;
+
+    private final long[] window = new long[WINDOW_SIZE];
+
+    private int samples;
+
+    private int next;
+
+    private double latencyEwmaMillis;
+
+    private double errorRate;
+
+    private long timeouts;
+
+    /**
+     * 记录一次成功及其首个响应耗时
+     */
+    public synchronized void recordSuccess(long latencyMillis) {
+        recordLatency(latencyMillis);
+        errorRate = (1 - ALPHA) * errorRate;
+    }
+
+    /**
+     * 记录一次被对冲请求超过而取消的请求，已等待的时间计入耗时，不计为失败
+     *
+     * @param elapsedMillis 取消时已等待的时间
+     */
+    public synchronized void recordTimeout(long elapsedMillis) {
+        recordLatency(elapsedMillis);
+        timeouts++;
+    }
+
+    private void recordLatency(long latencyMillis) {
+        window[next] = latencyMillis;
+        next = (next + 1) % WINDOW_SIZE;
+        samples++;
+        latencyEwmaMillis = samples == 1 ? latencyMillis : ALPHA * latencyMillis + (1 - ALPHA) * latencyEwmaMillis;
+    }
+
+    /**
+     * 记录一次失败
+     */
+    public synchronized void recordFailure() {
+        errorRate = ALPHA + (1 - ALPHA) * errorRate;
+    }
+
+    /**
+     * 最近窗口内首个响应耗时的 p95
+     *
+     * @param minSamples 样本不足时返回 -1
+     */
+    public synchronized long p95(int minSamples) {
+        int size = Math.min(samples, WINDOW_SIZE);
+        if (size == 0 || size < minSamples) {
+            return -1;
+        }
+        long[] sorted = Arrays.copyOf(window, size);
+        Arrays.sort(sorted);
+        return sorted[(int) Math.ceil(size * 0.95) - 1];
+    }
+
+    public synchronized double getLatencyEwmaMillis() {
+        return latencyEwmaMillis;
+    }
+
+    public synchronized double getErrorRate() {
+        return errorRate;
+    }
+
+    public synchronized long getTimeouts() {
+        return timeouts;
+    }
+}
@@ -1,11 +1,23 @@
 package com.wfh.drawio.ai.config;
 
+import cn.hutool.crypto.digest.DigestUtil;
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.wfh.drawio.manager.AiUsageManager;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import lombok.extern.slf4j.Slf4j;
+import org.apache.commons.lang3.StringUtils;
 import org.springframework.ai.chat.model.ChatModel;
 import org.springframework.ai.openai.OpenAiChatModel;
 import org.springframework.ai.openai.OpenAiChatOptions;
 import org.springframework.ai.openai.api.OpenAiApi;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Component;
 
+import java.time.Duration;
 import java.util.Map;
 import java.util.concurrent.ConcurrentHashMap;
 
@@ -17,52 +29,125 @@ import java.util.concurrent.ConcurrentHashMap;
  * @description:
  */
 @Component
+@Slf4j
 public class MultiModelFactory {
 
     private final Map<String, ChatModel> modelCache = new ConcurrentHashMap<>();
 
+    /**
+     * 按模型ID缓存的路由，健康统计跨请求累积
+     */
+    private final Map<String, HedgingChatModel.Route> routeCache = new ConcurrentHashMap<>();
+
+    /**
+     * 自定义模型的 API 客户端，按 地址 + apiKey 摘要 缓存，同一服务商的不同模型共用连接
+     */
+    private final Cache<String, OpenAiApi> customApiCache = Caffeine.newBuilder()
+            .maximumSize(256)
+            .expireAfterAccess(Duration.ofMinutes(30))
+            .build();
+
     private final AiModelsProperties properties;
 
-    public MultiModelFactory(AiModelsProperties properties) {
+    private final MeterRegistry meterRegistry;
+
+    private final AiUsageManager aiUsageManager;
+
+    /**
+     * 对冲延迟下限：首选模型 p95 很低时也至少等待这么久
+     */
+    @Value("${drawio.ai-routing.hedge-min-delay-ms:3000}")
+    private long hedgeMinDelayMillis;
+
+    /**
+     * 对冲延迟上限，样本不足时使用
+     */
+    @Value("${drawio.ai-routing.hedge-max-delay-ms:60000}")
+    private long hedgeMaxDelayMillis;
+
+    @Value("${drawio.ai-routing.min-samples:20}")
+    private int minSamples;
+
+    /**
+     * 主模型错误率超过该值时优先请求备用模型
+     */
+    @Value("${drawio.ai-routing.max-error-rate:0.5}")
+    private double maxErrorRate;
+
+    public MultiModelFactory(AiModelsProperties properties, MeterRegistry meterRegistry, AiUsageManager aiUsageManager) {
         this.properties = properties;
+        this.meterRegistry = meterRegistry;
+        this.aiUsageManager = aiUsageManager;
     }
 
     /**
      * 动态构建模型
+     * <p>
+     * 返回的模型统计首个响应耗时与错误率；配置了 hedge-model 时，慢请求会同时发给备用模型，取先返回的一路。
      * @param modelId
      * @return
      */
     public ChatModel getChatModel(String modelId) {
-        // 1. 先查缓存
-        if (modelCache.containsKey(modelId)) {
-            return modelCache.get(modelId);
-        }
-        // 2. 智能查找配置
+        return modelCache.computeIfAbsent(modelId, id -> {
+            HedgingChatModel.Route primary = getRoute(id);
+            AiModelsProperties.ModelConfig config = findConfigByModelId(id);
+            String hedgeModelId = config.getHedgeModel();
+            boolean hedged = StringUtils.isNotBlank(hedgeModelId) && !hedgeModelId.equals(id);
+            if (hedged && findConfigByModelId(hedgeModelId) == null) {
+                // 配置错误时不对冲，而不是每次请求都创建备用模型失败
+                log.warn("模型 [{}] 的备用模型 [{}] 没有配置，不启用对冲", id, hedgeModelId);
+                hedged = false;
+            }
+            HedgingChatModel.Policy policy = new HedgingChatModel.Policy(hedgeMinDelayMillis, hedgeMaxDelayMillis,
+                    minSamples, maxErrorRate);
+            return new HedgingChatModel(primary, hedged ? () -> getRoute(hedgeModelId) : null, policy,
+                    Counter.builder("drawio.ai.model.hedges").tag("model", id).register(meterRegistry),
+                    Counter.builder("drawio.ai.model.hedge.wins").tag("model", id).register(meterRegistry),
+                    aiUsageManager::record);
+        });
+    }
+
+    /**
+     * 获取模型ID对应的底层模型与健康统计
+     */
+    private HedgingChatModel.Route getRoute(String modelId) {
+        return routeCache.computeIfAbsent(modelId, id -> {
+            ModelHealth health = new ModelHealth();
+            Gauge.builder("drawio.ai.model.latency.ewma", health, ModelHealth::getLatencyEwmaMillis)
+                    .tag("model", id).baseUnit("milliseconds").register(meterRegistry);
+            Gauge.builder("drawio.ai.model.error.rate", health, ModelHealth::getErrorRate)
+                    .tag("model", id).register(meterRegistry);
+            FunctionCounter.builder("drawio.ai.model.timeouts", health, ModelHealth::getTimeouts)
+                    .tag("model", id).register(meterRegistry);
+            return new HedgingChatModel.Route(id, buildChatModel(id), health);
+        });
+    }
+
+    private ChatModel buildChatModel(String modelId) {
+        // 1. 智能查找配置
         AiModelsProperties.ModelConfig config = findConfigByModelId(modelId);
         if (config == null) {
             throw new IllegalArgumentException("未找到支持模型 [" + modelId + "] 的相关配置，请检查 application.yml");
         }
-        // 3. 构建 API (复用查找到的配置中的 URL 和 Key)
+        // 2. 构建 API (复用查找到的配置中的 URL 和 Key)
         OpenAiApi openAiApi = new OpenAiApi.Builder()
                 .baseUrl(config.getBaseUrl())
                 .apiKey(config.getApiKey())
                 .build();
-        // 4. 构建 Options
+        // 3. 构建 Options
         String actualModelName = determineModelName(modelId, config);
         OpenAiChatOptions options = OpenAiChatOptions.builder()
                 .model(actualModelName)
                 .maxTokens(8192)  // Draw.io XML 内容较长，需要足够的输出空间避免 tool argument 被截断
                 .temperature(0.1)  // 低温度值，生成更确定性的结构化XML输出
+                .streamUsage(true)  // 流式响应也返回 token 用量，用于计量
                 .build();
 
-        // 5. 创建并缓存
-        OpenAiChatModel chatModel = OpenAiChatModel.builder()
+        // 4. 创建
+        return OpenAiChatModel.builder()
                 .openAiApi(openAiApi)
                 .defaultOptions(options)
                 .build();
-
-        modelCache.put(modelId, chatModel);
-        return chatModel;
     }
 
     /**
@@ -74,11 +159,12 @@ public class MultiModelFactory {
      * @return
      */
     public ChatModel getCustomModel(String modelId, String apiKey, String baseUrl) {
-        // 构建API
-        OpenAiApi openAiApi = new OpenAiApi.Builder()
+        // 复用API
+        String apiKeyHash = DigestUtil.sha256Hex(String.valueOf(apiKey));
+        OpenAiApi openAiApi = customApiCache.get(baseUrl + "|" + apiKeyHash, key -> new OpenAiApi.Builder()
                 .apiKey(apiKey)
                 .baseUrl(baseUrl)
-                .build();
+                .build());
         // 构建options
         OpenAiChatOptions openAiChatOptions = OpenAiChatOptions.builder()
                 .model(modelId)
@@ -0,0 +1,25 @@
+package com.wfh.drawio.ai.model;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+
+/**
+ * AI 会话结束时保存图表发生版本冲突，推送给前端的事件内容
+ *
+ * @author fenghuanwang
+ */
+@Data
+@AllArgsConstructor
+public class EditConflict {
+
+    /**
+     * 图表的最新版本号
+     */
+    private Integer latestVersion;
+
+    /**
+     * AI 修改后的图表（未保存），前端据此与最新版本合并后重新保存
+     */
+    private String diagramXml;
+
+}
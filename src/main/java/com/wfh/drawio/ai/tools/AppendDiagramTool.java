@@ -1,9 +1,9 @@
 package com.wfh.drawio.ai.tools;
 
 import com.wfh.drawio.ai.model.StreamEvent;
-import com.wfh.drawio.model.entity.Diagram;
 import com.wfh.drawio.service.DiagramService;
 import lombok.extern.slf4j.Slf4j;
+import org.springframework.ai.chat.model.ToolContext;
 import org.springframework.ai.tool.annotation.Tool;
 import org.springframework.ai.tool.annotation.ToolParam;
 import reactor.core.publisher.Sinks;
@@ -19,13 +19,9 @@ import reactor.core.publisher.Sinks;
 public class AppendDiagramTool {
 
     private final DiagramService diagramService;
-    private final String diagramId;
-    private final Sinks.Many<StreamEvent> sink;
 
-    public AppendDiagramTool(DiagramService diagramService, String diagramId, Sinks.Many<StreamEvent> sink) {
+    public AppendDiagramTool(DiagramService diagramService) {
         this.diagramService = diagramService;
-        this.diagramId = diagramId;
-        this.sink = sink;
     }
 
     @Tool(name = "append_diagram", description = """
@@ -35,9 +31,12 @@ public class AppendDiagramTool {
         """)
     public ToolResult<String, String> appendDiagram(
             @ToolParam(description = "The XML fragment to append (ONLY mxCell elements)")
-            String xmlFragment
+            String xmlFragment,
+            ToolContext toolContext
     ) {
         log.info("=== AppendDiagramTool.execute() 开始执行 ===");
+        String diagramId = DiagramToolContext.getDiagramId(toolContext);
+        Sinks.Many<StreamEvent> sink = DiagramToolContext.getSink(toolContext);
         try {
             // 1. 参数校验与清洗
             if (xmlFragment == null) {
@@ -64,18 +63,17 @@ public class AppendDiagramTool {
                 return ToolResult.error("System Error: diagramId not bound");
             }
 
-            // 3. 在后端内部获取 currentXml
-            Diagram diagram = diagramService.getById(diagramId);
-            if (diagram == null) {
-                return ToolResult.error("Diagram not found: " + diagramId);
+            if (!DiagramToolContext.claimHedge(toolContext)) {
+                return ToolResult.error("Request superseded by a faster model");
             }
-            String currentXml = diagram.getDiagramCode();
-            if (currentXml == null) {
-                currentXml = "";
+            // 3. 获取本次对话的图表工作副本
+            DiagramEditSession session = DiagramToolContext.getEditSession(toolContext, diagramService, diagramId);
+            if (!session.load()) {
+                return ToolResult.error("Diagram not found: " + diagramId);
             }
 
-            // 提取现有图表中的所有ID，防止AI生成局部重复ID
-            java.util.Set<String> existingIds = DrawioXmlProcessor.extractAllIds(currentXml);
+            // 现有图表中的所有ID（随副本维护，无需重新扫描 XML），防止AI生成局部重复ID
+            java.util.Set<String> existingIds = session.existingIds();
             // 对片段进行 ID 重复及不合法 ID 洗礼
             xmlFragment = DrawioXmlProcessor.sanitizeAndRemapIds(xmlFragment, existingIds);
 
@@ -97,39 +95,19 @@ public class AppendDiagramTool {
                 return ToolResult.error("XML fragment validation failed: " + validation.error);
             }
 
-            String finalXml = "";
-            // 6. 核心拼接逻辑：判断是否是完整 XML，决定插入位置
-            if (currentXml.trim().startsWith("<mxfile")) {
-                // 如果是完整 XML，需要插入到 </root> 之前
-                int rootEndIndex = currentXml.lastIndexOf("</root>");
-                if (rootEndIndex != -1) {
-                    // 拆分：头部 + 新片段 + 尾部
-                    String beforeRootEnd = currentXml.substring(0, rootEndIndex);
-                    String afterRootEnd = currentXml.substring(rootEndIndex);
-                    finalXml = beforeRootEnd + "\n" + xmlFragment + "\n" + afterRootEnd;
-                } else {
-                    // 异常情况：有 mxfile 头但没 root 尾？直接硬追加作为兜底
-                    finalXml = currentXml + "\n" + xmlFragment;
-                }
-            } else {
-                // 如果数据库里存的是残缺片段（历史遗留或还没包装），直接追加
-                String tempXml = currentXml + "\n" + xmlFragment;
-                // 然后顺手把它包装成标准的
-                finalXml = DrawioXmlProcessor.wrapWithModel(tempXml);
-            }
+            // 6. 追加到 <root> 末尾（历史遗留的残缺片段在加载时已包装成标准结构）
+            session.append(xmlFragment);
 
-            // 7. 保存结果
-            log.info("拼接完成，更新数据库...");
-            diagram.setDiagramCode(finalXml);
-            diagramService.updateById(diagram);
+            // 7. 保存结果（共享副本在对话结束时统一落库）
+            session.afterToolCall();
 
             // 推送给前端渲染
-            emitResult(finalXml);
+            emitResult(sink, session.toXml());
 
             log.info("=== AppendDiagramTool.execute() 执行完成 ===");
             return ToolResult.success(
                     xmlFragment,
-                    "XML fragment appended successfully. Total cells: " + DrawioXmlProcessor.extractMxCells(finalXml).size()
+                    "XML fragment appended successfully. Total cells: " + session.cellCount()
             );
 
         } catch (Exception e) {
@@ -138,7 +116,7 @@ public class AppendDiagramTool {
         }
     }
 
-    private void emitResult(Object data) {
+    private void emitResult(Sinks.Many<StreamEvent> sink, Object data) {
          if (sink != null) {
             sink.tryEmitNext(StreamEvent.builder()
                     .type("tool_call_result")
@@ -1,9 +1,9 @@
 package com.wfh.drawio.ai.tools;
 
 import com.wfh.drawio.ai.model.StreamEvent;
-import com.wfh.drawio.model.entity.Diagram;
 import com.wfh.drawio.service.DiagramService;
 import lombok.extern.slf4j.Slf4j;
+import org.springframework.ai.chat.model.ToolContext;
 import org.springframework.ai.tool.annotation.Tool;
 import org.springframework.ai.tool.annotation.ToolParam;
 import reactor.core.publisher.Sinks;
@@ -19,13 +19,9 @@ import reactor.core.publisher.Sinks;
 public class CreateDiagramTool {
 
     private final DiagramService diagramService;
-    private final String diagramId;
-    private final Sinks.Many<StreamEvent> sink;
 
-    public CreateDiagramTool(DiagramService diagramService, String diagramId, Sinks.Many<StreamEvent> sink) {
+    public CreateDiagramTool(DiagramService diagramService) {
         this.diagramService = diagramService;
-        this.diagramId = diagramId;
-        this.sink = sink;
     }
 
     @Tool(name = "display_diagram", description = """
@@ -40,12 +36,15 @@ public class CreateDiagramTool {
         """)
     public ToolResult<String, String> displayDiagram(
             @ToolParam(description = "The generated XML string containing ONLY mxCell elements")
-            String xml
+            String xml,
+            ToolContext toolContext
     ) {
         log.info("=== CreateDiagramTool.execute() 开始执行 ===");
+        String diagramId = DiagramToolContext.getDiagramId(toolContext);
+        Sinks.Many<StreamEvent> sink = DiagramToolContext.getSink(toolContext);
         try {
             // 旁路日志
-            logInternal("[display_diagram]创建图表:");
+            logInternal(sink, "[display_diagram]创建图表:");
             log.info("[display_diagram]创建图表开始");
 
             if (xml == null) {
@@ -111,24 +110,25 @@ public class CreateDiagramTool {
             String fullXml = DrawioXmlProcessor.wrapWithModel(xml);
             log.info("XML 包装完成，长度: {}", fullXml.length());
 
-            // 当前图表生成完毕，保存到对应的数据库表中(这里先把数据库中的图表查出来)
-            log.info("开始查询数据库，diagramId: {}", diagramId);
-            Diagram diagram = diagramService.getById(diagramId);
-            log.info("查询图表记录: diagramId={}, 结果={}", diagramId, diagram == null ? "NULL" : "找到");
-            if (diagram == null) {
+            if (diagramId == null) {
+                log.error("错误: diagramId 未绑定");
+                return ToolResult.error("System Error: diagramId not bound");
+            }
+            if (!DiagramToolContext.claimHedge(toolContext)) {
+                return ToolResult.error("Request superseded by a faster model");
+            }
+            // 当前图表生成完毕，替换本次对话的图表工作副本（共享副本在对话结束时统一落库）
+            DiagramEditSession session = DiagramToolContext.getEditSession(toolContext, diagramService, diagramId);
+            if (!session.replace(fullXml)) {
                 log.error("错误: 数据库中未找到 diagramId={} 的记录", diagramId);
                 return ToolResult.error("Diagram not found: " + diagramId);
             }
-
-            log.info("开始更新 diagramCode...");
-            diagram.setDiagramCode(fullXml);
-            diagramService.updateById(diagram);
-            log.info("数据库更新完成");
+            session.afterToolCall();
 
             // 直接把结果推给前端渲染
             log.info("推送结果到前端...");
-            emitResult(fullXml);
-            logInternal("diagram generated");
+            emitResult(sink, fullXml);
+            logInternal(sink, "diagram generated");
 
             log.info("=== CreateDiagramTool.execute() 执行完成 ===");
             return ToolResult.success(xml,
@@ -141,7 +141,7 @@ public class CreateDiagramTool {
         }
     }
 
-    private void logInternal(String message) {
+    private void logInternal(Sinks.Many<StreamEvent> sink, String message) {
         if (sink != null) {
             sink.tryEmitNext(StreamEvent.builder()
                     .type("too_call")
@@ -150,7 +150,7 @@ public class CreateDiagramTool {
         }
     }
 
-    private void emitResult(Object data) {
+    private void emitResult(Sinks.Many<StreamEvent> sink, Object data) {
          if (sink != null) {
             sink.tryEmitNext(StreamEvent.builder()
                     .type("tool_call_result")
@@ -0,0 +1,274 @@
+package com.wfh.drawio.ai.tools;
+
+import com.wfh.drawio.exception.VersionConflictException;
+import com.wfh.drawio.model.entity.Diagram;
+import com.wfh.drawio.service.DiagramService;
+import lombok.extern.slf4j.Slf4j;
+import org.w3c.dom.Document;
+import org.w3c.dom.Element;
+import org.w3c.dom.Node;
+import org.w3c.dom.NodeList;
+
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 一次 AI 会话内的图表工作副本
+ * <p>
+ * 首次调用工具时读取并解析一次图表，之后 display / edit / append 都在同一个 DOM 上进行，
+ * 通过 cellId → 元素索引定位，单次编辑只处理改动的 cell，不再每次读库、整篇解析。
+ * 修改只标记为脏，距上次落库超过 {@link #PERSIST_INTERVAL_MS} 时顺带保存，会话结束时由调用方 {@link #flush()} 保存最后一次。
+ * 会话期间图表被他人修改（版本冲突）后不再保存，工作副本保留，{@link #flush()} 抛出冲突交给调用方处理。
+ * <p>
+ * 非共享会话（toolContext 中没有会话时由工具临时创建）每次修改后立即保存，与原先行为一致。
+ *
+ * @author fenghuanwang
+ */
+@Slf4j
+public class DiagramEditSession {
+
+    /**
+     * 会话期间两次落库的最小间隔
+     */
+    static final long PERSIST_INTERVAL_MS = 5000;
+
+    private final DiagramService diagramService;
+
+    private final Long diagramId;
+
+    private final boolean shared;
+
+    /**
+     * 图表记录（只用其 version 做乐观锁）
+     */
+    private Diagram diagram;
+
+    private Document document;
+
+    private Node root;
+
+    private Map<String, Element> cellIndex;
+
+    /**
+     * 文档内所有元素的 id（含 object 包装等非 mxCell 元素），供追加片段时去重
+     */
+    private Set<String> allIds;
+
+    private boolean dirty;
+
+    /**
+     * 保存时发生版本冲突，图表的最新版本号
+     */
+    private Integer conflictVersion;
+
+    private long lastPersistNanos = System.nanoTime();
+
+    /**
+     * @param diagramService 图表服务
+     * @param diagramId      图表ID
+     * @param shared         是否跨多次工具调用共享（共享时由调用方负责 flush）
+     */
+    public DiagramEditSession(DiagramService diagramService, String diagramId, boolean shared) {
+        this.diagramService = diagramService;
+        this.diagramId = Long.valueOf(diagramId);
+        this.shared = shared;
+    }
+
+    /**
+     * 确保图表内容已加载
+     *
+     * @return 图表是否存在
+     */
+    public synchronized boolean load() throws Exception {
+        if (document != null) {
+            return true;
+        }
+        Diagram loaded = diagramService.getByIdWithCode(diagramId);
+        if (loaded == null) {
+            return false;
+        }
+        diagram = loaded;
+        String xml = loaded.getDiagramCode() == null ? "" : loaded.getDiagramCode();
+        // 确保是完整的 XML 结构以便进行 DOM 操作
+        if (!xml.trim().startsWith("<mxfile")) {
+            xml = DrawioXmlProcessor.wrapWithModel(xml);
+        }
+        index(DrawioXmlProcessor.parseDocument(xml));
+        return true;
+    }
+
+    /**
+     * 整体替换图表内容（display_diagram）
+     *
+     * @param fullXml 完整的 mxfile XML
+     * @return 图表是否存在
+     */
+    public synchronized boolean replace(String fullXml) throws Exception {
+        if (diagram == null) {
+            // 整体替换不需要旧内容，只确认图表存在
+            diagram = diagramService.getById(diagramId);
+            if (diagram == null) {
+                return false;
+            }
+        }
+        index(DrawioXmlProcessor.parseDocument(fullXml));
+        markDirty();
+        return true;
+    }
+
+    /**
+     * 应用编辑操作（edit_diagram），只处理操作涉及的 cell
+     */
+    public synchronized DrawioXmlProcessor.OperationResult applyOperations(List<DiagramSchemas.EditOperation> operations) {
+        if (root == null) {
+            return DrawioXmlProcessor.OperationResult.failure("Could not find <root> element in XML");
+        }
+        DrawioXmlProcessor.OperationResult result = DrawioXmlProcessor.applyOperations(document, root, cellIndex, operations);
+        if (!result.appliedOperations.isEmpty()) {
+            for (DiagramSchemas.EditOperation op : operations) {
+                if ("add".equals(op.getType()) && cellIndex.containsKey(op.getCellId())) {
+                    allIds.add(op.getCellId());
+                } else if ("delete".equals(op.getType()) && !cellIndex.containsKey(op.getCellId())) {
+                    allIds.remove(op.getCellId());
+                }
+            }
+            markDirty();
+        }
+        return result;
+    }
+
+    /**
+     * 在 &lt;root&gt; 末尾追加 cell 片段（append_diagram），片段需已完成 id 去重
+     *
+     * @param fragment mxCell 片段
+     */
+    public synchronized void append(String fragment) throws Exception {
+        if (root == null) {
+            throw new IllegalStateException("Could not find <root> element in XML");
+        }
+        Document fragmentDoc = DrawioXmlProcessor.parseDocument("<wrapper>" + fragment + "</wrapper>");
+        NodeList children = fragmentDoc.getDocumentElement().getChildNodes();
+        for (int i = 0; i < children.getLength(); i++) {
+            Node imported = document.importNode(children.item(i), true);
+            root.appendChild(imported);
+            if (imported instanceof Element element) {
+                collect(element);
+            }
+        }
+        markDirty();
+    }
+
+    /**
+     * 当前所有元素 id 的副本（{@link DrawioXmlProcessor#sanitizeAndRemapIds} 会往其中添加新 id）
+     */
+    public synchronized Set<String> existingIds() {
+        return new HashSet<>(allIds);
+    }
+
+    /**
+     * 图形数量（不含 0 / 1 两个根 cell）
+     */
+    public synchronized int cellCount() {
+        int count = cellIndex.size();
+        if (cellIndex.containsKey("0")) {
+            count--;
+        }
+        if (cellIndex.containsKey("1")) {
+            count--;
+        }
+        return count;
+    }
+
+    /**
+     * 序列化当前内容（推送前端用）
+     */
+    public synchronized String toXml() throws Exception {
+        return DrawioXmlProcessor.convertDocumentToString(document);
+    }
+
+    /**
+     * 一次工具调用结束：非共享会话立即保存，共享会话距上次保存超过间隔时保存
+     */
+    public synchronized void afterToolCall() {
+        if (!dirty || conflictVersion != null) {
+            return;
+        }
+        if (!shared || System.nanoTime() - lastPersistNanos >= TimeUnit.MILLISECONDS.toNanos(PERSIST_INTERVAL_MS)) {
+            persist();
+        }
+    }
+
+    /**
+     * 会话结束时保存未落库的修改
+     *
+     * @throws VersionConflictException 会话期间图表已被他人修改，工作副本未保存，携带最新版本号
+     */
+    public synchronized void flush() {
+        if (dirty && conflictVersion == null) {
+            persist();
+        }
+        if (conflictVersion != null) {
+            throw new VersionConflictException(conflictVersion);
+        }
+    }
+
+    private void persist() {
+        Diagram update = new Diagram();
+        update.setId(diagramId);
+        update.setVersion(diagram.getVersion());
+        try {
+            update.setDiagramCode(toXml());
+        } catch (Exception e) {
+            throw new IllegalStateException("Failed to serialize diagram: " + e.getMessage(), e);
+        }
+        // 带上加载时的版本号，会话期间图表被他人修改时抛出版本冲突而不是覆盖
+        try {
+            diagramService.updateById(update);
+        } catch (VersionConflictException e) {
+            // 之后的保存同样会冲突，不再重试；工具继续在工作副本上修改并推送
+            conflictVersion = e.getLatestVersion();
+            log.warn("AI 会话图表保存冲突: diagramId={}, version={}, latestVersion={}",
+                    diagramId, update.getVersion(), conflictVersion);
+            return;
+        }
+        diagram.setVersion(update.getVersion());
+        dirty = false;
+        lastPersistNanos = System.nanoTime();
+        log.info("AI 会话图表已保存: diagramId={}, version={}", diagramId, update.getVersion());
+    }
+
+    private void markDirty() {
+        dirty = true;
+    }
+
+    private void index(Document doc) {
+        document = doc;
+        root = DrawioXmlProcessor.findRoot(doc);
+        cellIndex = root == null ? new HashMap<>() : DrawioXmlProcessor.indexCells(root);
+        allIds = new HashSet<>();
+        collect(doc.getDocumentElement());
+    }
+
+    private void collect(Element element) {
+        register(element);
+        NodeList descendants = element.getElementsByTagName("*");
+        for (int i = 0; i < descendants.getLength(); i++) {
+            register((Element) descendants.item(i));
+        }
+    }
+
+    private void register(Element element) {
+        String id = element.getAttribute("id");
+        if (id.isEmpty()) {
+            return;
+        }
+        allIds.add(id);
+        if ("mxCell".equals(element.getTagName())) {
+            cellIndex.put(id, element);
+        }
+    }
+}
@@ -0,0 +1,94 @@
+package com.wfh.drawio.ai.tools;
+
+import com.wfh.drawio.ai.config.HedgingChatModel;
+import com.wfh.drawio.ai.model.StreamEvent;
+import com.wfh.drawio.service.DiagramService;
+import org.springframework.ai.chat.model.ToolContext;
+import reactor.core.publisher.Sinks;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * 图表工具的请求级上下文
+ * <p>
+ * 工具实例随 ChatClient 复用，当前图表ID、旁路推送管道与图表工作副本由每次请求的 toolContext 传入。
+ *
+ * @author fenghuanwang
+ */
+public final class DiagramToolContext {
+
+    public static final String DIAGRAM_ID = "diagramId";
+
+    public static final String SINK = "sink";
+
+    public static final String EDIT_SESSION = "editSession";
+
+    private DiagramToolContext() {
+    }
+
+    /**
+     * 构建请求级上下文
+     *
+     * @param diagramId 当前图表ID
+     * @param sink      旁路推送管道（非流式对话为空）
+     * @return toolContext
+     */
+    public static Map<String, Object> of(String diagramId, Sinks.Many<StreamEvent> sink) {
+        return of(diagramId, sink, null);
+    }
+
+    /**
+     * 构建请求级上下文，同一次对话的多次工具调用共用图表工作副本
+     *
+     * @param diagramId   当前图表ID
+     * @param sink        旁路推送管道（非流式对话为空）
+     * @param editSession 图表工作副本，对话结束时由调用方 flush
+     * @return toolContext
+     */
+    public static Map<String, Object> of(String diagramId, Sinks.Many<StreamEvent> sink, DiagramEditSession editSession) {
+        Map<String, Object> context = new HashMap<>(4);
+        if (diagramId != null) {
+            context.put(DIAGRAM_ID, diagramId);
+        }
+        if (sink != null) {
+            context.put(SINK, sink);
+        }
+        if (editSession != null) {
+            context.put(EDIT_SESSION, editSession);
+        }
+        return context;
+    }
+
+    public static String getDiagramId(ToolContext toolContext) {
+        return toolContext == null ? null : (String) toolContext.getContext().get(DIAGRAM_ID);
+    }
+
+    @SuppressWarnings("unchecked")
+    public static Sinks.Many<StreamEvent> getSink(ToolContext toolContext) {
+        return toolContext == null ? null : (Sinks.Many<StreamEvent>) toolContext.getContext().get(SINK);
+    }
+
+    /**
+     * 获取请求共享的图表工作副本，没有时创建一个每次修改立即保存的临时副本
+     *
+     * @param toolContext    toolContext
+     * @param diagramService 图表服务
+     * @param diagramId      当前图表ID
+     * @return 图表工作副本
+     */
+    public static DiagramEditSession getEditSession(ToolContext toolContext, DiagramService diagramService, String diagramId) {
+        DiagramEditSession session = toolContext == null ? null : (DiagramEditSession) toolContext.getContext().get(EDIT_SESSION);
+        return session != null ? session : new DiagramEditSession(diagramService, diagramId, false);
+    }
+
+    /**
+     * 对冲请求中，修改图表前抢占本次对话；另一路模型已抢占时返回 false，本路不得再修改图表
+     *
+     * @param toolContext toolContext
+     * @return 是否可以修改图表
+     */
+    public static boolean claimHedge(ToolContext toolContext) {
+        return toolContext == null || HedgingChatModel.claim(toolContext.getContext());
+    }
+}
@@ -5,16 +5,20 @@ import org.w3c.dom.Element;
 import org.w3c.dom.Node;
 import org.w3c.dom.NodeList;
 
+import org.xml.sax.InputSource;
+
+import javax.xml.XMLConstants;
 import javax.xml.parsers.DocumentBuilder;
 import javax.xml.parsers.DocumentBuilderFactory;
+import javax.xml.parsers.ParserConfigurationException;
 import javax.xml.transform.OutputKeys;
 import javax.xml.transform.Transformer;
+import javax.xml.transform.TransformerConfigurationException;
 import javax.xml.transform.TransformerFactory;
 import javax.xml.transform.dom.DOMSource;
 import javax.xml.transform.stream.StreamResult;
-import java.io.ByteArrayInputStream;
+import java.io.StringReader;
 import java.io.StringWriter;
-import java.nio.charset.StandardCharsets;
 import java.util.*;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
@@ -27,9 +31,40 @@ import java.util.regex.Pattern;
  */
 public class DrawioXmlProcessor {
 
-    private static final Pattern MXCELL_PATTERN = Pattern.compile("<mxCell[^>]*>.*?</mxCell>", Pattern.DOTALL);
     private static final Pattern ID_PATTERN = Pattern.compile("id=\"([^\"]+)\"");
 
+    /**
+     * 工厂查找与服务加载开销较大，只创建一次；XML 来自模型输出与用户数据，禁止 DTD 与外部实体
+     */
+    private static final DocumentBuilderFactory BUILDER_FACTORY = createBuilderFactory();
+
+    private static final TransformerFactory TRANSFORMER_FACTORY = createTransformerFactory();
+
+    /**
+     * DocumentBuilder / Transformer 非线程安全，每个线程复用一个
+     */
+    private static final ThreadLocal<DocumentBuilder> BUILDER = ThreadLocal.withInitial(() -> {
+        try {
+            return BUILDER_FACTORY.newDocumentBuilder();
+        } catch (ParserConfigurationException e) {
+            throw new IllegalStateException(e);
+        }
+    });
+
+    /**
+     * 不缩进、不输出 XML 声明
+     */
+    private static final ThreadLocal<Transformer> TRANSFORMER = ThreadLocal.withInitial(() -> {
+        try {
+            Transformer transformer = TRANSFORMER_FACTORY.newTransformer();
+            transformer.setOutputProperty(OutputKeys.OMIT_XML_DECLARATION, "yes");
+            transformer.setOutputProperty(OutputKeys.INDENT, "no");
+            return transformer;
+        } catch (TransformerConfigurationException e) {
+            throw new IllegalStateException(e);
+        }
+    });
+
 
     public static String wrapWithModel(String bodyXml) {
         // 生成一个随机 ID 给 diagram 标签
@@ -61,11 +96,8 @@ public class DrawioXmlProcessor {
      * Validate and parse XML content
      */
     public static ValidationResult validateAndParseXml(String xml) {
-        DocumentBuilderFactory factory = DocumentBuilderFactory.newInstance();
         try {
-            DocumentBuilder builder = factory.newDocumentBuilder();
-            // 使用 UTF-8 避免中文乱码
-            Document document = builder.parse(new ByteArrayInputStream(xml.getBytes(StandardCharsets.UTF_8)));
+            Document document = parseDocument(xml);
             return ValidationResult.valid(document);
         } catch (Exception e) {
             return ValidationResult.invalid("XML parse error: " + e.getMessage());
@@ -73,25 +105,17 @@ public class DrawioXmlProcessor {
     }
 
     /**
-     * Extract mxCell elements from XML content using Regex (for quick analysis)
+     * Extract top-level cells from XML content in a single streaming pass (see {@link MxCellExtractor}).
+     * Truncated or malformed input yields the cells completed before the error.
      */
     public static List<CellElement> extractMxCells(String xml) {
         List<CellElement> cells = new ArrayList<>();
-        Matcher matcher = MXCELL_PATTERN.matcher(xml);
-
-        while (matcher.find()) {
-            String cellXml = matcher.group();
-            Matcher idMatcher = ID_PATTERN.matcher(cellXml);
-
-            if (idMatcher.find()) {
-                String id = idMatcher.group(1);
-                // Skip root cells
-                if (!"0".equals(id) && !"1".equals(id)) {
-                    cells.add(new CellElement(id, cellXml));
-                }
+        for (CellElement cell : MxCellExtractor.extract(xml).cells) {
+            // Skip root cells
+            if (!"0".equals(cell.id) && !"1".equals(cell.id)) {
+                cells.add(cell);
             }
         }
-
         return cells;
     }
 
@@ -141,11 +165,8 @@ public class DrawioXmlProcessor {
             return "";
         }
         try {
-            DocumentBuilderFactory factory = DocumentBuilderFactory.newInstance();
-            DocumentBuilder builder = factory.newDocumentBuilder();
             // Wrap in <wrapper> to ensure it's valid XML even if it has multiple root elements
-            String wrappedXml = "<wrapper>" + fragmentXml + "</wrapper>";
-            Document doc = builder.parse(new ByteArrayInputStream(wrappedXml.getBytes(StandardCharsets.UTF_8)));
+            Document doc = parseDocument("<wrapper>" + fragmentXml + "</wrapper>");
 
             Map<String, String> idMapping = new HashMap<>();
             List<Element> elementsToRemove = new ArrayList<>();
@@ -209,20 +230,17 @@ public class DrawioXmlProcessor {
             // Extract the inner XML of <wrapper>
             Element wrapper = doc.getDocumentElement();
             NodeList children = wrapper.getChildNodes();
-            StringBuilder sb = new StringBuilder();
-            TransformerFactory tf = TransformerFactory.newInstance();
-            Transformer t = tf.newTransformer();
-            t.setOutputProperty(OutputKeys.OMIT_XML_DECLARATION, "yes");
+            StringWriter sw = new StringWriter();
+            Transformer t = TRANSFORMER.get();
 
             for (int i = 0; i < children.getLength(); i++) {
                 Node child = children.item(i);
                 if (child.getNodeType() == Node.ELEMENT_NODE) {
-                    StringWriter sw = new StringWriter();
                     t.transform(new DOMSource(child), new StreamResult(sw));
-                    sb.append(sw.toString()).append("\n");
+                    sw.append("\n");
                 }
             }
-            return sb.toString().trim();
+            return sw.toString().trim();
 
         } catch (Exception e) {
             // Fallback to the old regex method if DOM parsing fails
@@ -243,18 +261,13 @@ public class DrawioXmlProcessor {
      * Apply operations to diagram XML using DOM parser
      */
     public static OperationResult applyOperations(String xmlContent, List<DiagramSchemas.EditOperation> operations) {
-        List<String> errors = new ArrayList<>();
-        List<String> appliedOperations = new ArrayList<>();
-
         try {
-            DocumentBuilderFactory factory = DocumentBuilderFactory.newInstance();
-            DocumentBuilder builder = factory.newDocumentBuilder();
-            Document doc = builder.parse(new ByteArrayInputStream(xmlContent.getBytes(StandardCharsets.UTF_8)));
+            Document doc = parseDocument(xmlContent);
 
             // Find root element (Draw.io structure usually implies <root> inside <mxGraphModel>)
             // Note: This logic assumes xmlContent is a full valid XML or specifically <root>...
             // If the input is standard .drawio XML, we might need to search recursively or getElementsByTagName
-            Node root = doc.getElementsByTagName("root").item(0);
+            Node root = findRoot(doc);
             if (root == null) {
                 // Fallback: If no <root> tag, maybe the top element itself is the container
                 // But standard drawio has <root>. Let's try to be robust.
@@ -262,52 +275,90 @@ public class DrawioXmlProcessor {
             }
 
             // Build cell map for quick lookup
-            Map<String, Element> cellMap = new HashMap<>();
-            NodeList cellNodes = ((Element) root).getElementsByTagName("mxCell");
-
-            // Note: getElementsByTagName retrieves all descendants.
-            // If we only want direct children of root, checking parentNode might be needed,
-            // but standard drawio usually keeps mxCells flat under root.
-            for (int i = 0; i < cellNodes.getLength(); i++) {
-                Element cell = (Element) cellNodes.item(i);
-                String id = cell.getAttribute("id");
-                if (!id.isEmpty()) {
-                    cellMap.put(id, cell);
-                }
-            }
-
-            // Apply each operation
-            for (DiagramSchemas.EditOperation op : operations) {
-                try {
-                    switch (op.getType()) {
-                        case "update":
-                            applyUpdate(doc, root, cellMap, op);
-                            appliedOperations.add("Updated cell " + op.getCellId());
-                            break;
-                        case "add":
-                            applyAdd(doc, root, cellMap, op);
-                            appliedOperations.add("Added cell " + op.getCellId());
-                            break;
-                        case "delete":
-                            applyDelete(root, cellMap, op);
-                            appliedOperations.add("Deleted cell " + op.getCellId());
-                            break;
-                        default:
-                            errors.add("Unknown operation type: " + op.getType());
-                    }
-                } catch (Exception e) {
-                    errors.add(op.getType() + " operation on cell " + op.getCellId() + " failed: " + e.getMessage());
-                }
-            }
+            Map<String, Element> cellMap = indexCells(root);
+            OperationResult result = applyOperations(doc, root, cellMap, operations);
 
             String resultXml = convertDocumentToString(doc);
-            return OperationResult.success(resultXml, appliedOperations, errors);
+            return OperationResult.success(resultXml, result.appliedOperations, result.errors);
 
         } catch (Exception e) {
             return OperationResult.failure("Failed to process operations: " + e.getMessage());
         }
     }
 
+    /**
+     * Apply operations to an already parsed document, keeping cellMap in sync.
+     * Only the touched cells are visited, so callers holding the document across
+     * several edits pay O(changed cells) per call. resultXml is not serialized.
+     */
+    public static OperationResult applyOperations(Document doc, Node root, Map<String, Element> cellMap,
+                                                  List<DiagramSchemas.EditOperation> operations) {
+        List<String> errors = new ArrayList<>();
+        List<String> appliedOperations = new ArrayList<>();
+
+        // Apply each operation
+        for (DiagramSchemas.EditOperation op : operations) {
+            try {
+                switch (op.getType()) {
+                    case "update":
+                        applyUpdate(doc, root, cellMap, op);
+                        appliedOperations.add("Updated cell " + op.getCellId());
+                        break;
+                    case "add":
+                        applyAdd(doc, root, cellMap, op);
+                        appliedOperations.add("Added cell " + op.getCellId());
+                        break;
+                    case "delete":
+                        applyDelete(root, cellMap, op);
+                        appliedOperations.add("Deleted cell " + op.getCellId());
+                        break;
+                    default:
+                        errors.add("Unknown operation type: " + op.getType());
+                }
+            } catch (Exception e) {
+                errors.add(op.getType() + " operation on cell " + op.getCellId() + " failed: " + e.getMessage());
+            }
+        }
+        return OperationResult.success(null, appliedOperations, errors);
+    }
+
+    /**
+     * Parse a complete XML document
+     */
+    public static Document parseDocument(String xml) throws Exception {
+        DocumentBuilder builder = BUILDER.get();
+        builder.reset();
+        // 直接读字符，避免先编码成 UTF-8 字节数组再解码
+        return builder.parse(new InputSource(new StringReader(xml)));
+    }
+
+    /**
+     * The &lt;root&gt; element of a Draw.io model, or null
+     */
+    public static Node findRoot(Document doc) {
+        return doc.getElementsByTagName("root").item(0);
+    }
+
+    /**
+     * Index mxCell elements under root by id
+     */
+    public static Map<String, Element> indexCells(Node root) {
+        Map<String, Element> cellMap = new HashMap<>();
+        NodeList cellNodes = ((Element) root).getElementsByTagName("mxCell");
+
+        // Note: getElementsByTagName retrieves all descendants.
+        // If we only want direct children of root, checking parentNode might be needed,
+        // but standard drawio usually keeps mxCells flat under root.
+        for (int i = 0; i < cellNodes.getLength(); i++) {
+            Element cell = (Element) cellNodes.item(i);
+            String id = cell.getAttribute("id");
+            if (!id.isEmpty()) {
+                cellMap.put(id, cell);
+            }
+        }
+        return cellMap;
+    }
+
     private static void applyUpdate(Document doc, Node root, Map<String, Element> cellMap, DiagramSchemas.EditOperation op) throws Exception {
         Element existingCell = cellMap.get(op.getCellId());
         if (existingCell == null) {
@@ -346,12 +397,8 @@ public class DrawioXmlProcessor {
     }
 
     private static Element parseCellFromXml(Document doc, String cellXml, String expectedId) throws Exception {
-        DocumentBuilderFactory factory = DocumentBuilderFactory.newInstance();
-        DocumentBuilder builder = factory.newDocumentBuilder();
-
         // Wrap in a temporary root to make it valid XML for parsing
-        String wrappedXml = "<wrapper>" + cellXml + "</wrapper>";
-        Document tempDoc = builder.parse(new ByteArrayInputStream(wrappedXml.getBytes(StandardCharsets.UTF_8)));
+        Document tempDoc = parseDocument("<wrapper>" + cellXml + "</wrapper>");
 
         NodeList nodes = tempDoc.getElementsByTagName("mxCell");
         if (nodes.getLength() == 0) {
@@ -369,20 +416,37 @@ public class DrawioXmlProcessor {
         return (Element) doc.importNode(cell, true);
     }
 
-    private static String convertDocumentToString(Document doc) throws Exception {
-        TransformerFactory transformerFactory = TransformerFactory.newInstance();
-        Transformer transformer = transformerFactory.newTransformer();
-
-        transformer.setOutputProperty(OutputKeys.INDENT, "yes");
-        transformer.setOutputProperty("{http://xml.apache.org/xslt}indent-amount", "2");
-        // Omit XML declaration to keep it clean if inserting into other systems, or keep it true based on requirement
-        transformer.setOutputProperty(OutputKeys.OMIT_XML_DECLARATION, "yes");
-
+    public static String convertDocumentToString(Document doc) throws Exception {
         StringWriter writer = new StringWriter();
-        transformer.transform(new DOMSource(doc), new StreamResult(writer));
+        TRANSFORMER.get().transform(new DOMSource(doc), new StreamResult(writer));
         return writer.toString();
     }
 
+    private static DocumentBuilderFactory createBuilderFactory() {
+        DocumentBuilderFactory factory = DocumentBuilderFactory.newInstance();
+        try {
+            factory.setFeature("http://apache.org/xml/features/disallow-doctype-decl", true);
+            factory.setFeature(XMLConstants.FEATURE_SECURE_PROCESSING, true);
+        } catch (ParserConfigurationException e) {
+            throw new IllegalStateException(e);
+        }
+        factory.setXIncludeAware(false);
+        factory.setExpandEntityReferences(false);
+        return factory;
+    }
+
+    private static TransformerFactory createTransformerFactory() {
+        TransformerFactory factory = TransformerFactory.newInstance();
+        try {
+            factory.setFeature(XMLConstants.FEATURE_SECURE_PROCESSING, true);
+        } catch (TransformerConfigurationException e) {
+            throw new IllegalStateException(e);
+        }
+        factory.setAttribute(XMLConstants.ACCESS_EXTERNAL_DTD, "");
+        factory.setAttribute(XMLConstants.ACCESS_EXTERNAL_STYLESHEET, "");
+        return factory;
+    }
+
     // ================= Helper Classes =================
 
     public static class ValidationResult {
@@ -2,9 +2,9 @@ package com.wfh.drawio.ai.tools;
 
 import com.fasterxml.jackson.databind.ObjectMapper;
 import com.wfh.drawio.ai.model.StreamEvent;
-import com.wfh.drawio.model.entity.Diagram;
 import com.wfh.drawio.service.DiagramService;
 import lombok.extern.slf4j.Slf4j;
+import org.springframework.ai.chat.model.ToolContext;
 import org.springframework.ai.tool.annotation.Tool;
 import org.springframework.ai.tool.annotation.ToolParam;
 import reactor.core.publisher.Sinks;
@@ -22,13 +22,9 @@ import java.util.List;
 public class EditDiagramTool {
 
     private final DiagramService diagramService;
-    private final String diagramId;
-    private final Sinks.Many<StreamEvent> sink;
 
-    public EditDiagramTool(DiagramService diagramService, String diagramId, Sinks.Many<StreamEvent> sink) {
+    public EditDiagramTool(DiagramService diagramService) {
         this.diagramService = diagramService;
-        this.diagramId = diagramId;
-        this.sink = sink;
     }
 
     // Jackson ObjectMapper 实例
@@ -45,9 +41,12 @@ public class EditDiagramTool {
         """)
     public ToolResult<String, String> editDiagram(
             @ToolParam(description = "JSON string containing the list of operations to perform on the diagram")
-            String requestJson
+            String requestJson,
+            ToolContext toolContext
     ) {
         log.info("=== EditDiagramTool.execute() 开始执行 ===");
+        String diagramId = DiagramToolContext.getDiagramId(toolContext);
+        Sinks.Many<StreamEvent> sink = DiagramToolContext.getSink(toolContext);
         try {
             // 1. 参数清洗
             if (requestJson == null || requestJson.trim().isEmpty()) {
@@ -71,18 +70,13 @@ public class EditDiagramTool {
                 return ToolResult.error("System Error: diagramId not bound");
             }
 
-            // 3. 获取并准备数据
-            Diagram diagram = diagramService.getById(diagramId);
-            if (diagram == null) {
-                return ToolResult.error("Diagram not found: " + diagramId);
+            if (!DiagramToolContext.claimHedge(toolContext)) {
+                return ToolResult.error("Request superseded by a faster model");
             }
-            String currentXml = diagram.getDiagramCode();
-            if (currentXml == null) currentXml = "";
-
-            // 确保是完整的 XML 结构以便进行 DOM 操作
-            if (!currentXml.trim().startsWith("<mxfile")) {
-                log.info("检测到非标准结构，进行包装...");
-                currentXml = DrawioXmlProcessor.wrapWithModel(currentXml);
+            // 3. 获取本次对话的图表工作副本（首次调用时读库并建立 cell 索引）
+            DiagramEditSession session = DiagramToolContext.getEditSession(toolContext, diagramService, diagramId);
+            if (!session.load()) {
+                return ToolResult.error("Diagram not found: " + diagramId);
             }
 
             // 4. 解析 JSON
@@ -110,23 +104,21 @@ public class EditDiagramTool {
                 }
             }
 
-            // 6. 执行操作
+            // 6. 执行操作（按索引定位，只处理涉及的 cell）
             log.info("开始应用 {} 个编辑操作...", operations.size());
-            DrawioXmlProcessor.OperationResult result = DrawioXmlProcessor.applyOperations(currentXml, operations);
+            DrawioXmlProcessor.OperationResult result = session.applyOperations(operations);
 
             if (!result.success) {
                 log.error("编辑操作失败: {}", result.errors);
                 return ToolResult.error("Failed to apply operations: " + String.join(", ", result.errors));
             }
 
-            // 7. 保存结果
-            String savedXml = result.resultXml;
-            diagram.setDiagramCode(savedXml);
-            diagramService.updateById(diagram);
+            // 7. 保存结果（共享副本在对话结束时统一落库）
+            session.afterToolCall();
 
             // 推送给前端
             log.info("推送更新后的图表...");
-            emitResult(savedXml);
+            emitResult(sink, session.toXml());
 
             log.info("=== EditDiagramTool.execute() 执行完成 ===");
             return ToolResult.success(
@@ -142,7 +134,7 @@ public class EditDiagramTool {
         }
     }
 
-    private void emitResult(Object data) {
+    private void emitResult(Sinks.Many<StreamEvent> sink, Object data) {
          if (sink != null) {
             sink.tryEmitNext(StreamEvent.builder()
                     .type("tool_call_result")
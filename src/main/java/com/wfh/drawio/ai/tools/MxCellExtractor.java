@@ -0,0 +1,206 @@
+package com.wfh.drawio.ai.tools;
+
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+import java.io.StringReader;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * 流式提取 mxCell
+ * <p>
+ * 用 StAX 单遍扫描模型输出或已保存的 XML，逐个输出顶层 cell（mxCell，或包着 mxCell 的 object / UserObject），
+ * 内存只保留当前 cell。标签不配对、cell 嵌套 cell 视为非法；模型输出被截断或中途出现非法 XML 时，
+ * 返回出错位置之前已完整的 cell，并标记为不完整。
+ *
+ * @author fenghuanwang
+ */
+public final class MxCellExtractor {
+
+    private static final String MX_CELL = "mxCell";
+
+    /**
+     * 创建后只读，可多线程共用；XML 来自模型输出，禁止 DTD 与外部实体
+     */
+    private static final XMLInputFactory INPUT_FACTORY = createInputFactory();
+
+    private MxCellExtractor() {
+    }
+
+    /**
+     * 提取顶层 cell
+     *
+     * @param xml 完整文档或多个 cell 组成的片段
+     * @return 提取结果
+     */
+    public static Result extract(String xml) {
+        List<DrawioXmlProcessor.CellElement> cells = new ArrayList<>();
+        if (xml == null || xml.isBlank()) {
+            return new Result(cells, true, null);
+        }
+        String source = xml.stripLeading();
+        // 片段可能有多个根元素，包一层；带 XML 声明的是完整文档，不能再包
+        if (!source.startsWith("<?xml")) {
+            source = "<wrapper>" + source + "</wrapper>";
+        }
+        XMLStreamReader reader = null;
+        String error = null;
+        try {
+            reader = INPUT_FACTORY.createXMLStreamReader(new StringReader(source));
+            CellWriter current = null;
+            while (reader.hasNext()) {
+                int event = reader.next();
+                if (current == null) {
+                    if (event == XMLStreamConstants.START_ELEMENT && isCellStart(reader.getLocalName())) {
+                        current = new CellWriter(reader);
+                    }
+                    continue;
+                }
+                switch (event) {
+                    case XMLStreamConstants.START_ELEMENT -> current.start(reader);
+                    case XMLStreamConstants.END_ELEMENT -> {
+                        if (current.end()) {
+                            if (current.valid && !current.id.isEmpty()) {
+                                cells.add(new DrawioXmlProcessor.CellElement(current.id, current.xml()));
+                            } else if (!current.valid && error == null) {
+                                error = "Nested mxCell in cell " + current.id;
+                            }
+                            current = null;
+                        }
+                    }
+                    case XMLStreamConstants.CHARACTERS, XMLStreamConstants.SPACE, XMLStreamConstants.CDATA ->
+                            current.text(reader.getText());
+                    default -> {
+                        // 注释与处理指令不保留
+                    }
+                }
+            }
+            return new Result(cells, error == null, error);
+        } catch (XMLStreamException e) {
+            // 截断或非法 XML：保留出错位置之前已完整的 cell
+            return new Result(cells, false, e.getMessage());
+        } finally {
+            if (reader != null) {
+                try {
+                    reader.close();
+                } catch (XMLStreamException ignored) {
+                    // 字符串输入无需释放
+                }
+            }
+        }
+    }
+
+    private static boolean isCellStart(String name) {
+        return MX_CELL.equals(name) || "object".equals(name) || "UserObject".equals(name);
+    }
+
+    private static XMLInputFactory createInputFactory() {
+        XMLInputFactory factory = XMLInputFactory.newInstance();
+        factory.setProperty(XMLInputFactory.SUPPORT_DTD, false);
+        factory.setProperty(XMLInputFactory.IS_SUPPORTING_EXTERNAL_ENTITIES, false);
+        factory.setProperty(XMLInputFactory.IS_COALESCING, true);
+        return factory;
+    }
+
+    /**
+     * 提取结果
+     */
+    public static class Result {
+        public final List<DrawioXmlProcessor.CellElement> cells;
+        /**
+         * 是否完整扫描到结尾且没有非法嵌套
+         */
+        public final boolean complete;
+        public final String error;
+
+        Result(List<DrawioXmlProcessor.CellElement> cells, boolean complete, String error) {
+            this.cells = cells;
+            this.complete = complete;
+            this.error = error;
+        }
+    }
+
+    /**
+     * 把当前 cell 的事件重新序列化为 XML，空元素输出为自闭合标签
+     */
+    private static class CellWriter {
+        private final StringBuilder xml = new StringBuilder();
+        private final List<String> openNames = new ArrayList<>();
+        private final String id;
+        private boolean startTagOpen;
+        private boolean hasMxCell;
+        private boolean valid = true;
+
+        CellWriter(XMLStreamReader reader) {
+            String cellId = reader.getAttributeValue(null, "id");
+            this.id = cellId == null ? "" : cellId;
+            start(reader);
+        }
+
+        void start(XMLStreamReader reader) {
+            String name = reader.getLocalName();
+            if (MX_CELL.equals(name)) {
+                // mxCell 只能出现一次：本身就是 mxCell，或 object 包着的那一个
+                if (hasMxCell) {
+                    valid = false;
+                }
+                hasMxCell = true;
+            }
+            closeStartTag();
+            xml.append('<').append(name);
+            for (int i = 0; i < reader.getAttributeCount(); i++) {
+                xml.append(' ').append(reader.getAttributeLocalName(i)).append("=\"");
+                escape(reader.getAttributeValue(i), true);
+                xml.append('"');
+            }
+            startTagOpen = true;
+            openNames.add(name);
+        }
+
+        /**
+         * @return cell 是否结束
+         */
+        boolean end() {
+            String name = openNames.remove(openNames.size() - 1);
+            if (startTagOpen) {
+                xml.append("/>");
+                startTagOpen = false;
+            } else {
+                xml.append("</").append(name).append('>');
+            }
+            return openNames.isEmpty();
+        }
+
+        void text(String text) {
+            closeStartTag();
+            escape(text, false);
+        }
+
+        String xml() {
+            return xml.toString();
+        }
+
+        private void closeStartTag() {
+            if (startTagOpen) {
+                xml.append('>');
+                startTagOpen = false;
+            }
+        }
+
+        private void escape(String value, boolean attribute) {
+            for (int i = 0; i < value.length(); i++) {
+                char c = value.charAt(i);
+                switch (c) {
+                    case '&' -> xml.append("&amp;");
+                    case '<' -> xml.append("&lt;");
+                    case '>' -> xml.append("&gt;");
+                    case '"' -> xml.append(attribute ? "&quot;" : "\"");
+                    case '\n' -> xml.append(attribute ? "&#10;" : "\n");
+                    default -> xml.append(c);
+                }
+            }
+        }
+    }
+}
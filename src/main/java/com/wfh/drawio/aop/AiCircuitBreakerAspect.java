@@ -3,6 +3,7 @@ package com.wfh.drawio.aop;
 import com.wfh.drawio.annotation.AiFeature;
 import com.wfh.drawio.common.ErrorCode;
 import com.wfh.drawio.exception.BusinessException;
+import com.wfh.drawio.manager.AiUsageManager;
 import com.wfh.drawio.model.entity.User;
 import com.wfh.drawio.service.UserService;
 import jakarta.annotation.Resource;
@@ -10,17 +11,11 @@ import jakarta.servlet.http.HttpServletRequest;
 import org.aspectj.lang.ProceedingJoinPoint;
 import org.aspectj.lang.annotation.Around;
 import org.aspectj.lang.annotation.Aspect;
-import org.springframework.data.redis.core.StringRedisTemplate;
 import org.springframework.stereotype.Component;
-import org.springframework.util.StopWatch;
 import org.springframework.web.context.request.RequestAttributes;
 import org.springframework.web.context.request.RequestContextHolder;
 import org.springframework.web.context.request.ServletRequestAttributes;
 
-import java.util.concurrent.TimeUnit;
-
-import static com.wfh.drawio.constant.RedisPrefixConstant.*;
-
 /**
  * @author fenghuanwang
  */
@@ -29,7 +24,7 @@ import static com.wfh.drawio.constant.RedisPrefixConstant.*;
 public class AiCircuitBreakerAspect {
 
     @Resource
-    private StringRedisTemplate stringRedisTemplate;
+    private AiUsageManager aiUsageManager;
 
     @Resource
     private UserService userService;
@@ -42,61 +37,22 @@ public class AiCircuitBreakerAspect {
         HttpServletRequest httpServletRequest = ((ServletRequestAttributes) requestAttributes).getRequest();
         // 获取当前登录用户
         User loginUser = userService.getLoginUser(httpServletRequest);
-        // 1. 从 Redis 读取开关状态
-        // 如果 Key 不存在，默认认为是开启的 (true)，或者你可以设计为默认关闭
-        String status = stringRedisTemplate.opsForValue().get(GLOBAL_AI_SWITCH_KEY);
-        
-        // 2. 如果状态是 "false" 或 "off"，直接抛出异常，阻止后续逻辑执行
-        if ("false".equalsIgnoreCase(status) || "off".equalsIgnoreCase(status)) {
+        // 1. 当日 token 预算按模型返回的实际用量在本地判断，不访问 Redis
+        if (aiUsageManager.isTokenBudgetExhausted()) {
+            throw new BusinessException(ErrorCode.OPERATION_ERROR, "今日AI额度已用完，请使用自定义的llm");
+        }
+        // 2. 全局开关、用户开关与调用次数扣减（优先每日次数，其次邀请奖励次数）在一次 Redis 调用中原子完成
+        long result = aiUsageManager.acquireCall(loginUser.getId());
+        if (result == AiUsageManager.RESULT_GLOBAL_DISABLED) {
             throw new BusinessException(ErrorCode.OPERATION_ERROR, "AI服务维护中，请使用自定义的llm");
         }
-        // 全局ai是启用的情况下，校验某个用户是否启用ai功能
-        String userKey = USER_AI_SWITCH_KEY + loginUser.getId().toString();
-        String userStatus = stringRedisTemplate.opsForValue().get(userKey);
-        if ("false".equalsIgnoreCase(userStatus) || "off".equalsIgnoreCase(userStatus)){
+        if (result == AiUsageManager.RESULT_USER_DISABLED) {
             throw new BusinessException(ErrorCode.OPERATION_ERROR, "您的AI服务被禁用，请联系管理员");
         }
-
-        // AI服务没有被全局禁用，而且单个用户的AI服务也没有被禁用，就判断当前用户调用AI的此时是否达到了限制
-        String callCountKey = USER_AI_CALL_COUNT + loginUser.getId().toString();
-        Boolean hasKey = stringRedisTemplate.hasKey(callCountKey);
-        // 使用 Boolean.FALSE.equals 防止自动拆箱引起的 NullPointerException
-        if (Boolean.FALSE.equals(hasKey) || hasKey == null) {
-            stringRedisTemplate.opsForValue().set(callCountKey, "5");
-        }
-        
-        // 获取当前剩余次数
-        String countStr = stringRedisTemplate.opsForValue().get(callCountKey);
-        int dailyCount = (countStr != null) ? Integer.parseInt(countStr) : 0;
-        
-        if (dailyCount > 0) {
-            // 还有每日次数，优先扣除每日次数
-            stringRedisTemplate.opsForValue().decrement(callCountKey);
-        } else {
-            // 每日次数已耗尽，检查永久奖励次数
-            String bonusCountKey = USER_AI_BONUS_COUNT + loginUser.getId().toString();
-            String bonusCountStr = stringRedisTemplate.opsForValue().get(bonusCountKey);
-            int bonusCount = (bonusCountStr != null) ? Integer.parseInt(bonusCountStr) : 0;
-            
-            if (bonusCount > 0) {
-                // 扣除奖励次数
-                stringRedisTemplate.opsForValue().decrement(bonusCountKey);
-            } else {
-                // 均已耗尽
-                throw new BusinessException(ErrorCode.OPERATION_ERROR, "您当日的AI调用次数已经达到上限，且无可用邀请奖励次数，请明日再来");
-            }
+        if (result == AiUsageManager.RESULT_EXHAUSTED) {
+            throw new BusinessException(ErrorCode.OPERATION_ERROR, "您当日的AI调用次数已经达到上限，且无可用邀请奖励次数，请明日再来");
         }
-        // 3. 在这里顺便做全局 Token 消耗监控(因为是流式响应的，所以统计本次ai回复的时长反应token消耗)
-        StopWatch stopWatch = new StopWatch();
-        // 开始计时
-        stopWatch.start();
-        // 执行原方法
-        Object result = joinPoint.proceed();
-        // 停止计时, 计算总时间
-        stopWatch.stop();
-        double totalTime = stopWatch.getTotalTime(TimeUnit.SECONDS);
-        // 总耗时写入Redis
-        stringRedisTemplate.opsForValue().increment(GLOBAL_AI_TOKEN_KEY, totalTime);
-        return result;
+        // 3. token 用量由模型层按响应元数据记录（流式响应在方法返回后才产生）
+        return joinPoint.proceed();
     }
-}
\ No newline at end of file
+}
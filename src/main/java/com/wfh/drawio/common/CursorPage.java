@@ -0,0 +1,44 @@
+package com.wfh.drawio.common;
+
+import lombok.Data;
+
+import java.io.Serializable;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * 游标分页结果
+ * 不返回总数，前端用 nextCursor 请求下一页，hasMore 为 false 时表示已到末页
+ *
+ * @param <T>
+ * @author fenghuanwang
+ */
+@Data
+public class CursorPage<T> implements Serializable {
+
+    /**
+     * 当前页记录
+     */
+    private List<T> records = Collections.emptyList();
+
+    /**
+     * 下一页游标，末页为 null
+     */
+    private String nextCursor;
+
+    /**
+     * 是否还有下一页
+     */
+    private boolean hasMore;
+
+    /**
+     * 替换记录（如实体列表转封装列表），保留游标信息
+     */
+    public <R> CursorPage<R> withRecords(List<R> newRecords) {
+        CursorPage<R> page = new CursorPage<>();
+        page.setRecords(newRecords);
+        page.setNextCursor(nextCursor);
+        page.setHasMore(hasMore);
+        return page;
+    }
+}
@@ -0,0 +1,106 @@
+package com.wfh.drawio.common;
+
+import cn.hutool.core.util.StrUtil;
+import com.baomidou.mybatisplus.core.conditions.query.QueryWrapper;
+import com.baomidou.mybatisplus.extension.service.IService;
+import com.wfh.drawio.exception.BusinessException;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Base64;
+import java.util.Date;
+import java.util.List;
+import java.util.function.Function;
+
+/**
+ * 游标（keyset）分页工具
+ * <p>
+ * 按 (createTime DESC, id DESC) 排序，游标为上一页最后一条记录的 (createTime, id)，
+ * 下一页条件为 createTime &lt; t OR (createTime = t AND id &lt; id)，多取一条判断是否还有下一页。
+ * 与 OFFSET + COUNT(*) 相比，任意深度翻页都只扫描 pageSize + 1 行，且不做计数。
+ * 需要有以筛选列开头、以 (createTime, id) 结尾的联合索引，例如：
+ * diagram(spaceId, createTime, id)、diagram(userId, createTime, id)、space(userId, createTime, id)、
+ * conversion(diagramId, userId, createTime, id)。
+ *
+ * @author fenghuanwang
+ */
+public class CursorUtils {
+
+    private static final String CREATE_TIME_COLUMN = "createTime";
+
+    private static final String ID_COLUMN = "id";
+
+    private static final char SEPARATOR = '_';
+
+    private CursorUtils() {
+    }
+
+    /**
+     * 游标分页查询
+     *
+     * @param service          数据源
+     * @param queryWrapper     筛选条件（不应包含排序，会统一按 createTime、id 倒序）
+     * @param cursor           上一页返回的游标，首页传 null
+     * @param size             每页条数
+     * @param createTimeGetter 取创建时间
+     * @param idGetter         取主键
+     * @return 游标分页结果
+     */
+    public static <T> CursorPage<T> page(IService<T> service, QueryWrapper<T> queryWrapper, String cursor, int size,
+                                         Function<T, Date> createTimeGetter, Function<T, Long> idGetter) {
+        if (size <= 0) {
+            throw new BusinessException(ErrorCode.PARAMS_ERROR, "每页条数必须大于0");
+        }
+        if (StrUtil.isNotBlank(cursor)) {
+            Position position = decode(cursor);
+            Date createTime = new Date(position.createTime());
+            queryWrapper.and(qw -> qw.lt(CREATE_TIME_COLUMN, createTime)
+                    .or(eqTime -> eqTime.eq(CREATE_TIME_COLUMN, createTime).lt(ID_COLUMN, position.id())));
+        }
+        queryWrapper.orderByDesc(CREATE_TIME_COLUMN, ID_COLUMN);
+        queryWrapper.last("limit " + (size + 1));
+        List<T> records = service.list(queryWrapper);
+
+        CursorPage<T> cursorPage = new CursorPage<>();
+        boolean hasMore = records.size() > size;
+        if (hasMore) {
+            records = records.subList(0, size);
+        }
+        cursorPage.setRecords(records);
+        cursorPage.setHasMore(hasMore);
+        if (hasMore) {
+            T last = records.get(records.size() - 1);
+            cursorPage.setNextCursor(encode(createTimeGetter.apply(last), idGetter.apply(last)));
+        }
+        return cursorPage;
+    }
+
+    /**
+     * 编码游标，对前端不透明
+     */
+    public static String encode(Date createTime, Long id) {
+        String raw = createTime.getTime() + String.valueOf(SEPARATOR) + id;
+        return Base64.getUrlEncoder().withoutPadding().encodeToString(raw.getBytes(StandardCharsets.UTF_8));
+    }
+
+    /**
+     * 解码游标
+     */
+    public static Position decode(String cursor) {
+        try {
+            String raw = new String(Base64.getUrlDecoder().decode(cursor), StandardCharsets.UTF_8);
+            int index = raw.indexOf(SEPARATOR);
+            return new Position(Long.parseLong(raw.substring(0, index)), Long.parseLong(raw.substring(index + 1)));
+        } catch (IllegalArgumentException | IndexOutOfBoundsException e) {
+            throw new BusinessException(ErrorCode.PARAMS_ERROR, "游标无效");
+        }
+    }
+
+    /**
+     * 游标位置
+     *
+     * @param createTime 创建时间戳（毫秒）
+     * @param id         主键
+     */
+    public record Position(long createTime, long id) {
+    }
+}
@@ -31,4 +31,9 @@ public class PageRequest {
      * 排序顺序（默认升序）
      */
     private String sortOrder = CommonConstant.SORT_ORDER_ASC;
+
+    /**
+     * 游标（仅游标分页接口使用，首页不传，后续传上一页返回的 nextCursor）
+     */
+    private String cursor;
 }
@@ -34,4 +34,16 @@ public class RedisConfig {
         template.setHashValueSerializer(RedisSerializer.byteArray());
         return template;
     }
+
+    /**
+     * Redis pub/sub 监听容器，用于跨节点广播（如缓存版本变更）
+     * @param connectionFactory
+     * @return
+     */
+    @Bean
+    public RedisMessageListenerContainer redisMessageListenerContainer(RedisConnectionFactory connectionFactory) {
+        RedisMessageListenerContainer container = new RedisMessageListenerContainer();
+        container.setConnectionFactory(connectionFactory);
+        return container;
+    }
 }
@@ -1,6 +1,7 @@
 package com.wfh.drawio.config;
 
 import lombok.Data;
+import org.apache.commons.lang3.StringUtils;
 import org.springframework.boot.context.properties.ConfigurationProperties;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
@@ -8,6 +9,7 @@ import software.amazon.awssdk.auth.credentials.AwsBasicCredentials;
 import software.amazon.awssdk.auth.credentials.StaticCredentialsProvider;
 import software.amazon.awssdk.regions.Region;
 import software.amazon.awssdk.services.s3.S3Client;
+import software.amazon.awssdk.services.s3.S3Configuration;
 import software.amazon.awssdk.services.s3.presigner.S3Presigner;
 
 import java.net.URI;
@@ -29,6 +31,15 @@ public class RustFsClientConfig {
     private String acessSecret;
     private String bucketName;
 
+    /**
+     * 浏览器访问对象存储使用的地址，预签名 URL 的签名包含 Host，必须与实际访问地址一致；不配置则同 endpoint
+     */
+    private String publicEndpoint;
+
+    /**
+     * 预签名下载链接有效期（秒）
+     */
+    private long presignTtlSeconds = 300;
 
     @Bean
     public S3Client s3Client(){
@@ -48,7 +59,9 @@ public class RustFsClientConfig {
                 .region(Region.US_EAST_1)
                 .credentialsProvider(StaticCredentialsProvider.create(
                         AwsBasicCredentials.create(accessKey, acessSecret)))
-                .endpointOverride(URI.create(endpoint))
+                .endpointOverride(URI.create(StringUtils.isNotBlank(publicEndpoint) ? publicEndpoint : endpoint))
+                // 与 S3Client 保持一致使用路径风格，否则会把桶名拼进域名
+                .serviceConfiguration(S3Configuration.builder().pathStyleAccessEnabled(true).build())
                 .build();
     }
 
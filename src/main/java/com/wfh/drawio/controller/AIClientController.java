@@ -10,9 +10,11 @@ import com.wfh.drawio.model.dto.diagram.FreeTrialRequest;
 import com.wfh.drawio.model.enums.RateLimitType;
 import com.wfh.drawio.service.AiService;
 import com.wfh.drawio.service.DiagramService;
+import com.wfh.drawio.service.UserService;
 import io.swagger.v3.oas.annotations.Operation;
 import io.swagger.v3.oas.annotations.tags.Tag;
 import jakarta.annotation.Resource;
+import jakarta.servlet.http.HttpServletRequest;
 import lombok.extern.slf4j.Slf4j;
 import org.apache.commons.lang3.StringUtils;
 import org.springframework.web.bind.annotation.PostMapping;
@@ -43,6 +45,9 @@ public class AIClientController {
     @Resource
     private DiagramService diagramService;
 
+    @Resource
+    private UserService userService;
+
 
     /**
      * 基础图表生成对话（已废弃）
@@ -88,13 +93,14 @@ public class AIClientController {
                     **权限要求：**
                     - 需要登录
                     - 需要消耗AI调用额度""")
-    public SseEmitter doChatStream(@RequestBody CustomChatRequest request){
+    public SseEmitter doChatStream(@RequestBody CustomChatRequest request, HttpServletRequest httpServletRequest){
         String message = request.getMessage();
         String diagramId = request.getDiagramId();
         if (StringUtils.isAnyEmpty(message, diagramId)) {
             throw new BusinessException(ErrorCode.PARAMS_ERROR);
         }
-        return aiService.getSseEmitter(request, drawClient);
+        userService.getLoginUser(httpServletRequest);
+        return aiService.getSseEmitter(request, drawClient, aiService.getDiagramOwnerId(diagramId));
     }
 
     /**
@@ -125,7 +131,7 @@ public class AIClientController {
                     **权限要求：**
                     - 需要登录""")
     @RateLimit(limitType = RateLimitType.USER, rate = 1, rateInterval = 1)
-    public SseEmitter doCustomChatStream(@RequestBody CustomChatRequest request) {
+    public SseEmitter doCustomChatStream(@RequestBody CustomChatRequest request, HttpServletRequest httpServletRequest) {
         String message = request.getMessage();
         String diagramId = request.getDiagramId();
         String modelId = request.getModelId();
@@ -134,7 +140,8 @@ public class AIClientController {
         if (StringUtils.isAnyEmpty(message, diagramId, modelId, baseUrl, apiKey)) {
             throw new BusinessException(ErrorCode.PARAMS_ERROR);
         }
-        return aiService.getSseEmitter(request, drawClient);
+        userService.getLoginUser(httpServletRequest);
+        return aiService.getSseEmitter(request, drawClient, aiService.getDiagramOwnerId(diagramId));
     }
 
     /**
@@ -175,7 +182,8 @@ public class AIClientController {
         chatRequest.setDiagramId(diagramId);
         chatRequest.setModelId(request.getModelId()); // 可选，默认使用系统配置的模型
 
-        return aiService.getSseEmitter(chatRequest, drawClient);
+        // 临时图表不属于任何用户
+        return aiService.getSseEmitter(chatRequest, drawClient, null);
     }
 
 }
@@ -2,6 +2,7 @@ package com.wfh.drawio.controller;
 
 import com.baomidou.mybatisplus.extension.plugins.pagination.Page;
 import com.wfh.drawio.common.BaseResponse;
+import com.wfh.drawio.common.CursorPage;
 import com.wfh.drawio.common.ResultUtils;
 import com.wfh.drawio.model.entity.Conversion;
 import com.wfh.drawio.model.entity.User;
@@ -67,4 +68,35 @@ public class ConversionController {
         return ResultUtils.success(conversionPage);
     }
 
+    /**
+     * 游标分页查询某个图表的对话历史
+     *
+     * @param diagramId 图表ID
+     * @param pageSize  每页数量（默认10条）
+     * @param cursor    上一页返回的游标，首页不传
+     * @param request   HTTP请求
+     * @return 对话历史游标分页列表
+     */
+    @GetMapping("/diagram/{diagramId}/cursor")
+    @Operation(summary = "游标查询图表对话历史",
+            description = """
+                    按 (创建时间, ID) 倒序查询指定图表的AI对话历史，不返回总数，同一时间的多条消息不会遗漏。
+
+                    **使用方式：**
+                    - 首页不传 cursor
+                    - 下一页传上一页返回的 nextCursor，hasMore 为 false 时表示没有更多数据
+
+                    **权限要求：**
+                    - 需要登录
+                    - 仅图表创建人可查询""")
+    public BaseResponse<CursorPage<Conversion>> listDiagramChatHistoryByCursor(
+            @PathVariable Long diagramId,
+            @RequestParam(defaultValue = "10") int pageSize,
+            @RequestParam(required = false) String cursor,
+            HttpServletRequest request
+            ){
+        User loginUser = userService.getLoginUser(request);
+        return ResultUtils.success(conversionService.listDiagramChatHistoryByCursor(diagramId, pageSize, cursor, loginUser));
+    }
+
 }
@@ -5,11 +5,14 @@ import com.baomidou.mybatisplus.extension.plugins.pagination.Page;
 import com.wfh.drawio.common.*;
 import com.wfh.drawio.exception.BusinessException;
 import com.wfh.drawio.exception.ThrowUtils;
+import com.wfh.drawio.manager.DiagramContentStore;
 import com.wfh.drawio.manager.RustFsManager;
+import com.wfh.drawio.manager.render.DiagramRenderQueue;
 import com.wfh.drawio.model.dto.diagram.*;
 import com.wfh.drawio.model.entity.*;
 import com.wfh.drawio.model.enums.AuthorityEnums;
 import com.wfh.drawio.model.enums.FileUploadBizEnum;
+import com.wfh.drawio.model.vo.DiagramStorageReportVO;
 import com.wfh.drawio.model.vo.DiagramVO;
 import com.wfh.drawio.service.*;
 import io.swagger.v3.oas.annotations.Operation;
@@ -21,10 +24,14 @@ import lombok.extern.slf4j.Slf4j;
 import org.apache.commons.io.FilenameUtils;
 import org.apache.commons.lang3.RandomStringUtils;
 import org.springframework.beans.BeanUtils;
+import org.springframework.http.CacheControl;
+import org.springframework.http.HttpHeaders;
 import org.springframework.security.access.prepost.PreAuthorize;
 import org.springframework.web.bind.annotation.*;
+import org.springframework.web.context.request.ServletWebRequest;
 import org.springframework.web.multipart.MultipartFile;
 
+import java.io.IOException;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
@@ -43,6 +50,13 @@ import java.util.Map;
 @Slf4j
 public class DiagramController {
 
+    /**
+     * 图表详情与文件下载都按登录用户鉴权（公共图库的图表也只有创建人可查看），响应不能进共享缓存，
+     * 只允许浏览器私有缓存且每次使用前带条件头回源校验。可公开长期缓存的缩略图按内容哈希存放，
+     * 由对象存储直接返回 public, max-age, immutable，不经过这里
+     */
+    private static final CacheControl AUTHORIZED_CACHE_CONTROL = CacheControl.noCache().cachePrivate();
+
     @Resource
     private DiagramService diagramService;
 
@@ -55,6 +69,12 @@ public class DiagramController {
     @Resource
     private RustFsManager rustFsManager;
 
+    @Resource
+    private DiagramContentStore diagramContentStore;
+
+    @Resource
+    private DiagramRenderQueue diagramRenderQueue;
+
     @Resource
     private RoomSnapshotsService snapshotsService;
 
@@ -68,19 +88,18 @@ public class DiagramController {
     private SpaceRoleService spaceRoleService;
 
     /**
-     * 检查是否有上传权限，抢锁
-     * 用于协作场景，抢到锁的客户端负责上传图表操作快照
+     * 检查是否需要上传快照
+     * 用于协作场景，最新快照超过冷却时间后由客户端上传新的图表操作快照
      *
      * @param roomId 房间ID
-     * @return 是否抢锁成功
+     * @return 是否需要上传
      */
     @GetMapping("/check-lock/{roomId}")
-    @Operation(summary = "检查上传权限并抢锁",
-            description = "用于协作场景，多个客户端同时编辑时，抢到锁的客户端负责上传图表操作快照到服务器。" +
-                    "抢锁成功后有5分钟的冷却期，冷却期内其他客户端无法抢锁。")
+    @Operation(summary = "检查是否需要上传快照",
+            description = "用于协作场景，每1分钟冷却期内只有第一个请求的客户端返回true，由它上传图表操作快照。" +
+                    "资格到期自动失效，无需释放，上传的客户端崩溃后下一个冷却期由其他客户端接手。")
     public BaseResponse<Boolean> checkLock(@PathVariable Long roomId) {
-        boolean b = diagramService.tryAcquireLock(String.valueOf(roomId));
-        return ResultUtils.success(b);
+        return ResultUtils.success(snapshotsService.tryClaimSnapshot(roomId));
     }
 
     /**
@@ -170,7 +189,7 @@ public class DiagramController {
         Diagram diagram = diagramService.getById(diagramId);
         if (diagram != null && diagram.isFreeTrial()) {
             // 自动认领：将临时图表绑定到当前用户
-            diagramService.claimFreeTrialDiagram(diagramId, loginUser.getId(), spaceId, null);
+            diagramService.claimFreeTrialDiagram(diagramId, loginUser.getId(), spaceId, null, null);
             // 重新获取图表信息
             diagram = diagramService.getById(diagramId);
         }
@@ -199,7 +218,7 @@ public class DiagramController {
         String extension = FilenameUtils.getExtension(filename);
         try {
             // 上传文件
-            fileUrl = rustFsManager.putObject(filepath, multipartFile.getInputStream());
+            fileUrl = rustFsManager.putObject(filepath, multipartFile.getInputStream(), multipartFile.getSize());
 
             // 使用service层方法处理业务逻辑（包含额度校验和更新）
             diagramService.uploadDiagramWithQuota(diagramId, spaceId, fileUrl, fileSize, extension, loginUser);
@@ -240,20 +259,120 @@ public class DiagramController {
                     - 采用流式代理下载，直接从对象存储读取并写入响应流
                     - 不占用服务器内存，适合大文件下载
                     - 自动设置正确的Content-Type和Content-Disposition响应头
+                    - 支持 If-None-Match / If-Modified-Since，文件未变化时返回 304
                     """)
     public void downloadRemoteFile(@RequestParam(required = false) String fileName,
                                    @RequestParam(required = true) String type,
                                    @RequestParam(required = true) Long diagramId,
-                                   HttpServletResponse response, HttpServletRequest request) {
-            User loginUser = userService.getLoginUser(request);
-            Diagram diagram = diagramService.getById(diagramId);
-            if (diagram == null){
-                throw new BusinessException(ErrorCode.NOT_FOUND_ERROR, "图表不存在");
+                                   HttpServletResponse response, HttpServletRequest request,
+                                   ServletWebRequest webRequest) {
+            Diagram diagram = checkDownloadPermission(diagramId, request);
+            if (checkNotModified(diagramService.getDiagramFileETag(diagram, type), diagram, AUTHORIZED_CACHE_CONTROL, webRequest)) {
+                return;
             }
-            if (!diagram.getUserId().equals(loginUser.getId()) && !userService.isAdmin(loginUser)){
-                throw new BusinessException(ErrorCode.NO_AUTH_ERROR);
+            diagramService.downloadDiagramFile(diagramId, type, fileName, response);
+    }
+
+    /**
+     * 获取图表文件的预签名下载链接
+     *
+     * @param fileName 下载后的文件名（可选）
+     * @param type 文件类型，支持：SVG、PNG、XML
+     * @param diagramId 图表ID
+     * @param request HTTP请求对象
+     * @return 预签名下载链接，为空时请改用 /diagram/stream-download
+     */
+    @GetMapping("/download-url")
+    @Operation(summary = "获取图表文件下载链接",
+            description = """
+                    返回对象存储的短期预签名下载链接，浏览器直接从对象存储下载，不经过后端转发。
+
+                    **权限要求：**
+                    - 需要登录
+                    - 仅图表创建人或管理员可下载
+
+                    **说明：**
+                    - 链接有效期较短（默认5分钟），请获取后立即使用
+                    - XML 格式或文件不在对象存储中时返回空，需改用流式代理下载接口
+                    """)
+    public BaseResponse<String> getDownloadUrl(@RequestParam(required = false) String fileName,
+                                               @RequestParam(required = true) String type,
+                                               @RequestParam(required = true) Long diagramId,
+                                               HttpServletRequest request) {
+        checkDownloadPermission(diagramId, request);
+        return ResultUtils.success(diagramService.getDiagramDownloadUrl(diagramId, type, fileName));
+    }
+
+    /**
+     * 下载图表文件（重定向到预签名链接）
+     * 能生成预签名链接时 302 跳转到对象存储，否则回退为流式代理下载
+     *
+     * @param fileName 下载后的文件名（可选）
+     * @param type 文件类型，支持：SVG、PNG、XML
+     * @param diagramId 图表ID
+     * @param response HTTP响应对象
+     * @param request HTTP请求对象
+     */
+    @GetMapping("/download")
+    @Operation(summary = "下载图表文件（直链）",
+            description = """
+                    重定向到对象存储的短期预签名链接下载图表文件。
+
+                    **权限要求：**
+                    - 需要登录
+                    - 仅图表创建人或管理员可下载
+
+                    **下载方式：**
+                    - SVG、PNG：302 重定向到预签名链接，由浏览器直接从对象存储下载
+                    - XML 或无法生成预签名链接时：回退为流式代理下载
+                    """)
+    public void downloadByRedirect(@RequestParam(required = false) String fileName,
+                                   @RequestParam(required = true) String type,
+                                   @RequestParam(required = true) Long diagramId,
+                                   HttpServletResponse response, HttpServletRequest request,
+                                   ServletWebRequest webRequest) throws IOException {
+        Diagram diagram = checkDownloadPermission(diagramId, request);
+        String downloadUrl = diagramService.getDiagramDownloadUrl(diagramId, type, fileName);
+        if (downloadUrl == null) {
+            if (checkNotModified(diagramService.getDiagramFileETag(diagram, type), diagram, AUTHORIZED_CACHE_CONTROL, webRequest)) {
+                return;
             }
             diagramService.downloadDiagramFile(diagramId, type, fileName, response);
+            return;
+        }
+        response.sendRedirect(downloadUrl);
+    }
+
+    /**
+     * 下载权限校验：仅图表创建人或管理员
+     */
+    private Diagram checkDownloadPermission(Long diagramId, HttpServletRequest request) {
+        User loginUser = userService.getLoginUser(request);
+        Diagram diagram = diagramService.getById(diagramId);
+        if (diagram == null){
+            throw new BusinessException(ErrorCode.NOT_FOUND_ERROR, "图表不存在");
+        }
+        if (!diagram.getUserId().equals(loginUser.getId()) && !userService.isAdmin(loginUser)){
+            throw new BusinessException(ErrorCode.NO_AUTH_ERROR);
+        }
+        return diagram;
+    }
+
+    /**
+     * 条件请求：设置 ETag、Last-Modified 与 Cache-Control，客户端缓存仍然有效时直接返回 304
+     * <p>
+     * 使用框架传入的 webRequest，处理器返回 null 时框架据此知道已响应 304，不再写响应体
+     *
+     * @param cacheControl 该接口的缓存策略
+     * @return true 表示已响应 304，不需要再写响应体
+     */
+    private boolean checkNotModified(String eTag, Diagram diagram, CacheControl cacheControl, ServletWebRequest webRequest) {
+        webRequest.getResponse().setHeader(HttpHeaders.CACHE_CONTROL, cacheControl.getHeaderValue());
+        if (eTag == null) {
+            return false;
+        }
+        long lastModified = diagram.getUpdateTime() != null ? diagram.getUpdateTime().getTime() : -1;
+        return webRequest.checkNotModified(eTag, lastModified);
     }
 
     // region 增删改查
@@ -433,8 +552,11 @@ public class DiagramController {
                     - 文件URL（svgUrl、pictureUrl）
                     - 文件大小（svgSize、pngSize、picSize）
                     - 所属空间信息（spaceId）
+
+                    **缓存：**
+                    - 响应带 ETag 与 Last-Modified，请求带 If-None-Match / If-Modified-Since 且图表未变化时返回 304（无响应体）
                     """)
-    public BaseResponse<DiagramVO> getDiagramVOById(long id, HttpServletRequest request) {
+    public BaseResponse<DiagramVO> getDiagramVOById(long id, HttpServletRequest request, ServletWebRequest webRequest) {
         ThrowUtils.throwIf(id <= 0, ErrorCode.PARAMS_ERROR);
         // 查询数据库
         Diagram diagram = diagramService.getById(id);
@@ -457,6 +579,10 @@ public class DiagramController {
             }
         }
 
+        // 客户端已有相同版本时只返回 304，不再加载图表内容
+        if (checkNotModified(diagramService.getDiagramETag(diagram), diagram, AUTHORIZED_CACHE_CONTROL, webRequest)) {
+            return null;
+        }
         // 获取封装类
         return ResultUtils.success(diagramService.getDiagramVO(diagram, request));
     }
@@ -485,11 +611,76 @@ public class DiagramController {
         long current = diagramQueryRequest.getCurrent();
         long size = diagramQueryRequest.getPageSize();
         // 查询数据库
-        Page<Diagram> diagramPage = diagramService.page(new Page<>(current, size),
-                diagramService.getQueryWrapper(diagramQueryRequest));
+        Page<Diagram> diagramPage = diagramService.searchPage(new Page<>(current, size), diagramQueryRequest);
         return ResultUtils.success(diagramPage);
     }
 
+    /**
+     * 迁移明文存储的图表内容（仅管理员）
+     *
+     * @return 迁移数量及存储报告
+     */
+    @PostMapping("/content/migrate")
+    @PreAuthorize("hasAuthority('admin')")
+    @Operation(summary = "迁移图表内容存储（管理员专用）",
+            description = """
+                    将仍以明文存储的图表 XML 迁移为压缩、按内容哈希去重的存储，可重复执行。
+
+                    **权限要求：**
+                    - 仅限admin角色使用
+
+                    **返回内容：**
+                    - 本次迁移数量
+                    - 迁移后的存储报告（逻辑大小、去重后大小、实际占用、节省比例）
+                    """)
+    public BaseResponse<DiagramStorageReportVO> migrateDiagramContent() {
+        return ResultUtils.success(diagramContentStore.migrateLegacy());
+    }
+
+    /**
+     * 图表内容存储报告（仅管理员）
+     *
+     * @return 存储报告
+     */
+    @GetMapping("/content/report")
+    @PreAuthorize("hasAuthority('admin')")
+    @Operation(summary = "图表内容存储报告（管理员专用）",
+            description = """
+                    统计图表内容的存储占用。
+
+                    **权限要求：**
+                    - 仅限admin角色使用
+
+                    **返回内容：**
+                    - 逻辑大小：每个图表 XML 原始大小之和
+                    - 去重后大小、压缩后实际占用、节省比例
+                    - 待迁移的明文图表数
+                    """)
+    public BaseResponse<DiagramStorageReportVO> getDiagramContentReport() {
+        return ResultUtils.success(diagramContentStore.report());
+    }
+
+    /**
+     * 为存量图表生成缩略图（仅管理员）
+     *
+     * @return 是否开始回填
+     */
+    @PostMapping("/thumbnail/backfill")
+    @PreAuthorize("hasAuthority('admin')")
+    @Operation(summary = "生成存量图表缩略图（管理员专用）",
+            description = """
+                    在后台为还没有缩略图的图表排队渲染缩略图，接口立即返回，可重复执行。新保存的图表会自动生成，无需调用。
+
+                    **权限要求：**
+                    - 仅限admin角色使用
+
+                    **返回内容：**
+                    - true：已开始回填；false：已有回填在执行或渲染未启用
+                    """)
+    public BaseResponse<Boolean> backfillDiagramThumbnails() {
+        return ResultUtils.success(diagramRenderQueue.backfill());
+    }
+
     /**
      * 分页获取图表列表（封装类）
      * 查询公共图库或私有空间的图表列表
@@ -539,12 +730,55 @@ public class DiagramController {
             }
         }
         // 查询数据库
-        Page<Diagram> diagramPage = diagramService.page(new Page<>(current, size),
-                diagramService.getQueryWrapper(diagramQueryRequest));
+        Page<Diagram> diagramPage = diagramService.searchPage(new Page<>(current, size), diagramQueryRequest);
         // 获取封装类
         return ResultUtils.success(diagramService.getDiagramVOPage(diagramPage, request));
     }
 
+    /**
+     * 游标分页获取图表列表（封装类）
+     * 与 /list/page/vo 相同的查询模式与权限，不查询总数
+     *
+     * @param diagramQueryRequest 查询请求（cursor 为上一页返回的游标）
+     * @param request HTTP请求
+     * @return 图表列表（封装类，游标分页）
+     */
+    @PostMapping("/list/cursor/vo")
+    @Operation(summary = "游标查询图表列表",
+            description = """
+                    按创建时间倒序查询图表列表，不返回总数，查询模式与权限同分页查询图表列表。
+
+                    **使用方式：**
+                    - 首页不传 cursor
+                    - 下一页传上一页返回的 nextCursor，hasMore 为 false 时表示没有更多数据
+
+                    **限制条件：**
+                    - 每页最多20条（防止爬虫）
+                    """)
+    public BaseResponse<CursorPage<DiagramVO>> listDiagramVOByCursor(@RequestBody DiagramQueryRequest diagramQueryRequest,
+                                                                     HttpServletRequest request) {
+        int size = diagramQueryRequest.getPageSize();
+        Long spaceId = diagramQueryRequest.getSpaceId();
+        // 限制爬虫
+        ThrowUtils.throwIf(size > 20, ErrorCode.PARAMS_ERROR);
+        // 公开图库
+        if (spaceId == null){
+            diagramQueryRequest.setNullSpaceId(true);
+        }else {
+            // 私有空间
+            User loginUser = userService.getLoginUser(request);
+            Space space = spaceService.getById(spaceId);
+            ThrowUtils.throwIf(space == null, ErrorCode.NOT_FOUND_ERROR, "空间不存在");
+            if (!loginUser.getId().equals(space.getUserId())){
+                throw new BusinessException(ErrorCode.NO_AUTH_ERROR, "没有空间权限");
+            }
+        }
+        CursorPage<Diagram> diagramPage = CursorUtils.page(diagramService, diagramService.getQueryWrapper(diagramQueryRequest),
+                diagramQueryRequest.getCursor(), size, Diagram::getCreateTime, Diagram::getId);
+        // 获取封装类
+        return ResultUtils.success(diagramService.getDiagramVOCursorPage(diagramPage, request));
+    }
+
     /**
      * 分页获取当前登录用户创建的图表列表
      * 查询自己创建的所有图表（包括公共图库和私有空间）
@@ -581,12 +815,45 @@ public class DiagramController {
         // 限制爬虫
         ThrowUtils.throwIf(size > 20, ErrorCode.PARAMS_ERROR);
         // 查询数据库
-        Page<Diagram> diagramPage = diagramService.page(new Page<>(current, size),
-                diagramService.getQueryWrapper(diagramQueryRequest));
+        Page<Diagram> diagramPage = diagramService.searchPage(new Page<>(current, size), diagramQueryRequest);
         // 获取封装类
         return ResultUtils.success(diagramService.getDiagramVOPage(diagramPage, request));
     }
 
+    /**
+     * 游标分页获取当前登录用户创建的图表列表
+     *
+     * @param diagramQueryRequest 查询请求（cursor 为上一页返回的游标）
+     * @param request HTTP请求
+     * @return 我的图表列表（封装类，游标分页）
+     */
+    @PostMapping("/my/list/cursor/vo")
+    @Operation(summary = "游标查询我的图表",
+            description = """
+                    按创建时间倒序查询当前登录用户创建的所有图表，不返回总数。
+
+                    **使用方式：**
+                    - 首页不传 cursor
+                    - 下一页传上一页返回的 nextCursor，hasMore 为 false 时表示没有更多数据
+
+                    **限制条件：**
+                    - 每页最多20条（防止爬虫）
+                    """)
+    public BaseResponse<CursorPage<DiagramVO>> listMyDiagramVOByCursor(@RequestBody DiagramQueryRequest diagramQueryRequest,
+                                                                       HttpServletRequest request) {
+        ThrowUtils.throwIf(diagramQueryRequest == null, ErrorCode.PARAMS_ERROR);
+        // 补充查询条件，只查询当前登录用户的数据
+        User loginUser = userService.getLoginUser(request);
+        diagramQueryRequest.setUserId(loginUser.getId());
+        int size = diagramQueryRequest.getPageSize();
+        // 限制爬虫
+        ThrowUtils.throwIf(size > 20, ErrorCode.PARAMS_ERROR);
+        CursorPage<Diagram> diagramPage = CursorUtils.page(diagramService, diagramService.getQueryWrapper(diagramQueryRequest),
+                diagramQueryRequest.getCursor(), size, Diagram::getCreateTime, Diagram::getId);
+        // 获取封装类
+        return ResultUtils.success(diagramService.getDiagramVOCursorPage(diagramPage, request));
+    }
+
     /**
      * 编辑图表信息（给用户使用）
      *
@@ -610,6 +877,10 @@ public class DiagramController {
                     - 需要登录
                     - 公共空间：仅图表创建人或管理员可编辑
                     - 私有/团队空间：需要有空间的编辑权限
+
+                    **并发编辑：**
+                    - 传入读取图表时拿到的 version，图表已被他人修改时返回 40900，data 为最新版本号
+                    - 编辑成功后版本号 +1
                     """)
     public BaseResponse<Boolean> editDiagram(@RequestBody DiagramEditRequest diagramEditRequest, HttpServletRequest request) {
         if (diagramEditRequest == null || diagramEditRequest.getId() <= 0) {
@@ -626,7 +897,12 @@ public class DiagramController {
         // 检查是否是免费试用图表，自动认领
         if (oldDiagram.isFreeTrial()) {
             // 自动认领：将临时图表绑定到当前用户（保存到公共图库）
-            diagramService.claimFreeTrialDiagram(id, loginUser.getId(), null, null);
+            // 认领按客户端的版本条件更新，编辑基于认领产生的版本，认领后他人的修改仍会冲突
+            Integer claimedVersion = diagramService.claimFreeTrialDiagram(id, loginUser.getId(), null, null,
+                    diagramEditRequest.getVersion());
+            if (diagramEditRequest.getVersion() != null) {
+                diagramEditRequest.setVersion(claimedVersion);
+            }
             // 重新获取图表信息
             oldDiagram = diagramService.getById(id);
         }
@@ -688,6 +964,27 @@ public class DiagramController {
         Page<DiagramVO> resultPage = diagramService.getPublicDiagramsByPage(pageRequest);
         return ResultUtils.success(resultPage);
     }
+
+    /**
+     * 游标分页获取公共图表列表
+     *
+     * @param pageRequest 查询请求（cursor 为上一页返回的游标）
+     * @return 公共图表列表（游标分页）
+     */
+    @PostMapping("/getDiagrams/cursor")
+    @Operation(summary = "游标获取公共图表列表",
+            description = """
+                    按创建时间倒序获取所有公共空间下的图表，不返回总数。
+
+                    **使用方式：**
+                    - 首页不传 cursor
+                    - 下一页传上一页返回的 nextCursor，hasMore 为 false 时表示没有更多数据
+
+                    **权限要求：**
+                    - 无需登录""")
+    public BaseResponse<CursorPage<DiagramVO>> getByCursor(@RequestBody DiagramQueryRequest pageRequest){
+        return ResultUtils.success(diagramService.getPublicDiagramsByCursor(pageRequest));
+    }
     // endregion
 
     /**
@@ -94,7 +94,7 @@ public class FeedBackController {
 
         try {
             // 上传文件
-            String fileUrl = rustFsManager.putObject(filepath, file.getInputStream());
+            String fileUrl = rustFsManager.putObject(filepath, file.getInputStream(), file.getSize());
             // 返回可访问地址
             return ResultUtils.success(fileUrl);
         } catch (Exception e) {
@@ -87,7 +87,7 @@ public class FileController {
         String fileUrl = "";
         try {
             // 上传文件
-            fileUrl = rustFsManager.putObject(filepath, multipartFile.getInputStream());
+            fileUrl = rustFsManager.putObject(filepath, multipartFile.getInputStream(), multipartFile.getSize());
             // 返回可访问地址
             return ResultUtils.success(fileUrl);
         } catch (Exception e) {
@@ -3,12 +3,15 @@ package com.wfh.drawio.controller;
 import com.baomidou.mybatisplus.extension.plugins.pagination.Page;
 import com.wfh.drawio.annotation.AuthCheck;
 import com.wfh.drawio.common.BaseResponse;
+import com.wfh.drawio.common.CursorPage;
+import com.wfh.drawio.common.CursorUtils;
 import com.wfh.drawio.common.DeleteRequest;
 import com.wfh.drawio.common.ErrorCode;
 import com.wfh.drawio.common.ResultUtils;
 import com.wfh.drawio.constant.UserConstant;
 import com.wfh.drawio.exception.BusinessException;
 import com.wfh.drawio.exception.ThrowUtils;
+import com.wfh.drawio.manager.SpaceQuotaManager;
 import com.wfh.drawio.model.dto.diagram.DiagramQueryRequest;
 import com.wfh.drawio.model.dto.space.SpaceAddReqeust;
 import com.wfh.drawio.model.dto.space.SpaceEditRequest;
@@ -57,6 +60,9 @@ public class SpaceController {
     @Resource
     private DiagramService diagramService;
 
+    @Resource
+    private SpaceQuotaManager spaceQuotaManager;
+
 
     /**
      * 创建空间
@@ -125,6 +131,8 @@ public class SpaceController {
         // 操作数据库
         boolean result = spaceService.updateById(space);
         ThrowUtils.throwIf(!result, ErrorCode.OPERATION_ERROR);
+        // 同步额度计数中的上限
+        spaceQuotaManager.updateLimits(spaceService.getById(id));
         return ResultUtils.success(true);
     }
 
@@ -386,6 +394,44 @@ public class SpaceController {
         return ResultUtils.success(spaceService.getSpaceVOPage(spacePage, request));
     }
 
+    /**
+     * 游标分页获取当前登录用户创建的空间列表
+     * 不查询总数，适合空间较多时的无限滚动
+     *
+     * @param spaceQueryRequest 查询请求（cursor 为上一页返回的游标）
+     * @param request HTTP请求
+     * @return 我的空间列表（封装类，游标分页）
+     */
+    @PostMapping("/my/list/cursor/vo")
+    @Operation(summary = "游标查询我的空间",
+            description = """
+                    按创建时间倒序查询当前登录用户创建的空间，不返回总数。
+
+                    **使用方式：**
+                    - 首页不传 cursor
+                    - 下一页传上一页返回的 nextCursor，hasMore 为 false 时表示没有更多数据
+
+                    **限制条件：**
+                    - 每页最多20条（防止爬虫）
+                    - 固定按创建时间倒序，忽略排序字段
+                    """)
+    public BaseResponse<CursorPage<SpaceVO>> listMySpaceVOByCursor(@RequestBody SpaceQueryRequest spaceQueryRequest,
+                                                                  HttpServletRequest request) {
+        ThrowUtils.throwIf(spaceQueryRequest == null, ErrorCode.PARAMS_ERROR);
+        // 补充查询条件，只查询当前登录用户的数据
+        User loginUser = userService.getLoginUser(request);
+        spaceQueryRequest.setUserId(loginUser.getId());
+        // 游标分页固定按 createTime、id 排序
+        spaceQueryRequest.setSortField(null);
+        int size = spaceQueryRequest.getPageSize();
+        // 限制爬虫
+        ThrowUtils.throwIf(size > 20, ErrorCode.PARAMS_ERROR);
+        CursorPage<Space> spacePage = CursorUtils.page(spaceService, spaceService.getQueryWrapper(spaceQueryRequest),
+                spaceQueryRequest.getCursor(), size, Space::getCreateTime, Space::getId);
+        // 获取封装类
+        return ResultUtils.success(spaceService.getSpaceVOCursorPage(spacePage, request));
+    }
+
     /**
      * 分页获取当前登录用户加入的空间列表
      * 查询用户加入的所有团队空间
@@ -523,9 +569,7 @@ public class SpaceController {
         ThrowUtils.throwIf(size > 20, ErrorCode.PARAMS_ERROR);
 
         // 查询数据库
-        Page<Diagram> diagramPage = diagramService.page(
-                new Page<>(current, size),
-                diagramService.getQueryWrapper(diagramQueryRequest));
+        Page<Diagram> diagramPage = diagramService.searchPage(new Page<>(current, size), diagramQueryRequest);
 
         // 获取封装类
         Page<DiagramVO> diagramVOPage = diagramService.getDiagramVOPage(diagramPage, request);
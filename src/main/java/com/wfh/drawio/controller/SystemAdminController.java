@@ -144,7 +144,7 @@ public class SystemAdminController {
     /**
      * 获取当前AI使用量统计
      *
-     * @return AI使用量数据（如总耗时或调用次数）
+     * @return 当日消耗的 token 总数（每隔几秒由各节点批量写入）
      */
     @GetMapping("/ai-usage")
     @Operation(summary = "获取AI使用量统计",
@@ -152,7 +152,7 @@ public class SystemAdminController {
                     查询系统AI服务的使用量统计。
 
                     **返回内容：**
-                    - AI调用总量统计
+                    - 当日消耗的 token 总数（按模型返回的实际用量统计）
 
                     **权限要求：**
                     - 仅限admin角色""")
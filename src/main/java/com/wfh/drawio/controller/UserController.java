@@ -25,6 +25,7 @@ import com.wfh.drawio.common.ResultUtils;
 import com.wfh.drawio.exception.BusinessException;
 import com.wfh.drawio.exception.ThrowUtils;
 import com.wfh.drawio.manager.RustFsManager;
+import com.wfh.drawio.manager.UserBatchLoader;
 import com.wfh.drawio.model.dto.user.*;
 import com.wfh.drawio.model.entity.User;
 import com.wfh.drawio.model.entity.SysAuthority;
@@ -73,6 +74,9 @@ public class UserController {
     @Resource
     private RustFsManager rustFsManager;
 
+    @Resource
+    private UserBatchLoader userBatchLoader;
+
     @Resource
     private StringRedisTemplate stringRedisTemplate;
 
@@ -459,6 +463,7 @@ public class UserController {
         }
 
         boolean result = userService.updateById(user);
+        userBatchLoader.evict(user.getId());
         return ResultUtils.success(result);
     }
 
@@ -506,6 +511,7 @@ public class UserController {
             throw new BusinessException(ErrorCode.PARAMS_ERROR);
         }
         boolean b = userService.removeById(deleteRequest.getId());
+        userBatchLoader.evict(deleteRequest.getId());
         return ResultUtils.success(b);
     }
 
@@ -532,6 +538,7 @@ public class UserController {
         User user = new User();
         BeanUtils.copyProperties(userUpdateRequest, user);
         boolean result = userService.updateById(user);
+        userBatchLoader.evict(user.getId());
         ThrowUtils.throwIf(!result, ErrorCode.OPERATION_ERROR);
         return ResultUtils.success(true);
     }
@@ -692,7 +699,7 @@ public class UserController {
 
         try {
             // 上传文件
-            String fileUrl = rustFsManager.putObject(filepath, file.getInputStream());
+            String fileUrl = rustFsManager.putObject(filepath, file.getInputStream(), file.getSize());
             // 返回可访问地址
             return ResultUtils.success(fileUrl);
         } catch (Exception e) {
@@ -730,6 +737,7 @@ public class UserController {
         user.setUserName(userUpdateMyRequest.getUserName());
         user.setId(loginUser.getId());
         boolean result = userService.updateById(user);
+        userBatchLoader.evict(user.getId());
         ThrowUtils.throwIf(!result, ErrorCode.OPERATION_ERROR);
         return ResultUtils.success(true);
     }
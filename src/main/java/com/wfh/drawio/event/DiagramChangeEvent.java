@@ -0,0 +1,55 @@
+package com.wfh.drawio.event;
+
+import lombok.Getter;
+import org.springframework.context.ApplicationEvent;
+
+/**
+ * 图表变更事件
+ * 由 DiagramService 在图表新增、修改、删除成功后发布，供缓存失效、索引等下游订阅
+ *
+ * @author fenghuanwang
+ */
+@Getter
+public class DiagramChangeEvent extends ApplicationEvent {
+
+    /**
+     * 图表ID
+     */
+    private final Long diagramId;
+
+    /**
+     * 变更类型
+     */
+    private final ChangeType changeType;
+
+    /**
+     * 变更前所属空间，为空表示公共图库；新增时与变更后相同
+     */
+    private final Long spaceIdBefore;
+
+    /**
+     * 变更后所属空间，为空表示公共图库；删除时与变更前相同
+     */
+    private final Long spaceIdAfter;
+
+    public DiagramChangeEvent(Object source, Long diagramId, ChangeType changeType, Long spaceIdBefore, Long spaceIdAfter) {
+        super(source);
+        this.diagramId = diagramId;
+        this.changeType = changeType;
+        this.spaceIdBefore = spaceIdBefore;
+        this.spaceIdAfter = spaceIdAfter;
+    }
+
+    /**
+     * 变更前或变更后属于公共图库
+     */
+    public boolean isPublicAffected() {
+        return spaceIdBefore == null || spaceIdAfter == null;
+    }
+
+    public enum ChangeType {
+        CREATE,
+        UPDATE,
+        DELETE
+    }
+}
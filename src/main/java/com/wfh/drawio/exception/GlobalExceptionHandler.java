@@ -20,6 +20,14 @@ import org.springframework.web.bind.annotation.RestControllerAdvice;
 @Slf4j
 public class GlobalExceptionHandler {
 
+    /**
+     * 版本冲突属于正常的并发编辑，不打错误日志；data 为最新版本号，客户端据此合并后重试
+     */
+    @ExceptionHandler(VersionConflictException.class)
+    public BaseResponse<Integer> versionConflictExceptionHandler(VersionConflictException e) {
+        return new BaseResponse<>(e.getCode(), e.getLatestVersion(), e.getMessage());
+    }
+
     @ExceptionHandler(BusinessException.class)
     public BaseResponse<?> businessExceptionHandler(BusinessException e) {
         log.error("BusinessException", e);
@@ -0,0 +1,25 @@
+package com.wfh.drawio.exception;
+
+import com.wfh.drawio.common.ErrorCode;
+
+/**
+ * 版本冲突异常（乐观锁更新失败），携带数据的最新版本号
+ *
+ * @author fenghuanwang
+ */
+public class VersionConflictException extends BusinessException {
+
+    /**
+     * 最新版本号
+     */
+    private final Integer latestVersion;
+
+    public VersionConflictException(Integer latestVersion) {
+        super(ErrorCode.CONFLICT_ERROR);
+        this.latestVersion = latestVersion;
+    }
+
+    public Integer getLatestVersion() {
+        return latestVersion;
+    }
+}
@@ -0,0 +1,270 @@
+package com.wfh.drawio.manager;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import jakarta.annotation.Resource;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.ai.chat.metadata.Usage;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.redis.connection.StringRedisConnection;
+import org.springframework.data.redis.core.RedisCallback;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.core.script.DefaultRedisScript;
+import org.springframework.data.redis.core.script.RedisScript;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import java.time.Duration;
+import java.time.LocalDate;
+import java.time.format.DateTimeFormatter;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+
+import static com.wfh.drawio.constant.RedisPrefixConstant.GLOBAL_AI_SWITCH_KEY;
+import static com.wfh.drawio.constant.RedisPrefixConstant.GLOBAL_AI_TOKEN_KEY;
+import static com.wfh.drawio.constant.RedisPrefixConstant.USER_AI_BONUS_COUNT;
+import static com.wfh.drawio.constant.RedisPrefixConstant.USER_AI_CALL_COUNT;
+import static com.wfh.drawio.constant.RedisPrefixConstant.USER_AI_SWITCH_KEY;
+
+/**
+ * AI 调用额度与 token 用量
+ * <p>
+ * 调用前的开关校验与次数扣减由一个 Lua 脚本原子完成（原先每次调用要 5 次以上非原子的 Redis 读写）。
+ * token 用量取自模型响应元数据中的 prompt / completion token，按模型在本地 {@link LongAdder} 中累加，
+ * 定时以一次 pipeline 批量写入 Redis：全局当日总量累加到 {@link com.wfh.drawio.constant.RedisPrefixConstant#GLOBAL_AI_TOKEN_KEY}，
+ * 按模型的明细写入当日 Hash。全局总量的返回值即各节点合计，当日 token 预算据此 + 本地未写入部分在本地判断，不额外访问 Redis。
+ *
+ * @author fenghuanwang
+ */
+@Component
+@Slf4j
+public class AiUsageManager {
+
+    private static final String MODEL_TOKEN_KEY_PREFIX = "system:ai:token:model:";
+
+    private static final Duration MODEL_TOKEN_TTL = Duration.ofDays(30);
+
+    private static final DateTimeFormatter DAY_FORMAT = DateTimeFormatter.BASIC_ISO_DATE;
+
+    public static final long RESULT_OK = 0;
+
+    public static final long RESULT_GLOBAL_DISABLED = 1;
+
+    public static final long RESULT_USER_DISABLED = 2;
+
+    public static final long RESULT_EXHAUSTED = 3;
+
+    /**
+     * 校验全局与用户开关，优先扣减每日次数，其次扣减奖励次数
+     * KEYS[1] 全局开关，KEYS[2] 用户开关，KEYS[3] 每日次数，KEYS[4] 奖励次数；ARGV[1] 每日初始次数
+     */
+    private static final RedisScript<Long> ACQUIRE_SCRIPT = new DefaultRedisScript<>("""
+            local function off(value)
+                if not value then
+                    return false
+                end
+                value = string.lower(value)
+                return value == 'false' or value == 'off'
+            end
+            if off(redis.call('get', KEYS[1])) then
+                return 1
+            end
+            if off(redis.call('get', KEYS[2])) then
+                return 2
+            end
+            local daily = redis.call('get', KEYS[3])
+            if not daily then
+                daily = ARGV[1]
+                redis.call('set', KEYS[3], daily)
+            end
+            if tonumber(daily) > 0 then
+                redis.call('decr', KEYS[3])
+                return 0
+            end
+            local bonus = tonumber(redis.call('get', KEYS[4]) or '0')
+            if bonus > 0 then
+                redis.call('decr', KEYS[4])
+                return 0
+            end
+            return 3
+            """, Long.class);
+
+    @Value("${drawio.ai-usage.daily-call-count:5}")
+    private int dailyCallCount;
+
+    /**
+     * 全局每日 token 预算，0 表示不限制
+     */
+    @Value("${drawio.ai-usage.daily-token-budget:0}")
+    private long dailyTokenBudget;
+
+    @Resource
+    private StringRedisTemplate stringRedisTemplate;
+
+    @Resource
+    private MeterRegistry meterRegistry;
+
+    /**
+     * 尚未写入 Redis 的用量，按模型ID
+     */
+    private final Map<String, ModelUsage> pending = new ConcurrentHashMap<>();
+
+    /**
+     * 最近一次写入后 Redis 中的全局当日总量
+     */
+    private volatile long flushedTotalTokens;
+
+    @PostConstruct
+    public void init() {
+        try {
+            String value = stringRedisTemplate.opsForValue().get(GLOBAL_AI_TOKEN_KEY);
+            flushedTotalTokens = parseTokens(value);
+            if (value != null && value.contains(".")) {
+                // 旧版本用 INCRBYFLOAT 累加耗时，改为整数后才能 INCRBY
+                stringRedisTemplate.opsForValue().set(GLOBAL_AI_TOKEN_KEY, String.valueOf(flushedTotalTokens));
+            }
+        } catch (Exception e) {
+            log.warn("读取AI使用量失败", e);
+        }
+    }
+
+    /**
+     * 发起 AI 调用前校验开关并扣减一次调用次数
+     *
+     * @param userId 用户ID
+     * @return RESULT_* 之一
+     */
+    public long acquireCall(Long userId) {
+        List<String> keys = List.of(GLOBAL_AI_SWITCH_KEY, USER_AI_SWITCH_KEY + userId,
+                USER_AI_CALL_COUNT + userId, USER_AI_BONUS_COUNT + userId);
+        Long result = stringRedisTemplate.execute(ACQUIRE_SCRIPT, keys, String.valueOf(dailyCallCount));
+        return result == null ? RESULT_OK : result;
+    }
+
+    /**
+     * 当日 token 预算是否已用完
+     */
+    public boolean isTokenBudgetExhausted() {
+        return dailyTokenBudget > 0 && getTodayTokens() >= dailyTokenBudget;
+    }
+
+    /**
+     * 当日全局 token 用量（含本节点尚未写入的部分）
+     */
+    public long getTodayTokens() {
+        long local = 0;
+        for (ModelUsage usage : pending.values()) {
+            local += usage.promptTokens.sum() + usage.completionTokens.sum();
+        }
+        return flushedTotalTokens + local;
+    }
+
+    /**
+     * 记录一次模型调用的实际用量
+     *
+     * @param modelId 模型ID
+     * @param usage   响应元数据中的用量
+     */
+    public void record(String modelId, Usage usage) {
+        if (modelId == null || usage == null) {
+            return;
+        }
+        long promptTokens = usage.getPromptTokens() == null ? 0 : usage.getPromptTokens();
+        long completionTokens = usage.getCompletionTokens() == null ? 0 : usage.getCompletionTokens();
+        if (promptTokens <= 0 && completionTokens <= 0) {
+            return;
+        }
+        ModelUsage modelUsage = pending.computeIfAbsent(modelId, this::newModelUsage);
+        modelUsage.promptTokens.add(promptTokens);
+        modelUsage.completionTokens.add(completionTokens);
+        modelUsage.promptCounter.increment(promptTokens);
+        modelUsage.completionCounter.increment(completionTokens);
+    }
+
+    /**
+     * 把本地累加的用量批量写入 Redis，并取回全局当日总量
+     */
+    @Scheduled(fixedDelayString = "${drawio.ai-usage.flush-interval-ms:3000}")
+    public void flush() {
+        List<Drained> drained = new ArrayList<>();
+        long total = 0;
+        for (Map.Entry<String, ModelUsage> entry : pending.entrySet()) {
+            long promptTokens = entry.getValue().promptTokens.sumThenReset();
+            long completionTokens = entry.getValue().completionTokens.sumThenReset();
+            if (promptTokens > 0 || completionTokens > 0) {
+                drained.add(new Drained(entry.getKey(), promptTokens, completionTokens));
+                total += promptTokens + completionTokens;
+            }
+        }
+        String modelKey = MODEL_TOKEN_KEY_PREFIX + LocalDate.now().format(DAY_FORMAT);
+        long delta = total;
+        try {
+            List<Object> results = stringRedisTemplate.executePipelined((RedisCallback<Object>) connection -> {
+                StringRedisConnection redis = (StringRedisConnection) connection;
+                // 没有新用量时加 0，用于取回其他节点写入后的总量
+                redis.incrBy(GLOBAL_AI_TOKEN_KEY, delta);
+                for (Drained usage : drained) {
+                    redis.hIncrBy(modelKey, usage.modelId + ":prompt", usage.promptTokens);
+                    redis.hIncrBy(modelKey, usage.modelId + ":completion", usage.completionTokens);
+                }
+                if (!drained.isEmpty()) {
+                    redis.expire(modelKey, MODEL_TOKEN_TTL.toSeconds());
+                }
+                return null;
+            });
+            flushedTotalTokens = ((Number) results.get(0)).longValue();
+        } catch (Exception e) {
+            // 放回本地，下一轮重试
+            for (Drained usage : drained) {
+                ModelUsage modelUsage = pending.computeIfAbsent(usage.modelId, this::newModelUsage);
+                modelUsage.promptTokens.add(usage.promptTokens);
+                modelUsage.completionTokens.add(usage.completionTokens);
+            }
+            log.warn("AI用量写入Redis失败", e);
+        }
+    }
+
+    @PreDestroy
+    public void destroy() {
+        flush();
+    }
+
+    /**
+     * 兼容旧版本写入的小数（按秒统计的耗时）
+     */
+    public static long parseTokens(String value) {
+        if (value == null || value.isEmpty()) {
+            return 0;
+        }
+        return Math.round(Double.parseDouble(value));
+    }
+
+    private ModelUsage newModelUsage(String modelId) {
+        return new ModelUsage(
+                Counter.builder("drawio.ai.tokens").tag("model", modelId).tag("type", "prompt").register(meterRegistry),
+                Counter.builder("drawio.ai.tokens").tag("model", modelId).tag("type", "completion").register(meterRegistry));
+    }
+
+    /**
+     * 单个模型尚未写入的用量
+     */
+    private static final class ModelUsage {
+        private final LongAdder promptTokens = new LongAdder();
+        private final LongAdder completionTokens = new LongAdder();
+        private final Counter promptCounter;
+        private final Counter completionCounter;
+
+        private ModelUsage(Counter promptCounter, Counter completionCounter) {
+            this.promptCounter = promptCounter;
+            this.completionCounter = completionCounter;
+        }
+    }
+
+    private record Drained(String modelId, long promptTokens, long completionTokens) {
+    }
+}
@@ -0,0 +1,103 @@
+package com.wfh.drawio.manager;
+
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.Resource;
+import lombok.extern.slf4j.Slf4j;
+import org.apache.commons.lang3.StringUtils;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.listener.ChannelTopic;
+import org.springframework.data.redis.listener.RedisMessageListenerContainer;
+import org.springframework.stereotype.Component;
+
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 缓存版本号管理
+ * <p>
+ * 每类查询缓存（如公共图表分页）对应一个版本号，版本号拼进缓存 key：数据变更时递增版本号，
+ * 旧 key 自然失效并随 TTL 过期，无需逐个删除。版本号存于 Redis，递增后通过 pub/sub 广播，
+ * 各节点收到后更新本地版本并清空对应的本地缓存。
+ *
+ * @author fenghuanwang
+ */
+@Component
+@Slf4j
+public class CacheVersionManager {
+
+    private static final String VERSION_KEY_PREFIX = "cache:version:";
+
+    private static final String VERSION_CHANNEL = "cache:version:changed";
+
+    @Resource
+    private StringRedisTemplate stringRedisTemplate;
+
+    @Resource
+    private RedisMessageListenerContainer redisMessageListenerContainer;
+
+    /**
+     * namespace -> 本地版本号
+     */
+    private final Map<String, AtomicLong> localVersions = new ConcurrentHashMap<>();
+
+    /**
+     * namespace -> 版本变更回调（通常用于清空本地缓存）
+     */
+    private final Map<String, List<Runnable>> listeners = new ConcurrentHashMap<>();
+
+    @PostConstruct
+    public void init() {
+        redisMessageListenerContainer.addMessageListener((message, pattern) -> {
+            // 消息格式：namespace:version
+            String body = new String(message.getBody(), StandardCharsets.UTF_8);
+            int idx = body.lastIndexOf(':');
+            if (idx <= 0) {
+                return;
+            }
+            String namespace = body.substring(0, idx);
+            long version = Long.parseLong(body.substring(idx + 1));
+            applyVersion(namespace, version);
+        }, new ChannelTopic(VERSION_CHANNEL));
+    }
+
+    /**
+     * 获取当前版本号，本地没有时从 Redis 读取
+     */
+    public long currentVersion(String namespace) {
+        return localVersions.computeIfAbsent(namespace, ns -> {
+            String value = stringRedisTemplate.opsForValue().get(VERSION_KEY_PREFIX + ns);
+            return new AtomicLong(StringUtils.isNumeric(value) ? Long.parseLong(value) : 0L);
+        }).get();
+    }
+
+    /**
+     * 递增版本号并广播到所有节点
+     */
+    public long bump(String namespace) {
+        Long version = stringRedisTemplate.opsForValue().increment(VERSION_KEY_PREFIX + namespace);
+        long newVersion = version != null ? version : 0L;
+        applyVersion(namespace, newVersion);
+        stringRedisTemplate.convertAndSend(VERSION_CHANNEL, namespace + ":" + newVersion);
+        return newVersion;
+    }
+
+    /**
+     * 注册版本变更回调
+     */
+    public void onChange(String namespace, Runnable callback) {
+        listeners.computeIfAbsent(namespace, ns -> new CopyOnWriteArrayList<>()).add(callback);
+    }
+
+    private void applyVersion(String namespace, long version) {
+        AtomicLong local = localVersions.computeIfAbsent(namespace, ns -> new AtomicLong());
+        long prev = local.getAndAccumulate(version, Math::max);
+        if (version > prev) {
+            log.debug("缓存版本更新: namespace={}, version={}", namespace, version);
+            listeners.getOrDefault(namespace, List.of()).forEach(Runnable::run);
+        }
+    }
+}
@@ -0,0 +1,291 @@
+package com.wfh.drawio.manager;
+
+import cn.hutool.core.collection.CollUtil;
+import cn.hutool.crypto.digest.DigestUtil;
+import com.baomidou.mybatisplus.core.conditions.query.LambdaQueryWrapper;
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.wfh.drawio.common.ErrorCode;
+import com.wfh.drawio.exception.BusinessException;
+import com.wfh.drawio.mapper.DiagramBlobMapper;
+import com.wfh.drawio.mapper.DiagramContentMapper;
+import com.wfh.drawio.model.entity.DiagramBlob;
+import com.wfh.drawio.model.entity.DiagramContent;
+import com.wfh.drawio.model.vo.DiagramStorageReportVO;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.Resource;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * 图表内容存储
+ * <p>
+ * XML 按 UTF-8 字节的 SHA-256 寻址，deflate 压缩后存入 diagram_blob，内容相同的图表（模板、复制、AI 重试）共用一行；
+ * diagram_content 只记录图表指向的哈希。替换内容时新块引用数 +1、旧块 -1，删除图表时其内容块 -1，归零即删除。
+ * 内容块不可变，解压结果按哈希缓存在本地。
+ *
+ * @author fenghuanwang
+ */
+@Component
+@Slf4j
+public class DiagramContentStore {
+
+    private static final int MIGRATE_BATCH_SIZE = 100;
+
+    @Resource
+    private DiagramContentMapper diagramContentMapper;
+
+    @Resource
+    private DiagramBlobMapper diagramBlobMapper;
+
+    @Resource
+    private TransactionTemplate transactionTemplate;
+
+    /**
+     * hash -> 解压后的 XML
+     */
+    private Cache<String, String> blobCache;
+
+    @PostConstruct
+    public void init() {
+        blobCache = Caffeine.newBuilder()
+                // 按字符数计重，约 64MB
+                .maximumWeight(32L * 1024 * 1024)
+                .weigher((String hash, String xml) -> xml.length())
+                .expireAfterAccess(10, TimeUnit.MINUTES)
+                .build();
+    }
+
+    /**
+     * 读取图表内容
+     *
+     * @param diagramId 图表ID
+     * @return XML，没有内容时返回 null
+     */
+    public String get(Long diagramId) {
+        DiagramContent content = diagramContentMapper.selectById(diagramId);
+        if (content == null) {
+            return null;
+        }
+        if (content.getContentHash() == null) {
+            // 尚未迁移的明文内容
+            return content.getDiagramCode();
+        }
+        return blobCache.get(content.getContentHash(), hash -> {
+            DiagramBlob blob = diagramBlobMapper.selectById(hash);
+            return blob != null ? decompress(blob) : null;
+        });
+    }
+
+    /**
+     * 读取图表内容的 SHA-256，不解压内容，可作为内容的强 ETag
+     *
+     * @param diagramId 图表ID
+     * @return 内容哈希，没有内容时返回 null
+     */
+    public String getContentHash(Long diagramId) {
+        DiagramContent content = diagramContentMapper.selectById(diagramId);
+        if (content == null) {
+            return null;
+        }
+        if (content.getContentHash() != null) {
+            return content.getContentHash();
+        }
+        // 尚未迁移的明文内容，按相同规则现算
+        return content.getDiagramCode() != null ? DigestUtil.sha256Hex(content.getDiagramCode().getBytes(StandardCharsets.UTF_8)) : null;
+    }
+
+    /**
+     * 批量读取图表内容，内容块合并为一次查询
+     *
+     * @param diagramIds 图表ID
+     * @return diagramId -> XML，没有内容的图表不在结果中
+     */
+    public Map<Long, String> getAll(Collection<Long> diagramIds) {
+        if (CollUtil.isEmpty(diagramIds)) {
+            return Collections.emptyMap();
+        }
+        List<DiagramContent> contents = diagramContentMapper.selectByIds(diagramIds);
+        Set<String> hashes = contents.stream()
+                .map(DiagramContent::getContentHash)
+                .filter(Objects::nonNull)
+                .collect(Collectors.toSet());
+        Map<String, String> blobs = hashes.isEmpty() ? Collections.emptyMap() : blobCache.getAll(hashes, missing ->
+                diagramBlobMapper.selectByIds(missing).stream()
+                        .collect(Collectors.toMap(DiagramBlob::getHash, this::decompress)));
+        Map<Long, String> result = new HashMap<>(contents.size() * 2);
+        for (DiagramContent content : contents) {
+            String xml = content.getContentHash() != null ? blobs.get(content.getContentHash()) : content.getDiagramCode();
+            if (xml != null) {
+                result.put(content.getDiagramId(), xml);
+            }
+        }
+        return result;
+    }
+
+    /**
+     * 写入图表内容，内容未变化时不做任何修改
+     *
+     * @param diagramId 图表ID
+     * @param xml       XML
+     */
+    public void put(Long diagramId, String xml) {
+        byte[] raw = xml.getBytes(StandardCharsets.UTF_8);
+        String hash = DigestUtil.sha256Hex(raw);
+        transactionTemplate.executeWithoutResult(status -> {
+            // 先确保内容行存在再锁住它，保证并发替换时旧块引用数只被释放一次
+            diagramContentMapper.insertIfAbsent(diagramId);
+            DiagramContent current = diagramContentMapper.selectByIdForUpdate(diagramId);
+            String oldHash = current != null ? current.getContentHash() : null;
+            if (hash.equals(oldHash)) {
+                return;
+            }
+            byte[] compressed = compress(raw);
+            DiagramBlob blob = new DiagramBlob();
+            blob.setHash(hash);
+            blob.setData(compressed);
+            blob.setRawSize(raw.length);
+            blob.setStoredSize(compressed.length);
+            diagramBlobMapper.insertOrRetain(blob);
+            diagramContentMapper.upsertHash(diagramId, hash);
+            if (oldHash != null) {
+                diagramBlobMapper.release(oldHash);
+                diagramBlobMapper.deleteIfUnreferenced(oldHash);
+            }
+        });
+        blobCache.put(hash, xml);
+    }
+
+    /**
+     * 删除图表内容并释放其内容块引用，引用归零的内容块一并删除
+     * <p>
+     * 在调用方的事务中执行（没有则新开事务），与删除图表一起提交或回滚
+     *
+     * @param diagramIds 图表ID
+     */
+    public void remove(Collection<Long> diagramIds) {
+        if (CollUtil.isEmpty(diagramIds)) {
+            return;
+        }
+        transactionTemplate.executeWithoutResult(status -> {
+            for (Long diagramId : diagramIds) {
+                // 没有内容行时不加锁，避免间隙锁
+                if (diagramContentMapper.selectById(diagramId) == null) {
+                    continue;
+                }
+                DiagramContent current = diagramContentMapper.selectByIdForUpdate(diagramId);
+                if (current == null) {
+                    continue;
+                }
+                diagramContentMapper.deleteById(diagramId);
+                if (current.getContentHash() != null) {
+                    diagramBlobMapper.release(current.getContentHash());
+                    diagramBlobMapper.deleteIfUnreferenced(current.getContentHash());
+                }
+            }
+        });
+    }
+
+    /**
+     * 将明文存储的旧内容迁移为压缩去重存储，可重复执行
+     *
+     * @return 迁移数量及迁移后的存储报告
+     */
+    public DiagramStorageReportVO migrateLegacy() {
+        long migrated = 0;
+        long lastId = 0;
+        while (true) {
+            List<DiagramContent> batch = diagramContentMapper.selectList(new LambdaQueryWrapper<DiagramContent>()
+                    .isNull(DiagramContent::getContentHash)
+                    .isNotNull(DiagramContent::getDiagramCode)
+                    .gt(DiagramContent::getDiagramId, lastId)
+                    .orderByAsc(DiagramContent::getDiagramId)
+                    .last("limit " + MIGRATE_BATCH_SIZE));
+            for (DiagramContent content : batch) {
+                try {
+                    put(content.getDiagramId(), content.getDiagramCode());
+                    migrated++;
+                } catch (Exception e) {
+                    // 单条失败不影响其他图表，下次执行会重试
+                    log.error("图表内容迁移失败: diagramId={}", content.getDiagramId(), e);
+                }
+            }
+            if (batch.size() < MIGRATE_BATCH_SIZE) {
+                break;
+            }
+            lastId = batch.get(batch.size() - 1).getDiagramId();
+        }
+        DiagramStorageReportVO report = report();
+        report.setMigratedCount(migrated);
+        log.info("图表内容迁移完成: {}", report);
+        return report;
+    }
+
+    /**
+     * 存储报告：逻辑大小、去重后大小、压缩后实际占用
+     */
+    public DiagramStorageReportVO report() {
+        DiagramStorageReportVO report = diagramBlobMapper.selectStorageReport();
+        report.setLegacyCount(diagramContentMapper.selectCount(new LambdaQueryWrapper<DiagramContent>()
+                .isNull(DiagramContent::getContentHash)
+                .isNotNull(DiagramContent::getDiagramCode)));
+        return report;
+    }
+
+    static byte[] compress(byte[] raw) {
+        Deflater deflater = new Deflater(Deflater.BEST_COMPRESSION);
+        try {
+            deflater.setInput(raw);
+            deflater.finish();
+            ByteArrayOutputStream out = new ByteArrayOutputStream(Math.max(64, raw.length / 8));
+            byte[] buffer = new byte[8192];
+            while (!deflater.finished()) {
+                out.write(buffer, 0, deflater.deflate(buffer));
+            }
+            return out.toByteArray();
+        } finally {
+            deflater.end();
+        }
+    }
+
+    private String decompress(DiagramBlob blob) {
+        Inflater inflater = new Inflater();
+        try {
+            inflater.setInput(blob.getData());
+            byte[] raw = new byte[blob.getRawSize()];
+            int length = 0;
+            while (length < raw.length && !inflater.finished()) {
+                int n = inflater.inflate(raw, length, raw.length - length);
+                if (n == 0 && (inflater.needsInput() || inflater.needsDictionary())) {
+                    break;
+                }
+                length += n;
+            }
+            if (length != raw.length) {
+                throw new DataFormatException("expected " + raw.length + " bytes but got " + length);
+            }
+            return new String(raw, StandardCharsets.UTF_8);
+        } catch (DataFormatException e) {
+            log.error("图表内容块损坏: hash={}", blob.getHash(), e);
+            throw new BusinessException(ErrorCode.SYSTEM_ERROR, "图表内容损坏");
+        } finally {
+            inflater.end();
+        }
+    }
+}
@@ -4,15 +4,33 @@ import com.wfh.drawio.common.ErrorCode;
 import com.wfh.drawio.config.RustFsClientConfig;
 import com.wfh.drawio.exception.BusinessException;
 import jakarta.annotation.Resource;
+import lombok.extern.slf4j.Slf4j;
+import org.apache.commons.lang3.StringUtils;
 import org.springframework.stereotype.Component;
 import org.springframework.web.util.UriUtils;
 import software.amazon.awssdk.core.sync.RequestBody;
 import software.amazon.awssdk.services.s3.S3Client;
+import software.amazon.awssdk.services.s3.model.AbortMultipartUploadRequest;
+import software.amazon.awssdk.services.s3.model.CompleteMultipartUploadRequest;
+import software.amazon.awssdk.services.s3.model.CompletedMultipartUpload;
+import software.amazon.awssdk.services.s3.model.CompletedPart;
+import software.amazon.awssdk.services.s3.model.CreateMultipartUploadRequest;
+import software.amazon.awssdk.services.s3.model.GetObjectRequest;
+import software.amazon.awssdk.services.s3.model.HeadObjectRequest;
+import software.amazon.awssdk.services.s3.model.NoSuchKeyException;
 import software.amazon.awssdk.services.s3.model.PutObjectRequest;
+import software.amazon.awssdk.services.s3.model.UploadPartRequest;
+import software.amazon.awssdk.services.s3.presigner.S3Presigner;
+import software.amazon.awssdk.services.s3.presigner.model.GetObjectPresignRequest;
 
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
 import java.io.InputStream;
+import java.net.URLEncoder;
 import java.nio.charset.StandardCharsets;
-import java.nio.file.Paths;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
 
 /**
  * @Title: MinioManager
@@ -22,30 +40,226 @@ import java.nio.file.Paths;
  * @description:
  */
 @Component
+@Slf4j
 public class RustFsManager {
 
+    /**
+     * 对外访问地址，上传后返回的文件 URL 以此开头
+     */
+    private static final String PUBLIC_BASE_URL = "https://oss.intellidraw.top";
+
+    /**
+     * 分片大小，S3 协议要求除最后一片外不小于 5MB
+     */
+    private static final int PART_SIZE = 8 * 1024 * 1024;
+
     @Resource
     private RustFsClientConfig clientConfig;
 
     @Resource
     private S3Client s3Client;
 
-    public String putObject(String objectName, InputStream inputStream){
+    @Resource
+    private S3Presigner s3Presigner;
+
+    /**
+     * 上传文件（长度已知），请求体直接从输入流读取，不在堆上缓冲整个文件
+     *
+     * @param objectName    对象 key
+     * @param inputStream   文件流
+     * @param contentLength 文件字节数
+     * @return 文件访问 URL
+     */
+    public String putObject(String objectName, InputStream inputStream, long contentLength){
+        return putObject(objectName, inputStream, contentLength, "application/octet-stream", null);
+    }
+
+    /**
+     * 上传文件（长度已知），并指定浏览器直接访问对象存储时的 Content-Type 与 Cache-Control
+     *
+     * @param objectName    对象 key
+     * @param inputStream   文件流
+     * @param contentLength 文件字节数
+     * @param contentType   内容类型
+     * @param cacheControl  缓存策略（可空）
+     * @return 文件访问 URL
+     */
+    public String putObject(String objectName, InputStream inputStream, long contentLength, String contentType, String cacheControl){
         try {
-            byte[] bytes = inputStream.readAllBytes();
             s3Client.putObject(
                     PutObjectRequest.builder()
                             .bucket(clientConfig.getBucketName())
                             .key(objectName)
-                            .contentType("application/octet-stream")
+                            .contentType(contentType)
+                            .cacheControl(cacheControl)
                             .build(),
-                    RequestBody.fromBytes(bytes)
+                    RequestBody.fromInputStream(inputStream, contentLength)
             );
         } catch (Exception e) {
+            log.error("上传文件失败: {}", objectName, e);
             throw new BusinessException(ErrorCode.SYSTEM_ERROR, "上传失败");
         }
+        return buildFileUrl(objectName);
+    }
+
+    /**
+     * 上传文件（长度未知），按固定大小分片上传，堆内存占用只有一个分片缓冲区；
+     * 不足一个分片的小文件直接单次上传
+     *
+     * @param objectName  对象 key
+     * @param inputStream 文件流
+     * @return 文件访问 URL
+     */
+    public String putObject(String objectName, InputStream inputStream){
+        byte[] buffer = new byte[PART_SIZE];
+        String uploadId = null;
+        try {
+            int length = readFully(inputStream, buffer);
+            if (length < PART_SIZE) {
+                return putObject(objectName, new ByteArrayInputStream(buffer, 0, length), length);
+            }
+            String bucketName = clientConfig.getBucketName();
+            uploadId = s3Client.createMultipartUpload(CreateMultipartUploadRequest.builder()
+                    .bucket(bucketName)
+                    .key(objectName)
+                    .contentType("application/octet-stream")
+                    .build()).uploadId();
+            List<CompletedPart> completedParts = new ArrayList<>();
+            int partNumber = 1;
+            while (length > 0) {
+                // 分片请求体直接读缓冲区，不再复制
+                String eTag = s3Client.uploadPart(UploadPartRequest.builder()
+                                .bucket(bucketName)
+                                .key(objectName)
+                                .uploadId(uploadId)
+                                .partNumber(partNumber)
+                                .contentLength((long) length)
+                                .build(),
+                        RequestBody.fromInputStream(new ByteArrayInputStream(buffer, 0, length), length)).eTag();
+                completedParts.add(CompletedPart.builder().partNumber(partNumber).eTag(eTag).build());
+                partNumber++;
+                length = readFully(inputStream, buffer);
+            }
+            s3Client.completeMultipartUpload(CompleteMultipartUploadRequest.builder()
+                    .bucket(bucketName)
+                    .key(objectName)
+                    .uploadId(uploadId)
+                    .multipartUpload(CompletedMultipartUpload.builder().parts(completedParts).build())
+                    .build());
+        } catch (BusinessException e) {
+            throw e;
+        } catch (Exception e) {
+            log.error("分片上传文件失败: {}", objectName, e);
+            abortQuietly(objectName, uploadId);
+            throw new BusinessException(ErrorCode.SYSTEM_ERROR, "上传失败");
+        }
+        return buildFileUrl(objectName);
+    }
+
+    /**
+     * 为已上传的文件生成短期有效的预签名下载链接，浏览器直接从对象存储下载
+     *
+     * @param fileUrl  上传时返回的文件 URL
+     * @param fileName 下载文件名（可空）
+     * @return 预签名 URL；文件不在本桶中时返回 null，调用方应回退到代理下载
+     */
+    public String presignDownloadUrl(String fileUrl, String fileName) {
+        String objectKey = extractObjectKey(fileUrl);
+        if (objectKey == null) {
+            return null;
+        }
+        GetObjectRequest.Builder getObjectRequest = GetObjectRequest.builder()
+                .bucket(clientConfig.getBucketName())
+                .key(objectKey);
+        if (StringUtils.isNotBlank(fileName)) {
+            String encodedFileName = URLEncoder.encode(fileName, StandardCharsets.UTF_8).replaceAll("\\+", "%20");
+            getObjectRequest.responseContentDisposition("attachment; filename*=UTF-8''" + encodedFileName);
+        }
+        return s3Presigner.presignGetObject(GetObjectPresignRequest.builder()
+                        .signatureDuration(Duration.ofSeconds(clientConfig.getPresignTtlSeconds()))
+                        .getObjectRequest(getObjectRequest.build())
+                        .build())
+                .url()
+                .toString();
+    }
+
+    /**
+     * 判断对象是否已存在
+     *
+     * @param objectName 对象 key
+     * @return 是否存在
+     */
+    public boolean exists(String objectName) {
+        try {
+            s3Client.headObject(HeadObjectRequest.builder()
+                    .bucket(clientConfig.getBucketName())
+                    .key(objectName)
+                    .build());
+            return true;
+        } catch (NoSuchKeyException e) {
+            return false;
+        }
+    }
+
+    /**
+     * 对象的访问 URL，与上传时返回的一致
+     *
+     * @param objectName 对象 key
+     * @return 文件访问 URL
+     */
+    public String buildFileUrl(String objectName) {
         String encodedPath = UriUtils.encodePath(objectName, StandardCharsets.UTF_8);
         // 拼接最终 URL
-        return "https://oss.intellidraw.top" + "/" + clientConfig.getBucketName() + "/" + encodedPath;
+        return PUBLIC_BASE_URL + "/" + clientConfig.getBucketName() + "/" + encodedPath;
+    }
+
+    /**
+     * 尽量读满缓冲区，返回实际读取的字节数，0 表示流已结束
+     */
+    private static int readFully(InputStream inputStream, byte[] buffer) throws IOException {
+        int total = 0;
+        while (total < buffer.length) {
+            int n = inputStream.read(buffer, total, buffer.length - total);
+            if (n < 0) {
+                break;
+            }
+            total += n;
+        }
+        return total;
+    }
+
+    private void abortQuietly(String objectName, String uploadId) {
+        if (uploadId == null) {
+            return;
+        }
+        try {
+            s3Client.abortMultipartUpload(AbortMultipartUploadRequest.builder()
+                    .bucket(clientConfig.getBucketName())
+                    .key(objectName)
+                    .uploadId(uploadId)
+                    .build());
+        } catch (Exception e) {
+            log.warn("取消分片上传失败: {}, uploadId={}", objectName, uploadId, e);
+        }
+    }
+
+    /**
+     * 从文件 URL 中解析对象 key，只识别本桶的地址
+     */
+    String extractObjectKey(String fileUrl) {
+        if (StringUtils.isBlank(fileUrl)) {
+            return null;
+        }
+        String bucketPath = "/" + clientConfig.getBucketName() + "/";
+        for (String baseUrl : new String[]{PUBLIC_BASE_URL, clientConfig.getPublicEndpoint(), clientConfig.getEndpoint()}) {
+            if (StringUtils.isBlank(baseUrl)) {
+                continue;
+            }
+            String prefix = (baseUrl.endsWith("/") ? baseUrl.substring(0, baseUrl.length() - 1) : baseUrl) + bucketPath;
+            if (fileUrl.startsWith(prefix) && fileUrl.length() > prefix.length()) {
+                return UriUtils.decode(StringUtils.substringBefore(fileUrl.substring(prefix.length()), "?"), StandardCharsets.UTF_8);
+            }
+        }
+        return null;
     }
 }
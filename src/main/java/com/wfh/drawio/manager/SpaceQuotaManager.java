@@ -0,0 +1,340 @@
+package com.wfh.drawio.manager;
+
+import com.baomidou.mybatisplus.core.conditions.query.LambdaQueryWrapper;
+import com.wfh.drawio.common.ErrorCode;
+import com.wfh.drawio.exception.BusinessException;
+import com.wfh.drawio.exception.ThrowUtils;
+import com.wfh.drawio.mapper.DiagramMapper;
+import com.wfh.drawio.mapper.SpaceMapper;
+import com.wfh.drawio.model.entity.Space;
+import jakarta.annotation.Resource;
+import lombok.extern.slf4j.Slf4j;
+import org.redisson.api.RLock;
+import org.redisson.api.RedissonClient;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.core.script.DefaultRedisScript;
+import org.springframework.data.redis.core.script.RedisScript;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Function;
+import java.util.stream.Collectors;
+
+/**
+ * 空间额度计数
+ * <p>
+ * 每个空间的已用数量、已用大小与上限存于 Redis Hash，额度校验与扣减由 Lua 脚本原子完成，
+ * 并发上传同一空间不再排队等待 space 行锁。变更过的空间记入脏集合，定时把计数回写 MySQL 的
+ * totalCount / totalSize。Redis 中没有该空间时从 MySQL 加载（数据丢失后也能从最近一次回写恢复）。
+ * <p>
+ * 进程在扣额度与写图表之间退出、归还失败等都会让计数偏离实际，因此定时按图表表重新统计每个空间的
+ * 实际数量与大小并校准 Redis 与 MySQL；统计期间计数有变化的空间跳过，下一轮再校准。
+ * <p>
+ * 调用方先扣额度再写图表，图表写入失败时调用 {@link #release} 归还。
+ *
+ * @author fenghuanwang
+ */
+@Component
+@Slf4j
+public class SpaceQuotaManager {
+
+    private static final String QUOTA_KEY_PREFIX = "space:quota:";
+
+    private static final String DIRTY_KEY = "space:quota:dirty";
+
+    private static final String FLUSH_LOCK_KEY = "lock:space:quota:flush";
+
+    private static final int FLUSH_BATCH_SIZE = 200;
+
+    private static final int RECONCILE_BATCH_SIZE = 200;
+
+    private static final long RESULT_NOT_LOADED = -1;
+
+    private static final long RESULT_COUNT_EXCEEDED = 1;
+
+    private static final long RESULT_SIZE_EXCEEDED = 2;
+
+    /**
+     * 增量为正时校验上限，通过则累加并标记为脏
+     * KEYS[1] 额度 key，KEYS[2] 脏集合；ARGV[1] 数量增量，ARGV[2] 大小增量，ARGV[3] 空间ID
+     */
+    private static final RedisScript<Long> APPLY_SCRIPT = new DefaultRedisScript<>("""
+            if redis.call('exists', KEYS[1]) == 0 then
+                return -1
+            end
+            local countDelta = tonumber(ARGV[1])
+            local sizeDelta = tonumber(ARGV[2])
+            local quota = redis.call('hmget', KEYS[1], 'count', 'size', 'maxCount', 'maxSize')
+            if countDelta > 0 and tonumber(quota[1]) + countDelta > tonumber(quota[3]) then
+                return 1
+            end
+            if sizeDelta > 0 and tonumber(quota[2]) + sizeDelta > tonumber(quota[4]) then
+                return 2
+            end
+            if countDelta ~= 0 then
+                redis.call('hincrby', KEYS[1], 'count', countDelta)
+            end
+            if sizeDelta ~= 0 then
+                redis.call('hincrby', KEYS[1], 'size', sizeDelta)
+            end
+            redis.call('sadd', KEYS[2], ARGV[3])
+            return 0
+            """, Long.class);
+
+    /**
+     * 不存在时才初始化，避免覆盖其他节点已经累加的计数
+     * ARGV: count, size, maxCount, maxSize
+     */
+    private static final RedisScript<Long> LOAD_SCRIPT = new DefaultRedisScript<>("""
+            if redis.call('exists', KEYS[1]) == 1 then
+                return 0
+            end
+            redis.call('hset', KEYS[1], 'count', ARGV[1], 'size', ARGV[2], 'maxCount', ARGV[3], 'maxSize', ARGV[4])
+            return 1
+            """, Long.class);
+
+    /**
+     * 只更新已加载空间的上限
+     * ARGV: maxCount, maxSize
+     */
+    private static final RedisScript<Long> LIMITS_SCRIPT = new DefaultRedisScript<>("""
+            if redis.call('exists', KEYS[1]) == 0 then
+                return 0
+            end
+            redis.call('hset', KEYS[1], 'maxCount', ARGV[1], 'maxSize', ARGV[2])
+            return 1
+            """, Long.class);
+
+    /**
+     * 计数仍等于统计前读到的值时才改为实际值，统计期间有扣减/归还的空间本轮跳过
+     * KEYS[1] 额度 key；ARGV: 统计前的 count、size，实际的 count、size
+     * 返回 -1 未加载，0 跳过，1 已校准
+     */
+    private static final RedisScript<Long> RECONCILE_SCRIPT = new DefaultRedisScript<>("""
+            if redis.call('exists', KEYS[1]) == 0 then
+                return -1
+            end
+            local quota = redis.call('hmget', KEYS[1], 'count', 'size')
+            if quota[1] ~= ARGV[1] or quota[2] ~= ARGV[2] then
+                return 0
+            end
+            redis.call('hset', KEYS[1], 'count', ARGV[3], 'size', ARGV[4])
+            return 1
+            """, Long.class);
+
+    @Resource
+    private StringRedisTemplate stringRedisTemplate;
+
+    @Resource
+    private DiagramMapper diagramMapper;
+
+    @Resource
+    private SpaceMapper spaceMapper;
+
+    @Resource
+    private RedissonClient redissonClient;
+
+    /**
+     * 扣减额度，不足时抛出异常
+     *
+     * @param spaceId    空间ID
+     * @param countDelta 新增图表数
+     * @param sizeDelta  新增字节数（可为负，如替换为更小的文件）
+     */
+    public void reserve(Long spaceId, long countDelta, long sizeDelta) {
+        long result = apply(spaceId, countDelta, sizeDelta);
+        ThrowUtils.throwIf(result == RESULT_COUNT_EXCEEDED, ErrorCode.OPERATION_ERROR, "空间条数不足");
+        ThrowUtils.throwIf(result == RESULT_SIZE_EXCEEDED, ErrorCode.OPERATION_ERROR, "空间大小不足");
+    }
+
+    /**
+     * 归还额度（删除图表，或写图表失败时回滚 {@link #reserve}）
+     *
+     * @param spaceId    空间ID
+     * @param countDelta 归还的图表数
+     * @param sizeDelta  归还的字节数
+     */
+    public void release(Long spaceId, long countDelta, long sizeDelta) {
+        apply(spaceId, -countDelta, -sizeDelta);
+    }
+
+    /**
+     * 空间级别变更后同步上限
+     *
+     * @param space 空间（需包含 maxCount、maxSize）
+     */
+    public void updateLimits(Space space) {
+        if (space == null || space.getMaxCount() == null || space.getMaxSize() == null) {
+            return;
+        }
+        stringRedisTemplate.execute(LIMITS_SCRIPT, List.of(quotaKey(space.getId())),
+                String.valueOf(space.getMaxCount()), String.valueOf(space.getMaxSize()));
+    }
+
+    /**
+     * 把变更过的空间计数回写 MySQL，多节点同时只有一个执行
+     */
+    @Scheduled(fixedDelayString = "${drawio.space-quota.flush-interval-ms:5000}")
+    public void flush() {
+        RLock lock = redissonClient.getLock(FLUSH_LOCK_KEY);
+        if (!lock.tryLock()) {
+            return;
+        }
+        try {
+            while (true) {
+                List<String> spaceIds = stringRedisTemplate.opsForSet().pop(DIRTY_KEY, FLUSH_BATCH_SIZE);
+                if (spaceIds == null || spaceIds.isEmpty()) {
+                    break;
+                }
+                spaceIds.forEach(this::flushOne);
+            }
+        } catch (Exception e) {
+            log.warn("空间额度回写失败", e);
+        } finally {
+            if (lock.isHeldByCurrentThread()) {
+                lock.unlock();
+            }
+        }
+    }
+
+    /**
+     * 按图表表重新统计每个空间的用量，校准 Redis 计数与 MySQL 中的 totalCount / totalSize
+     */
+    @Scheduled(initialDelayString = "${drawio.space-quota.reconcile-initial-delay-ms:60000}",
+            fixedDelayString = "${drawio.space-quota.reconcile-interval-ms:3600000}")
+    public void reconcile() {
+        RLock lock = redissonClient.getLock(FLUSH_LOCK_KEY);
+        if (!lock.tryLock()) {
+            return;
+        }
+        int corrected = 0;
+        try {
+            long lastId = 0;
+            while (true) {
+                List<Space> spaces = spaceMapper.selectList(new LambdaQueryWrapper<Space>()
+                        .select(Space::getId, Space::getTotalCount, Space::getTotalSize)
+                        .gt(Space::getId, lastId)
+                        .orderByAsc(Space::getId)
+                        .last("limit " + RECONCILE_BATCH_SIZE));
+                if (spaces.isEmpty()) {
+                    break;
+                }
+                corrected += reconcileBatch(spaces);
+                if (spaces.size() < RECONCILE_BATCH_SIZE) {
+                    break;
+                }
+                lastId = spaces.get(spaces.size() - 1).getId();
+            }
+        } catch (Exception e) {
+            log.warn("空间额度校准失败", e);
+        } finally {
+            if (lock.isHeldByCurrentThread()) {
+                lock.unlock();
+            }
+        }
+        if (corrected > 0) {
+            log.info("空间额度校准完成，修正 {} 个空间", corrected);
+        }
+    }
+
+    /**
+     * 先读 Redis 计数再统计图表表，统计期间有扣减/归还的空间由 {@link #RECONCILE_SCRIPT} 比对发现并跳过。
+     * 已扣额度但图表尚未提交的上传会被少算一次，下一轮校准时补回。
+     *
+     * @return 修正的空间数
+     */
+    private int reconcileBatch(List<Space> spaces) {
+        List<List<Object>> cached = new ArrayList<>(spaces.size());
+        for (Space space : spaces) {
+            cached.add(stringRedisTemplate.opsForHash().multiGet(quotaKey(space.getId()), List.of("count", "size")));
+        }
+        Map<Long, Space> usage = diagramMapper.selectSpaceUsage(spaces.get(0).getId(), spaces.get(spaces.size() - 1).getId())
+                .stream().collect(Collectors.toMap(Space::getId, Function.identity()));
+        int corrected = 0;
+        for (int i = 0; i < spaces.size(); i++) {
+            Space space = spaces.get(i);
+            Space actual = usage.get(space.getId());
+            String actualCount = String.valueOf(actual != null ? nullToZero(actual.getTotalCount()) : 0L);
+            String actualSize = String.valueOf(actual != null ? nullToZero(actual.getTotalSize()) : 0L);
+            List<Object> values = cached.get(i);
+            if (values.get(0) != null && values.get(1) != null) {
+                String cachedCount = values.get(0).toString();
+                String cachedSize = values.get(1).toString();
+                if (!cachedCount.equals(actualCount) || !cachedSize.equals(actualSize)) {
+                    Long result = stringRedisTemplate.execute(RECONCILE_SCRIPT, List.of(quotaKey(space.getId())),
+                            cachedCount, cachedSize, actualCount, actualSize);
+                    if (result == null || result == 0) {
+                        continue;
+                    }
+                    log.warn("空间额度计数偏离实际，已校准: spaceId={}, count {} -> {}, size {} -> {}",
+                            space.getId(), cachedCount, actualCount, cachedSize, actualSize);
+                }
+            }
+            if (actualCount.equals(String.valueOf(nullToZero(space.getTotalCount())))
+                    && actualSize.equals(String.valueOf(nullToZero(space.getTotalSize())))) {
+                continue;
+            }
+            Space update = new Space();
+            update.setId(space.getId());
+            update.setTotalCount(Long.valueOf(actualCount));
+            update.setTotalSize(Long.valueOf(actualSize));
+            spaceMapper.updateById(update);
+            corrected++;
+        }
+        return corrected;
+    }
+
+    private static long nullToZero(Long value) {
+        return value != null ? value : 0L;
+    }
+
+    private void flushOne(String spaceId) {
+        List<Object> values = stringRedisTemplate.opsForHash().multiGet(quotaKey(Long.valueOf(spaceId)), List.of("count", "size"));
+        if (values.get(0) == null || values.get(1) == null) {
+            return;
+        }
+        Space space = new Space();
+        space.setId(Long.valueOf(spaceId));
+        space.setTotalCount(Long.valueOf(values.get(0).toString()));
+        space.setTotalSize(Long.valueOf(values.get(1).toString()));
+        try {
+            // 写绝对值，重复回写结果一致
+            spaceMapper.updateById(space);
+        } catch (Exception e) {
+            // 放回脏集合，下一轮重试
+            stringRedisTemplate.opsForSet().add(DIRTY_KEY, spaceId);
+            log.warn("空间额度回写失败: spaceId={}", spaceId, e);
+        }
+    }
+
+    private long apply(Long spaceId, long countDelta, long sizeDelta) {
+        List<String> keys = List.of(quotaKey(spaceId), DIRTY_KEY);
+        Object[] args = {String.valueOf(countDelta), String.valueOf(sizeDelta), String.valueOf(spaceId)};
+        Long result = stringRedisTemplate.execute(APPLY_SCRIPT, keys, args);
+        if (result != null && result == RESULT_NOT_LOADED) {
+            load(spaceId);
+            result = stringRedisTemplate.execute(APPLY_SCRIPT, keys, args);
+        }
+        if (result == null || result == RESULT_NOT_LOADED) {
+            throw new BusinessException(ErrorCode.SYSTEM_ERROR, "额度更新失败");
+        }
+        return result;
+    }
+
+    private void load(Long spaceId) {
+        Space space = spaceMapper.selectById(spaceId);
+        ThrowUtils.throwIf(space == null, ErrorCode.NOT_FOUND_ERROR, "空间不存在");
+        stringRedisTemplate.execute(LOAD_SCRIPT, List.of(quotaKey(spaceId)),
+                String.valueOf(space.getTotalCount() != null ? space.getTotalCount() : 0L),
+                String.valueOf(space.getTotalSize() != null ? space.getTotalSize() : 0L),
+                String.valueOf(space.getMaxCount() != null ? space.getMaxCount() : 0L),
+                String.valueOf(space.getMaxSize() != null ? space.getMaxSize() : 0L));
+    }
+
+    private static String quotaKey(Long spaceId) {
+        return QUOTA_KEY_PREFIX + spaceId;
+    }
+}
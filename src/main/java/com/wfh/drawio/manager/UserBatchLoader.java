@@ -0,0 +1,136 @@
+package com.wfh.drawio.manager;
+
+import cn.hutool.core.collection.CollUtil;
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.wfh.drawio.mapper.UserMapper;
+import com.wfh.drawio.model.entity.User;
+import com.wfh.drawio.model.vo.UserVO;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.Resource;
+import org.springframework.beans.BeanUtils;
+import org.springframework.stereotype.Component;
+
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import java.util.function.BiConsumer;
+import java.util.function.Function;
+
+/**
+ * 用户批量加载器
+ * 列表/分页组装 VO 时先收集整页的用户 ID，再用一次 IN 查询取回，配合短 TTL 本地缓存，
+ * 避免逐条 getById 造成的 N+1 查询
+ *
+ * @author fenghuanwang
+ */
+@Component
+public class UserBatchLoader {
+
+    @Resource
+    private UserMapper userMapper;
+
+    /**
+     * userId -> User，只用于展示信息（昵称、头像等），允许短时间内的陈旧
+     */
+    private Cache<Long, User> userCache;
+
+    @PostConstruct
+    public void init() {
+        userCache = Caffeine.newBuilder()
+                .maximumSize(10_000)
+                .expireAfterWrite(30, TimeUnit.SECONDS)
+                .build();
+    }
+
+    /**
+     * 批量加载用户
+     *
+     * @param userIds 用户ID（可重复、可包含 null）
+     * @return userId -> User，不存在的用户不会出现在结果中
+     */
+    public Map<Long, User> loadUsers(Collection<Long> userIds) {
+        if (CollUtil.isEmpty(userIds)) {
+            return Collections.emptyMap();
+        }
+        Set<Long> idSet = new LinkedHashSet<>();
+        for (Long userId : userIds) {
+            if (userId != null && userId > 0) {
+                idSet.add(userId);
+            }
+        }
+        if (idSet.isEmpty()) {
+            return Collections.emptyMap();
+        }
+        // 缓存未命中的 ID 合并为一次 IN 查询
+        return userCache.getAll(idSet, this::selectUsers);
+    }
+
+    /**
+     * 加载单个用户，与批量加载共用缓存
+     */
+    public User loadUser(Long userId) {
+        return loadUsers(Collections.singleton(userId)).get(userId);
+    }
+
+    /**
+     * 批量加载用户封装
+     */
+    public Map<Long, UserVO> loadUserVOs(Collection<Long> userIds) {
+        Map<Long, User> userMap = loadUsers(userIds);
+        Map<Long, UserVO> userVOMap = new HashMap<>(userMap.size() * 2);
+        userMap.forEach((userId, user) -> userVOMap.put(userId, toUserVO(user)));
+        return userVOMap;
+    }
+
+    /**
+     * 为一页记录填充用户封装：收集 ID -> 一次加载 -> 逐条回填
+     *
+     * @param records      记录列表
+     * @param userIdGetter 从记录中取用户 ID
+     * @param userVOSetter 回填用户封装，用户不存在时不回调
+     */
+    public <T> void fillUserVO(List<T> records, Function<T, Long> userIdGetter, BiConsumer<T, UserVO> userVOSetter) {
+        if (CollUtil.isEmpty(records)) {
+            return;
+        }
+        Map<Long, UserVO> userVOMap = loadUserVOs(records.stream().map(userIdGetter).filter(Objects::nonNull).toList());
+        for (T record : records) {
+            Long userId = userIdGetter.apply(record);
+            UserVO userVO = userId == null ? null : userVOMap.get(userId);
+            if (userVO != null) {
+                userVOSetter.accept(record, userVO);
+            }
+        }
+    }
+
+    /**
+     * 用户资料变更后主动失效
+     */
+    public void evict(Long userId) {
+        if (userId != null) {
+            userCache.invalidate(userId);
+        }
+    }
+
+    private Map<Long, User> selectUsers(Set<? extends Long> missingIds) {
+        List<User> users = userMapper.selectByIds(missingIds);
+        Map<Long, User> userMap = new HashMap<>(users.size() * 2);
+        for (User user : users) {
+            userMap.put(user.getId(), user);
+        }
+        return userMap;
+    }
+
+    private UserVO toUserVO(User user) {
+        UserVO userVO = new UserVO();
+        BeanUtils.copyProperties(user, userVO);
+        return userVO;
+    }
+}
@@ -0,0 +1,287 @@
+package com.wfh.drawio.manager.cache;
+
+import cn.hutool.core.util.RandomUtil;
+import com.fasterxml.jackson.databind.JavaType;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.wfh.drawio.manager.CacheVersionManager;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import lombok.extern.slf4j.Slf4j;
+import org.redisson.api.RLock;
+import org.redisson.api.RedissonClient;
+import org.springframework.data.redis.core.RedisTemplate;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+
+/**
+ * 两级缓存：Caffeine(L1) -> Redis(L2) -> 数据源
+ * <ul>
+ *     <li>逻辑过期 + 宽限期：逻辑过期后的宽限期内先返回旧值，同时后台刷新（stale-while-revalidate）</li>
+ *     <li>XFetch 概率提前刷新：越接近过期、回源越慢，越可能由某次读取提前触发后台刷新，避免集中过期</li>
+ *     <li>回源单飞：本节点同 key 只加载一次，跨节点通过分布式锁保证只有一个节点查库</li>
+ *     <li>L2 使用 Smile 二进制 + 目标类型反序列化，读出的对象类型与写入时一致</li>
+ * </ul>
+ * 由 {@link TieredCacheManager} 创建，不直接实例化。
+ *
+ * @author fenghuanwang
+ */
+@Slf4j
+public class TieredCache<V> {
+
+    /**
+     * L2 值头部：逻辑过期时间戳 + 回源耗时，各 8 字节
+     */
+    private static final int HEADER_BYTES = 16;
+
+    private final TieredCacheSpec spec;
+
+    private final JavaType valueType;
+
+    private final Cache<String, Entry<V>> localCache;
+
+    private final RedisTemplate<String, byte[]> redisTemplate;
+
+    private final RedissonClient redissonClient;
+
+    private final ObjectMapper binaryMapper;
+
+    private final CacheVersionManager cacheVersionManager;
+
+    private final Executor refreshExecutor;
+
+    /**
+     * 正在后台刷新的 key，保证同一 key 只有一个刷新任务
+     */
+    private final Set<String> refreshingKeys = ConcurrentHashMap.newKeySet();
+
+    private final Counter l1HitCounter;
+
+    private final Counter l2HitCounter;
+
+    private final Counter missCounter;
+
+    private final Counter staleCounter;
+
+    private final Counter refreshSuccessCounter;
+
+    private final Counter refreshFailureCounter;
+
+    private final Timer loadTimer;
+
+    TieredCache(TieredCacheSpec spec, JavaType valueType, RedisTemplate<String, byte[]> redisTemplate,
+                RedissonClient redissonClient, ObjectMapper binaryMapper, CacheVersionManager cacheVersionManager,
+                Executor refreshExecutor, MeterRegistry meterRegistry) {
+        this.spec = spec;
+        this.valueType = valueType;
+        this.redisTemplate = redisTemplate;
+        this.redissonClient = redissonClient;
+        this.binaryMapper = binaryMapper;
+        this.cacheVersionManager = cacheVersionManager;
+        this.refreshExecutor = refreshExecutor;
+        this.localCache = Caffeine.newBuilder()
+                .maximumSize(spec.getLocalMaxSize())
+                .expireAfterWrite(spec.getTtl().plus(spec.getStaleTtl()))
+                .build();
+        String name = spec.getName();
+        this.l1HitCounter = requestCounter(meterRegistry, name, "l1_hit");
+        this.l2HitCounter = requestCounter(meterRegistry, name, "l2_hit");
+        this.missCounter = requestCounter(meterRegistry, name, "miss");
+        this.staleCounter = requestCounter(meterRegistry, name, "stale");
+        this.refreshSuccessCounter = Counter.builder("drawio.cache.refresh").tag("cache", name).tag("result", "success").register(meterRegistry);
+        this.refreshFailureCounter = Counter.builder("drawio.cache.refresh").tag("cache", name).tag("result", "failure").register(meterRegistry);
+        this.loadTimer = Timer.builder("drawio.cache.load").tag("cache", name).register(meterRegistry);
+        if (spec.isVersioned()) {
+            // 版本号变化后旧 key 不会再被访问，直接清空本地缓存
+            cacheVersionManager.onChange(name, localCache::invalidateAll);
+        }
+    }
+
+    /**
+     * 读取缓存，未命中时通过 loader 回源
+     *
+     * @param key    业务 key（不含缓存名与版本号）
+     * @param loader 回源逻辑
+     * @return 缓存值
+     */
+    public V get(String key, Supplier<V> loader) {
+        String fullKey = buildKey(key);
+        Entry<V> entry = localCache.getIfPresent(fullKey);
+        if (entry != null) {
+            l1HitCounter.increment();
+        } else {
+            // 同 key 并发未命中时 Caffeine 只会执行一次加载
+            entry = localCache.get(fullKey, k -> loadFromRemote(k, loader));
+        }
+        maybeRefresh(fullKey, entry, loader);
+        return entry.value();
+    }
+
+    /**
+     * 清空本节点的本地缓存
+     */
+    public void invalidateLocal() {
+        localCache.invalidateAll();
+    }
+
+    private String buildKey(String key) {
+        if (spec.isVersioned()) {
+            return spec.getName() + ":v" + cacheVersionManager.currentVersion(spec.getName()) + ":" + key;
+        }
+        return spec.getName() + ":" + key;
+    }
+
+    /**
+     * L1 未命中：先查 L2，未命中则加分布式锁回源
+     */
+    private Entry<V> loadFromRemote(String fullKey, Supplier<V> loader) {
+        Entry<V> entry = readRemote(fullKey);
+        if (entry != null) {
+            l2HitCounter.increment();
+            return entry;
+        }
+        missCounter.increment();
+        RLock lock = redissonClient.getLock("lock:" + fullKey);
+        boolean locked = false;
+        try {
+            locked = lock.tryLock(spec.getLockWait().toMillis(), TimeUnit.MILLISECONDS);
+            if (locked) {
+                // 双重检查：等锁期间其他节点可能已经写入
+                entry = readRemote(fullKey);
+                if (entry != null) {
+                    return entry;
+                }
+            } else {
+                log.warn("缓存 [{}] 回源等锁超时，直接回源: {}", spec.getName(), fullKey);
+            }
+            return loadAndStore(fullKey, loader);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return loadAndStore(fullKey, loader);
+        } finally {
+            if (locked && lock.isHeldByCurrentThread()) {
+                lock.unlock();
+            }
+        }
+    }
+
+    /**
+     * 逻辑过期则返回旧值并后台刷新；未过期时按 XFetch 概率提前刷新
+     * XFetch: now - delta * beta * ln(rand) >= expireAt
+     */
+    private void maybeRefresh(String fullKey, Entry<V> entry, Supplier<V> loader) {
+        long now = System.currentTimeMillis();
+        if (now >= entry.expireAt()) {
+            staleCounter.increment();
+            triggerRefresh(fullKey, loader);
+            return;
+        }
+        double random = ThreadLocalRandom.current().nextDouble();
+        if (random > 0 && now - entry.computeMillis() * spec.getBeta() * Math.log(random) >= entry.expireAt()) {
+            triggerRefresh(fullKey, loader);
+        }
+    }
+
+    private void triggerRefresh(String fullKey, Supplier<V> loader) {
+        if (!refreshingKeys.add(fullKey)) {
+            return;
+        }
+        try {
+            refreshExecutor.execute(() -> {
+                RLock lock = redissonClient.getLock("lock:" + fullKey);
+                boolean locked = false;
+                try {
+                    // 其他节点正在刷新时直接放弃，本节点稍后会从 L2 读到新值
+                    locked = lock.tryLock(0, TimeUnit.MILLISECONDS);
+                    if (locked) {
+                        localCache.put(fullKey, loadAndStore(fullKey, loader));
+                        refreshSuccessCounter.increment();
+                    } else {
+                        Entry<V> remote = readRemote(fullKey);
+                        if (remote != null) {
+                            localCache.put(fullKey, remote);
+                        }
+                    }
+                } catch (Exception e) {
+                    refreshFailureCounter.increment();
+                    log.warn("缓存 [{}] 后台刷新失败: {}", spec.getName(), fullKey, e);
+                } finally {
+                    if (locked && lock.isHeldByCurrentThread()) {
+                        lock.unlock();
+                    }
+                    refreshingKeys.remove(fullKey);
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            // 刷新线程池已满，本次继续使用旧值
+            refreshingKeys.remove(fullKey);
+        }
+    }
+
+    private Entry<V> loadAndStore(String fullKey, Supplier<V> loader) {
+        long start = System.nanoTime();
+        V value = loader.get();
+        long computeMillis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+        loadTimer.record(computeMillis, TimeUnit.MILLISECONDS);
+        Entry<V> entry = new Entry<>(value, System.currentTimeMillis() + spec.getTtl().toMillis(), computeMillis);
+        writeRemote(fullKey, entry);
+        return entry;
+    }
+
+    private Entry<V> readRemote(String fullKey) {
+        byte[] bytes = redisTemplate.opsForValue().get(fullKey);
+        if (bytes == null || bytes.length < HEADER_BYTES) {
+            return null;
+        }
+        try {
+            ByteBuffer buffer = ByteBuffer.wrap(bytes);
+            long expireAt = buffer.getLong();
+            long computeMillis = buffer.getLong();
+            V value = binaryMapper.readValue(bytes, HEADER_BYTES, bytes.length - HEADER_BYTES, valueType);
+            return new Entry<>(value, expireAt, computeMillis);
+        } catch (IOException e) {
+            // 数据结构变更等导致无法解析，视为未命中
+            log.warn("缓存 [{}] 反序列化失败，忽略: {}", spec.getName(), fullKey, e);
+            return null;
+        }
+    }
+
+    private void writeRemote(String fullKey, Entry<V> entry) {
+        try {
+            byte[] payload = binaryMapper.writerFor(valueType).writeValueAsBytes(entry.value());
+            ByteBuffer buffer = ByteBuffer.allocate(HEADER_BYTES + payload.length);
+            buffer.putLong(entry.expireAt());
+            buffer.putLong(entry.computeMillis());
+            buffer.put(payload);
+            // 物理过期 = 逻辑过期 + 宽限期 + 随机抖动，避免同一批 key 同时过期
+            long ttlMillis = spec.getTtl().plus(spec.getStaleTtl()).toMillis() + RandomUtil.randomLong(0, 30_000);
+            redisTemplate.opsForValue().set(fullKey, buffer.array(), ttlMillis, TimeUnit.MILLISECONDS);
+        } catch (Exception e) {
+            log.warn("缓存 [{}] 写入 Redis 失败: {}", spec.getName(), fullKey, e);
+        }
+    }
+
+    private static Counter requestCounter(MeterRegistry meterRegistry, String name, String result) {
+        return Counter.builder("drawio.cache.requests").tag("cache", name).tag("result", result).register(meterRegistry);
+    }
+
+    /**
+     * 缓存条目
+     *
+     * @param value         缓存值
+     * @param expireAt      逻辑过期时间戳（毫秒）
+     * @param computeMillis 回源耗时（毫秒），XFetch 的 delta
+     */
+    private record Entry<V>(V value, long expireAt, long computeMillis) {
+    }
+}
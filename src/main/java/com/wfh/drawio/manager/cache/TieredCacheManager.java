@@ -0,0 +1,91 @@
+package com.wfh.drawio.manager.cache;
+
+import com.fasterxml.jackson.databind.DeserializationFeature;
+import com.fasterxml.jackson.databind.JavaType;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.dataformat.smile.databind.SmileMapper;
+import com.wfh.drawio.manager.CacheVersionManager;
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.annotation.PreDestroy;
+import jakarta.annotation.Resource;
+import org.redisson.api.RedissonClient;
+import org.springframework.data.redis.core.RedisTemplate;
+import org.springframework.stereotype.Component;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * 两级缓存工厂
+ * 统一持有 Redis、分布式锁、后台刷新线程池和监控，按 {@link TieredCacheSpec} 创建 {@link TieredCache}
+ *
+ * @author fenghuanwang
+ */
+@Component
+public class TieredCacheManager {
+
+    @Resource
+    private RedisTemplate<String, byte[]> bytesRedisTemplate;
+
+    @Resource
+    private RedissonClient redissonClient;
+
+    @Resource
+    private CacheVersionManager cacheVersionManager;
+
+    @Resource
+    private MeterRegistry meterRegistry;
+
+    /**
+     * L2 二进制序列化（Smile），按目标类型反序列化
+     */
+    private final ObjectMapper binaryMapper = new SmileMapper()
+            .configure(DeserializationFeature.FAIL_ON_UNKNOWN_PROPERTIES, false);
+
+    /**
+     * 后台刷新线程池，队列满时放弃刷新继续返回旧值
+     */
+    private final ThreadPoolExecutor refreshExecutor = new ThreadPoolExecutor(2, 4, 60, TimeUnit.SECONDS,
+            new ArrayBlockingQueue<>(256), new RefreshThreadFactory(), new ThreadPoolExecutor.AbortPolicy());
+
+    /**
+     * 创建两级缓存
+     *
+     * @param spec      缓存配置
+     * @param valueType 缓存值类型（支持泛型，如 Page&lt;DiagramVO&gt;）
+     */
+    public <V> TieredCache<V> create(TieredCacheSpec spec, JavaType valueType) {
+        return new TieredCache<>(spec, valueType, bytesRedisTemplate, redissonClient, binaryMapper,
+                cacheVersionManager, refreshExecutor, meterRegistry);
+    }
+
+    /**
+     * 构造泛型类型，如 typeOf(Page.class, DiagramVO.class)
+     */
+    public JavaType typeOf(Class<?> rawType, Class<?>... parameterTypes) {
+        if (parameterTypes.length == 0) {
+            return binaryMapper.getTypeFactory().constructType(rawType);
+        }
+        return binaryMapper.getTypeFactory().constructParametricType(rawType, parameterTypes);
+    }
+
+    @PreDestroy
+    public void destroy() {
+        refreshExecutor.shutdown();
+    }
+
+    private static class RefreshThreadFactory implements ThreadFactory {
+
+        private final AtomicInteger counter = new AtomicInteger();
+
+        @Override
+        public Thread newThread(Runnable r) {
+            Thread thread = new Thread(r, "tiered-cache-refresh-" + counter.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        }
+    }
+}
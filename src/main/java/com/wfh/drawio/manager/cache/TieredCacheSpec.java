@@ -0,0 +1,57 @@
+package com.wfh.drawio.manager.cache;
+
+import lombok.Builder;
+import lombok.Getter;
+
+import java.time.Duration;
+
+/**
+ * 两级缓存配置
+ *
+ * @author fenghuanwang
+ */
+@Getter
+@Builder
+public class TieredCacheSpec {
+
+    /**
+     * 缓存名，同时作为 Redis key 前缀、版本号命名空间和监控指标的 cache 标签
+     */
+    private final String name;
+
+    /**
+     * 逻辑过期时间，过期后进入宽限期
+     */
+    @Builder.Default
+    private final Duration ttl = Duration.ofMinutes(3);
+
+    /**
+     * 宽限期：逻辑过期后仍可返回旧值并后台刷新的时长
+     */
+    @Builder.Default
+    private final Duration staleTtl = Duration.ofMinutes(2);
+
+    /**
+     * 本地缓存最大条目数
+     */
+    @Builder.Default
+    private final long localMaxSize = 10_000;
+
+    /**
+     * XFetch 提前刷新系数，越大越倾向提前刷新，1.0 为论文推荐值
+     */
+    @Builder.Default
+    private final double beta = 1.0;
+
+    /**
+     * 回源时等待分布式锁的最长时间，超时则直接回源
+     */
+    @Builder.Default
+    private final Duration lockWait = Duration.ofSeconds(3);
+
+    /**
+     * 是否使用 CacheVersionManager 的版本号（按缓存名）拼接 key，用于整体失效
+     */
+    @Builder.Default
+    private final boolean versioned = false;
+}
@@ -0,0 +1,253 @@
+package com.wfh.drawio.manager.render;
+
+import com.baomidou.mybatisplus.core.conditions.query.LambdaQueryWrapper;
+import com.wfh.drawio.event.DiagramChangeEvent;
+import com.wfh.drawio.manager.DiagramContentStore;
+import com.wfh.drawio.manager.RustFsManager;
+import com.wfh.drawio.mapper.DiagramMapper;
+import com.wfh.drawio.model.entity.Diagram;
+import com.wfh.drawio.service.DiagramService;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import jakarta.annotation.Resource;
+import lombok.extern.slf4j.Slf4j;
+import org.apache.commons.lang3.StringUtils;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Lazy;
+import org.springframework.http.CacheControl;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.event.TransactionalEventListener;
+
+import java.io.ByteArrayInputStream;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * 图表缩略图渲染队列
+ * <p>
+ * 图表新增或修改（事务提交后）排队，由固定大小的线程池从 XML 渲染 PNG 缩略图，
+ * 按内容哈希存入对象存储 thumbnail/&lt;sha256&gt;.png，再回写 diagram.thumbnailUrl。
+ * 内容相同的图表共用同一张缩略图，内容未变化的保存（改名等）不会重复渲染。
+ * 同一图表排队期间的多次保存只渲染一次，执行时读取的是最新内容；队列满时丢弃，下次保存会重新排队。
+ *
+ * @author fenghuanwang
+ */
+@Component
+@Slf4j
+public class DiagramRenderQueue {
+
+    private static final String THUMBNAIL_PREFIX = "thumbnail/";
+
+    private static final int BACKFILL_BATCH_SIZE = 200;
+
+    private static final long BACKFILL_WAIT_MILLIS = 100;
+
+    @Value("${drawio.render.enabled:true}")
+    private boolean enabled;
+
+    @Value("${drawio.render.workers:2}")
+    private int workers;
+
+    @Value("${drawio.render.queue-capacity:256}")
+    private int queueCapacity;
+
+    @Value("${drawio.render.thumbnail-width:320}")
+    private int thumbnailWidth;
+
+    @Value("${drawio.render.thumbnail-height:200}")
+    private int thumbnailHeight;
+
+    @Resource
+    private DiagramMapper diagramMapper;
+
+    @Resource
+    private DiagramContentStore diagramContentStore;
+
+    @Resource
+    private RustFsManager rustFsManager;
+
+    @Resource
+    @Lazy
+    private DiagramService diagramService;
+
+    @Resource
+    private MeterRegistry meterRegistry;
+
+    /**
+     * 已排队、尚未开始渲染的图表
+     */
+    private final Set<Long> pending = ConcurrentHashMap.newKeySet();
+
+    /**
+     * 是否有存量回填在执行
+     */
+    private final AtomicBoolean backfilling = new AtomicBoolean();
+
+    private ThreadPoolExecutor renderExecutor;
+
+    private Timer renderTimer;
+
+    private Counter droppedCounter;
+
+    @PostConstruct
+    public void init() {
+        if (!enabled) {
+            return;
+        }
+        AtomicInteger threadIndex = new AtomicInteger();
+        renderExecutor = new ThreadPoolExecutor(workers, workers, 0, TimeUnit.MILLISECONDS,
+                new LinkedBlockingQueue<>(queueCapacity), r -> {
+            Thread thread = new Thread(r, "diagram-render-" + threadIndex.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+        renderTimer = Timer.builder("drawio.render.thumbnail").register(meterRegistry);
+        droppedCounter = Counter.builder("drawio.render.dropped").register(meterRegistry);
+    }
+
+    /**
+     * 图表新增、修改（事务提交后）排队渲染缩略图
+     */
+    @TransactionalEventListener(fallbackExecution = true)
+    public void onDiagramChange(DiagramChangeEvent event) {
+        if (!enabled || event.getChangeType() == DiagramChangeEvent.ChangeType.DELETE) {
+            return;
+        }
+        submit(event.getDiagramId());
+    }
+
+    /**
+     * 为没有缩略图的存量图表生成缩略图
+     * <p>
+     * 在后台线程中逐批排队，立即返回；队列用到一半时等待渲染线程消化，留出另一半给新保存的图表
+     *
+     * @return 是否开始回填，已有回填在执行时返回 false
+     */
+    public boolean backfill() {
+        if (!enabled || !backfilling.compareAndSet(false, true)) {
+            return false;
+        }
+        Thread.ofVirtual().name("diagram-render-backfill").start(() -> {
+            try {
+                doBackfill();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            } catch (Exception e) {
+                log.error("存量图表缩略图回填失败", e);
+            } finally {
+                backfilling.set(false);
+            }
+        });
+        return true;
+    }
+
+    private void doBackfill() throws InterruptedException {
+        int total = 0;
+        long lastId = 0;
+        while (true) {
+            List<Diagram> diagrams = diagramMapper.selectList(new LambdaQueryWrapper<Diagram>()
+                    .select(Diagram::getId)
+                    .isNull(Diagram::getThumbnailUrl)
+                    .gt(Diagram::getId, lastId)
+                    .orderByAsc(Diagram::getId)
+                    .last("limit " + BACKFILL_BATCH_SIZE));
+            for (Diagram diagram : diagrams) {
+                if (!awaitQueueSpace()) {
+                    log.info("应用关闭，存量图表缩略图回填中止，已排队: {}", total);
+                    return;
+                }
+                submit(diagram.getId());
+                total++;
+            }
+            if (diagrams.size() < BACKFILL_BATCH_SIZE) {
+                break;
+            }
+            lastId = diagrams.get(diagrams.size() - 1).getId();
+        }
+        log.info("存量图表缩略图已排队: {}", total);
+    }
+
+    /**
+     * 回填的背压：等到队列剩余容量不少于一半
+     *
+     * @return 渲染线程池已关闭时返回 false
+     */
+    private boolean awaitQueueSpace() throws InterruptedException {
+        while (renderExecutor.getQueue().remainingCapacity() < queueCapacity / 2) {
+            if (renderExecutor.isShutdown()) {
+                return false;
+            }
+            Thread.sleep(BACKFILL_WAIT_MILLIS);
+        }
+        return !renderExecutor.isShutdown();
+    }
+
+    @PreDestroy
+    public void destroy() {
+        if (renderExecutor != null) {
+            renderExecutor.shutdownNow();
+        }
+    }
+
+    private void submit(Long diagramId) {
+        if (!pending.add(diagramId)) {
+            return;
+        }
+        Runnable task = () -> {
+            // 先出队再读内容，渲染期间的新保存会重新排队
+            pending.remove(diagramId);
+            renderTimer.record(() -> render(diagramId));
+        };
+        try {
+            renderExecutor.execute(task);
+        } catch (RejectedExecutionException e) {
+            pending.remove(diagramId);
+            droppedCounter.increment();
+            log.warn("缩略图渲染队列已满，跳过: diagramId={}", diagramId);
+        }
+    }
+
+    private void render(Long diagramId) {
+        try {
+            Diagram diagram = diagramMapper.selectById(diagramId);
+            if (diagram == null) {
+                return;
+            }
+            String contentHash = diagramContentStore.getContentHash(diagramId);
+            if (contentHash == null) {
+                return;
+            }
+            String objectName = THUMBNAIL_PREFIX + contentHash + ".png";
+            String thumbnailUrl = rustFsManager.buildFileUrl(objectName);
+            if (thumbnailUrl.equals(diagram.getThumbnailUrl())) {
+                return;
+            }
+            // 内容寻址：相同内容的缩略图已由其他图表生成过
+            if (!rustFsManager.exists(objectName)) {
+                String diagramCode = diagramContentStore.get(diagramId);
+                byte[] png = StringUtils.isBlank(diagramCode) ? null
+                        : DiagramThumbnailRenderer.renderPng(diagramCode, thumbnailWidth, thumbnailHeight);
+                if (png == null) {
+                    log.debug("图表没有可渲染的图形: diagramId={}", diagramId);
+                    return;
+                }
+                // 按内容寻址的对象永不改变，浏览器与 CDN 可长期缓存
+                rustFsManager.putObject(objectName, new ByteArrayInputStream(png), png.length, "image/png",
+                        CacheControl.maxAge(365, TimeUnit.DAYS).cachePublic().immutable().getHeaderValue());
+            }
+            diagramService.updateThumbnailUrl(diagramId, thumbnailUrl);
+        } catch (Exception e) {
+            log.warn("渲染图表缩略图失败: diagramId={}", diagramId, e);
+        }
+    }
+}
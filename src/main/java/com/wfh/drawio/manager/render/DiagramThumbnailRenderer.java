@@ -0,0 +1,451 @@
+package com.wfh.drawio.manager.render;
+
+import org.apache.commons.lang3.StringUtils;
+import org.w3c.dom.Document;
+import org.w3c.dom.Element;
+import org.w3c.dom.Node;
+import org.w3c.dom.NodeList;
+import org.xml.sax.InputSource;
+
+import javax.imageio.ImageIO;
+import javax.xml.XMLConstants;
+import javax.xml.parsers.DocumentBuilderFactory;
+import java.awt.BasicStroke;
+import java.awt.Color;
+import java.awt.Graphics2D;
+import java.awt.RenderingHints;
+import java.awt.Shape;
+import java.awt.geom.Ellipse2D;
+import java.awt.geom.Path2D;
+import java.awt.geom.Point2D;
+import java.awt.geom.Rectangle2D;
+import java.awt.geom.RoundRectangle2D;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.StringReader;
+import java.net.URLDecoder;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
+
+/**
+ * draw.io XML 缩略图渲染
+ * <p>
+ * 只还原图形轮廓：节点按 style 中的形状、填充色、边框色绘制，连线按端点与折点绘制，不绘制文字
+ * （缩略图尺寸下文字不可读）。支持未压缩的 mxGraphModel 以及 mxfile 中压缩存储的页面，只渲染第一页。
+ *
+ * @author fenghuanwang
+ */
+public final class DiagramThumbnailRenderer {
+
+    /**
+     * 参与渲染的单元上限，超大图表只画前面的部分，避免占满渲染线程
+     */
+    private static final int MAX_CELLS = 5000;
+
+    /**
+     * 压缩页面解压后的字节上限，超出即放弃渲染，防止几 KB 的构造数据解压成数 GB 撑爆内存
+     */
+    static final int MAX_INFLATED_BYTES = 8 * 1024 * 1024;
+
+    private static final int PADDING = 8;
+
+    private static final Color DEFAULT_FILL = Color.WHITE;
+
+    private static final Color DEFAULT_STROKE = new Color(0x33, 0x33, 0x33);
+
+    private DiagramThumbnailRenderer() {
+    }
+
+    /**
+     * 渲染 PNG 缩略图，按比例缩放到不超过指定尺寸（不放大）
+     *
+     * @param diagramCode draw.io XML
+     * @param maxWidth    最大宽度
+     * @param maxHeight   最大高度
+     * @return PNG 字节，没有可绘制的图形或 XML 无法解析时返回 null
+     */
+    public static byte[] renderPng(String diagramCode, int maxWidth, int maxHeight) {
+        Map<String, Cell> cells = parse(diagramCode);
+        if (cells == null || cells.isEmpty()) {
+            return null;
+        }
+        Rectangle2D bounds = null;
+        for (Cell cell : cells.values()) {
+            if (cell.vertex) {
+                Rectangle2D rect = absoluteBounds(cell, cells);
+                bounds = bounds == null ? rect : bounds.createUnion(rect);
+            }
+            List<Point2D> points = new ArrayList<>(cell.points);
+            if (cell.sourcePoint != null && cell.source.isEmpty()) {
+                points.add(cell.sourcePoint);
+            }
+            if (cell.targetPoint != null && cell.target.isEmpty()) {
+                points.add(cell.targetPoint);
+            }
+            for (Point2D point : points) {
+                Rectangle2D rect = new Rectangle2D.Double(point.getX(), point.getY(), 0, 0);
+                bounds = bounds == null ? rect : bounds.createUnion(rect);
+            }
+        }
+        if (bounds == null || bounds.getWidth() <= 0 || bounds.getHeight() <= 0) {
+            return null;
+        }
+        double scale = Math.min(1, Math.min((maxWidth - 2.0 * PADDING) / bounds.getWidth(),
+                (maxHeight - 2.0 * PADDING) / bounds.getHeight()));
+        int width = (int) Math.ceil(bounds.getWidth() * scale) + 2 * PADDING;
+        int height = (int) Math.ceil(bounds.getHeight() * scale) + 2 * PADDING;
+
+        BufferedImage image = new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
+        Graphics2D g = image.createGraphics();
+        try {
+            g.setRenderingHint(RenderingHints.KEY_ANTIALIASING, RenderingHints.VALUE_ANTIALIAS_ON);
+            g.setRenderingHint(RenderingHints.KEY_STROKE_CONTROL, RenderingHints.VALUE_STROKE_PURE);
+            g.setColor(Color.WHITE);
+            g.fillRect(0, 0, width, height);
+            g.translate(PADDING, PADDING);
+            g.scale(scale, scale);
+            g.translate(-bounds.getX(), -bounds.getY());
+            // 线宽不随缩放变细，至少保留一个像素
+            float strokeWidth = (float) Math.max(1, 1 / scale);
+            // 按文档顺序绘制，与 draw.io 的层叠顺序一致
+            for (Cell cell : cells.values()) {
+                if (cell.vertex) {
+                    drawVertex(g, cell, absoluteBounds(cell, cells), strokeWidth);
+                } else if (cell.edge) {
+                    drawEdge(g, cell, cells, strokeWidth);
+                }
+            }
+        } finally {
+            g.dispose();
+        }
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        try {
+            ImageIO.write(image, "png", out);
+        } catch (IOException e) {
+            return null;
+        }
+        return out.toByteArray();
+    }
+
+    private static void drawVertex(Graphics2D g, Cell cell, Rectangle2D rect, float strokeWidth) {
+        Map<String, String> style = cell.style;
+        String shapeName = style.getOrDefault("shape", style.get(""));
+        if ("text".equals(shapeName) || "edgeLabel".equals(shapeName)) {
+            return;
+        }
+        Shape shape = toShape(shapeName, style, rect);
+        Color stroke = parseColor(style.get("strokeColor"), DEFAULT_STROKE);
+        if ("swimlane".equals(shapeName)) {
+            // 泳道：标题栏用 fillColor，内容区用 swimlaneFillColor（默认透明）
+            double startSize = Math.min(parseDouble(style.get("startSize"), 23), rect.getHeight());
+            Color body = parseColor(style.get("swimlaneFillColor"), null);
+            if (body != null) {
+                g.setColor(body);
+                g.fill(shape);
+            }
+            Color header = parseColor(style.get("fillColor"), DEFAULT_FILL);
+            if (header != null) {
+                g.setColor(header);
+                g.fill(new Rectangle2D.Double(rect.getX(), rect.getY(), rect.getWidth(), startSize));
+            }
+        } else {
+            Color fill = parseColor(style.get("fillColor"), DEFAULT_FILL);
+            if (fill != null) {
+                g.setColor(fill);
+                g.fill(shape);
+            }
+        }
+        if (stroke != null) {
+            g.setColor(stroke);
+            g.setStroke(new BasicStroke(strokeWidth));
+            g.draw(shape);
+        }
+    }
+
+    private static void drawEdge(Graphics2D g, Cell cell, Map<String, Cell> cells, float strokeWidth) {
+        Cell source = cells.get(cell.source);
+        Cell target = cells.get(cell.target);
+        Point2D start = source != null && source.vertex ? center(absoluteBounds(source, cells)) : cell.sourcePoint;
+        Point2D end = target != null && target.vertex ? center(absoluteBounds(target, cells)) : cell.targetPoint;
+        if (start == null || end == null) {
+            return;
+        }
+        List<Point2D> path = new ArrayList<>(cell.points.size() + 2);
+        path.add(start);
+        path.addAll(cell.points);
+        path.add(end);
+        // 端点从节点中心裁剪到节点边框上
+        if (source != null && source.vertex) {
+            path.set(0, clipToRect(path.get(1), start, absoluteBounds(source, cells)));
+        }
+        if (target != null && target.vertex) {
+            path.set(path.size() - 1, clipToRect(path.get(path.size() - 2), end, absoluteBounds(target, cells)));
+        }
+        Path2D line = new Path2D.Double();
+        line.moveTo(path.get(0).getX(), path.get(0).getY());
+        for (int i = 1; i < path.size(); i++) {
+            line.lineTo(path.get(i).getX(), path.get(i).getY());
+        }
+        Color stroke = parseColor(cell.style.get("strokeColor"), DEFAULT_STROKE);
+        if (stroke != null) {
+            g.setColor(stroke);
+            g.setStroke(new BasicStroke(strokeWidth));
+            g.draw(line);
+        }
+    }
+
+    private static Shape toShape(String shapeName, Map<String, String> style, Rectangle2D rect) {
+        double x = rect.getX();
+        double y = rect.getY();
+        double w = rect.getWidth();
+        double h = rect.getHeight();
+        if ("ellipse".equals(shapeName) || "doubleEllipse".equals(shapeName)) {
+            return new Ellipse2D.Double(x, y, w, h);
+        }
+        if ("rhombus".equals(shapeName)) {
+            Path2D path = new Path2D.Double();
+            path.moveTo(x + w / 2, y);
+            path.lineTo(x + w, y + h / 2);
+            path.lineTo(x + w / 2, y + h);
+            path.lineTo(x, y + h / 2);
+            path.closePath();
+            return path;
+        }
+        if ("1".equals(style.get("rounded"))) {
+            double arc = Math.min(w, h) * 0.3;
+            return new RoundRectangle2D.Double(x, y, w, h, arc, arc);
+        }
+        return rect;
+    }
+
+    /**
+     * 节点中心到 outside 的线段与节点边框的交点
+     */
+    private static Point2D clipToRect(Point2D outside, Point2D center, Rectangle2D rect) {
+        double dx = outside.getX() - center.getX();
+        double dy = outside.getY() - center.getY();
+        if (dx == 0 && dy == 0) {
+            return center;
+        }
+        double tx = dx == 0 ? Double.MAX_VALUE : (rect.getWidth() / 2) / Math.abs(dx);
+        double ty = dy == 0 ? Double.MAX_VALUE : (rect.getHeight() / 2) / Math.abs(dy);
+        double t = Math.min(1, Math.min(tx, ty));
+        return new Point2D.Double(center.getX() + dx * t, center.getY() + dy * t);
+    }
+
+    private static Point2D center(Rectangle2D rect) {
+        return new Point2D.Double(rect.getCenterX(), rect.getCenterY());
+    }
+
+    /**
+     * 子节点坐标相对父节点，逐级累加得到绝对坐标
+     */
+    private static Rectangle2D absoluteBounds(Cell cell, Map<String, Cell> cells) {
+        double x = cell.x;
+        double y = cell.y;
+        Cell parent = cells.get(cell.parent);
+        int depth = 0;
+        while (parent != null && parent.vertex && depth++ < 64) {
+            x += parent.x;
+            y += parent.y;
+            parent = cells.get(parent.parent);
+        }
+        return new Rectangle2D.Double(x, y, cell.width, cell.height);
+    }
+
+    /**
+     * 解析出按文档顺序排列的单元，key 为单元 ID
+     */
+    static Map<String, Cell> parse(String diagramCode) {
+        if (StringUtils.isBlank(diagramCode)) {
+            return null;
+        }
+        try {
+            Element root = parseXml(diagramCode).getDocumentElement();
+            if ("mxfile".equals(root.getNodeName())) {
+                Element page = firstChild(root, "diagram");
+                if (page == null) {
+                    return null;
+                }
+                Element model = firstChild(page, "mxGraphModel");
+                root = model != null ? model : parseXml(inflatePage(page.getTextContent())).getDocumentElement();
+            }
+            Map<String, Cell> cells = new LinkedHashMap<>();
+            NodeList nodes = root.getElementsByTagName("mxCell");
+            for (int i = 0; i < nodes.getLength() && cells.size() < MAX_CELLS; i++) {
+                Cell cell = toCell((Element) nodes.item(i));
+                if (cell.id != null) {
+                    cells.put(cell.id, cell);
+                }
+            }
+            return cells;
+        } catch (Exception e) {
+            return null;
+        }
+    }
+
+    private static Cell toCell(Element element) {
+        Cell cell = new Cell();
+        // object/UserObject 包装的单元，ID 在外层元素上
+        Node wrapper = element.getParentNode();
+        boolean wrapped = wrapper instanceof Element && !element.hasAttribute("id")
+                && ("object".equals(wrapper.getNodeName()) || "UserObject".equals(wrapper.getNodeName()));
+        cell.id = wrapped ? ((Element) wrapper).getAttribute("id") : StringUtils.trimToNull(element.getAttribute("id"));
+        cell.parent = element.getAttribute("parent");
+        cell.vertex = "1".equals(element.getAttribute("vertex"));
+        cell.edge = "1".equals(element.getAttribute("edge"));
+        cell.source = element.getAttribute("source");
+        cell.target = element.getAttribute("target");
+        cell.style = parseStyle(element.getAttribute("style"));
+        Element geometry = firstChild(element, "mxGeometry");
+        if (geometry != null) {
+            cell.x = parseDouble(geometry.getAttribute("x"), 0);
+            cell.y = parseDouble(geometry.getAttribute("y"), 0);
+            cell.width = parseDouble(geometry.getAttribute("width"), 0);
+            cell.height = parseDouble(geometry.getAttribute("height"), 0);
+            NodeList children = geometry.getChildNodes();
+            for (int i = 0; i < children.getLength(); i++) {
+                if (!(children.item(i) instanceof Element child)) {
+                    continue;
+                }
+                String as = child.getAttribute("as");
+                if ("sourcePoint".equals(as)) {
+                    cell.sourcePoint = toPoint(child);
+                } else if ("targetPoint".equals(as)) {
+                    cell.targetPoint = toPoint(child);
+                } else if ("points".equals(as)) {
+                    NodeList points = child.getElementsByTagName("mxPoint");
+                    for (int j = 0; j < points.getLength(); j++) {
+                        cell.points.add(toPoint((Element) points.item(j)));
+                    }
+                }
+            }
+        }
+        // 没有尺寸的节点不参与绘制与边界计算
+        cell.vertex = cell.vertex && cell.width > 0 && cell.height > 0;
+        return cell;
+    }
+
+    private static Point2D toPoint(Element element) {
+        return new Point2D.Double(parseDouble(element.getAttribute("x"), 0), parseDouble(element.getAttribute("y"), 0));
+    }
+
+    /**
+     * style 格式：shapeName;key=value;key=value，首个不带等号的片段以空字符串为 key 保存
+     */
+    private static Map<String, String> parseStyle(String style) {
+        Map<String, String> map = new HashMap<>();
+        if (StringUtils.isBlank(style)) {
+            return map;
+        }
+        for (String part : style.split(";")) {
+            int idx = part.indexOf('=');
+            if (idx > 0) {
+                map.put(part.substring(0, idx).trim(), part.substring(idx + 1).trim());
+            } else if (!part.isBlank()) {
+                map.putIfAbsent("", part.trim());
+            }
+        }
+        return map;
+    }
+
+    private static Color parseColor(String value, Color defaultColor) {
+        if (value == null || "default".equals(value)) {
+            return defaultColor;
+        }
+        if ("none".equals(value)) {
+            return null;
+        }
+        try {
+            return Color.decode(value.startsWith("#") && value.length() == 4
+                    ? "#" + value.charAt(1) + value.charAt(1) + value.charAt(2) + value.charAt(2) + value.charAt(3) + value.charAt(3)
+                    : value);
+        } catch (NumberFormatException e) {
+            return defaultColor;
+        }
+    }
+
+    private static double parseDouble(String value, double defaultValue) {
+        if (StringUtils.isBlank(value)) {
+            return defaultValue;
+        }
+        try {
+            return Double.parseDouble(value);
+        } catch (NumberFormatException e) {
+            return defaultValue;
+        }
+    }
+
+    private static Element firstChild(Element parent, String name) {
+        NodeList children = parent.getChildNodes();
+        for (int i = 0; i < children.getLength(); i++) {
+            if (children.item(i) instanceof Element child && name.equals(child.getNodeName())) {
+                return child;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * draw.io 压缩页面：Base64 -> raw deflate -> URL 编码的 XML
+     */
+    private static String inflatePage(String content) throws DataFormatException {
+        byte[] compressed = Base64.getDecoder().decode(content.trim());
+        Inflater inflater = new Inflater(true);
+        try {
+            inflater.setInput(compressed);
+            ByteArrayOutputStream out = new ByteArrayOutputStream(Math.min(compressed.length * 4, MAX_INFLATED_BYTES));
+            byte[] buffer = new byte[8192];
+            while (!inflater.finished()) {
+                int n = inflater.inflate(buffer);
+                if (n == 0 && (inflater.needsInput() || inflater.needsDictionary())) {
+                    break;
+                }
+                if (out.size() + n > MAX_INFLATED_BYTES) {
+                    throw new DataFormatException("inflated page exceeds " + MAX_INFLATED_BYTES + " bytes");
+                }
+                out.write(buffer, 0, n);
+            }
+            return URLDecoder.decode(out.toString(StandardCharsets.UTF_8), StandardCharsets.UTF_8);
+        } finally {
+            inflater.end();
+        }
+    }
+
+    private static Document parseXml(String xml) throws Exception {
+        DocumentBuilderFactory factory = DocumentBuilderFactory.newInstance();
+        // 图表内容来自用户，禁止 DTD 与外部实体
+        factory.setFeature("http://apache.org/xml/features/disallow-doctype-decl", true);
+        factory.setFeature(XMLConstants.FEATURE_SECURE_PROCESSING, true);
+        factory.setExpandEntityReferences(false);
+        return factory.newDocumentBuilder().parse(new InputSource(new StringReader(xml)));
+    }
+
+    /**
+     * 解析后的 mxCell
+     */
+    static class Cell {
+        String id;
+        String parent;
+        boolean vertex;
+        boolean edge;
+        String source;
+        String target;
+        Map<String, String> style;
+        double x;
+        double y;
+        double width;
+        double height;
+        Point2D sourcePoint;
+        Point2D targetPoint;
+        final List<Point2D> points = new ArrayList<>();
+    }
+}
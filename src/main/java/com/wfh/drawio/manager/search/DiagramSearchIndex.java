@@ -0,0 +1,566 @@
+package com.wfh.drawio.manager.search;
+
+import cn.hutool.http.HtmlUtil;
+import com.baomidou.mybatisplus.core.conditions.query.LambdaQueryWrapper;
+import com.wfh.drawio.event.DiagramChangeEvent;
+import com.wfh.drawio.manager.DiagramContentStore;
+import com.wfh.drawio.mapper.DiagramMapper;
+import com.wfh.drawio.model.entity.Diagram;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import jakarta.annotation.Resource;
+import lombok.extern.slf4j.Slf4j;
+import org.apache.commons.lang3.StringUtils;
+import org.apache.lucene.analysis.Analyzer;
+import org.apache.lucene.analysis.TokenStream;
+import org.apache.lucene.analysis.cn.smart.SmartChineseAnalyzer;
+import org.apache.lucene.analysis.tokenattributes.CharTermAttribute;
+import org.apache.lucene.document.Document;
+import org.apache.lucene.document.Field;
+import org.apache.lucene.document.StringField;
+import org.apache.lucene.document.TextField;
+import org.apache.lucene.index.IndexWriter;
+import org.apache.lucene.index.IndexWriterConfig;
+import org.apache.lucene.index.StoredFields;
+import org.apache.lucene.index.Term;
+import org.apache.lucene.search.BooleanClause;
+import org.apache.lucene.search.BooleanQuery;
+import org.apache.lucene.search.BoostQuery;
+import org.apache.lucene.search.FuzzyQuery;
+import org.apache.lucene.search.IndexSearcher;
+import org.apache.lucene.search.PrefixQuery;
+import org.apache.lucene.search.Query;
+import org.apache.lucene.search.ScoreDoc;
+import org.apache.lucene.search.SearcherManager;
+import org.apache.lucene.search.TermQuery;
+import org.apache.lucene.search.TopDocs;
+import org.apache.lucene.store.Directory;
+import org.apache.lucene.store.FSDirectory;
+import org.apache.lucene.store.LockObtainFailedException;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.listener.ChannelTopic;
+import org.springframework.data.redis.listener.RedisMessageListenerContainer;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.event.TransactionalEventListener;
+
+import java.io.IOException;
+import java.io.StringReader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * 图表全文检索索引（嵌入式 Lucene，索引文件存于本地目录）
+ * <p>
+ * 索引图表名称、描述、类型标签以及从 diagramCode 中提取的节点文本，支持前缀与模糊匹配，
+ * 空间、创建人等范围条件作为过滤子句在索引内生效，再取相关度最高的若干条，
+ * 检索只返回图表 ID，由调用方带上其余筛选条件一次批量查询回表。
+ * 启动后从数据库全量重建；运行期由 {@link DiagramChangeEvent} 驱动增量更新，
+ * 变更通过 Redis 广播，保证每个节点的本地索引都能收到其他节点的修改。
+ * 重建完成前（或磁盘上是旧结构的索引）{@link #search} 返回 null，调用方回退到 LIKE 查询。
+ *
+ * @author fenghuanwang
+ */
+@Component
+@Slf4j
+public class DiagramSearchIndex {
+
+    private static final String CHANGE_CHANNEL = "diagram:search:changed";
+
+    private static final String FIELD_ID = "id";
+
+    private static final String FIELD_NAME = "name";
+
+    private static final String FIELD_DESCRIPTION = "description";
+
+    private static final String FIELD_TAGS = "tags";
+
+    private static final String FIELD_LABELS = "labels";
+
+    private static final String FIELD_SPACE_ID = "spaceId";
+
+    private static final String FIELD_USER_ID = "userId";
+
+    /**
+     * 是否不属于任何空间（公共图库），取值 "1"/"0"
+     */
+    private static final String FIELD_NO_SPACE = "noSpace";
+
+    /**
+     * 索引结构版本，写在提交数据中；字段变化时递增，旧结构的索引重建完成前不参与检索
+     */
+    private static final String SCHEMA_KEY = "schema";
+
+    private static final String SCHEMA_VERSION = "2";
+
+    private static final String[] ALL_FIELDS = {FIELD_NAME, FIELD_DESCRIPTION, FIELD_TAGS, FIELD_LABELS};
+
+    /**
+     * 字段权重，与 ALL_FIELDS 一一对应
+     */
+    private static final float[] FIELD_BOOSTS = {3f, 1.5f, 1.5f, 1f};
+
+    /**
+     * draw.io 节点文本：mxCell 的 value 属性，或 UserObject/object 的 label 属性
+     */
+    private static final Pattern LABEL_PATTERN = Pattern.compile("\\s(?:value|label)=\"([^\"]+)\"");
+
+    /**
+     * 单个图表索引的节点文本上限，避免超大图表拖慢索引
+     */
+    private static final int MAX_LABEL_CHARS = 32 * 1024;
+
+    /**
+     * 单次检索最多参与匹配的词数
+     */
+    private static final int MAX_QUERY_TERMS = 10;
+
+    /**
+     * 达到该长度的词才做模糊匹配（编辑距离 1），短词模糊匹配误召回太多
+     */
+    private static final int FUZZY_MIN_LENGTH = 4;
+
+    private static final int REBUILD_BATCH_SIZE = 500;
+
+    @Value("${drawio.search.enabled:true}")
+    private boolean enabled;
+
+    /**
+     * 索引目录，每个实例独占（Lucene 写锁），默认按端口区分同机的多个实例
+     */
+    @Value("${drawio.search.index-dir:${java.io.tmpdir}/drawio-search-${server.port:8080}}")
+    private String indexDir;
+
+    @Value("${drawio.search.rebuild-on-startup:true}")
+    private boolean rebuildOnStartup;
+
+    @Value("${drawio.search.max-hits:1000}")
+    private int maxHits;
+
+    @Resource
+    private DiagramMapper diagramMapper;
+
+    @Resource
+    private DiagramContentStore diagramContentStore;
+
+    @Resource
+    private StringRedisTemplate stringRedisTemplate;
+
+    @Resource
+    private RedisMessageListenerContainer redisMessageListenerContainer;
+
+    private final Analyzer analyzer = new SmartChineseAnalyzer();
+
+    private Directory directory;
+
+    private IndexWriter indexWriter;
+
+    private SearcherManager searcherManager;
+
+    /**
+     * 单线程执行重建与增量写入，保证同一图表的变更按顺序落到索引
+     */
+    private ScheduledExecutorService indexExecutor;
+
+    private volatile boolean ready;
+
+    private boolean schemaCurrent;
+
+    @PostConstruct
+    public void init() throws IOException {
+        if (!enabled) {
+            return;
+        }
+        directory = FSDirectory.open(Path.of(indexDir));
+        try {
+            indexWriter = new IndexWriter(directory, new IndexWriterConfig(analyzer)
+                    .setOpenMode(IndexWriterConfig.OpenMode.CREATE_OR_APPEND));
+        } catch (LockObtainFailedException e) {
+            // 目录被同机的其他实例占用：本实例不启用索引，检索回退到数据库查询
+            log.error("图表检索索引目录已被占用，请为每个实例配置独立的 drawio.search.index-dir: {}", indexDir, e);
+            directory.close();
+            enabled = false;
+            return;
+        }
+        searcherManager = new SearcherManager(indexWriter, null);
+        indexExecutor = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread thread = new Thread(r, "diagram-search-index");
+            thread.setDaemon(true);
+            return thread;
+        });
+        // 增量写入只刷新可见性，定期提交落盘；索引可从数据库重建，不要求每次变更都 fsync
+        indexExecutor.scheduleWithFixedDelay(this::commitQuietly, 30, 30, TimeUnit.SECONDS);
+        redisMessageListenerContainer.addMessageListener((message, pattern) ->
+                onRemoteChange(new String(message.getBody(), StandardCharsets.UTF_8)), new ChannelTopic(CHANGE_CHANNEL));
+        schemaCurrent = SCHEMA_VERSION.equals(commitData(SCHEMA_KEY));
+        ready = !rebuildOnStartup && schemaCurrent;
+    }
+
+    @EventListener(ApplicationReadyEvent.class)
+    public void rebuildOnStartup() {
+        if (enabled && (rebuildOnStartup || !schemaCurrent)) {
+            indexExecutor.execute(this::rebuild);
+        }
+    }
+
+    /**
+     * 图表变更（事务提交后）广播到所有节点
+     */
+    @TransactionalEventListener(fallbackExecution = true)
+    public void onDiagramChange(DiagramChangeEvent event) {
+        if (!enabled) {
+            return;
+        }
+        String message = event.getChangeType().name() + ":" + event.getDiagramId();
+        try {
+            stringRedisTemplate.convertAndSend(CHANGE_CHANNEL, message);
+        } catch (Exception e) {
+            // 广播失败至少保证本节点索引更新，其他节点等下次重建
+            log.warn("广播图表索引变更失败，仅更新本地索引: {}", message, e);
+            onRemoteChange(message);
+        }
+    }
+
+    /**
+     * 检索图表
+     *
+     * @param searchText 关键词，匹配名称、描述、标签与节点文本（可空）
+     * @param title      名称关键词，只匹配名称（可空）
+     * @param spaceId    只检索该空间（可空）
+     * @param userId     只检索该用户创建的图表（可空）
+     * @param nullSpaceId 只检索不属于任何空间的图表
+     * @return 范围内按相关度排序的图表 ID（最多 max-hits 条，供游标分页回表）；索引不可用时返回 null，调用方应回退到数据库查询
+     */
+    public List<Long> search(String searchText, String title, Long spaceId, Long userId, boolean nullSpaceId) {
+        if (!enabled || !ready) {
+            return null;
+        }
+        Query query = buildQuery(searchText, title, spaceId, userId, nullSpaceId);
+        if (query == null) {
+            // 关键词全是停用词或标点
+            return Collections.emptyList();
+        }
+        IndexSearcher searcher = null;
+        try {
+            searcher = searcherManager.acquire();
+            TopDocs topDocs = searcher.search(query, maxHits);
+            return toIds(searcher, topDocs.scoreDocs, 0);
+        } catch (IOException | IndexSearcher.TooManyClauses e) {
+            log.warn("图表检索失败，回退数据库查询: searchText={}, title={}", searchText, title, e);
+            return null;
+        } finally {
+            releaseQuietly(searcher);
+        }
+    }
+
+    /**
+     * 分页检索：在索引内按相关度分页，总数取自索引的命中数，不受 max-hits 限制
+     *
+     * @param offset 跳过的条数
+     * @param limit  每页条数
+     * @return 当前页图表 ID 与命中总数；索引不可用时返回 null，调用方应回退到数据库查询
+     */
+    public SearchPage searchPage(String searchText, String title, Long spaceId, Long userId, boolean nullSpaceId,
+                                 long offset, int limit) {
+        if (!enabled || !ready) {
+            return null;
+        }
+        Query query = buildQuery(searchText, title, spaceId, userId, nullSpaceId);
+        if (query == null) {
+            return new SearchPage(Collections.emptyList(), 0);
+        }
+        IndexSearcher searcher = null;
+        try {
+            searcher = searcherManager.acquire();
+            int total = searcher.count(query);
+            if (offset >= total || limit <= 0) {
+                return new SearchPage(Collections.emptyList(), total);
+            }
+            // 收集器按 numHits 预分配，不超过命中总数
+            TopDocs topDocs = searcher.search(query, (int) Math.min(offset + limit, total));
+            return new SearchPage(toIds(searcher, topDocs.scoreDocs, (int) offset), total);
+        } catch (IOException | IndexSearcher.TooManyClauses e) {
+            log.warn("图表检索失败，回退数据库查询: searchText={}, title={}", searchText, title, e);
+            return null;
+        } finally {
+            releaseQuietly(searcher);
+        }
+    }
+
+    /**
+     * 一页检索结果
+     *
+     * @param ids   当前页图表 ID，按相关度排序
+     * @param total 命中总数
+     */
+    public record SearchPage(List<Long> ids, long total) {
+    }
+
+    /**
+     * 关键词子句计分，范围条件只过滤不计分，先过滤再取前若干条，避免全站命中过多时挤掉本空间的结果
+     *
+     * @return 关键词全是停用词或标点时返回 null
+     */
+    private Query buildQuery(String searchText, String title, Long spaceId, Long userId, boolean nullSpaceId) {
+        BooleanQuery.Builder builder = new BooleanQuery.Builder();
+        boolean hasClause = addClauses(builder, searchText, ALL_FIELDS, FIELD_BOOSTS);
+        hasClause |= addClauses(builder, title, new String[]{FIELD_NAME}, new float[]{1f});
+        if (!hasClause) {
+            return null;
+        }
+        addFilter(builder, FIELD_SPACE_ID, spaceId);
+        addFilter(builder, FIELD_USER_ID, userId);
+        if (nullSpaceId) {
+            builder.add(new TermQuery(new Term(FIELD_NO_SPACE, "1")), BooleanClause.Occur.FILTER);
+        }
+        return builder.build();
+    }
+
+    private static List<Long> toIds(IndexSearcher searcher, ScoreDoc[] scoreDocs, int from) throws IOException {
+        StoredFields storedFields = searcher.storedFields();
+        List<Long> ids = new ArrayList<>(Math.max(0, scoreDocs.length - from));
+        for (int i = from; i < scoreDocs.length; i++) {
+            ids.add(Long.valueOf(storedFields.document(scoreDocs[i].doc).get(FIELD_ID)));
+        }
+        return ids;
+    }
+
+    /**
+     * 从数据库全量重建索引
+     */
+    public void rebuild() {
+        long start = System.currentTimeMillis();
+        try {
+            indexWriter.deleteAll();
+            long lastId = 0;
+            int total = 0;
+            while (true) {
+                List<Diagram> diagrams = diagramMapper.selectList(new LambdaQueryWrapper<Diagram>()
+                        .select(Diagram::getId, Diagram::getName, Diagram::getDescription, Diagram::getDiagramType,
+                                Diagram::getSpaceId, Diagram::getUserId)
+                        .gt(Diagram::getId, lastId)
+                        .orderByAsc(Diagram::getId)
+                        .last("limit " + REBUILD_BATCH_SIZE));
+                if (diagrams.isEmpty()) {
+                    break;
+                }
+                // 图表内容单独存储，按批次一次取回
+                Map<Long, String> codeMap = diagramContentStore.getAll(diagrams.stream().map(Diagram::getId).toList());
+                for (Diagram diagram : diagrams) {
+                    diagram.setDiagramCode(codeMap.get(diagram.getId()));
+                    indexWriter.addDocument(toDocument(diagram));
+                }
+                total += diagrams.size();
+                if (diagrams.size() < REBUILD_BATCH_SIZE) {
+                    break;
+                }
+                lastId = diagrams.get(diagrams.size() - 1).getId();
+            }
+            indexWriter.setLiveCommitData(Map.of(SCHEMA_KEY, SCHEMA_VERSION).entrySet());
+            indexWriter.commit();
+            searcherManager.maybeRefresh();
+            schemaCurrent = true;
+            ready = true;
+            log.info("图表检索索引重建完成，共 {} 条，耗时 {} ms", total, System.currentTimeMillis() - start);
+        } catch (Exception e) {
+            log.error("图表检索索引重建失败，检索将回退到数据库查询", e);
+        }
+    }
+
+    @PreDestroy
+    public void destroy() {
+        if (!enabled) {
+            return;
+        }
+        indexExecutor.shutdown();
+        try {
+            indexExecutor.awaitTermination(10, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        try {
+            searcherManager.close();
+            indexWriter.close();
+            directory.close();
+        } catch (IOException e) {
+            log.warn("关闭图表检索索引失败", e);
+        }
+    }
+
+    /**
+     * 处理变更消息，格式：CHANGE_TYPE:diagramId
+     */
+    private void onRemoteChange(String message) {
+        int idx = message.indexOf(':');
+        if (idx <= 0) {
+            return;
+        }
+        DiagramChangeEvent.ChangeType changeType;
+        long diagramId;
+        try {
+            changeType = DiagramChangeEvent.ChangeType.valueOf(message.substring(0, idx));
+            diagramId = Long.parseLong(message.substring(idx + 1));
+        } catch (IllegalArgumentException e) {
+            log.warn("忽略无法解析的图表索引变更消息: {}", message);
+            return;
+        }
+        try {
+            indexExecutor.execute(() -> apply(diagramId, changeType));
+        } catch (RejectedExecutionException e) {
+            // 应用关闭中
+            log.debug("图表索引已关闭，忽略变更: {}", message);
+        }
+    }
+
+    private void apply(long diagramId, DiagramChangeEvent.ChangeType changeType) {
+        Term idTerm = new Term(FIELD_ID, String.valueOf(diagramId));
+        try {
+            // 新增/修改都从数据库读取最新数据，消息乱序或重复时结果一致
+            Diagram diagram = changeType == DiagramChangeEvent.ChangeType.DELETE ? null : diagramMapper.selectById(diagramId);
+            if (diagram == null) {
+                indexWriter.deleteDocuments(idTerm);
+            } else {
+                diagram.setDiagramCode(diagramContentStore.get(diagramId));
+                indexWriter.updateDocument(idTerm, toDocument(diagram));
+            }
+            searcherManager.maybeRefresh();
+        } catch (Exception e) {
+            log.warn("更新图表检索索引失败: diagramId={}, changeType={}", diagramId, changeType, e);
+        }
+    }
+
+    private Document toDocument(Diagram diagram) {
+        Document document = new Document();
+        document.add(new StringField(FIELD_ID, String.valueOf(diagram.getId()), Field.Store.YES));
+        if (diagram.getSpaceId() != null) {
+            document.add(new StringField(FIELD_SPACE_ID, String.valueOf(diagram.getSpaceId()), Field.Store.NO));
+        }
+        if (diagram.getUserId() != null) {
+            document.add(new StringField(FIELD_USER_ID, String.valueOf(diagram.getUserId()), Field.Store.NO));
+        }
+        document.add(new StringField(FIELD_NO_SPACE, diagram.getSpaceId() == null ? "1" : "0", Field.Store.NO));
+        addText(document, FIELD_NAME, diagram.getName());
+        addText(document, FIELD_DESCRIPTION, diagram.getDescription());
+        addText(document, FIELD_TAGS, diagram.getDiagramType());
+        addText(document, FIELD_LABELS, extractLabels(diagram.getDiagramCode()));
+        return document;
+    }
+
+    private static void addFilter(BooleanQuery.Builder builder, String field, Long value) {
+        if (value != null) {
+            builder.add(new TermQuery(new Term(field, String.valueOf(value))), BooleanClause.Occur.FILTER);
+        }
+    }
+
+    /**
+     * 最近一次提交中记录的值
+     */
+    private String commitData(String key) {
+        Iterable<Map.Entry<String, String>> commitData = indexWriter.getLiveCommitData();
+        if (commitData != null) {
+            for (Map.Entry<String, String> entry : commitData) {
+                if (key.equals(entry.getKey())) {
+                    return entry.getValue();
+                }
+            }
+        }
+        return null;
+    }
+
+    private static void addText(Document document, String field, String value) {
+        if (StringUtils.isNotBlank(value)) {
+            document.add(new TextField(field, value, Field.Store.NO));
+        }
+    }
+
+    /**
+     * 从 draw.io XML 中提取节点文本，节点文本本身可能是转义后的 HTML
+     */
+    static String extractLabels(String diagramCode) {
+        if (StringUtils.isBlank(diagramCode)) {
+            return null;
+        }
+        StringBuilder sb = new StringBuilder();
+        Matcher matcher = LABEL_PATTERN.matcher(diagramCode);
+        while (matcher.find() && sb.length() < MAX_LABEL_CHARS) {
+            String text = HtmlUtil.unescape(HtmlUtil.cleanHtmlTag(HtmlUtil.unescape(matcher.group(1))));
+            if (StringUtils.isNotBlank(text)) {
+                sb.append(text.trim()).append('\n');
+            }
+        }
+        return sb.toString();
+    }
+
+    /**
+     * 每个词作为必选条件：在任一字段上精确、前缀或模糊命中即可
+     */
+    private boolean addClauses(BooleanQuery.Builder builder, String text, String[] fields, float[] boosts) {
+        if (StringUtils.isBlank(text)) {
+            return false;
+        }
+        Set<String> terms = analyze(text);
+        for (String term : terms) {
+            BooleanQuery.Builder termBuilder = new BooleanQuery.Builder();
+            for (int i = 0; i < fields.length; i++) {
+                Term t = new Term(fields[i], term);
+                termBuilder.add(new BoostQuery(new TermQuery(t), boosts[i] * 2), BooleanClause.Occur.SHOULD);
+                termBuilder.add(new BoostQuery(new PrefixQuery(t), boosts[i]), BooleanClause.Occur.SHOULD);
+                if (term.length() >= FUZZY_MIN_LENGTH) {
+                    termBuilder.add(new BoostQuery(new FuzzyQuery(t, 1), boosts[i] * 0.5f), BooleanClause.Occur.SHOULD);
+                }
+            }
+            builder.add(termBuilder.build(), BooleanClause.Occur.MUST);
+        }
+        return !terms.isEmpty();
+    }
+
+    private Set<String> analyze(String text) {
+        Set<String> terms = new LinkedHashSet<>();
+        try (TokenStream tokenStream = analyzer.tokenStream(FIELD_NAME, new StringReader(text))) {
+            CharTermAttribute termAttribute = tokenStream.addAttribute(CharTermAttribute.class);
+            tokenStream.reset();
+            while (tokenStream.incrementToken() && terms.size() < MAX_QUERY_TERMS) {
+                terms.add(termAttribute.toString());
+            }
+            tokenStream.end();
+        } catch (IOException e) {
+            log.warn("检索关键词分词失败: {}", text, e);
+        }
+        return terms;
+    }
+
+    private void commitQuietly() {
+        try {
+            if (indexWriter.hasUncommittedChanges()) {
+                indexWriter.commit();
+            }
+        } catch (IOException e) {
+            log.warn("提交图表检索索引失败", e);
+        }
+    }
+
+    private void releaseQuietly(IndexSearcher searcher) {
+        if (searcher == null) {
+            return;
+        }
+        try {
+            searcherManager.release(searcher);
+        } catch (IOException e) {
+            log.warn("释放索引 searcher 失败", e);
+        }
+    }
+}
@@ -1,8 +1,11 @@
 package com.wfh.drawio.mapper;
 
+import com.baomidou.mybatisplus.core.conditions.query.LambdaQueryWrapper;
 import com.wfh.drawio.model.entity.Conversion;
 import com.baomidou.mybatisplus.core.mapper.BaseMapper;
 
+import java.util.List;
+
 /**
 * @author fenghuanwang
 * @description 针对表【conversion(消息对话表)】的数据库操作Mapper
@@ -11,6 +14,21 @@ import com.baomidou.mybatisplus.core.mapper.BaseMapper;
 */
 public interface ConversionMapper extends BaseMapper<Conversion> {
 
+    /**
+     * 查询图表最近的 limit 条消息（按 id 倒序，id 为雪花ID，与写入顺序一致）
+     * 走 (diagramId, id) 索引，只回表 limit 行
+     *
+     * @param diagramId 图表ID
+     * @param limit     条数
+     * @return 最新的在前
+     */
+    default List<Conversion> selectLatestByDiagramId(Long diagramId, int limit) {
+        return selectList(new LambdaQueryWrapper<Conversion>()
+                .select(Conversion::getId, Conversion::getMessageType, Conversion::getMessage)
+                .eq(Conversion::getDiagramId, diagramId)
+                .orderByDesc(Conversion::getId)
+                .last("limit " + limit));
+    }
 }
 
 
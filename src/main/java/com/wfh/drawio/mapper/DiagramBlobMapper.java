@@ -0,0 +1,60 @@
+package com.wfh.drawio.mapper;
+
+import com.baomidou.mybatisplus.core.mapper.BaseMapper;
+import com.wfh.drawio.model.entity.DiagramBlob;
+import com.wfh.drawio.model.vo.DiagramStorageReportVO;
+import org.apache.ibatis.annotations.Delete;
+import org.apache.ibatis.annotations.Insert;
+import org.apache.ibatis.annotations.Param;
+import org.apache.ibatis.annotations.Select;
+import org.apache.ibatis.annotations.Update;
+
+/**
+* @author fenghuanwang
+* @description 针对表【diagram_blob(图表内容块表)】的数据库操作Mapper
+* @Entity com.wfh.drawio.model.entity.DiagramBlob
+*/
+public interface DiagramBlobMapper extends BaseMapper<DiagramBlob> {
+
+    /**
+     * 写入内容块，已存在（内容相同）则引用数 +1
+     * @param blob
+     * @return
+     */
+    @Insert("""
+            insert into diagram_blob (hash, data, rawSize, storedSize, refCount)
+            values (#{hash}, #{data}, #{rawSize}, #{storedSize}, 1)
+            on duplicate key update refCount = refCount + 1
+            """)
+    int insertOrRetain(DiagramBlob blob);
+
+    /**
+     * 引用数 -1
+     * @param hash
+     * @return
+     */
+    @Update("update diagram_blob set refCount = refCount - 1 where hash = #{hash}")
+    int release(@Param("hash") String hash);
+
+    /**
+     * 删除已无引用的内容块
+     * @param hash
+     * @return
+     */
+    @Delete("delete from diagram_blob where hash = #{hash} and refCount <= 0")
+    int deleteIfUnreferenced(@Param("hash") String hash);
+
+    /**
+     * 统计内容块存储情况
+     * @return
+     */
+    @Select("""
+            select count(*)                          as blobCount,
+                   coalesce(sum(refCount), 0)          as referenceCount,
+                   coalesce(sum(rawSize * refCount), 0) as logicalBytes,
+                   coalesce(sum(rawSize), 0)           as dedupedBytes,
+                   coalesce(sum(storedSize), 0)        as storedBytes
+            from diagram_blob
+            """)
+    DiagramStorageReportVO selectStorageReport();
+}
@@ -0,0 +1,48 @@
+package com.wfh.drawio.mapper;
+
+import com.baomidou.mybatisplus.core.mapper.BaseMapper;
+import com.wfh.drawio.model.entity.DiagramContent;
+import org.apache.ibatis.annotations.Insert;
+import org.apache.ibatis.annotations.Param;
+import org.apache.ibatis.annotations.Select;
+
+/**
+* @author fenghuanwang
+* @description 针对表【diagram_content(图表内容表)】的数据库操作Mapper
+* @Entity com.wfh.drawio.model.entity.DiagramContent
+*/
+public interface DiagramContentMapper extends BaseMapper<DiagramContent> {
+
+    /**
+     * 写入图表内容引用，已存在则覆盖（同时清空旧的明文内容）
+     * @param diagramId
+     * @param contentHash
+     * @return
+     */
+    @Insert("""
+            insert into diagram_content (diagramId, contentHash, diagramCode)
+            values (#{diagramId}, #{contentHash}, null)
+            on duplicate key update contentHash = values(contentHash), diagramCode = null
+            """)
+    int upsertHash(@Param("diagramId") Long diagramId, @Param("contentHash") String contentHash);
+
+    /**
+     * 内容行不存在时先插入空行，之后的 for update 锁的是已存在的记录，
+     * 避免对不存在的主键加间隙锁导致两个首次写入互相死锁
+     * @param diagramId
+     * @return
+     */
+    @Insert("""
+            insert into diagram_content (diagramId) values (#{diagramId})
+            on duplicate key update diagramId = diagramId
+            """)
+    int insertIfAbsent(@Param("diagramId") Long diagramId);
+
+    /**
+     * 锁定并读取图表当前内容行，用于替换内容时维护引用数
+     * @param diagramId
+     * @return
+     */
+    @Select("select * from diagram_content where diagramId = #{diagramId} for update")
+    DiagramContent selectByIdForUpdate(@Param("diagramId") Long diagramId);
+}
@@ -2,6 +2,11 @@ package com.wfh.drawio.mapper;
 
 import com.baomidou.mybatisplus.core.mapper.BaseMapper;
 import com.wfh.drawio.model.entity.Diagram;
+import com.wfh.drawio.model.entity.Space;
+import org.apache.ibatis.annotations.Param;
+import org.apache.ibatis.annotations.Select;
+
+import java.util.List;
 
 /**
 * @author fenghuanwang
@@ -11,6 +16,22 @@ import com.wfh.drawio.model.entity.Diagram;
 */
 public interface DiagramMapper extends BaseMapper<Diagram> {
 
+    /**
+     * 按空间统计未删除图表的数量与文件大小（svgSize + pngSize），用于校准空间额度计数
+     * @param fromSpaceId 起始空间ID（含）
+     * @param toSpaceId   结束空间ID（含）
+     * @return id 为空间ID，totalCount / totalSize 为实际用量；没有图表的空间不在结果中
+     */
+    @Select("""
+            select spaceId as id,
+                   count(*) as totalCount,
+                   coalesce(sum(coalesce(svgSize, 0) + coalesce(pngSize, 0)), 0) as totalSize
+            from diagram
+            where isDelete = 0 and spaceId between #{fromSpaceId} and #{toSpaceId}
+            group by spaceId
+            """)
+    List<Space> selectSpaceUsage(@Param("fromSpaceId") Long fromSpaceId, @Param("toSpaceId") Long toSpaceId);
+
 }
 
 
@@ -2,12 +2,9 @@ package com.wfh.drawio.mapper;
 
 import com.baomidou.mybatisplus.core.mapper.BaseMapper;
 import com.wfh.drawio.model.entity.User;
-import org.apache.ibatis.annotations.Many;
-import org.apache.ibatis.annotations.Result;
-import org.apache.ibatis.annotations.Results;
+import org.apache.ibatis.annotations.ResultMap;
 import org.apache.ibatis.annotations.Select;
 
-import java.util.List;
 import java.util.Optional;
 
 
@@ -19,16 +16,37 @@ import java.util.Optional;
  */
 public interface UserMapper extends BaseMapper<User> {
 
-    @Select("select * from sys_user where userAccount = #{username}")
-    @Results({
-            @Result(id = true, property = "id", column = "id"),
-            // 这里的 column = "id" 指的是 ss_user 表的主键 id
-            // 它会被作为参数传给 AuthorityMapper.findByUserId(Long userId)
-            @Result(property = "authorities", column = "id", javaType = List.class,
-                    many = @Many(select = "com.wfh.drawio.mapper.SysAuthorityMapper.findByUserId"))
-    })
+    /**
+     * 根据账号加载登录主体（含权限）
+     * 一次 JOIN 取回用户及其全部权限，由 resultMap 按用户 id 折叠，避免嵌套 select 的 N+1
+     */
+    @ResultMap("UserWithAuthoritiesMap")
+    @Select("""
+        SELECT
+            u.*,
+            a.id AS auth_id,
+            a.parentId AS auth_parentId,
+            a.name AS auth_name,
+            a.description AS auth_description,
+            a.resource AS auth_resource,
+            a.type AS auth_type,
+            a.createTime AS auth_createTime,
+            a.updateTime AS auth_updateTime,
+            a.isDelete AS auth_isDelete
+        FROM sys_user u
+        LEFT JOIN sys_user_role_rel ur ON ur.userId = u.id AND ur.isDelete = 0
+        LEFT JOIN sys_role_authority_rel ra ON ra.roleId = ur.roleId AND ra.isDelete = 0
+        LEFT JOIN sys_authority a ON a.id = ra.authorityId AND a.isDelete = 0
+        WHERE u.userAccount = #{username}
+        """)
     Optional<User> findByUsername(String username);
 
+    /**
+     * 根据账号加载用户（不含权限），配合权限缓存使用
+     */
+    @Select("select * from sys_user where userAccount = #{username}")
+    Optional<User> findAccountByUsername(String username);
+
 }
 
 
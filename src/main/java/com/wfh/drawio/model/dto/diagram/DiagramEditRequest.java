@@ -51,5 +51,11 @@ public class DiagramEditRequest implements Serializable {
     private String pictureUrl;
 
 
+    /**
+     * 编辑所基于的版本号（为空时不做冲突检测）
+     */
+    @Schema(description = "编辑所基于的版本号，与最新版本不一致时返回 40900 冲突", example = "3")
+    private Integer version;
+
     private static final long serialVersionUID = 1L;
 }
\ No newline at end of file
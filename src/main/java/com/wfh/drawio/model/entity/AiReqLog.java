@@ -22,7 +22,7 @@ public class AiReqLog {
     private Long id;
 
     /**
-     * 当日请求时间
+     * 当日消耗的 token 数
      */
     private Integer count;
 
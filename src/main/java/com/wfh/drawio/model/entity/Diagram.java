@@ -29,8 +29,9 @@ public class Diagram {
     private Long userId;
 
     /**
-     * 图表代码
+     * 图表代码（存于 diagram_content 表，列表查询不加载，需要时通过 DiagramService#getByIdWithCode 读取）
      */
+    @TableField(exist = false)
     @Schema(description = "图表代码", example = "DIAGRAM_20240101_001")
     private String diagramCode;
 
@@ -52,6 +53,12 @@ public class Diagram {
     @Schema(description = "图片URL", example = "https://example.com/image.png")
     private String pictureUrl;
 
+    /**
+     * 缩略图url（服务端根据图表内容异步渲染）
+     */
+    @Schema(description = "缩略图URL", example = "https://example.com/thumbnail.png")
+    private String thumbnailUrl;
+
     /**
      * 空间id
      */
@@ -113,6 +120,11 @@ public class Diagram {
     @Schema(description = "更新时间", example = "2024-01-01 10:00:00")
     private Date updateTime;
 
+    /**
+     * 版本号（乐观锁，每次更新 +1）
+     */
+    @Schema(description = "版本号，编辑时回传用于冲突检测", example = "3")
+    private Integer version;
 
     /**
      * 是否删除（0未删除，1删除）
@@ -0,0 +1,56 @@
+package com.wfh.drawio.model.entity;
+
+import com.baomidou.mybatisplus.annotation.IdType;
+import com.baomidou.mybatisplus.annotation.TableId;
+import com.baomidou.mybatisplus.annotation.TableName;
+import io.swagger.v3.oas.annotations.media.Schema;
+import java.util.Date;
+import lombok.Data;
+
+/**
+ * 图表内容块表
+ * 按内容 SHA-256 去重存储的压缩 XML，多个图表内容相同时共用一行，refCount 记录引用数
+ * @author fenghuanwang
+ * @TableName diagram_blob
+ */
+@TableName(value ="diagram_blob")
+@Data
+@Schema(name = "DiagramBlob", description = "图表内容块表")
+public class DiagramBlob {
+    /**
+     * 原始 XML（UTF-8）的 SHA-256，十六进制
+     */
+    @TableId(type = IdType.INPUT)
+    @Schema(description = "内容哈希")
+    private String hash;
+
+    /**
+     * deflate 压缩后的 XML
+     */
+    @Schema(description = "压缩内容")
+    private byte[] data;
+
+    /**
+     * 原始字节数
+     */
+    @Schema(description = "原始字节数", example = "204800")
+    private Integer rawSize;
+
+    /**
+     * 压缩后字节数
+     */
+    @Schema(description = "压缩后字节数", example = "15360")
+    private Integer storedSize;
+
+    /**
+     * 引用数
+     */
+    @Schema(description = "引用数", example = "1")
+    private Integer refCount;
+
+    /**
+     * 创建时间
+     */
+    @Schema(description = "创建时间", example = "2024-01-01 10:00:00")
+    private Date createTime;
+}
@@ -0,0 +1,51 @@
+package com.wfh.drawio.model.entity;
+
+import com.baomidou.mybatisplus.annotation.IdType;
+import com.baomidou.mybatisplus.annotation.TableId;
+import com.baomidou.mybatisplus.annotation.TableName;
+import io.swagger.v3.oas.annotations.media.Schema;
+import java.util.Date;
+import lombok.Data;
+
+/**
+ * 图表内容表
+ * 图表 XML 体积大且只在详情、编辑、下载时才需要，单独成表，列表查询不再读取；
+ * 内容本身压缩后按哈希存于 diagram_blob，这里只记录引用
+ * @author fenghuanwang
+ * @TableName diagram_content
+ */
+@TableName(value ="diagram_content")
+@Data
+@Schema(name = "DiagramContent", description = "图表内容表")
+public class DiagramContent {
+    /**
+     * 图表id（与 diagram.id 一一对应）
+     */
+    @TableId(type = IdType.INPUT)
+    @Schema(description = "图表ID", example = "123456789")
+    private Long diagramId;
+
+    /**
+     * 内容哈希（diagram_blob.hash）
+     */
+    @Schema(description = "内容哈希")
+    private String contentHash;
+
+    /**
+     * 图表代码明文（迁移前的旧数据，迁移后为 null）
+     */
+    @Schema(description = "图表代码")
+    private String diagramCode;
+
+    /**
+     * 创建时间
+     */
+    @Schema(description = "创建时间", example = "2024-01-01 10:00:00")
+    private Date createTime;
+
+    /**
+     * 更新时间
+     */
+    @Schema(description = "更新时间", example = "2024-01-01 10:00:00")
+    private Date updateTime;
+}
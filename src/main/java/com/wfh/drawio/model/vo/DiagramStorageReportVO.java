@@ -0,0 +1,44 @@
+package com.wfh.drawio.model.vo;
+
+import io.swagger.v3.oas.annotations.media.Schema;
+import lombok.Data;
+
+import java.io.Serializable;
+
+/**
+ * 图表内容存储报告
+ * @author fenghuanwang
+ */
+@Data
+@Schema(name = "DiagramStorageReportVO", description = "图表内容存储报告")
+public class DiagramStorageReportVO implements Serializable {
+
+    @Schema(description = "本次迁移的图表数", example = "120")
+    private long migratedCount;
+
+    @Schema(description = "仍以明文存储、待迁移的图表数", example = "0")
+    private long legacyCount;
+
+    @Schema(description = "内容块数（去重后的不同内容数）", example = "80")
+    private long blobCount;
+
+    @Schema(description = "引用内容块的图表数", example = "120")
+    private long referenceCount;
+
+    @Schema(description = "逻辑字节数（每个图表的原始 XML 之和）", example = "24576000")
+    private long logicalBytes;
+
+    @Schema(description = "去重后的原始字节数", example = "16384000")
+    private long dedupedBytes;
+
+    @Schema(description = "去重并压缩后实际存储的字节数", example = "1228800")
+    private long storedBytes;
+
+    /**
+     * 节省比例 = 1 - 实际存储 / 逻辑字节
+     */
+    @Schema(description = "节省比例", example = "0.95")
+    public double getSavingRatio() {
+        return logicalBytes == 0 ? 0 : 1 - (double) storedBytes / logicalBytes;
+    }
+}
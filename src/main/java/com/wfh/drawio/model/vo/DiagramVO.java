@@ -50,6 +50,12 @@ public class DiagramVO implements Serializable {
     @Schema(description = "矢量图URL", example = "https://example.com/image.svg")
     private String svgUrl;
 
+    /**
+     * 缩略图url
+     */
+    @Schema(description = "缩略图URL，列表页优先使用；图表刚保存时可能尚未生成", example = "https://example.com/thumbnail.png")
+    private String thumbnailUrl;
+
     /**
      * 图片url
      */
@@ -68,6 +74,12 @@ public class DiagramVO implements Serializable {
     @Schema(description = "更新时间", example = "2024-01-01 10:00:00")
     private Date updateTime;
 
+    /**
+     * 版本号
+     */
+    @Schema(description = "版本号，编辑时回传用于冲突检测", example = "3")
+    private Integer version;
+
     /**
      * 图表描述
      */
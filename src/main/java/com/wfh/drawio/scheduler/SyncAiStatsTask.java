@@ -1,8 +1,8 @@
 package com.wfh.drawio.scheduler;
 
+import com.wfh.drawio.manager.AiUsageManager;
 import com.wfh.drawio.model.entity.AiReqLog;
 import com.wfh.drawio.service.AiReqLogService;
-import jakarta.annotation.PostConstruct;
 import jakarta.annotation.Resource;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.data.redis.core.StringRedisTemplate;
@@ -28,57 +28,35 @@ public class SyncAiStatsTask {
     @Resource
     private AiReqLogService aiReqLogService;
 
-    /**
-     * 应用启动时，重置AI使用量计数器
-     */
-    @PostConstruct
-    public void resetAiUsage() {
-        stringRedisTemplate.opsForValue().set(GLOBAL_AI_TOKEN_KEY, "0");
-        log.info("应用启动，重置AI使用量计数器。");
-    }
-
     /**
      * 每天0点执行，同步前一天Redis的AI使用数据到MySQL+重置用户调用AI的次数
      */
     @Scheduled(cron = "0 0 0 * * ?")
     public void syncAiUsageToDatabase() {
-        // 1. 从 Redis 获取前一天的总耗时
-        String totalTimeStr = stringRedisTemplate.opsForValue().get(GLOBAL_AI_TOKEN_KEY);
-
-        if (totalTimeStr != null && !totalTimeStr.isEmpty()) {
-            try {
-                // 2. 将耗时转换为数值
-                double totalTime = Double.parseDouble(totalTimeStr);
-                int usageCount = (int) Math.round(totalTime); // 四舍五入为整数
-
-                // 3. 如果使用量大于0，则存入数据库
-                if (usageCount > 0) {
-                    AiReqLog aiReqLog = new AiReqLog();
-                    aiReqLog.setCount(usageCount);
-                    boolean saved = aiReqLogService.save(aiReqLog);
-                    if (saved) {
-                        log.info("成功将前一天的AI使用数据同步到数据库，总耗时：{}秒", usageCount);
-                    } else {
-                        log.error("无法将AI使用数据同步到数据库。");
-                        // 如果无法保存，则不重置计数器，以便下次重试
-                        return;
-                    }
+        // 1. 取出前一天的 token 总量并原子清零，各节点之后的写入计入新的一天
+        String totalTokensStr = stringRedisTemplate.opsForValue().getAndSet(GLOBAL_AI_TOKEN_KEY, "0");
+        try {
+            long totalTokens = AiUsageManager.parseTokens(totalTokensStr);
+            // 2. 如果使用量大于0，则存入数据库
+            if (totalTokens > 0) {
+                AiReqLog aiReqLog = new AiReqLog();
+                aiReqLog.setCount((int) Math.min(totalTokens, Integer.MAX_VALUE));
+                boolean saved = aiReqLogService.save(aiReqLog);
+                if (saved) {
+                    log.info("成功将前一天的AI使用数据同步到数据库，总token：{}", totalTokens);
+                } else {
+                    log.error("无法将AI使用数据同步到数据库。");
+                    // 加回计数器，以便下次重试
+                    stringRedisTemplate.opsForValue().increment(GLOBAL_AI_TOKEN_KEY, totalTokens);
                 }
-                // 4. 成功处理后，重置 Redis 计数器为0，以便开始新一天的计数
-                stringRedisTemplate.opsForValue().set(GLOBAL_AI_TOKEN_KEY, "0");
-
-            } catch (NumberFormatException e) {
-                log.error("无法解析AI使用数据，Redis中的值为：'{}'。错误：{}", totalTimeStr, e.getMessage());
-                // 解析失败也重置，防止错误数据持续存在
-                stringRedisTemplate.opsForValue().set(GLOBAL_AI_TOKEN_KEY, "0");
+            } else {
+                log.info("Redis中未找到AI使用数据。");
             }
-        } else {
-            // 如果键不存在或为空，也设置为0，确保第二天有个干净的开始
-            stringRedisTemplate.opsForValue().set(GLOBAL_AI_TOKEN_KEY, "0");
-            log.info("Redis中未找到AI使用数据，已将计数器设置为0。");
+        } catch (NumberFormatException e) {
+            log.error("无法解析AI使用数据，Redis中的值为：'{}'。错误：{}", totalTokensStr, e.getMessage());
         }
 
-        // 5. 每天凌晨重置所有用户的AI调用次数（将所有记录删除，切面中发现没有Key会自动初始化为5次）
+        // 3. 每天凌晨重置所有用户的AI调用次数（将所有记录删除，切面中发现没有Key会自动初始化为5次）
         try {
             Set<String> keys = stringRedisTemplate.keys(USER_AI_CALL_COUNT + "*");
             if (keys != null && !keys.isEmpty()) {
@@ -0,0 +1,179 @@
+package com.wfh.drawio.security;
+
+import com.wfh.drawio.model.entity.SysAuthority;
+import com.wfh.drawio.model.entity.User;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.data.redis.serializer.JdkSerializationRedisSerializer;
+import org.springframework.data.redis.serializer.RedisSerializer;
+import org.springframework.data.redis.serializer.SerializationException;
+import org.springframework.security.authentication.UsernamePasswordAuthenticationToken;
+import org.springframework.security.core.Authentication;
+import org.springframework.security.core.context.SecurityContext;
+import org.springframework.security.core.context.SecurityContextImpl;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+
+/**
+ * Session 属性紧凑序列化器
+ * <p>
+ * 登录态 SecurityContext 只写入鉴权与 /user/get/login 需要的字段（不含密码、openId 及权限描述等），
+ * 使用长度前缀的二进制格式，每次请求反序列化代价和 Redis 内存占用都远小于 JDK 序列化整个 User 实体。
+ * 其余属性（OAuth2 授权请求、SavedRequest 等）及历史 JDK 格式数据仍走 JDK 序列化，保证兼容。
+ *
+ * @author fenghuanwang
+ */
+@Slf4j
+public class CompactSessionRedisSerializer implements RedisSerializer<Object> {
+
+    /**
+     * 格式头，JDK 序列化流以 0xACED 开头，不会冲突
+     */
+    private static final byte MAGIC_0 = 'D';
+
+    private static final byte MAGIC_1 = 'S';
+
+    /**
+     * 格式版本，字段变化时递增
+     */
+    private static final byte FORMAT_VERSION = 1;
+
+    private final JdkSerializationRedisSerializer fallback;
+
+    public CompactSessionRedisSerializer(ClassLoader classLoader) {
+        this.fallback = new JdkSerializationRedisSerializer(classLoader);
+    }
+
+    @Override
+    public byte[] serialize(Object value) throws SerializationException {
+        if (value instanceof SecurityContext context && isCompactable(context.getAuthentication())) {
+            try {
+                return writeContext((User) context.getAuthentication().getPrincipal());
+            } catch (IOException e) {
+                throw new SerializationException("序列化登录态失败", e);
+            }
+        }
+        return fallback.serialize(value);
+    }
+
+    @Override
+    public Object deserialize(byte[] bytes) throws SerializationException {
+        if (bytes == null || bytes.length == 0) {
+            return null;
+        }
+        if (bytes.length > 2 && bytes[0] == MAGIC_0 && bytes[1] == MAGIC_1) {
+            try {
+                return readContext(bytes);
+            } catch (IOException e) {
+                throw new SerializationException("反序列化登录态失败", e);
+            }
+        }
+        return fallback.deserialize(bytes);
+    }
+
+    /**
+     * 仅处理用户名密码登录 / OAuth2 同步后写入的 User 主体，其他认证类型保持原样
+     */
+    private boolean isCompactable(Authentication authentication) {
+        return authentication instanceof UsernamePasswordAuthenticationToken
+                && authentication.isAuthenticated()
+                && authentication.getPrincipal() instanceof User user
+                && user.getId() != null;
+    }
+
+    private byte[] writeContext(User user) throws IOException {
+        ByteArrayOutputStream bos = new ByteArrayOutputStream(256);
+        DataOutputStream out = new DataOutputStream(bos);
+        out.writeByte(MAGIC_0);
+        out.writeByte(MAGIC_1);
+        out.writeByte(FORMAT_VERSION);
+        out.writeLong(user.getId());
+        writeString(out, user.getUserAccount());
+        writeString(out, user.getUserName());
+        writeString(out, user.getUserAvatar());
+        writeString(out, user.getUserProfile());
+        writeString(out, user.getUserRole());
+        writeString(out, user.getGithubAccount());
+        writeString(out, user.getInviteCode());
+        writeDate(out, user.getCreateTime());
+        writeDate(out, user.getUpdateTime());
+        List<SysAuthority> authorities = user.getAuthoritieList();
+        int size = authorities == null ? 0 : authorities.size();
+        out.writeInt(size);
+        for (int i = 0; i < size; i++) {
+            SysAuthority authority = authorities.get(i);
+            out.writeLong(authority.getId() != null ? authority.getId() : 0L);
+            writeString(out, authority.getAuthority());
+        }
+        out.flush();
+        return bos.toByteArray();
+    }
+
+    private SecurityContext readContext(byte[] bytes) throws IOException {
+        DataInputStream in = new DataInputStream(new ByteArrayInputStream(bytes, 2, bytes.length - 2));
+        byte version = in.readByte();
+        if (version != FORMAT_VERSION) {
+            // 未知版本视为失效登录态，由前端重新登录
+            log.warn("忽略不支持的登录态格式版本: {}", version);
+            return new SecurityContextImpl();
+        }
+        User user = new User();
+        user.setId(in.readLong());
+        user.setUserAccount(readString(in));
+        user.setUserName(readString(in));
+        user.setUserAvatar(readString(in));
+        user.setUserProfile(readString(in));
+        user.setUserRole(readString(in));
+        user.setGithubAccount(readString(in));
+        user.setInviteCode(readString(in));
+        user.setCreateTime(readDate(in));
+        user.setUpdateTime(readDate(in));
+        int size = in.readInt();
+        List<SysAuthority> authorities = new ArrayList<>(size);
+        for (int i = 0; i < size; i++) {
+            SysAuthority authority = new SysAuthority();
+            long id = in.readLong();
+            authority.setId(id != 0L ? id : null);
+            authority.setAuthority(readString(in));
+            authorities.add(authority);
+        }
+        user.setAuthorities(authorities);
+        return new SecurityContextImpl(UsernamePasswordAuthenticationToken.authenticated(user, null, authorities));
+    }
+
+    private static void writeString(DataOutputStream out, String value) throws IOException {
+        if (value == null) {
+            out.writeInt(-1);
+            return;
+        }
+        byte[] data = value.getBytes(StandardCharsets.UTF_8);
+        out.writeInt(data.length);
+        out.write(data);
+    }
+
+    private static String readString(DataInputStream in) throws IOException {
+        int length = in.readInt();
+        if (length < 0) {
+            return null;
+        }
+        byte[] data = new byte[length];
+        in.readFully(data);
+        return new String(data, StandardCharsets.UTF_8);
+    }
+
+    private static void writeDate(DataOutputStream out, Date date) throws IOException {
+        out.writeLong(date != null ? date.getTime() : Long.MIN_VALUE);
+    }
+
+    private static Date readDate(DataInputStream in) throws IOException {
+        long time = in.readLong();
+        return time != Long.MIN_VALUE ? new Date(time) : null;
+    }
+}
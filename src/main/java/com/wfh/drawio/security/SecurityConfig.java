@@ -8,6 +8,7 @@ import jakarta.annotation.Resource;
 import org.springframework.beans.factory.annotation.Qualifier;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
+import org.springframework.data.redis.serializer.RedisSerializer;
 import org.springframework.http.HttpMethod;
 import org.springframework.security.authentication.AuthenticationManager;
 import org.springframework.security.config.annotation.authentication.configuration.AuthenticationConfiguration;
@@ -54,6 +55,14 @@ public class SecurityConfig {
         return new HttpSessionSecurityContextRepository();
     }
 
+    /**
+     * Spring Session 属性序列化器，登录态使用紧凑二进制格式，其余属性沿用 JDK 序列化
+     */
+    @Bean("springSessionDefaultRedisSerializer")
+    public RedisSerializer<Object> springSessionDefaultRedisSerializer() {
+        return new CompactSessionRedisSerializer(getClass().getClassLoader());
+    }
+
     @Bean
     public SecurityFilterChain filterChain(HttpSecurity httpSecurity, SecurityContextRepository securityContextRepository) throws Exception {
         httpSecurity
@@ -74,7 +83,7 @@ public class SecurityConfig {
                         .requestMatchers("/excalidraw/**", "/static/**", "/public/**", "/yjs/**").permitAll()
                         .requestMatchers(HttpMethod.OPTIONS, "/**").permitAll()
                         .requestMatchers("/user/createCaptcha").permitAll()
-                        .requestMatchers("/diagram/getDiagrams").permitAll()
+                        .requestMatchers("/diagram/getDiagrams", "/diagram/getDiagrams/cursor").permitAll()
                         .requestMatchers("/material/list/page/vo","/material/get/vo", "/api/material/get/vo", "/announcement/list/page/vo", "/api/announcement/list/page/vo").permitAll()
                         .requestMatchers("/internal/save", "/internal/auth").permitAll()
                         .requestMatchers("/chat/free/**").permitAll()
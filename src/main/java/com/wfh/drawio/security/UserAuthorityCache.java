@@ -0,0 +1,124 @@
+package com.wfh.drawio.security;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.wfh.drawio.mapper.SysAuthorityMapper;
+import com.wfh.drawio.model.entity.SysAuthority;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.Resource;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.listener.ChannelTopic;
+import org.springframework.data.redis.listener.RedisMessageListenerContainer;
+import org.springframework.stereotype.Component;
+
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 用户权限集合本地缓存
+ * 登录、记住我校验等场景会频繁调用 UserDetailsService，权限集合按用户缓存后只需查询一次用户行
+ * 角色/权限变更时由 UserService 主动失效，失效通过 Redis pub/sub 广播到所有节点，
+ * 避免其他节点在 TTL 内继续使用已撤销的权限
+ *
+ * @author fenghuanwang
+ */
+@Component
+@Slf4j
+public class UserAuthorityCache {
+
+    private static final String EVICT_CHANNEL = "user:authority:evict";
+
+    /**
+     * 清空全部的广播消息
+     */
+    private static final String EVICT_ALL = "*";
+
+    @Resource
+    private SysAuthorityMapper sysAuthorityMapper;
+
+    @Resource
+    private StringRedisTemplate stringRedisTemplate;
+
+    @Resource
+    private RedisMessageListenerContainer redisMessageListenerContainer;
+
+    @Value("${drawio.security.authority-cache.enabled:true}")
+    private boolean enabled;
+
+    @Value("${drawio.security.authority-cache.ttl-seconds:60}")
+    private long ttlSeconds;
+
+    /**
+     * userId -> 权限集合
+     */
+    private Cache<Long, List<SysAuthority>> authorityCache;
+
+    @PostConstruct
+    public void init() {
+        authorityCache = Caffeine.newBuilder()
+                .maximumSize(50_000)
+                .expireAfterWrite(ttlSeconds, TimeUnit.SECONDS)
+                .build();
+        redisMessageListenerContainer.addMessageListener((message, pattern) ->
+                onRemoteEvict(new String(message.getBody(), StandardCharsets.UTF_8)), new ChannelTopic(EVICT_CHANNEL));
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    /**
+     * 获取用户权限集合，未命中时查询数据库并回填
+     *
+     * @param userId 用户ID
+     * @return 权限集合（不可变）
+     */
+    public List<SysAuthority> getAuthorities(Long userId) {
+        return authorityCache.get(userId, id -> List.copyOf(sysAuthorityMapper.findByUserId(id)));
+    }
+
+    /**
+     * 用户角色变更后失效该用户的权限缓存
+     */
+    public void evict(Long userId) {
+        if (userId != null) {
+            authorityCache.invalidate(userId);
+            broadcast(String.valueOf(userId));
+        }
+    }
+
+    /**
+     * 角色权限变更会影响所有持有该角色的用户，直接清空
+     */
+    public void evictAll() {
+        authorityCache.invalidateAll();
+        broadcast(EVICT_ALL);
+    }
+
+    /**
+     * 其他节点的失效消息：userId 或 {@link #EVICT_ALL}
+     */
+    void onRemoteEvict(String message) {
+        if (EVICT_ALL.equals(message)) {
+            authorityCache.invalidateAll();
+        } else {
+            try {
+                authorityCache.invalidate(Long.valueOf(message));
+            } catch (NumberFormatException e) {
+                log.warn("无效的权限缓存失效消息: {}", message);
+            }
+        }
+    }
+
+    private void broadcast(String message) {
+        try {
+            stringRedisTemplate.convertAndSend(EVICT_CHANNEL, message);
+        } catch (Exception e) {
+            // 本节点已失效，其他节点最迟 TTL 后过期
+            log.warn("广播权限缓存失效失败: {}", message, e);
+        }
+    }
+}
@@ -3,12 +3,15 @@ package com.wfh.drawio.security;
 import com.wfh.drawio.common.ErrorCode;
 import com.wfh.drawio.exception.BusinessException;
 import com.wfh.drawio.mapper.UserMapper;
+import com.wfh.drawio.model.entity.User;
 import jakarta.annotation.Resource;
 import org.springframework.security.core.userdetails.UserDetails;
 import org.springframework.security.core.userdetails.UserDetailsService;
 import org.springframework.security.core.userdetails.UsernameNotFoundException;
 import org.springframework.stereotype.Component;
 
+import java.util.ArrayList;
+
 /**
  * @Title: UserDetailsServiceImpl
  * @Author wangfenghuan
@@ -22,8 +25,18 @@ public class UserDetailsServiceImpl implements UserDetailsService {
     @Resource
     private UserMapper userMapper;
 
+    @Resource
+    private UserAuthorityCache userAuthorityCache;
+
     @Override
     public UserDetails loadUserByUsername(String username) throws UsernameNotFoundException {
-       return userMapper.findByUsername(username).orElseThrow(() -> new BusinessException(ErrorCode.NOT_FOUND_ERROR, "用户不存在"));
+        if (!userAuthorityCache.isEnabled()) {
+            // 单次 JOIN 加载用户及权限
+            return userMapper.findByUsername(username).orElseThrow(() -> new BusinessException(ErrorCode.NOT_FOUND_ERROR, "用户不存在"));
+        }
+        // 用户行每次查询（密码、角色需实时），权限集合走缓存
+        User user = userMapper.findAccountByUsername(username).orElseThrow(() -> new BusinessException(ErrorCode.NOT_FOUND_ERROR, "用户不存在"));
+        user.setAuthorities(new ArrayList<>(userAuthorityCache.getAuthorities(user.getId())));
+        return user;
     }
 }
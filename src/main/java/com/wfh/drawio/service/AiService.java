@@ -4,13 +4,23 @@ import com.wfh.drawio.ai.client.DrawClient;
 import com.wfh.drawio.model.dto.diagram.CustomChatRequest;
 import com.wfh.drawio.model.entity.Diagram;
 import com.wfh.drawio.service.DiagramService;
+import jakarta.annotation.PreDestroy;
 import lombok.extern.slf4j.Slf4j;
 import org.apache.commons.lang3.StringUtils;
 import org.jetbrains.annotations.NotNull;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Service;
 import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
+import reactor.core.Disposable;
+import reactor.core.Exceptions;
+import reactor.core.publisher.Flux;
+import reactor.core.scheduler.Scheduler;
+import reactor.core.scheduler.Schedulers;
 
-import java.util.UUID;
+import java.io.IOException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 /**
  * @Title: AiService
@@ -25,64 +35,116 @@ public class AiService {
 
     private final DiagramService diagramService;
 
+    /**
+     * SSE 推送在虚拟线程上执行，慢客户端阻塞的只是各自的虚拟线程
+     */
+    private final ExecutorService sendExecutor = Executors.newThreadPerTaskExecutor(
+            Thread.ofVirtual().name("sse-send-", 0).factory());
+
+    /**
+     * 取消时不中断正在进行的 send，已写出一半的事件照常结束
+     */
+    private final Scheduler sendScheduler = Schedulers.fromExecutor(sendExecutor::execute);
+
+    @Value("${drawio.ai-stream.timeout-ms:300000}")
+    private long timeoutMillis;
+
+    /**
+     * 每个流等待推送的分片上限，也是向上游请求数据的窗口
+     */
+    @Value("${drawio.ai-stream.prefetch:32}")
+    private int prefetch;
+
     public AiService(DiagramService diagramService) {
         this.diagramService = diagramService;
     }
 
+    /**
+     * 流式生成图表
+     *
+     * @param request    聊天请求
+     * @param drawClient 画图客户端
+     * @param ownerId    图表所属用户（写入对话记忆，免费试用为空），见 {@link #getDiagramOwnerId}
+     * @return SSE
+     */
     @NotNull
-    public SseEmitter getSseEmitter(CustomChatRequest request, DrawClient drawClient) {
-        SseEmitter emitter = new SseEmitter(5 * 60 * 1000L);
-        StringBuilder fullResponse = new StringBuilder();
-        String message = request.getMessage();
-        String diagramId = request.getDiagramId();
-        String modelId = request.getModelId();
+    public SseEmitter getSseEmitter(CustomChatRequest request, DrawClient drawClient, Long ownerId) {
         String baseUrl = request.getBaseUrl();
         String apiKey = request.getApiKey();
         // apikey和baseurl是空的话，就调用系统的模型
-        if (StringUtils.isEmpty(baseUrl) || StringUtils.isEmpty(apiKey)){
-            drawClient.doChatStream(message, diagramId, modelId)
-                    .subscribe(chunk -> {
-                        try{
-                            fullResponse.append(chunk);
-                            emitter.send(SseEmitter.event().data(chunk));
-                        }catch (Exception e){
-                            emitter.completeWithError(e);
-                        }
-                    }, error -> {
-                        log.error("流式生成异常", error);
-                        try{
-                            String errorMsg = buildFriendlyErrorMessage(error);
-                            emitter.send(SseEmitter.event().name("error").data(errorMsg));
-                        }catch (Exception e){
-                            emitter.completeWithError(e);
-                        }
-                    }, () -> {
-                        emitter.complete();
-                    });
-        } else{
-            drawClient.doCustomChatStream(request)
-                    .subscribe(chunk -> {
-                        try{
-                            fullResponse.append(chunk);
-                            emitter.send(SseEmitter.event().data(chunk));
-                        }catch (Exception e){
-                            emitter.completeWithError(e);
-                        }
-                    }, error -> {
-                        log.error("流式生成异常", error);
-                        try{
-                            String errorMsg = buildFriendlyErrorMessage(error);
-                            emitter.send(SseEmitter.event().name("error").data(errorMsg));
-                        }catch (Exception e){
-                            emitter.completeWithError(e);
-                        }
-                    }, () -> {
-                        emitter.complete();
-                    });
-        }
+        Flux<String> stream = StringUtils.isEmpty(baseUrl) || StringUtils.isEmpty(apiKey)
+                ? drawClient.doChatStream(request.getMessage(), request.getDiagramId(), request.getModelId(), ownerId)
+                : drawClient.doCustomChatStream(request, ownerId);
+        SseEmitter emitter = new SseEmitter(timeoutMillis);
+        bridge(stream, emitter);
         return emitter;
     }
 
+    /**
+     * 图表所属用户，对话开始前查询一次
+     * <p>
+     * 对话记忆按图表所属用户保存，团队成员在同一图表上的对话也归到所属用户名下，
+     * 与对话历史查询（按图表所属用户过滤）一致
+     *
+     * @param diagramId 图表ID
+     * @return 图表不存在或未归属用户时为空
+     */
+    public Long getDiagramOwnerId(String diagramId) {
+        if (!StringUtils.isNumeric(diagramId)) {
+            return null;
+        }
+        Diagram diagram = diagramService.lambdaQuery()
+                .select(Diagram::getUserId)
+                .eq(Diagram::getId, Long.valueOf(diagramId))
+                .one();
+        return diagram == null ? null : diagram.getUserId();
+    }
+
+    /**
+     * 把模型输出推送到 SSE
+     * <p>
+     * 按需向上游请求：客户端读得慢时 send 阻塞在虚拟线程上，待推送的分片达到 prefetch 后不再向上游要数据，
+     * 模型响应停留在网络层，而不是无限堆积在内存里。客户端断开、超时或推送失败时取消订阅，取消信号一直传到模型请求。
+     */
+    void bridge(Flux<String> stream, SseEmitter emitter) {
+        AtomicBoolean clientGone = new AtomicBoolean();
+        Disposable subscription = stream
+                .publishOn(sendScheduler, prefetch)
+                .subscribe(chunk -> {
+                    try {
+                        emitter.send(SseEmitter.event().data(chunk));
+                    } catch (IOException | IllegalStateException e) {
+                        // 客户端已断开或 SSE 已结束，抛出后取消上游
+                        clientGone.set(true);
+                        throw Exceptions.propagate(e);
+                    }
+                }, error -> {
+                    if (clientGone.get()) {
+                        emitter.completeWithError(Exceptions.unwrap(error));
+                        return;
+                    }
+                    log.error("流式生成异常", error);
+                    try {
+                        emitter.send(SseEmitter.event().name("error").data(buildFriendlyErrorMessage(error)));
+                        emitter.complete();
+                    } catch (Exception e) {
+                        emitter.completeWithError(e);
+                    }
+                }, emitter::complete);
+        emitter.onCompletion(subscription::dispose);
+        emitter.onTimeout(() -> {
+            subscription.dispose();
+            emitter.complete();
+        });
+        emitter.onError(error -> subscription.dispose());
+    }
+
+    @PreDestroy
+    public void destroy() {
+        sendScheduler.dispose();
+        sendExecutor.shutdown();
+    }
+
     /**
      * 将底层异常转换为用户可读的错误信息。
      * 特别处理 tool argument JSON 截断场景（AI 生成 XML 过长，超出模型 max_tokens 限制）。
@@ -3,6 +3,7 @@ package com.wfh.drawio.service;
 import com.baomidou.mybatisplus.extension.plugins.pagination.Page;
 import com.wfh.drawio.model.entity.Conversion;
 import com.baomidou.mybatisplus.extension.service.IService;
+import com.wfh.drawio.common.CursorPage;
 import com.wfh.drawio.model.entity.User;
 
 import java.time.LocalDateTime;
@@ -25,4 +26,15 @@ public interface ConversionService extends IService<Conversion> {
      */
     Page<Conversion> listDiagramChatHistoryByPage(Long appId, int pageSize, LocalDateTime lastCreateTime, User loginUser);
 
+    /**
+     * 游标分页查询对话记录（按 createTime、id 倒序，不查询总数）
+     *
+     * @param diagramId 图表ID
+     * @param pageSize  每页数量
+     * @param cursor    上一页返回的游标，首页为 null
+     * @param loginUser 当前登录用户
+     * @return
+     */
+    CursorPage<Conversion> listDiagramChatHistoryByCursor(Long diagramId, int pageSize, String cursor, User loginUser);
+
 }
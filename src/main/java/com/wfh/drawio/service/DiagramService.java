@@ -3,6 +3,7 @@ package com.wfh.drawio.service;
 import com.baomidou.mybatisplus.core.conditions.query.QueryWrapper;
 import com.baomidou.mybatisplus.extension.plugins.pagination.Page;
 import com.baomidou.mybatisplus.extension.service.IService;
+import com.wfh.drawio.common.CursorPage;
 import com.wfh.drawio.model.dto.diagram.DiagramAddRequest;
 import com.wfh.drawio.model.dto.diagram.DiagramQueryRequest;
 import com.wfh.drawio.model.entity.Diagram;
@@ -21,8 +22,21 @@ import org.springframework.web.multipart.MultipartFile;
  */
 public interface DiagramService extends IService<Diagram> {
 
+    /**
+     * 获取图表及其内容（diagramCode 单独存储，getById 不会加载）
+     *
+     * @param id 图表ID
+     * @return 图表，不存在时返回 null
+     */
+    Diagram getByIdWithCode(Long id);
 
-    boolean tryAcquireLock(String roomName);
+    /**
+     * 获取图表内容
+     *
+     * @param diagramId 图表ID
+     * @return 图表 XML，没有内容时返回 null
+     */
+    String getDiagramCode(Long diagramId);
 
     /**
      * 下载
@@ -47,6 +61,16 @@ public interface DiagramService extends IService<Diagram> {
      * @return
      */
     QueryWrapper<Diagram> getQueryWrapper(DiagramQueryRequest diagramQueryRequest);
+
+    /**
+     * 分页查询图表
+     * 有关键词且索引可用时在索引内按相关度分页，总数取自索引命中数；否则按查询条件走数据库分页
+     *
+     * @param page                分页参数
+     * @param diagramQueryRequest 查询条件
+     * @return 图表分页
+     */
+    Page<Diagram> searchPage(Page<Diagram> page, DiagramQueryRequest diagramQueryRequest);
     
     /**
      * 获取图表封装
@@ -66,6 +90,15 @@ public interface DiagramService extends IService<Diagram> {
      */
     Page<DiagramVO> getDiagramVOPage(Page<Diagram> diagramPage, HttpServletRequest request);
 
+    /**
+     * 游标分页获取图表封装
+     *
+     * @param diagramPage
+     * @param request
+     * @return
+     */
+    CursorPage<DiagramVO> getDiagramVOCursorPage(CursorPage<Diagram> diagramPage, HttpServletRequest request);
+
     /**
      * 上传图表文件并更新空间额度（带事务）
      *
@@ -111,6 +144,14 @@ public interface DiagramService extends IService<Diagram> {
      */
     Page<DiagramVO> getPublicDiagramsByPage(DiagramQueryRequest diagramQueryRequest);
 
+    /**
+     * 游标分页获取所有公共空间的图表（不查询总数）
+     *
+     * @param diagramQueryRequest 查询请求，cursor 为上一页返回的游标
+     * @return 图表列表（封装类，游标分页）
+     */
+    CursorPage<DiagramVO> getPublicDiagramsByCursor(DiagramQueryRequest diagramQueryRequest);
+
     /**
      * 根据图表ID和文件类型下载图表文件
      *
@@ -121,6 +162,41 @@ public interface DiagramService extends IService<Diagram> {
      */
     void downloadDiagramFile(Long diagramId, String type, String fileName, HttpServletResponse response);
 
+    /**
+     * 获取图表文件的预签名下载链接
+     *
+     * @param diagramId 图表ID
+     * @param type 文件类型（SVG、PNG、XML）
+     * @param fileName 下载后的文件名（可选）
+     * @return 预签名 URL；XML（存于数据库）或文件不在对象存储桶中时返回 null，需走代理下载
+     */
+    String getDiagramDownloadUrl(Long diagramId, String type, String fileName);
+
+    /**
+     * 图表详情的 ETag，由图表字段与内容哈希计算，任一变化都会改变
+     *
+     * @param diagram 图表
+     * @return ETag（不含引号）
+     */
+    String getDiagramETag(Diagram diagram);
+
+    /**
+     * 图表文件的 ETag
+     *
+     * @param diagram 图表
+     * @param type 文件类型（SVG、PNG、XML）
+     * @return ETag（不含引号），文件不存在时返回 null
+     */
+    String getDiagramFileETag(Diagram diagram, String type);
+
+    /**
+     * 更新图表缩略图地址，不触发图表变更事件（避免再次排队渲染）
+     *
+     * @param diagramId    图表ID
+     * @param thumbnailUrl 缩略图URL
+     */
+    void updateThumbnailUrl(Long diagramId, String thumbnailUrl);
+
     /**
      * 认领免费试用图表
      * 将免费试用生成的临时图表绑定到指定用户账户
@@ -129,7 +205,8 @@ public interface DiagramService extends IService<Diagram> {
      * @param userId 目标用户ID
      * @param spaceId 目标空间ID（可选，null表示公共图库）
      * @param newName 新图表名称（可选，null保留原名）
-     * @return 认领后的图表ID
+     * @param expectedVersion 调用方读到的版本号（可选，图表已被修改时抛出版本冲突；null按认领时读到的版本更新）
+     * @return 认领产生的版本号
      */
-    Long claimFreeTrialDiagram(Long diagramId, Long userId, Long spaceId, String newName);
+    Integer claimFreeTrialDiagram(Long diagramId, Long userId, Long spaceId, String newName, Integer expectedVersion);
 }
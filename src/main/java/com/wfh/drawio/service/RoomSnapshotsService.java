@@ -15,4 +15,13 @@ public interface RoomSnapshotsService extends IService<RoomSnapshots> {
      * @param roomId
      */
     void cleanOldSnapshots(Long roomId);
+
+    /**
+     * 领取房间的快照上传资格，冷却期内只有一个客户端能领到
+     * 资格在冷却期后自动过期，不需要释放，领到的客户端崩溃后其他客户端自然接手
+     *
+     * @param roomId 房间ID
+     * @return 是否由当前客户端上传快照
+     */
+    boolean tryClaimSnapshot(Long roomId);
 }
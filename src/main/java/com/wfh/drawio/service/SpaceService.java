@@ -3,6 +3,7 @@ package com.wfh.drawio.service;
 import com.baomidou.mybatisplus.core.conditions.query.QueryWrapper;
 import com.baomidou.mybatisplus.extension.plugins.pagination.Page;
 import com.baomidou.mybatisplus.extension.service.IService;
+import com.wfh.drawio.common.CursorPage;
 import com.wfh.drawio.model.dto.space.SpaceAddReqeust;
 import com.wfh.drawio.model.dto.space.SpaceQueryRequest;
 import com.wfh.drawio.model.entity.Diagram;
@@ -82,6 +83,15 @@ public interface SpaceService extends IService<Space> {
      */
     Page<SpaceVO> getSpaceVOPage(Page<Space> spacePage, HttpServletRequest request);
 
+    /**
+     * 游标分页获取空间封装
+     *
+     * @param spacePage
+     * @param request
+     * @return
+     */
+    CursorPage<SpaceVO> getSpaceVOCursorPage(CursorPage<Space> spacePage, HttpServletRequest request);
+
     /**
      * 分页获取用户加入的空间列表
      *
@@ -25,12 +25,12 @@ public class XmlDownloadStrategy implements DownloadStrategy{
 
     @Override
     public void download(Long id, String fileName, HttpServletResponse response) {
-        Diagram diagram = diagramService.getById(id);
+        Diagram diagram = diagramService.getByIdWithCode(id);
         String diagramCode = diagram.getDiagramCode();
         try {
             byte[] bytes = diagramCode.getBytes(StandardCharsets.UTF_8);
-            // 重置响应
-            response.reset();
+            // 重置响应体，保留调用方已设置的 ETag、Cache-Control 等响应头
+            response.resetBuffer();
             response.setContentType("application/octet-stream");
             response.setContentLengthLong(bytes.length);
             // 设置文件名
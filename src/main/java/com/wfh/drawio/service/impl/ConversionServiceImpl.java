@@ -5,6 +5,8 @@ import cn.hutool.core.util.StrUtil;
 import com.baomidou.mybatisplus.core.conditions.query.QueryWrapper;
 import com.baomidou.mybatisplus.extension.plugins.pagination.Page;
 import com.baomidou.mybatisplus.extension.service.impl.ServiceImpl;
+import com.wfh.drawio.common.CursorPage;
+import com.wfh.drawio.common.CursorUtils;
 import com.wfh.drawio.common.ErrorCode;
 import com.wfh.drawio.exception.BusinessException;
 import com.wfh.drawio.exception.ThrowUtils;
@@ -59,6 +61,24 @@ public class ConversionServiceImpl extends ServiceImpl<ConversionMapper, Convers
         return this.page(Page.of(1, pageSize), queryWrapper);
     }
 
+    @Override
+    public CursorPage<Conversion> listDiagramChatHistoryByCursor(Long diagramId, int pageSize, String cursor, User loginUser) {
+        ThrowUtils.throwIf(diagramId == null || diagramId <= 0, ErrorCode.PARAMS_ERROR, "图表ID不能为空");
+        ThrowUtils.throwIf(pageSize <= 0 || pageSize > 100, ErrorCode.PARAMS_ERROR, "每页数量不合法");
+        ThrowUtils.throwIf(loginUser == null, ErrorCode.NOT_LOGIN_ERROR);
+        // 权限校验，只有管理员和创建者才能查看
+        Diagram diagram = diagramService.getById(diagramId);
+        ThrowUtils.throwIf(diagram == null, ErrorCode.NOT_FOUND_ERROR, "应用不存在");
+        if (!diagram.getUserId().equals(loginUser.getId()) && !userService.isAdmin(loginUser)){
+            throw new BusinessException(ErrorCode.FORBIDDEN_ERROR);
+        }
+        // 排序由游标分页统一指定（createTime、id 倒序），这里只拼接筛选条件
+        QueryWrapper<Conversion> queryWrapper = new QueryWrapper<>();
+        queryWrapper.eq("diagramId", diagramId)
+                .eq("userId", loginUser.getId());
+        return CursorUtils.page(this, queryWrapper, cursor, pageSize, Conversion::getCreateTime, Conversion::getId);
+    }
+
     /**
      * 获取查询包装器
      * @param conversionQueryRequest
@@ -8,6 +8,7 @@ import com.baomidou.mybatisplus.extension.service.impl.ServiceImpl;
 import com.wfh.drawio.common.ErrorCode;
 import com.wfh.drawio.exception.BusinessException;
 import com.wfh.drawio.exception.ThrowUtils;
+import com.wfh.drawio.manager.UserBatchLoader;
 import com.wfh.drawio.model.dto.room.RoomQueryRequest;
 import com.wfh.drawio.model.entity.DiagramRoom;
 import com.wfh.drawio.model.entity.Space;
@@ -40,6 +41,9 @@ public class DiagramRoomServiceImpl extends ServiceImpl<DiagramRoomMapper, Diagr
     @Resource
     private UserService userService;
 
+    @Resource
+    private UserBatchLoader userBatchLoader;
+
     @Resource
     private SpaceService spaceService;
 
@@ -78,19 +82,11 @@ public class DiagramRoomServiceImpl extends ServiceImpl<DiagramRoomMapper, Diagr
             return diagramVOPage;
         }
         // 对象列表 => 封装对象列表
-        List<RoomVO> diagramVOList = diagramList.stream().map(room -> {
-            RoomVO roomVO = RoomVO.objToVo(room);
-            // 设置创建用户信息
-            if (room.getOwnerId() != null) {
-                User user = userService.getById(room.getOwnerId());
-                if (user != null) {
-                    UserVO userVO = new UserVO();
-                    BeanUtils.copyProperties(user, userVO);
-                    roomVO.setUserVO(userVO);
-                }
-            }
-            return roomVO;
-        }).collect(Collectors.toList());
+        List<RoomVO> diagramVOList = diagramList.stream()
+                .map(RoomVO::objToVo)
+                .collect(Collectors.toList());
+        // 批量填充创建用户信息
+        userBatchLoader.fillUserVO(diagramVOList, RoomVO::getOwnerId, RoomVO::setUserVO);
         diagramVOPage.setRecords(diagramVOList);
         return diagramVOPage;
     }
@@ -118,7 +114,7 @@ public class DiagramRoomServiceImpl extends ServiceImpl<DiagramRoomMapper, Diagr
         RoomVO roomVO = RoomVO.objToVo(room);
         // 设置创建用户信息
         if (room.getOwnerId() != null) {
-            User user = userService.getById(room.getOwnerId());
+            User user = userBatchLoader.loadUser(room.getOwnerId());
             if (user != null) {
                 UserVO userVO = new UserVO();
                 BeanUtils.copyProperties(user, userVO);
@@ -2,19 +2,28 @@ package com.wfh.drawio.service.impl;
 
 import cn.hutool.core.collection.CollUtil;
 import cn.hutool.core.io.FileUtil;
-import cn.hutool.core.util.RandomUtil;
-import cn.hutool.json.JSONUtil;
+import cn.hutool.crypto.digest.DigestUtil;
 import com.baomidou.mybatisplus.core.conditions.query.LambdaQueryWrapper;
 import com.baomidou.mybatisplus.core.conditions.query.QueryWrapper;
+import com.baomidou.mybatisplus.core.conditions.update.LambdaUpdateWrapper;
 import com.baomidou.mybatisplus.extension.plugins.pagination.Page;
 import com.baomidou.mybatisplus.extension.service.impl.ServiceImpl;
-import com.github.benmanes.caffeine.cache.Cache;
-import com.github.benmanes.caffeine.cache.Caffeine;
+import com.wfh.drawio.common.CursorPage;
+import com.wfh.drawio.common.CursorUtils;
 import com.wfh.drawio.common.ErrorCode;
-import com.wfh.drawio.constant.CachePrefixConstant;
-import com.wfh.drawio.constant.RedisPrefixConstant;
+import com.wfh.drawio.event.DiagramChangeEvent;
 import com.wfh.drawio.exception.BusinessException;
 import com.wfh.drawio.exception.ThrowUtils;
+import com.wfh.drawio.exception.VersionConflictException;
+import com.wfh.drawio.manager.CacheVersionManager;
+import com.wfh.drawio.manager.DiagramContentStore;
+import com.wfh.drawio.manager.RustFsManager;
+import com.wfh.drawio.manager.SpaceQuotaManager;
+import com.wfh.drawio.manager.UserBatchLoader;
+import com.wfh.drawio.manager.cache.TieredCache;
+import com.wfh.drawio.manager.cache.TieredCacheManager;
+import com.wfh.drawio.manager.cache.TieredCacheSpec;
+import com.wfh.drawio.manager.search.DiagramSearchIndex;
 import com.wfh.drawio.model.dto.diagram.DiagramAddRequest;
 import com.wfh.drawio.model.dto.diagram.DiagramQueryRequest;
 import com.wfh.drawio.model.entity.Diagram;
@@ -39,25 +48,30 @@ import jakarta.servlet.http.HttpServletResponse;
 import lombok.extern.slf4j.Slf4j;
 import org.apache.commons.lang3.ObjectUtils;
 import org.apache.commons.lang3.StringUtils;
-import org.redisson.api.RLock;
-import org.redisson.api.RedissonClient;
 import org.springframework.beans.BeanUtils;
+import org.springframework.context.ApplicationEventPublisher;
 import org.springframework.context.annotation.Lazy;
-import org.springframework.data.redis.core.StringRedisTemplate;
 import org.springframework.stereotype.Service;
+import org.springframework.transaction.event.TransactionalEventListener;
 import org.springframework.transaction.support.TransactionTemplate;
 import org.springframework.util.StreamUtils;
 import org.springframework.web.multipart.MultipartFile;
 
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.Serializable;
 import java.net.HttpURLConnection;
 import java.net.URL;
 import java.net.URLEncoder;
 import java.nio.charset.StandardCharsets;
+import java.time.Duration;
 import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Date;
+import java.util.HashMap;
 import java.util.List;
-import java.util.concurrent.TimeUnit;
+import java.util.Map;
 import java.util.stream.Collectors;
 
 /**
@@ -69,8 +83,10 @@ import java.util.stream.Collectors;
 @Slf4j
 public class DiagramServiceImpl extends ServiceImpl<DiagramMapper, Diagram> implements DiagramService {
 
-    @Resource
-    private RedissonClient redissonClient;
+    /**
+     * 公共图表分页缓存名
+     */
+    private static final String PUBLIC_DIAGRAMS_CACHE = "all_diagram";
 
     @Resource
     private SpaceService spaceService;
@@ -78,11 +94,32 @@ public class DiagramServiceImpl extends ServiceImpl<DiagramMapper, Diagram> impl
     @Resource
     private UserService userService;
 
+    @Resource
+    private UserBatchLoader userBatchLoader;
+
     @Resource
     private TransactionTemplate transactionTemplate;
 
     @Resource
-    private StringRedisTemplate stringRedisTemplate;
+    private CacheVersionManager cacheVersionManager;
+
+    @Resource
+    private ApplicationEventPublisher eventPublisher;
+
+    @Resource
+    private TieredCacheManager tieredCacheManager;
+
+    @Resource
+    private DiagramSearchIndex diagramSearchIndex;
+
+    @Resource
+    private DiagramContentStore diagramContentStore;
+
+    @Resource
+    private SpaceQuotaManager spaceQuotaManager;
+
+    @Resource
+    private RustFsManager rustFsManager;
 
     @Resource
     @Lazy
@@ -97,33 +134,160 @@ public class DiagramServiceImpl extends ServiceImpl<DiagramMapper, Diagram> impl
     private XmlDownloadStrategy xmlDownloadStrategy;
 
     /**
-     * 图表分页缓存
+     * 公共图表分页缓存（Caffeine + Redis），按版本号整体失效
      */
-    private Cache<String, Page<DiagramVO>> diagramsPageCache;
+    private TieredCache<Page<DiagramVO>> publicDiagramsCache;
 
     @PostConstruct
     public void init() {
-        diagramsPageCache = Caffeine.newBuilder()
-                .maximumSize(10_000)
-                .expireAfterWrite(RandomUtil.randomInt(1, 5), TimeUnit.MINUTES)
-                .build();
+        publicDiagramsCache = tieredCacheManager.create(TieredCacheSpec.builder()
+                        .name(PUBLIC_DIAGRAMS_CACHE)
+                        .ttl(Duration.ofMinutes(3))
+                        .staleTtl(Duration.ofMinutes(2))
+                        .versioned(true)
+                        .build(),
+                tieredCacheManager.typeOf(Page.class, DiagramVO.class));
+    }
+
+    @Override
+    public boolean save(Diagram entity) {
+        boolean result = Boolean.TRUE.equals(transactionTemplate.execute(status -> {
+            boolean saved = super.save(entity);
+            if (saved && entity.getDiagramCode() != null) {
+                diagramContentStore.put(entity.getId(), entity.getDiagramCode());
+            }
+            return saved;
+        }));
+        if (result) {
+            eventPublisher.publishEvent(new DiagramChangeEvent(this, entity.getId(), DiagramChangeEvent.ChangeType.CREATE,
+                    entity.getSpaceId(), entity.getSpaceId()));
+        }
+        return result;
     }
 
     @Override
-    public boolean tryAcquireLock(String roomName){
-        String lockKey = "lock:snapshot:" + roomName;
-        RLock lock = redissonClient.getLock(lockKey);
+    public boolean updateById(Diagram entity) {
+        // 乐观锁：调用方带了版本号时按 where id = ? and version = ? 条件更新；不论是否带版本号，每次更新版本都 +1
+        Integer expectedVersion = entity.getVersion();
+        entity.setVersion(null);
+        // 变更前所属空间，用于判断是否影响公共图表列表；spaceId 为空的字段不会被更新
+        Long spaceIdBefore = selectSpaceIds(List.of(entity.getId())).get(entity.getId());
+        boolean result = Boolean.TRUE.equals(transactionTemplate.execute(status -> {
+            if (entity.getDiagramCode() != null) {
+                // 内容在单独的表里，主表至少刷新更新时间
+                entity.setUpdateTime(new Date());
+            }
+            boolean updated = super.update(entity, new LambdaUpdateWrapper<Diagram>()
+                    .eq(Diagram::getId, entity.getId())
+                    .eq(expectedVersion != null, Diagram::getVersion, expectedVersion)
+                    .setSql("version = version + 1"));
+            if (updated && entity.getDiagramCode() != null) {
+                diagramContentStore.put(entity.getId(), entity.getDiagramCode());
+            }
+            return updated;
+        }));
+        if (!result && expectedVersion != null) {
+            Diagram latest = this.getById(entity.getId());
+            if (latest != null) {
+                throw new VersionConflictException(latest.getVersion());
+            }
+        }
+        if (result && expectedVersion != null) {
+            entity.setVersion(expectedVersion + 1);
+        }
+        if (result) {
+            Long spaceIdAfter = entity.getSpaceId() != null ? entity.getSpaceId() : spaceIdBefore;
+            eventPublisher.publishEvent(new DiagramChangeEvent(this, entity.getId(), DiagramChangeEvent.ChangeType.UPDATE,
+                    spaceIdBefore, spaceIdAfter));
+        }
+        return result;
+    }
 
-        try {
-            boolean isLocked = lock.tryLock(0, 1, TimeUnit.MINUTES);
-            if (isLocked) {
-                log.info("房间 [{}] 抢锁成功，进入冷却期(1min)", roomName);
+    @Override
+    public Diagram getByIdWithCode(Long id) {
+        Diagram diagram = this.getById(id);
+        if (diagram != null) {
+            diagram.setDiagramCode(getDiagramCode(id));
+        }
+        return diagram;
+    }
+
+    @Override
+    public String getDiagramCode(Long diagramId) {
+        return diagramContentStore.get(diagramId);
+    }
+
+    @Override
+    public boolean removeById(Serializable id) {
+        Long diagramId = Long.valueOf(id.toString());
+        Long spaceId = selectSpaceIds(List.of(diagramId)).get(diagramId);
+        boolean result = Boolean.TRUE.equals(transactionTemplate.execute(status -> {
+            boolean removed = super.removeById(diagramId);
+            if (removed) {
+                // 图表是逻辑删除，内容块引用在同一事务中释放
+                diagramContentStore.remove(List.of(diagramId));
             }
-            return isLocked;
-        } catch (InterruptedException e) {
-            Thread.currentThread().interrupt();
+            return removed;
+        }));
+        if (result) {
+            eventPublisher.publishEvent(new DiagramChangeEvent(this, diagramId, DiagramChangeEvent.ChangeType.DELETE, spaceId, spaceId));
+        }
+        return result;
+    }
+
+    /**
+     * 批量删除图表，逐个发布删除事件（外层有事务时在提交后处理），保证索引与缓存同步
+     */
+    @Override
+    public boolean removeByIds(Collection<?> list) {
+        if (CollUtil.isEmpty(list)) {
             return false;
         }
+        List<Long> diagramIds = list.stream().map(id -> Long.valueOf(id.toString())).distinct().toList();
+        Map<Long, Long> spaceIds = selectSpaceIds(diagramIds);
+        boolean result = Boolean.TRUE.equals(transactionTemplate.execute(status -> {
+            boolean removed = super.removeByIds(diagramIds);
+            if (removed) {
+                diagramContentStore.remove(diagramIds);
+            }
+            return removed;
+        }));
+        if (result) {
+            for (Long diagramId : diagramIds) {
+                // 只为删除前仍存在的图表发布事件
+                if (spaceIds.containsKey(diagramId)) {
+                    Long spaceId = spaceIds.get(diagramId);
+                    eventPublisher.publishEvent(new DiagramChangeEvent(this, diagramId, DiagramChangeEvent.ChangeType.DELETE, spaceId, spaceId));
+                }
+            }
+        }
+        return result;
+    }
+
+    /**
+     * 查询图表当前所属空间
+     *
+     * @return diagramId -> spaceId（公共图库为 null），不存在的图表不在结果中
+     */
+    private Map<Long, Long> selectSpaceIds(Collection<Long> diagramIds) {
+        List<Diagram> diagrams = this.list(new LambdaQueryWrapper<Diagram>()
+                .select(Diagram::getId, Diagram::getSpaceId)
+                .in(Diagram::getId, diagramIds));
+        Map<Long, Long> spaceIds = new HashMap<>(diagrams.size() * 2);
+        for (Diagram diagram : diagrams) {
+            spaceIds.put(diagram.getId(), diagram.getSpaceId());
+        }
+        return spaceIds;
+    }
+
+    /**
+     * 公共图库中的图表变更（事务提交后）递增公共图表列表缓存版本，空间内图表变更不影响
+     */
+    @TransactionalEventListener(fallbackExecution = true)
+    public void onDiagramChange(DiagramChangeEvent event) {
+        if (event.isPublicAffected()) {
+            cacheVersionManager.bump(PUBLIC_DIAGRAMS_CACHE);
+        }
     }
 
     /**
@@ -156,7 +320,8 @@ public class DiagramServiceImpl extends ServiceImpl<DiagramMapper, Diagram> impl
             long contentLength = connection.getContentLengthLong();
             String finalFileName = (fileName != null && !fileName.isEmpty()) ? fileName : extractFileNameFromUrl(remoteUrl);
             String encodedFileName = URLEncoder.encode(finalFileName, StandardCharsets.UTF_8).replaceAll("\\+", "%20");
-            response.reset();
+            // 只清空缓冲区，保留调用方已设置的 ETag、Cache-Control 等响应头
+            response.resetBuffer();
             response.setContentType(contentType != null ? contentType : "application/octet-stream");
             if (contentLength > 0) {
                 response.setContentLengthLong(contentLength);
@@ -244,13 +409,21 @@ public class DiagramServiceImpl extends ServiceImpl<DiagramMapper, Diagram> impl
         Long spaceId = diagramQueryRequest.getSpaceId();
         Long userId = diagramQueryRequest.getUserId();
         boolean nullSpaceId = diagramQueryRequest.isNullSpaceId();
-        // 从多字段中搜索
-        if (StringUtils.isNotBlank(searchText)) {
-            // 需要拼接查询条件
-            queryWrapper.and(qw -> qw.like("name", searchText).or().like("name", searchText));
+        if (StringUtils.isNotBlank(searchText) || StringUtils.isNotBlank(name)) {
+            // 优先走全文索引（空间、创建人在索引内过滤），命中的 ID 与其余条件一起回表
+            List<Long> hitIds = diagramSearchIndex.search(searchText, name, spaceId, userId, nullSpaceId);
+            if (hitIds == null) {
+                // 索引未就绪或不可用，回退到模糊查询
+                queryWrapper.like(StringUtils.isNotBlank(searchText), "name", searchText);
+                queryWrapper.like(StringUtils.isNotBlank(name), "name", name);
+            } else if (hitIds.isEmpty()) {
+                queryWrapper.apply("1 = 0");
+            } else {
+                queryWrapper.in("id", hitIds);
+                // 按相关度排序；游标分页会覆盖为按时间排序
+                queryWrapper.last("order by field(id, " + StringUtils.join(hitIds, ",") + ")");
+            }
         }
-        // 模糊查询
-        queryWrapper.like(StringUtils.isNotBlank(name), "name", name);
         // 精确查询
         queryWrapper.eq(ObjectUtils.isNotEmpty(id), "id", id);
         queryWrapper.eq(ObjectUtils.isNotEmpty(spaceId), "spaceId", spaceId);
@@ -259,6 +432,38 @@ public class DiagramServiceImpl extends ServiceImpl<DiagramMapper, Diagram> impl
         return queryWrapper;
     }
 
+    @Override
+    public Page<Diagram> searchPage(Page<Diagram> page, DiagramQueryRequest diagramQueryRequest) {
+        if (diagramQueryRequest != null && diagramQueryRequest.getId() == null && page.getSize() > 0
+                && (StringUtils.isNotBlank(diagramQueryRequest.getSearchText()) || StringUtils.isNotBlank(diagramQueryRequest.getTitle()))) {
+            Long spaceId = diagramQueryRequest.getSpaceId();
+            Long userId = diagramQueryRequest.getUserId();
+            boolean nullSpaceId = diagramQueryRequest.isNullSpaceId();
+            long offset = Math.max(0, page.getCurrent() - 1) * page.getSize();
+            DiagramSearchIndex.SearchPage hits = diagramSearchIndex.searchPage(diagramQueryRequest.getSearchText(),
+                    diagramQueryRequest.getTitle(), spaceId, userId, nullSpaceId, offset, (int) page.getSize());
+            if (hits != null) {
+                page.setTotal(hits.total());
+                if (hits.ids().isEmpty()) {
+                    page.setRecords(Collections.emptyList());
+                    return page;
+                }
+                Map<Long, Diagram> diagramMap = this.listByIds(hits.ids()).stream()
+                        .collect(Collectors.toMap(Diagram::getId, diagram -> diagram));
+                // 按相关度回填；索引异步更新，回表时再按范围条件校验一次
+                page.setRecords(hits.ids().stream()
+                        .map(diagramMap::get)
+                        .filter(diagram -> diagram != null
+                                && (spaceId == null || spaceId.equals(diagram.getSpaceId()))
+                                && (!nullSpaceId || diagram.getSpaceId() == null)
+                                && (userId == null || userId.equals(diagram.getUserId())))
+                        .toList());
+                return page;
+            }
+        }
+        return this.page(page, getQueryWrapper(diagramQueryRequest));
+    }
+
     /**
      * 获取图表封装
      *
@@ -270,9 +475,13 @@ public class DiagramServiceImpl extends ServiceImpl<DiagramMapper, Diagram> impl
     public DiagramVO getDiagramVO(Diagram diagram, HttpServletRequest request) {
         // 对象转封装类
         DiagramVO diagramVO = DiagramVO.objToVo(diagram);
+        // 详情需要图表内容，按需从内容表读取
+        if (diagram.getDiagramCode() == null && diagram.getId() != null) {
+            diagramVO.setDiagramCode(getDiagramCode(diagram.getId()));
+        }
         // 设置创建用户信息
         if (diagram.getUserId() != null) {
-            User user = userService.getById(diagram.getUserId());
+            User user = userBatchLoader.loadUser(diagram.getUserId());
             if (user != null) {
                 UserVO userVO = new UserVO();
                 BeanUtils.copyProperties(user, userVO);
@@ -297,19 +506,11 @@ public class DiagramServiceImpl extends ServiceImpl<DiagramMapper, Diagram> impl
             return diagramVOPage;
         }
         // 对象列表 => 封装对象列表
-        List<DiagramVO> diagramVOList = diagramList.stream().map(diagram -> {
-            DiagramVO diagramVO = DiagramVO.objToVo(diagram);
-            // 设置创建用户信息
-            if (diagram.getUserId() != null) {
-                User user = userService.getById(diagram.getUserId());
-                if (user != null) {
-                    UserVO userVO = new UserVO();
-                    BeanUtils.copyProperties(user, userVO);
-                    diagramVO.setUserVO(userVO);
-                }
-            }
-            return diagramVO;
-        }).collect(Collectors.toList());
+        List<DiagramVO> diagramVOList = diagramList.stream()
+                .map(DiagramVO::objToVo)
+                .collect(Collectors.toList());
+        // 批量填充创建用户信息
+        userBatchLoader.fillUserVO(diagramVOList, DiagramVO::getUserId, DiagramVO::setUserVO);
         diagramVOPage.setRecords(diagramVOList);
         diagramVOPage.setCurrent(diagramPage.getCurrent());
         diagramVOPage.setSize(diagramPage.getSize());
@@ -317,145 +518,118 @@ public class DiagramServiceImpl extends ServiceImpl<DiagramMapper, Diagram> impl
     }
 
     /**
-     * 上传图表文件并更新空间额度（带事务）
-     * 在事务内进行额度校验，确保并发安全
+     * 游标分页获取图表封装
+     *
+     * @param diagramPage
+     * @param request
+     * @return
+     */
+    @Override
+    public CursorPage<DiagramVO> getDiagramVOCursorPage(CursorPage<Diagram> diagramPage, HttpServletRequest request) {
+        List<DiagramVO> diagramVOList = diagramPage.getRecords().stream()
+                .map(DiagramVO::objToVo)
+                .collect(Collectors.toList());
+        // 批量填充创建用户信息
+        userBatchLoader.fillUserVO(diagramVOList, DiagramVO::getUserId, DiagramVO::setUserVO);
+        return diagramPage.withRecords(diagramVOList);
+    }
+
+    /**
+     * 上传图表文件并更新空间额度
+     * 额度由 Redis 原子校验并扣减，图表更新失败时归还
      * picSize = svgSize + pngSize
      */
     @Override
     public void uploadDiagramWithQuota(Long diagramId, Long spaceId, String fileUrl, Long fileSize, String extension, User loginUser) {
-        transactionTemplate.execute(status -> {
-            // 获取图表信息
-            Diagram diagram = this.getById(diagramId);
-            ThrowUtils.throwIf(diagram == null, ErrorCode.NOT_FOUND_ERROR, "图表不存在");
-
-            // 获取旧的文件大小
-            Long oldSvgSize = diagram.getSvgSize() != null ? diagram.getSvgSize() : 0L;
-            Long oldPngSize = diagram.getPngSize() != null ? diagram.getPngSize() : 0L;
-            Long oldPicSize = oldSvgSize + oldPngSize;
-
-            // 判断文件类型
-            boolean isSvg = "svg".equalsIgnoreCase(extension);
-            boolean isPng = "png".equalsIgnoreCase(extension);
-
-            // 计算新的文件大小
-            Long newSvgSize = oldSvgSize;
-            Long newPngSize = oldPngSize;
-
-            if (isSvg) {
-                newSvgSize = fileSize;
-            } else if (isPng) {
-                newPngSize = fileSize;
-            } else {
-                throw new BusinessException(ErrorCode.PARAMS_ERROR, "不支持的文件类型");
-            }
+        // 获取图表信息
+        Diagram diagram = this.getById(diagramId);
+        ThrowUtils.throwIf(diagram == null, ErrorCode.NOT_FOUND_ERROR, "图表不存在");
 
-            Long newPicSize = newSvgSize + newPngSize;
-            long sizeDelta = newPicSize - oldPicSize;
+        // 获取旧的文件大小
+        Long oldSvgSize = diagram.getSvgSize() != null ? diagram.getSvgSize() : 0L;
+        Long oldPngSize = diagram.getPngSize() != null ? diagram.getPngSize() : 0L;
+        Long oldPicSize = oldSvgSize + oldPngSize;
+
+        // 判断文件类型
+        boolean isSvg = "svg".equalsIgnoreCase(extension);
+        boolean isPng = "png".equalsIgnoreCase(extension);
+
+        // 计算新的文件大小
+        Long newSvgSize = oldSvgSize;
+        Long newPngSize = oldPngSize;
+
+        if (isSvg) {
+            newSvgSize = fileSize;
+        } else if (isPng) {
+            newPngSize = fileSize;
+        } else {
+            throw new BusinessException(ErrorCode.PARAMS_ERROR, "不支持的文件类型");
+        }
 
-            // 如果有空间ID，需要校验额度并更新
-            if (spaceId != null) {
-                // 在事务内重新查询空间，获取最新数据（加锁）
-                Space space = spaceService.getById(spaceId);
-                ThrowUtils.throwIf(space == null, ErrorCode.NOT_FOUND_ERROR, "空间不存在");
+        Long newPicSize = newSvgSize + newPngSize;
+        long sizeDelta = newPicSize - oldPicSize;
 
-                // 权限校验
-                if (!loginUser.getId().equals(space.getUserId())) {
-                    throw new BusinessException(ErrorCode.NO_AUTH_ERROR, "没有空间权限");
-                }
+        // 如果有空间ID，需要校验额度
+        if (spaceId != null) {
+            Space space = spaceService.getById(spaceId);
+            ThrowUtils.throwIf(space == null, ErrorCode.NOT_FOUND_ERROR, "空间不存在");
 
-                // 额度校验（在事务内进行，确保并发安全）
-                long currentTotalCount = space.getTotalCount() != null ? space.getTotalCount() : 0L;
-                long currentTotalSize = space.getTotalSize() != null ? space.getTotalSize() : 0L;
-                if (currentTotalCount >= space.getMaxCount()) {
-                    throw new BusinessException(ErrorCode.OPERATION_ERROR, "空间条数不足");
-                }
-                if (currentTotalSize + sizeDelta > space.getMaxSize()) {
-                    throw new BusinessException(ErrorCode.OPERATION_ERROR, "空间大小不足");
-                }
-
-                // 更新图表信息
-                Diagram updateDiagram = new Diagram();
-                updateDiagram.setId(diagramId);
-                updateDiagram.setSvgSize(newSvgSize);
-                updateDiagram.setPngSize(newPngSize);
-                updateDiagram.setPicSize(newPicSize);
-                if (isSvg) {
-                    updateDiagram.setSvgUrl(fileUrl);
-                } else if (isPng) {
-                    updateDiagram.setPictureUrl(fileUrl);
-                }
-                boolean result = this.updateById(updateDiagram);
-                ThrowUtils.throwIf(!result, ErrorCode.OPERATION_ERROR, "图片上传失败");
-
-                // 更新空间额度 (仅更新大小，不增加数量，因为addDiagram已增加数量)
-                boolean update = spaceService.lambdaUpdate()
-                        .eq(Space::getId, spaceId)
-                        .setSql("totalSize = COALESCE(totalSize, 0) + " + sizeDelta)
-                        .update();
-                ThrowUtils.throwIf(!update, ErrorCode.OPERATION_ERROR, "额度更新失败");
-            } else {
-                // 没有空间ID，只更新图表信息
-                Diagram updateDiagram = new Diagram();
-                updateDiagram.setId(diagramId);
-                updateDiagram.setSvgSize(newSvgSize);
-                updateDiagram.setPngSize(newPngSize);
-                updateDiagram.setPicSize(newPicSize);
-                if (isSvg) {
-                    updateDiagram.setSvgUrl(fileUrl);
-                } else if (isPng) {
-                    updateDiagram.setPictureUrl(fileUrl);
-                }
-                boolean result = this.updateById(updateDiagram);
-                ThrowUtils.throwIf(!result, ErrorCode.OPERATION_ERROR, "图片上传失败");
+            // 权限校验
+            if (!loginUser.getId().equals(space.getUserId())) {
+                throw new BusinessException(ErrorCode.NO_AUTH_ERROR, "没有空间权限");
             }
-            return true;
-        });
+
+            // 原子校验并扣减大小额度（不增加数量，addDiagram 时已计数）
+            spaceQuotaManager.reserve(spaceId, 0, sizeDelta);
+        }
+
+        // 更新图表信息
+        Diagram updateDiagram = new Diagram();
+        updateDiagram.setId(diagramId);
+        updateDiagram.setSvgSize(newSvgSize);
+        updateDiagram.setPngSize(newPngSize);
+        updateDiagram.setPicSize(newPicSize);
+        if (isSvg) {
+            updateDiagram.setSvgUrl(fileUrl);
+        } else if (isPng) {
+            updateDiagram.setPictureUrl(fileUrl);
+        }
+        boolean result;
+        try {
+            result = this.updateById(updateDiagram);
+        } catch (RuntimeException e) {
+            releaseQuota(spaceId, 0, sizeDelta);
+            throw e;
+        }
+        if (!result) {
+            releaseQuota(spaceId, 0, sizeDelta);
+            throw new BusinessException(ErrorCode.OPERATION_ERROR, "图片上传失败");
+        }
     }
 
     /**
-     * 删除图表并释放额度（带事务）
+     * 删除图表并释放额度
      */
     @Override
     public void deleteDiagramWithQuota(Long id) {
-        // 获取图表信息（在事务外）
         Diagram oldDiagram = this.getById(id);
         ThrowUtils.throwIf(oldDiagram == null, ErrorCode.NOT_FOUND_ERROR);
 
-        transactionTemplate.execute(status -> {
-            // 删除图表
-            boolean result = this.removeById(id);
-            ThrowUtils.throwIf(!result, ErrorCode.OPERATION_ERROR);
-
-            // 释放额度
-            Long spaceId = oldDiagram.getSpaceId();
-            if (spaceId != null) {
-                // 使用 svgSize + pngSize 作为总大小
-                Long svgSize = oldDiagram.getSvgSize() != null ? oldDiagram.getSvgSize() : 0L;
-                Long pngSize = oldDiagram.getPngSize() != null ? oldDiagram.getPngSize() : 0L;
-                Long picSize = svgSize + pngSize;
-
-                if (picSize > 0) {
-                    boolean update = spaceService.lambdaUpdate()
-                            .eq(Space::getId, spaceId)
-                            .setSql("totalSize = COALESCE(totalSize, 0) - " + picSize)
-                            .setSql("totalCount = COALESCE(totalCount, 0) - 1")
-                            .update();
-                    ThrowUtils.throwIf(!update, ErrorCode.OPERATION_ERROR, "额度更新失败");
-                } else {
-                    // 如果picSize为0，只减少count
-                    boolean update = spaceService.lambdaUpdate()
-                            .eq(Space::getId, spaceId)
-                            .setSql("totalCount = COALESCE(totalCount, 0) - 1")
-                            .update();
-                    ThrowUtils.throwIf(!update, ErrorCode.OPERATION_ERROR, "额度更新失败");
-                }
-            }
-            return true;
-        });
+        // 删除图表
+        boolean result = this.removeById(id);
+        ThrowUtils.throwIf(!result, ErrorCode.OPERATION_ERROR);
+
+        // 释放额度，使用 svgSize + pngSize 作为总大小
+        Long spaceId = oldDiagram.getSpaceId();
+        if (spaceId != null) {
+            Long svgSize = oldDiagram.getSvgSize() != null ? oldDiagram.getSvgSize() : 0L;
+            Long pngSize = oldDiagram.getPngSize() != null ? oldDiagram.getPngSize() : 0L;
+            spaceQuotaManager.release(spaceId, 1, svgSize + pngSize);
+        }
     }
 
     /**
-     * 创建图表并更新空间额度（带事务）
+     * 创建图表并更新空间额度
      */
     @Override
     public Long addDiagramWithQuota(DiagramAddRequest diagramAddRequest, User loginUser) {
@@ -467,40 +641,33 @@ public class DiagramServiceImpl extends ServiceImpl<DiagramMapper, Diagram> impl
         // 数据校验
         this.validDiagram(diagram, true);
 
-        return transactionTemplate.execute(status -> {
-            // 如果有空间ID，需要校验额度并更新
-            if (spaceId != null) {
-                Space space = spaceService.getById(spaceId);
-                ThrowUtils.throwIf(space == null, ErrorCode.NOT_FOUND_ERROR, "空间不存在");
-
-//                // 权限校验
-//                if (!space.getUserId().equals(loginUser.getId())) {
-//                    throw new BusinessException(ErrorCode.NO_AUTH_ERROR, "无权限");
-//                }
-
-                // 额度校验
-                long currentTotalCount = space.getTotalCount() != null ? space.getTotalCount() : 0L;
-                if (currentTotalCount >= space.getMaxCount()) {
-                    throw new BusinessException(ErrorCode.OPERATION_ERROR, "空间条数不足");
-                }
-
-                // 保存图表
-                boolean save = this.save(diagram);
-                ThrowUtils.throwIf(!save, ErrorCode.OPERATION_ERROR);
+        // 如果有空间ID，先原子校验并扣减数量额度（只增加count，因为此时还没有上传文件）
+        if (spaceId != null) {
+            Space space = spaceService.getById(spaceId);
+            ThrowUtils.throwIf(space == null, ErrorCode.NOT_FOUND_ERROR, "空间不存在");
+            spaceQuotaManager.reserve(spaceId, 1, 0);
+        }
+        boolean save;
+        try {
+            save = this.save(diagram);
+        } catch (RuntimeException e) {
+            releaseQuota(spaceId, 1, 0);
+            throw e;
+        }
+        if (!save) {
+            releaseQuota(spaceId, 1, 0);
+            throw new BusinessException(ErrorCode.OPERATION_ERROR);
+        }
+        return diagram.getId();
+    }
 
-                // 更新空间额度（只增加count，因为此时还没有上传文件）
-                boolean update = spaceService.lambdaUpdate()
-                        .eq(Space::getId, spaceId)
-                        .setSql("totalCount = COALESCE(totalCount, 0) + 1")
-                        .update();
-                ThrowUtils.throwIf(!update, ErrorCode.OPERATION_ERROR, "额度更新失败");
-            } else {
-                // 没有空间ID，直接保存
-                boolean save = this.save(diagram);
-                ThrowUtils.throwIf(!save, ErrorCode.OPERATION_ERROR);
-            }
-            return diagram.getId();
-        });
+    /**
+     * 写图表失败时归还已扣减的额度
+     */
+    private void releaseQuota(Long spaceId, long countDelta, long sizeDelta) {
+        if (spaceId != null) {
+            spaceQuotaManager.release(spaceId, countDelta, sizeDelta);
+        }
     }
 
     /**
@@ -528,49 +695,39 @@ public class DiagramServiceImpl extends ServiceImpl<DiagramMapper, Diagram> impl
 
     /**
      * 分页获取所有公共空间的图表（带多级缓存）
-     * 缓存策略: Caffeine(L1) -> Redis(L2) -> DB
+     * 缓存策略: Caffeine(L1) -> Redis(L2) -> DB，图表变更后版本号递增即整体失效
      */
     @Override
     public Page<DiagramVO> getPublicDiagramsByPage(DiagramQueryRequest pageRequest) {
         int current = pageRequest.getCurrent();
         int pageSize = pageRequest.getPageSize();
-        // 构造key
-        String redisKey = String.format(RedisPrefixConstant.ALL_DIAGRAM + "%s:%s:", current, pageSize);
-        String cacheKey = String.format(CachePrefixConstant.ALL_DIAGRAM + "%s:%s", current, pageSize);
-        // 先查询Caffeine中是否存在
-        Page<DiagramVO> cachePage = diagramsPageCache.getIfPresent(cacheKey);
-        if (cachePage == null) {
-            // 本地缓存为空，去查询redis
-            // 先查询redis是否存在
-            String pageStr = stringRedisTemplate.opsForValue().get(redisKey);
-            if (StringUtils.isEmpty(pageStr)) {
-                // 如果Redis中是空的话，就查询数据库并构造缓存
-                Page<Diagram> page = new Page<>(pageRequest.getCurrent(), pageRequest.getPageSize());
-                LambdaQueryWrapper<Diagram> queryWrapper = new LambdaQueryWrapper<>();
-                queryWrapper.isNull(Diagram::getSpaceId);
-                Page<Diagram> resultPage = this.page(page, queryWrapper);
-                List<DiagramVO> diagramVOList = resultPage.getRecords().stream()
-                        .map(DiagramVO::objToVo)
-                        .toList();
-                Page<DiagramVO> resPage = new Page<>(pageRequest.getCurrent(), pageRequest.getPageSize());
-                resPage.setRecords(diagramVOList);
-                resPage.setTotal(resultPage.getTotal());
-                String jsonStr = JSONUtil.toJsonStr(resPage);
-                // 设置Redis缓存
-                stringRedisTemplate.opsForValue().set(redisKey, jsonStr, RandomUtil.randomInt(1, 5), TimeUnit.MINUTES);
-                // 设置Caffeine缓存
-                diagramsPageCache.put(cacheKey, resPage);
-                return resPage;
-            } else {
-                // redis中不为空的话，直接反序列化之后返回给前端
-                Page<DiagramVO> page = JSONUtil.toBean(pageStr, Page.class);
-                // 同时设置本地缓存
-                diagramsPageCache.put(cacheKey, page);
-                return page;
-            }
-        }
-        // 本地缓存不为空，直接返回
-        return cachePage;
+        return publicDiagramsCache.get(current + ":" + pageSize, () -> queryPublicDiagramsPage(current, pageSize));
+    }
+
+    private Page<DiagramVO> queryPublicDiagramsPage(int current, int pageSize) {
+        Page<Diagram> page = new Page<>(current, pageSize);
+        LambdaQueryWrapper<Diagram> queryWrapper = new LambdaQueryWrapper<>();
+        queryWrapper.isNull(Diagram::getSpaceId);
+        Page<Diagram> resultPage = this.page(page, queryWrapper);
+        List<DiagramVO> diagramVOList = resultPage.getRecords().stream()
+                .map(DiagramVO::objToVo)
+                .toList();
+        Page<DiagramVO> resPage = new Page<>(current, pageSize);
+        resPage.setRecords(diagramVOList);
+        resPage.setTotal(resultPage.getTotal());
+        return resPage;
+    }
+
+    @Override
+    public CursorPage<DiagramVO> getPublicDiagramsByCursor(DiagramQueryRequest diagramQueryRequest) {
+        int pageSize = diagramQueryRequest.getPageSize();
+        ThrowUtils.throwIf(pageSize > 20, ErrorCode.PARAMS_ERROR);
+        QueryWrapper<Diagram> queryWrapper = new QueryWrapper<>();
+        queryWrapper.isNull("spaceId");
+        CursorPage<Diagram> diagramPage = CursorUtils.page(this, queryWrapper, diagramQueryRequest.getCursor(), pageSize,
+                Diagram::getCreateTime, Diagram::getId);
+        // 与分页缓存保持一致，公共图库列表不返回创建人信息
+        return diagramPage.withRecords(diagramPage.getRecords().stream().map(DiagramVO::objToVo).toList());
     }
 
     /**
@@ -600,15 +757,72 @@ public class DiagramServiceImpl extends ServiceImpl<DiagramMapper, Diagram> impl
         }
     }
 
+    @Override
+    public String getDiagramDownloadUrl(Long diagramId, String type, String fileName) {
+        Diagram diagram = this.getById(diagramId);
+        ThrowUtils.throwIf(diagram == null, ErrorCode.NOT_FOUND_ERROR, "图表不存在");
+        String fileUrl = switch (type) {
+            case "SVG" -> diagram.getSvgUrl();
+            case "PNG" -> diagram.getPictureUrl();
+            // XML 存于数据库，没有对象存储地址
+            case "XML" -> null;
+            default -> throw new BusinessException(ErrorCode.PARAMS_ERROR, "不支持的文件类型: " + type);
+        };
+        if (StringUtils.isBlank(fileUrl)) {
+            return null;
+        }
+        return rustFsManager.presignDownloadUrl(fileUrl, fileName);
+    }
+
+    @Override
+    public String getDiagramETag(Diagram diagram) {
+        // 详情中的创建人信息只随 userId 变化，昵称、头像修改不影响图表缓存
+        String fingerprint = StringUtils.joinWith("|", diagram.getId(), diagram.getUserId(), diagram.getSpaceId(),
+                diagram.getName(), diagram.getDescription(), diagram.getDiagramType(), diagram.getPictureUrl(),
+                diagram.getSvgUrl(), diagram.getThumbnailUrl(), diagram.getSvgSize(), diagram.getPngSize(),
+                diagram.getPicSize(), diagram.getCreateTime() != null ? diagram.getCreateTime().getTime() : null,
+                diagram.getUpdateTime() != null ? diagram.getUpdateTime().getTime() : null, diagram.getVersion(),
+                diagramContentStore.getContentHash(diagram.getId()));
+        return DigestUtil.sha256Hex(fingerprint).substring(0, 32);
+    }
+
+    @Override
+    public String getDiagramFileETag(Diagram diagram, String type) {
+        return switch (type) {
+            // 每次上传的对象 key 都不同，地址即版本
+            case "SVG" -> StringUtils.isBlank(diagram.getSvgUrl()) ? null : DigestUtil.sha256Hex(diagram.getSvgUrl()).substring(0, 32);
+            case "PNG" -> StringUtils.isBlank(diagram.getPictureUrl()) ? null : DigestUtil.sha256Hex(diagram.getPictureUrl()).substring(0, 32);
+            // 下载内容就是 XML 原文，内容哈希即强 ETag
+            case "XML" -> diagramContentStore.getContentHash(diagram.getId());
+            default -> throw new BusinessException(ErrorCode.PARAMS_ERROR, "不支持的文件类型: " + type);
+        };
+    }
+
+    @Override
+    public void updateThumbnailUrl(Long diagramId, String thumbnailUrl) {
+        boolean updated = this.lambdaUpdate()
+                .eq(Diagram::getId, diagramId)
+                .set(Diagram::getThumbnailUrl, thumbnailUrl)
+                .update();
+        if (updated) {
+            // 公共图表列表里带有缩略图地址
+            cacheVersionManager.bump(PUBLIC_DIAGRAMS_CACHE);
+        }
+    }
+
     /**
      * 认领免费试用图表
      * 将免费试用生成的临时图表绑定到指定用户账户
      */
     @Override
-    public Long claimFreeTrialDiagram(Long diagramId, Long userId, Long spaceId, String newName) {
+    public Integer claimFreeTrialDiagram(Long diagramId, Long userId, Long spaceId, String newName, Integer expectedVersion) {
         // 1. 查询图表
         Diagram diagram = this.getById(diagramId);
         ThrowUtils.throwIf(diagram == null, ErrorCode.NOT_FOUND_ERROR, "图表不存在");
+        if (expectedVersion != null) {
+            // 按调用方的版本条件更新，认领成功后版本号即为 expectedVersion + 1
+            diagram.setVersion(expectedVersion);
+        }
 
         // 2. 校验是否是免费试用图表
         ThrowUtils.throwIf(!diagram.isFreeTrial(), ErrorCode.PARAMS_ERROR,
@@ -618,63 +832,60 @@ public class DiagramServiceImpl extends ServiceImpl<DiagramMapper, Diagram> impl
         ThrowUtils.throwIf(diagram.getUserId() != null, ErrorCode.PARAMS_ERROR,
                 "此图表已被认领");
 
-        return transactionTemplate.execute(status -> {
-            // 4. 如果指定了spaceId，校验空间额度
-            if (spaceId != null) {
-                Space space = spaceService.getById(spaceId);
-                ThrowUtils.throwIf(space == null, ErrorCode.NOT_FOUND_ERROR, "空间不存在");
+        // 4. 如果指定了spaceId，校验空间额度
+        if (spaceId != null) {
+            Space space = spaceService.getById(spaceId);
+            ThrowUtils.throwIf(space == null, ErrorCode.NOT_FOUND_ERROR, "空间不存在");
 
-                // 额度校验
-                long currentTotalCount = space.getTotalCount() != null ? space.getTotalCount() : 0L;
-                if (currentTotalCount >= space.getMaxCount()) {
-                    throw new BusinessException(ErrorCode.OPERATION_ERROR, "空间条数不足");
-                }
+            // 原子校验并扣减数量额度
+            spaceQuotaManager.reserve(spaceId, 1, 0);
 
-                // 更新图表信息
-                diagram.setUserId(userId);
-                diagram.setSpaceId(spaceId);
-                diagram.setDiagramType(null); // 清除免费试用标记
-                if (StringUtils.isNotBlank(newName)) {
-                    diagram.setName(newName);
-                } else {
-                    // 移除"[免费试用]"前缀
-                    String originalName = diagram.getName();
-                    if (originalName != null && originalName.startsWith("[免费试用] ")) {
-                        diagram.setName(originalName.substring("[免费试用] ".length()));
-                    }
+            // 更新图表信息
+            diagram.setUserId(userId);
+            diagram.setSpaceId(spaceId);
+            diagram.setDiagramType(null); // 清除免费试用标记
+            if (StringUtils.isNotBlank(newName)) {
+                diagram.setName(newName);
+            } else {
+                // 移除"[免费试用]"前缀
+                String originalName = diagram.getName();
+                if (originalName != null && originalName.startsWith("[免费试用] ")) {
+                    diagram.setName(originalName.substring("[免费试用] ".length()));
                 }
+            }
 
-                boolean result = this.updateById(diagram);
-                ThrowUtils.throwIf(!result, ErrorCode.OPERATION_ERROR, "认领失败");
-
-                // 更新空间额度（增加count）
-                boolean update = spaceService.lambdaUpdate()
-                        .eq(Space::getId, spaceId)
-                        .setSql("totalCount = COALESCE(totalCount, 0) + 1")
-                        .update();
-                ThrowUtils.throwIf(!update, ErrorCode.OPERATION_ERROR, "额度更新失败");
+            boolean result;
+            try {
+                result = this.updateById(diagram);
+            } catch (RuntimeException e) {
+                releaseQuota(spaceId, 1, 0);
+                throw e;
+            }
+            if (!result) {
+                releaseQuota(spaceId, 1, 0);
+                throw new BusinessException(ErrorCode.OPERATION_ERROR, "认领失败");
+            }
+        } else {
+            // 5. 保存到公共图库（无空间额度限制）
+            diagram.setUserId(userId);
+            diagram.setSpaceId(null);
+            diagram.setDiagramType(null); // 清除免费试用标记
+            if (StringUtils.isNotBlank(newName)) {
+                diagram.setName(newName);
             } else {
-                // 5. 保存到公共图库（无空间额度限制）
-                diagram.setUserId(userId);
-                diagram.setSpaceId(null);
-                diagram.setDiagramType(null); // 清除免费试用标记
-                if (StringUtils.isNotBlank(newName)) {
-                    diagram.setName(newName);
-                } else {
-                    // 移除"[免费试用]"前缀
-                    String originalName = diagram.getName();
-                    if (originalName != null && originalName.startsWith("[免费试用] ")) {
-                        diagram.setName(originalName.substring("[免费试用] ".length()));
-                    }
+                // 移除"[免费试用]"前缀
+                String originalName = diagram.getName();
+                if (originalName != null && originalName.startsWith("[免费试用] ")) {
+                    diagram.setName(originalName.substring("[免费试用] ".length()));
                 }
-
-                boolean result = this.updateById(diagram);
-                ThrowUtils.throwIf(!result, ErrorCode.OPERATION_ERROR, "认领失败");
             }
 
-            log.info("图表认领成功: diagramId={}, userId={}, spaceId={}", diagramId, userId, spaceId);
-            return diagram.getId();
-        });
+            boolean result = this.updateById(diagram);
+            ThrowUtils.throwIf(!result, ErrorCode.OPERATION_ERROR, "认领失败");
+        }
+
+        log.info("图表认领成功: diagramId={}, userId={}, spaceId={}", diagramId, userId, spaceId);
+        return diagram.getVersion();
     }
 
 }
@@ -7,6 +7,7 @@ import com.baomidou.mybatisplus.extension.service.impl.ServiceImpl;
 import com.wfh.drawio.common.ErrorCode;
 import com.wfh.drawio.exception.BusinessException;
 import com.wfh.drawio.exception.ThrowUtils;
+import com.wfh.drawio.manager.UserBatchLoader;
 import com.wfh.drawio.mapper.RoomMemberMapper;
 import com.wfh.drawio.model.dto.roommember.RoomMemberAddRequest;
 import com.wfh.drawio.model.dto.roommember.RoomMemberQueryRequest;
@@ -42,6 +43,9 @@ public class RoomMemberServiceImpl extends ServiceImpl<RoomMemberMapper, RoomMem
     @Resource
     private UserService userService;
 
+    @Resource
+    private UserBatchLoader userBatchLoader;
+
     @Resource
     private DiagramRoomService diagramRoomService;
 
@@ -104,7 +108,7 @@ public class RoomMemberServiceImpl extends ServiceImpl<RoomMemberMapper, RoomMem
         // 关联查询用户信息
         Long userId = roomMember.getUserId();
         if (userId != null && userId > 0) {
-            User user = userService.getById(userId);
+            User user = userBatchLoader.loadUser(userId);
             UserVO userVO = userService.getUserVO(user);
             roomMemberVO.setUserName(userVO.getUserName());
             roomMemberVO.setUserAvatar(userVO.getUserAvatar());
@@ -131,16 +135,12 @@ public class RoomMemberServiceImpl extends ServiceImpl<RoomMemberMapper, RoomMem
                 .map(RoomMember::getUserId)
                 .collect(Collectors.toSet());
         // 2. 批量查询用户
-        Map<Long, List<User>> userIdUserListMap = userService.listByIds(userIdSet).stream()
-                .collect(Collectors.groupingBy(User::getId));
+        Map<Long, User> userMap = userBatchLoader.loadUsers(userIdSet);
         // 3. 填充 RoomMemberVO 的用户信息
         roomMemberVOList.forEach(roomMemberVO -> {
             Long userId = roomMemberVO.getUserId();
             // 填充用户信息
-            User user = null;
-            if (userIdUserListMap.containsKey(userId)) {
-                user = userIdUserListMap.get(userId).get(0);
-            }
+            User user = userMap.get(userId);
             UserVO userVO = userService.getUserVO(user);
             roomMemberVO.setUserName(userVO.getUserName());
             roomMemberVO.setUserAvatar(userVO.getUserAvatar());
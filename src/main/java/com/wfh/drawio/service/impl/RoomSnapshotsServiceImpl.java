@@ -4,8 +4,12 @@ import com.baomidou.mybatisplus.extension.service.impl.ServiceImpl;
 import com.wfh.drawio.model.entity.RoomSnapshots;
 import com.wfh.drawio.service.RoomSnapshotsService;
 import com.wfh.drawio.mapper.RoomSnapshotsMapper;
+import jakarta.annotation.Resource;
+import org.springframework.data.redis.core.StringRedisTemplate;
 import org.springframework.stereotype.Service;
 
+import java.time.Duration;
+
 /**
 * @author fenghuanwang
 * @description 针对表【room_snapshots(协同编辑快照表)】的数据库操作Service实现
@@ -15,6 +19,16 @@ import org.springframework.stereotype.Service;
 public class RoomSnapshotsServiceImpl extends ServiceImpl<RoomSnapshotsMapper, RoomSnapshots>
     implements RoomSnapshotsService{
 
+    /**
+     * 快照冷却时间
+     */
+    private static final Duration SNAPSHOT_COOLDOWN = Duration.ofMinutes(1);
+
+    private static final String SNAPSHOT_CLAIM_KEY_PREFIX = "lock:snapshot:";
+
+    @Resource
+    private StringRedisTemplate stringRedisTemplate;
+
     @Override
     public void cleanOldSnapshots(Long roomId) {
         // 1. 查询该房间所有快照ID，按 ID 倒序 (最新的在前面)
@@ -40,8 +54,11 @@ public class RoomSnapshotsServiceImpl extends ServiceImpl<RoomSnapshotsMapper, R
             this.removeBatchByIds(deleteIds);
         }
     }
-}
-
-
-
 
+    @Override
+    public boolean tryClaimSnapshot(Long roomId) {
+        // SET NX PX：冷却期内只有第一个轮询的客户端拿到 true，不释放，到期即可再次领取
+        return Boolean.TRUE.equals(stringRedisTemplate.opsForValue()
+                .setIfAbsent(SNAPSHOT_CLAIM_KEY_PREFIX + roomId, "1", SNAPSHOT_COOLDOWN));
+    }
+}
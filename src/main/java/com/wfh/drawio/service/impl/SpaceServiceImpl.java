@@ -5,10 +5,12 @@ import com.baomidou.mybatisplus.core.conditions.query.LambdaQueryWrapper;
 import com.baomidou.mybatisplus.core.conditions.query.QueryWrapper;
 import com.baomidou.mybatisplus.extension.plugins.pagination.Page;
 import com.baomidou.mybatisplus.extension.service.impl.ServiceImpl;
+import com.wfh.drawio.common.CursorPage;
 import com.wfh.drawio.common.ErrorCode;
 import com.wfh.drawio.constant.UserConstant;
 import com.wfh.drawio.exception.BusinessException;
 import com.wfh.drawio.exception.ThrowUtils;
+import com.wfh.drawio.manager.UserBatchLoader;
 import com.wfh.drawio.model.dto.space.SpaceAddReqeust;
 import com.wfh.drawio.model.dto.space.SpaceQueryRequest;
 import com.wfh.drawio.model.entity.*;
@@ -50,6 +52,9 @@ public class SpaceServiceImpl extends ServiceImpl<SpaceMapper, Space>
     @Resource
     private UserService userService;
 
+    @Resource
+    private UserBatchLoader userBatchLoader;
+
     @Resource
     @Lazy
     private DiagramService diagramService;
@@ -237,10 +242,13 @@ public class SpaceServiceImpl extends ServiceImpl<SpaceMapper, Space>
     @Override
     public void deleteSpaceWithDiagrams(Long id) {
         transactionTemplate.execute(status -> {
-            // 删除空间内的所有图表
-            QueryWrapper<Diagram> queryWrapper = new QueryWrapper<>();
-            queryWrapper.eq("spaceId", id);
-            diagramService.remove(queryWrapper);
+            // 删除空间内的所有图表（同时释放内容块引用，提交后发布删除事件）
+            List<Long> diagramIds = diagramService.listObjs(new LambdaQueryWrapper<Diagram>()
+                    .select(Diagram::getId)
+                    .eq(Diagram::getSpaceId, id), value -> ((Number) value).longValue());
+            if (!diagramIds.isEmpty()) {
+                diagramService.removeByIds(diagramIds);
+            }
             // 即使没有关联图表，也不算失败
 
             // 删除空间
@@ -294,7 +302,7 @@ public class SpaceServiceImpl extends ServiceImpl<SpaceMapper, Space>
         SpaceVO spaceVO = SpaceVO.objToVo(space);
         // 设置创建用户信息
         if (space.getUserId() != null) {
-            User user = userService.getById(space.getUserId());
+            User user = userBatchLoader.loadUser(space.getUserId());
             if (user != null) {
                 UserVO userVO = new UserVO();
                 BeanUtils.copyProperties(user, userVO);
@@ -318,12 +326,32 @@ public class SpaceServiceImpl extends ServiceImpl<SpaceMapper, Space>
             return spaceVOPage;
         }
         // 对象列表 => 封装对象列表
-        spaceVOPage.setRecords(spacePage.getRecords().stream()
-                .map(space -> this.getSpaceVO(space, request))
-                .collect(Collectors.toList()));
+        List<SpaceVO> spaceVOList = spacePage.getRecords().stream()
+                .map(SpaceVO::objToVo)
+                .collect(Collectors.toList());
+        // 批量填充创建用户信息
+        userBatchLoader.fillUserVO(spaceVOList, SpaceVO::getUserId, SpaceVO::setUserVO);
+        spaceVOPage.setRecords(spaceVOList);
         return spaceVOPage;
     }
 
+    /**
+     * 游标分页获取空间封装
+     *
+     * @param spacePage
+     * @param request
+     * @return
+     */
+    @Override
+    public CursorPage<SpaceVO> getSpaceVOCursorPage(CursorPage<Space> spacePage, HttpServletRequest request) {
+        List<SpaceVO> spaceVOList = spacePage.getRecords().stream()
+                .map(SpaceVO::objToVo)
+                .collect(Collectors.toList());
+        // 批量填充创建用户信息
+        userBatchLoader.fillUserVO(spaceVOList, SpaceVO::getUserId, SpaceVO::setUserVO);
+        return spacePage.withRecords(spaceVOList);
+    }
+
     /**
      * 分页获取用户加入的空间列表
      * 用户加入的只能是团队空间
@@ -28,6 +28,7 @@ import com.wfh.drawio.model.vo.LoginUserVO;
 import com.wfh.drawio.model.vo.RoleAuthorityFlatVO;
 import com.wfh.drawio.model.vo.RoleWithAuthoritiesVO;
 import com.wfh.drawio.model.vo.UserVO;
+import com.wfh.drawio.security.UserAuthorityCache;
 import com.wfh.drawio.service.SysRoleAuthorityRelService;
 import com.wfh.drawio.service.SysUserRoleRelService;
 import com.wfh.drawio.service.UserService;
@@ -367,6 +368,9 @@ public class UserServiceImpl extends ServiceImpl<UserMapper, User> implements Us
     @Resource
     private SysRoleAuthorityRelService sysRoleAuthorityRelService;
 
+    @Resource
+    private UserAuthorityCache userAuthorityCache;
+
     @Override
     public boolean updateUserRoles(Long userId, List<Long> roleIds) {
         // 1. 校验参数
@@ -388,6 +392,7 @@ public class UserServiceImpl extends ServiceImpl<UserMapper, User> implements Us
             new QueryWrapper<>();
         deleteWrapper.eq("userId", userId);
         sysUserRoleRelService.remove(deleteWrapper);
+        userAuthorityCache.evict(userId);
 
         // 4. 如果没有新角色，直接返回
         if (CollUtil.isEmpty(roleIds)) {
@@ -403,7 +408,9 @@ public class UserServiceImpl extends ServiceImpl<UserMapper, User> implements Us
             userRoleList.add(userRoleRel);
         }
 
-        return sysUserRoleRelService.saveBatch(userRoleList);
+        boolean saved = sysUserRoleRelService.saveBatch(userRoleList);
+        userAuthorityCache.evict(userId);
+        return saved;
     }
 
     @Override
@@ -427,6 +434,7 @@ public class UserServiceImpl extends ServiceImpl<UserMapper, User> implements Us
             new QueryWrapper<>();
         deleteWrapper.eq("roleId", roleId);
         sysRoleAuthorityRelService.remove(deleteWrapper);
+        userAuthorityCache.evictAll();
 
         // 4. 如果没有新权限，直接返回
         if (CollUtil.isEmpty(authorityIds)) {
@@ -440,6 +448,8 @@ public class UserServiceImpl extends ServiceImpl<UserMapper, User> implements Us
             roleAuthRel.setAuthorityId(authorityId);
             roleAuthList.add(roleAuthRel);
         }
-        return sysRoleAuthorityRelService.saveBatch(roleAuthList);
+        boolean saved = sysRoleAuthorityRelService.saveBatch(roleAuthList);
+        userAuthorityCache.evictAll();
+        return saved;
     }
 }
@@ -0,0 +1,3 @@
+-- 对话记忆只读取图表最近 N 条消息：where diagramId = ? order by id desc limit N
+-- id 为雪花ID，与写入顺序一致（同一批次的 createTime 相同，无法区分先后）
+create index idx_conversion_diagramId_id on conversion (diagramId, id);
@@ -0,0 +1,28 @@
+-- 图表内容压缩 + 内容寻址去重：diagram_content.diagramCode -> diagram_blob
+-- 1. 内容块表
+create table if not exists diagram_blob
+(
+    hash       char(64)                           not null comment '原始 XML 的 SHA-256' primary key,
+    data       longblob                           not null comment 'deflate 压缩后的 XML',
+    rawSize    int                                not null comment '原始字节数',
+    storedSize int                                not null comment '压缩后字节数',
+    refCount   int      default 1                 not null comment '引用数',
+    createTime datetime default CURRENT_TIMESTAMP not null comment '创建时间'
+) comment '图表内容块表' collate = utf8mb4_unicode_ci;
+
+-- 2. 内容表改为引用内容块，旧的明文列保留到迁移完成
+alter table diagram_content
+    add column contentHash char(64) null comment '内容哈希（diagram_blob.hash）' after diagramId;
+
+-- 3. 上线后由管理员调用 POST /diagram/content/migrate 迁移存量数据，GET /diagram/content/report 查看节省情况
+
+-- 4. 修正删除图表未释放引用前产生的数据（可重复执行）：清理已删除图表的内容行，按内容行重算引用数
+delete c
+from diagram_content c
+         join diagram d on d.id = c.diagramId
+where d.isDelete = 1;
+
+update diagram_blob b
+set b.refCount = (select count(*) from diagram_content c where c.contentHash = b.hash);
+
+delete from diagram_blob where refCount <= 0;
@@ -0,0 +1,19 @@
+-- 图表 XML 拆表：diagram.diagramCode -> diagram_content.diagramCode
+-- 1. 建表
+create table if not exists diagram_content
+(
+    diagramId   bigint                             not null comment '图表id' primary key,
+    diagramCode longtext                           null comment '图表代码（draw.io XML）',
+    createTime  datetime default CURRENT_TIMESTAMP not null comment '创建时间',
+    updateTime  datetime default CURRENT_TIMESTAMP not null on update CURRENT_TIMESTAMP comment '更新时间'
+) comment '图表内容表' collate = utf8mb4_unicode_ci;
+
+-- 2. 迁移存量数据（可重复执行）
+insert into diagram_content (diagramId, diagramCode)
+select id, diagramCode
+from diagram
+where diagramCode is not null
+on duplicate key update diagramCode = values(diagramCode);
+
+-- 3. 新版本上线并确认无误后，再删除旧列
+-- alter table diagram drop column diagramCode;
@@ -0,0 +1,5 @@
+-- 图表缩略图：保存图表后由服务端异步渲染，按内容哈希存入对象存储 thumbnail/<sha256>.png
+alter table diagram
+    add column thumbnailUrl varchar(512) null comment '缩略图url' after svgUrl;
+
+-- 上线后由管理员调用 POST /diagram/thumbnail/backfill 为存量图表生成缩略图
@@ -0,0 +1,4 @@
+-- 图表版本号：乐观锁，更新时 where id = ? and version = ?，成功后 version + 1
+-- 取代编辑前抢 Redisson 锁（lock:snapshot:<roomId>，1 分钟租期）的方式，冲突时返回 40900 和最新版本号
+alter table diagram
+    add column version int not null default 0 comment '版本号（乐观锁）' after updateTime;
@@ -0,0 +1,124 @@
+package com.wfh.drawio.ai.cache;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.ai.embedding.EmbeddingModel;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+/**
+ * 精确命中、向量近邻命中、按模型隔离与淘汰
+ */
+class SemanticResponseCacheTest {
+
+    private static final SemanticResponseCache.CachedResponse LOGIN_FLOW =
+            new SemanticResponseCache.CachedResponse("<mxfile/>", "已生成登录流程图", 3000, 12_000);
+
+    private final Map<String, float[]> vectors = new HashMap<>();
+
+    private EmbeddingModel embeddingModel;
+
+    private SimpleMeterRegistry meterRegistry;
+
+    private SemanticResponseCache cache;
+
+    @BeforeEach
+    void setUp() throws Exception {
+        vectors.put("画一个登录流程图", new float[]{1f, 0f, 0f});
+        vectors.put("帮我画一个登录流程图", new float[]{0.99f, 0.05f, 0f});
+        vectors.put("画一个电商微服务架构图", new float[]{0f, 1f, 0f});
+        embeddingModel = mock(EmbeddingModel.class);
+        when(embeddingModel.embed(anyString())).thenAnswer(invocation -> vectors.get(invocation.<String>getArgument(0)));
+        meterRegistry = new SimpleMeterRegistry();
+        cache = newCache(10);
+    }
+
+    @AfterEach
+    void tearDown() {
+        cache.destroy();
+    }
+
+    @Test
+    void exactHitIgnoresCaseAndPunctuation() {
+        cache.put("qwen", "画一个登录流程图", LOGIN_FLOW);
+
+        assertSame(LOGIN_FLOW, cache.get("qwen", "  画一个登录流程图！ "));
+        assertEquals(1, meterRegistry.counter("drawio.ai.cache.requests", "result", "exact").count());
+        assertEquals(3000, meterRegistry.counter("drawio.ai.cache.tokens.saved").count());
+        assertEquals(12, meterRegistry.timer("drawio.ai.cache.latency.saved").totalTime(java.util.concurrent.TimeUnit.SECONDS));
+        // 写入时复用了未命中查找时的向量；精确命中不需要向量化
+        verify(embeddingModel, times(1)).embed(anyString());
+    }
+
+    @Test
+    void similarPromptHitsWithinThreshold() {
+        cache.put("qwen", "画一个登录流程图", LOGIN_FLOW);
+
+        assertSame(LOGIN_FLOW, cache.get("qwen", "帮我画一个登录流程图"));
+        assertNull(cache.get("qwen", "画一个电商微服务架构图"));
+        assertEquals(1, meterRegistry.counter("drawio.ai.cache.requests", "result", "semantic").count());
+        assertEquals(1, meterRegistry.counter("drawio.ai.cache.requests", "result", "miss").count());
+    }
+
+    @Test
+    void entriesAreScopedByModel() {
+        cache.put("qwen", "画一个登录流程图", LOGIN_FLOW);
+
+        assertNull(cache.get("deepseek", "画一个登录流程图"));
+        assertNull(cache.get("deepseek", "帮我画一个登录流程图"));
+    }
+
+    @Test
+    void embeddingFailureFallsBackToExactMatch() {
+        when(embeddingModel.embed(anyString())).thenThrow(new IllegalStateException("down"));
+
+        cache.put("qwen", "画一个登录流程图", LOGIN_FLOW);
+
+        assertSame(LOGIN_FLOW, cache.get("qwen", "画一个登录流程图"));
+        assertNull(cache.get("qwen", "帮我画一个登录流程图"));
+    }
+
+    @Test
+    void evictedEntryIsRemovedFromVectorIndex() throws Exception {
+        cache.destroy();
+        cache = newCache(1);
+        cache.put("qwen", "画一个登录流程图", LOGIN_FLOW);
+        cache.put("qwen", "画一个电商微服务架构图", LOGIN_FLOW);
+        @SuppressWarnings("unchecked")
+        com.github.benmanes.caffeine.cache.Cache<String, ?> entries =
+                (com.github.benmanes.caffeine.cache.Cache<String, ?>) ReflectionTestUtils.getField(cache, "entries");
+        entries.cleanUp();
+
+        assertEquals(1, entries.estimatedSize());
+        org.apache.lucene.index.IndexWriter indexWriter =
+                (org.apache.lucene.index.IndexWriter) ReflectionTestUtils.getField(cache, "indexWriter");
+        indexWriter.commit();
+        assertEquals(1, indexWriter.getDocStats().numDocs);
+    }
+
+    private SemanticResponseCache newCache(int maxEntries) throws Exception {
+        SemanticResponseCache semanticResponseCache = new SemanticResponseCache();
+        ReflectionTestUtils.setField(semanticResponseCache, "enabled", true);
+        ReflectionTestUtils.setField(semanticResponseCache, "similarityThreshold", 0.95);
+        ReflectionTestUtils.setField(semanticResponseCache, "maxEntries", maxEntries);
+        ReflectionTestUtils.setField(semanticResponseCache, "ttlHours", 1L);
+        ReflectionTestUtils.setField(semanticResponseCache, "maxPromptChars", 500);
+        ReflectionTestUtils.setField(semanticResponseCache, "embeddingModel", embeddingModel);
+        ReflectionTestUtils.setField(semanticResponseCache, "meterRegistry", meterRegistry);
+        semanticResponseCache.init();
+        return semanticResponseCache;
+    }
+}
@@ -0,0 +1,250 @@
+package com.wfh.drawio.ai.chatmemory;
+
+import com.wfh.drawio.model.entity.Conversion;
+import com.wfh.drawio.service.ConversionService;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.dao.DataIntegrityViolationException;
+import org.springframework.jdbc.CannotGetJdbcConnectionException;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.LongStream;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.timeout;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+/**
+ * 对话记忆异步写入：按提交顺序落库，失败的批次留在队首重试，有问题的行逐条写入时丢弃，关闭时写完剩余消息
+ */
+class ChatMemoryWriterTest {
+
+    private final List<Long> written = Collections.synchronizedList(new ArrayList<>());
+
+    private final CountDownLatch release = new CountDownLatch(1);
+
+    private ConversionService conversionService;
+
+    private ChatMemoryWriter writer;
+
+    @BeforeEach
+    @SuppressWarnings("unchecked")
+    void setUp() {
+        conversionService = mock(ConversionService.class);
+        when(conversionService.saveBatch(any(Collection.class))).thenAnswer(invocation -> {
+            // 模拟慢库，直到测试放行
+            release.await(10, TimeUnit.SECONDS);
+            Collection<Conversion> batch = invocation.getArgument(0);
+            batch.forEach(c -> written.add(c.getId()));
+            return true;
+        });
+        writer = newWriter(conversionService);
+    }
+
+    @Test
+    void submitDoesNotWaitForDatabase() throws Exception {
+        long start = System.nanoTime();
+        for (long i = 1; i <= 30; i++) {
+            writer.submit(List.of(conversion(i, 1L)));
+        }
+        long elapsedMillis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+
+        assertTrue(elapsedMillis < 1000, "submit blocked for " + elapsedMillis + "ms");
+        assertEquals(30, writer.pending(1L).size());
+        assertTrue(writer.pending(2L).isEmpty());
+
+        release.countDown();
+        writer.destroy();
+        assertEquals(LongStream.rangeClosed(1, 30).boxed().toList(), written);
+    }
+
+    @Test
+    void shutdownFlushesQueuedMessages() throws Exception {
+        for (long i = 1; i <= 25; i++) {
+            writer.submit(List.of(conversion(i, i % 3)));
+        }
+        release.countDown();
+        writer.destroy();
+
+        assertEquals(LongStream.rangeClosed(1, 25).boxed().toList(), written);
+        for (long diagramId = 0; diagramId < 3; diagramId++) {
+            assertTrue(writer.pending(diagramId).isEmpty());
+        }
+    }
+
+    @Test
+    void fullQueueFallsBackToSyncWrite() throws Exception {
+        ReflectionTestUtils.setField(writer, "queue", new LinkedBlockingQueue<Conversion>(1));
+        release.countDown();
+        writer.submit(List.of(conversion(1, 1L), conversion(2, 1L)));
+
+        assertEquals(List.of(1L, 2L), written);
+        writer.destroy();
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    void failedBatchStaysAtHeadUntilWritten() throws Exception {
+        release.countDown();
+        writer.destroy();
+        ConversionService flaky = mock(ConversionService.class);
+        when(flaky.saveBatch(any(Collection.class)))
+                .thenThrow(new IllegalStateException("db down"))
+                .thenThrow(new IllegalStateException("db down"))
+                .thenAnswer(invocation -> {
+                    Collection<Conversion> batch = invocation.getArgument(0);
+                    batch.forEach(c -> written.add(c.getId()));
+                    return true;
+                });
+        ChatMemoryWriter flakyWriter = newWriter(flaky);
+        for (long i = 1; i <= 15; i++) {
+            flakyWriter.submit(List.of(conversion(i, 1L)));
+        }
+
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+        while (written.size() < 15 && System.nanoTime() < deadline) {
+            TimeUnit.MILLISECONDS.sleep(20);
+        }
+        // 重试期间没有丢弃，也没有被后面的消息越过
+        assertEquals(LongStream.rangeClosed(1, 15).boxed().toList(), written);
+        assertTrue(flakyWriter.pending(1L).isEmpty());
+        flakyWriter.destroy();
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    void badRowIsDroppedWithoutBlockingLaterMessages() throws Exception {
+        release.countDown();
+        writer.destroy();
+        ConversionService strict = mock(ConversionService.class);
+        when(strict.saveBatch(any(Collection.class))).thenAnswer(invocation -> {
+            Collection<Conversion> batch = invocation.getArgument(0);
+            if (batch.stream().anyMatch(c -> c.getId() == 4L)) {
+                throw new DataIntegrityViolationException("Data too long for column 'message'");
+            }
+            batch.forEach(c -> written.add(c.getId()));
+            return true;
+        });
+        when(strict.save(any(Conversion.class))).thenAnswer(invocation -> {
+            Conversion conversion = invocation.getArgument(0);
+            if (conversion.getId() == 4L) {
+                throw new DataIntegrityViolationException("Data too long for column 'message'");
+            }
+            written.add(conversion.getId());
+            return true;
+        });
+        ChatMemoryWriter strictWriter = newWriter(strict);
+        for (long i = 1; i <= 15; i++) {
+            strictWriter.submit(List.of(conversion(i, 1L)));
+        }
+        strictWriter.destroy();
+
+        // 只丢弃 4，前后的消息按顺序写入
+        assertEquals(LongStream.rangeClosed(1, 15).filter(i -> i != 4L).boxed().toList(), written);
+        assertTrue(strictWriter.pending(1L).isEmpty());
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    void connectionErrorDuringRowWritesResumesAtFailedRow() throws Exception {
+        release.countDown();
+        writer.destroy();
+        ConversionService flaky = mock(ConversionService.class);
+        when(flaky.saveBatch(any(Collection.class))).thenThrow(new DataIntegrityViolationException("Duplicate entry"));
+        AtomicInteger saves = new AtomicInteger();
+        when(flaky.save(any(Conversion.class))).thenAnswer(invocation -> {
+            Conversion conversion = invocation.getArgument(0);
+            // 写到第 3 条时连接断开一次
+            if (conversion.getId() == 3L && saves.incrementAndGet() == 1) {
+                throw new CannotGetJdbcConnectionException("db down");
+            }
+            written.add(conversion.getId());
+            return true;
+        });
+        ChatMemoryWriter flakyWriter = newWriter(flaky);
+        flakyWriter.submit(List.of(conversion(1, 1L), conversion(2, 1L), conversion(3, 1L), conversion(4, 1L)));
+        flakyWriter.destroy();
+
+        // 已写入的 1、2 没有重复写入
+        assertEquals(List.of(1L, 2L, 3L, 4L), written);
+        assertTrue(flakyWriter.pending(1L).isEmpty());
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    void syncWriteSkipsBadRow() throws Exception {
+        release.countDown();
+        writer.destroy();
+        ConversionService strict = mock(ConversionService.class);
+        when(strict.saveBatch(any(Collection.class))).thenThrow(new DataIntegrityViolationException("Duplicate entry"));
+        when(strict.save(any(Conversion.class))).thenAnswer(invocation -> {
+            Conversion conversion = invocation.getArgument(0);
+            if (conversion.getId() == 1L) {
+                throw new DataIntegrityViolationException("Duplicate entry");
+            }
+            written.add(conversion.getId());
+            return true;
+        });
+        ChatMemoryWriter strictWriter = newWriter(strict);
+        ReflectionTestUtils.setField(strictWriter, "queue", new LinkedBlockingQueue<Conversion>(1));
+
+        strictWriter.submit(List.of(conversion(1, 1L), conversion(2, 1L), conversion(3, 1L)));
+
+        assertEquals(List.of(2L, 3L), written);
+        strictWriter.destroy();
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    void shutdownTimeoutDoesNotWriteBehindBusyWriter() throws Exception {
+        ReflectionTestUtils.setField(writer, "shutdownTimeoutMillis", 100L);
+        for (long i = 1; i <= 15; i++) {
+            writer.submit(List.of(conversion(i, 1L)));
+        }
+        // 写线程卡在第一批
+        verify(conversionService, timeout(5000)).saveBatch(any(Collection.class));
+
+        writer.destroy();
+
+        verify(conversionService, times(1)).saveBatch(any(Collection.class));
+        assertTrue(written.isEmpty());
+        // 数据库恢复后写线程按顺序写完
+        release.countDown();
+        verify(conversionService, timeout(5000).times(2)).saveBatch(any(Collection.class));
+        assertEquals(LongStream.rangeClosed(1, 15).boxed().toList(), written);
+    }
+
+    private ChatMemoryWriter newWriter(ConversionService service) {
+        ChatMemoryWriter chatMemoryWriter = new ChatMemoryWriter();
+        ReflectionTestUtils.setField(chatMemoryWriter, "conversionService", service);
+        ReflectionTestUtils.setField(chatMemoryWriter, "meterRegistry", new SimpleMeterRegistry());
+        ReflectionTestUtils.setField(chatMemoryWriter, "queueCapacity", 100);
+        ReflectionTestUtils.setField(chatMemoryWriter, "batchSize", 10);
+        ReflectionTestUtils.setField(chatMemoryWriter, "shutdownTimeoutMillis", 10_000L);
+        chatMemoryWriter.init();
+        return chatMemoryWriter;
+    }
+
+    private static Conversion conversion(long id, long diagramId) {
+        Conversion conversion = new Conversion();
+        conversion.setId(id);
+        conversion.setDiagramId(diagramId);
+        conversion.setMessageType("user");
+        conversion.setMessage("m" + id);
+        return conversion;
+    }
+}
@@ -0,0 +1,228 @@
+package com.wfh.drawio.ai.chatmemory;
+
+import cn.hutool.json.JSONUtil;
+import com.wfh.drawio.mapper.ConversionMapper;
+import com.wfh.drawio.model.entity.Conversion;
+import com.wfh.drawio.service.ConversionService;
+import com.wfh.drawio.service.DiagramService;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.ai.chat.messages.AssistantMessage;
+import org.springframework.ai.chat.messages.Message;
+import org.springframework.ai.chat.messages.UserMessage;
+import org.springframework.data.redis.connection.DefaultMessage;
+import org.springframework.data.redis.connection.MessageListener;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.listener.ChannelTopic;
+import org.springframework.data.redis.listener.RedisMessageListenerContainer;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.mockito.ArgumentMatchers.anyInt;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyList;
+import static org.mockito.ArgumentMatchers.anyLong;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.RETURNS_DEEP_STUBS;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.verifyNoInteractions;
+import static org.mockito.Mockito.when;
+
+/**
+ * 对话记忆只读最近一页，热会话读取不访问数据库，未落库的消息也能读到；窗口变更广播到其他节点
+ */
+class DbBaseChatMemoryTest {
+
+    private final List<Conversion> table = new ArrayList<>();
+
+    private final List<Conversion> pending = new ArrayList<>();
+
+    /**
+     * 模拟 Redis 频道：每个节点注册的监听器都能收到所有节点的广播
+     */
+    private final List<MessageListener> channel = new CopyOnWriteArrayList<>();
+
+    private ChatMemoryWriter chatMemoryWriter;
+
+    private DiagramService diagramService;
+
+    private ConversionMapper conversionMapper;
+
+    private DbBaseChatMemory chatMemory;
+
+    @BeforeEach
+    void setUp() {
+        conversionMapper = mock(ConversionMapper.class);
+        when(conversionMapper.selectLatestByDiagramId(anyLong(), anyInt())).thenAnswer(invocation -> {
+            Long diagramId = invocation.getArgument(0);
+            int limit = invocation.getArgument(1);
+            List<Conversion> rows = table.stream().filter(c -> c.getDiagramId().equals(diagramId)).toList();
+            List<Conversion> latest = new ArrayList<>(rows.subList(Math.max(0, rows.size() - limit), rows.size()));
+            return latest.reversed();
+        });
+        chatMemoryWriter = mock(ChatMemoryWriter.class);
+        // 模拟写库延迟：提交的消息先停留在 pending 中，flush 后才进表
+        doAnswer(invocation -> pending.addAll(invocation.getArgument(0))).when(chatMemoryWriter).submit(anyList());
+        when(chatMemoryWriter.pending(anyLong())).thenAnswer(invocation -> pending.stream()
+                .filter(c -> c.getDiagramId().equals(invocation.getArgument(0))).toList());
+        diagramService = mock(DiagramService.class);
+
+        chatMemory = newNode(chatMemoryWriter);
+    }
+
+    private DbBaseChatMemory newNode(ChatMemoryWriter writer) {
+        StringRedisTemplate stringRedisTemplate = mock(StringRedisTemplate.class);
+        doAnswer(invocation -> {
+            byte[] body = invocation.<String>getArgument(1).getBytes(StandardCharsets.UTF_8);
+            channel.forEach(listener -> listener.onMessage(new DefaultMessage(new byte[0], body), null));
+            return 1L;
+        }).when(stringRedisTemplate).convertAndSend(anyString(), anyString());
+        RedisMessageListenerContainer container = mock(RedisMessageListenerContainer.class);
+        doAnswer(invocation -> channel.add(invocation.getArgument(0)))
+                .when(container).addMessageListener(any(MessageListener.class), any(ChannelTopic.class));
+
+        DbBaseChatMemory node = new DbBaseChatMemory();
+        ReflectionTestUtils.setField(node, "conversionMapper", conversionMapper);
+        ReflectionTestUtils.setField(node, "diagramService", diagramService);
+        ReflectionTestUtils.setField(node, "chatMemoryWriter", writer);
+        ReflectionTestUtils.setField(node, "stringRedisTemplate", stringRedisTemplate);
+        ReflectionTestUtils.setField(node, "redisMessageListenerContainer", container);
+        ReflectionTestUtils.setField(node, "conversionService", mock(ConversionService.class, RETURNS_DEEP_STUBS));
+        node.init();
+        return node;
+    }
+
+    @Test
+    void warmConversationReadsFromWindow() {
+        chatMemory.add("1:7", List.of(new UserMessage("q1"), new AssistantMessage("a1")));
+        flush();
+        assertEquals(2, chatMemory.get("1:7").size());
+
+        chatMemory.add("1:7", List.of(new UserMessage("q2"), new AssistantMessage("a2")));
+        List<Message> messages = chatMemory.get("1:7");
+
+        assertEquals(List.of("q1", "a1", "q2", "a2"), messages.stream().map(Message::getText).toList());
+        verify(conversionMapper, times(1)).selectLatestByDiagramId(1L, 20);
+    }
+
+    @Test
+    void coldReadIncludesUnflushedMessages() {
+        chatMemory.add("1:7", List.of(new UserMessage("q1"), new AssistantMessage("a1")));
+        flush();
+        chatMemory.add("1:7", List.of(new UserMessage("q2")));
+
+        assertEquals(List.of("q1", "a1", "q2"), chatMemory.get("1:7").stream().map(Message::getText).toList());
+    }
+
+    @Test
+    void ownerComesFromConversationId() {
+        chatMemory.add(DbBaseChatMemory.conversationId("1", 7L), List.of(new UserMessage("q1")));
+        chatMemory.add(DbBaseChatMemory.conversationId("2", null), List.of(new UserMessage("q1")));
+
+        assertEquals(7L, pending.get(0).getUserId());
+        assertEquals(1L, pending.get(0).getDiagramId());
+        assertNull(pending.get(1).getUserId());
+        verifyNoInteractions(diagramService);
+    }
+
+    @Test
+    void windowKeepsLatestMessages() {
+        for (int i = 0; i < 15; i++) {
+            chatMemory.add("1:7", List.of(new UserMessage("q" + i), new AssistantMessage("a" + i)));
+        }
+        flush();
+        List<Message> cold = chatMemory.get("1:7");
+        for (int i = 15; i < 18; i++) {
+            chatMemory.add("1:7", List.of(new UserMessage("q" + i), new AssistantMessage("a" + i)));
+        }
+        List<Message> warm = chatMemory.get("1:7");
+
+        assertEquals(20, cold.size());
+        assertEquals("q5", cold.get(0).getText());
+        assertEquals(20, warm.size());
+        assertEquals("q8", warm.get(0).getText());
+        assertEquals("a17", warm.get(19).getText());
+        assertEquals(List.of("q17", "a17"), chatMemory.get("1:7", 2).stream().map(Message::getText).toList());
+        verify(conversionMapper, times(1)).selectLatestByDiagramId(eq(1L), anyInt());
+    }
+
+    @Test
+    void largerWindowReadsDatabase() {
+        for (int i = 0; i < 30; i++) {
+            chatMemory.add("1:7", List.of(new UserMessage("q" + i)));
+        }
+        flush();
+
+        assertEquals(30, chatMemory.get("1:7", 50).size());
+        verify(conversionMapper).selectLatestByDiagramId(1L, 50);
+    }
+
+    @Test
+    void appendOnOtherNodeReachesWarmWindow() {
+        // 另一个节点的写入队列，本节点看不到其中未落库的消息
+        List<Conversion> remotePending = new ArrayList<>();
+        ChatMemoryWriter remoteWriter = mock(ChatMemoryWriter.class);
+        doAnswer(invocation -> remotePending.addAll(invocation.getArgument(0))).when(remoteWriter).submit(anyList());
+        when(remoteWriter.pending(anyLong())).thenReturn(List.of());
+        DbBaseChatMemory remote = newNode(remoteWriter);
+
+        chatMemory.add("1:7", List.of(new UserMessage("q1"), new AssistantMessage("a1")));
+        flush();
+        assertEquals(2, chatMemory.get("1:7").size());
+
+        remote.add("1:7", List.of(new UserMessage("q2"), new AssistantMessage("a2")));
+
+        assertEquals(List.of("q1", "a1", "q2", "a2"), chatMemory.get("1:7").stream().map(Message::getText).toList());
+        verify(conversionMapper, times(1)).selectLatestByDiagramId(1L, 20);
+    }
+
+    @Test
+    void clearOnOtherNodeDropsWindow() {
+        DbBaseChatMemory remote = newNode(chatMemoryWriter);
+        chatMemory.add("1:7", List.of(new UserMessage("q1"), new AssistantMessage("a1")));
+        flush();
+        assertEquals(2, chatMemory.get("1:7").size());
+
+        remote.clear("1:7");
+        table.clear();
+
+        assertEquals(0, chatMemory.get("1:7").size());
+        verify(conversionMapper, times(2)).selectLatestByDiagramId(1L, 20);
+    }
+
+    @Test
+    void outOfOrderRemoteAppendDropsWindow() {
+        chatMemory.add("1:7", List.of(new UserMessage("q1")));
+        flush();
+        assertEquals(1, chatMemory.get("1:7").size());
+        Conversion older = new Conversion();
+        older.setId(table.get(0).getId() - 1);
+        older.setDiagramId(1L);
+        older.setMessageType("user");
+        older.setMessage("q0");
+        DbBaseChatMemory.WindowChange change = new DbBaseChatMemory.WindowChange();
+        change.setNodeId("other");
+        change.setDiagramId(1L);
+        change.setConversions(List.of(older));
+
+        chatMemory.onRemoteChange(JSONUtil.toJsonStr(change));
+        chatMemory.get("1:7");
+
+        verify(conversionMapper, times(2)).selectLatestByDiagramId(1L, 20);
+    }
+
+    private void flush() {
+        table.addAll(pending);
+        pending.clear();
+    }
+}
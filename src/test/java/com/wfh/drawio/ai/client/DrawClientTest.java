@@ -0,0 +1,232 @@
+package com.wfh.drawio.ai.client;
+
+import cn.hutool.json.JSONObject;
+import cn.hutool.json.JSONUtil;
+import com.wfh.drawio.ai.advisor.MyLoggerAdvisor;
+import com.wfh.drawio.ai.cache.SemanticResponseCache;
+import com.wfh.drawio.ai.chatmemory.DbBaseChatMemory;
+import com.wfh.drawio.ai.config.MultiModelFactory;
+import com.wfh.drawio.ai.model.EditConflict;
+import com.wfh.drawio.ai.tools.AppendDiagramTool;
+import com.wfh.drawio.ai.tools.CreateDiagramTool;
+import com.wfh.drawio.ai.tools.DiagramToolContext;
+import com.wfh.drawio.ai.tools.EditDiagramTool;
+import com.wfh.drawio.ai.utils.PromptUtil;
+import com.wfh.drawio.exception.VersionConflictException;
+import com.wfh.drawio.model.entity.Diagram;
+import com.wfh.drawio.service.DiagramService;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Tag;
+import org.junit.jupiter.api.Test;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.ai.chat.client.ChatClient;
+import org.springframework.ai.chat.client.advisor.MessageChatMemoryAdvisor;
+import org.springframework.ai.chat.client.advisor.vectorstore.QuestionAnswerAdvisor;
+import org.springframework.ai.chat.memory.ChatMemory;
+import org.springframework.ai.chat.messages.AssistantMessage;
+import org.springframework.ai.chat.messages.UserMessage;
+import org.springframework.ai.chat.model.ChatModel;
+import org.springframework.ai.chat.model.ChatResponse;
+import org.springframework.ai.chat.model.Generation;
+import org.springframework.ai.chat.model.ToolContext;
+import org.springframework.ai.chat.prompt.Prompt;
+import org.springframework.ai.model.tool.ToolCallingChatOptions;
+import org.springframework.ai.vectorstore.VectorStore;
+import org.springframework.core.io.ClassPathResource;
+import org.springframework.test.util.ReflectionTestUtils;
+import reactor.core.publisher.Flux;
+
+import java.util.List;
+import java.util.function.Function;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNotSame;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyInt;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+/**
+ * client 按模型复用，不随请求重建；流式对话结束前保存工具的修改，冲突时推送最新版本；有对话历史时不走语义缓存
+ */
+class DrawClientTest {
+
+    private static final Logger log = LoggerFactory.getLogger(DrawClientTest.class);
+
+    private MultiModelFactory multiModelFactory;
+
+    private DbBaseChatMemory dbBaseChatMemory;
+
+    private DiagramService diagramService;
+
+    private QuestionAnswerAdvisor questionAnswerAdvisor;
+
+    private SemanticResponseCache semanticResponseCache;
+
+    private DrawClient drawClient;
+
+    @BeforeEach
+    void setUp() throws Exception {
+        multiModelFactory = mock(MultiModelFactory.class);
+        when(multiModelFactory.getChatModel(anyString())).thenAnswer(invocation -> mock(ChatModel.class));
+        dbBaseChatMemory = mock(DbBaseChatMemory.class);
+        diagramService = mock(DiagramService.class);
+        questionAnswerAdvisor = QuestionAnswerAdvisor.builder(mock(VectorStore.class)).build();
+        semanticResponseCache = mock(SemanticResponseCache.class);
+        drawClient = new DrawClient(multiModelFactory, dbBaseChatMemory, diagramService, questionAnswerAdvisor,
+                semanticResponseCache);
+        ReflectionTestUtils.setField(drawClient, "defaultModelId", "default-model");
+    }
+
+    @Test
+    void reusesClientPerModel() {
+        ChatClient first = drawClient.getChatClient("qwen");
+        ChatClient second = drawClient.getChatClient("qwen");
+        ChatClient other = drawClient.getChatClient("deepseek");
+
+        assertSame(first, second);
+        assertNotSame(first, other);
+        verify(multiModelFactory, times(1)).getChatModel("qwen");
+    }
+
+    @Test
+    void blankModelUsesDefault() {
+        assertSame(drawClient.getChatClient(null), drawClient.getChatClient("default-model"));
+        assertSame(drawClient.getChatClient(""), drawClient.getChatClient("default-model"));
+    }
+
+    @Test
+    void saveConflictIsStreamedBeforeCompletion() {
+        stubDiagram("<mxCell id=\"2\" value=\"A\" vertex=\"1\" parent=\"1\"/>");
+        // 对话期间图表被他人保存到了版本 8
+        when(diagramService.updateById(any(Diagram.class))).thenThrow(new VersionConflictException(8));
+        stubModel("update", "B");
+
+        List<JSONObject> events = stream("把 A 改成 B");
+
+        JSONObject conflict = events.get(events.size() - 1);
+        assertEquals("conflict", conflict.getStr("type"));
+        EditConflict content = conflict.getJSONObject("content").toBean(EditConflict.class);
+        assertEquals(8, content.getLatestVersion());
+        assertTrue(content.getDiagramXml().contains("value=\"B\""));
+        assertTrue(events.stream().anyMatch(event -> "tool_call_result".equals(event.getStr("type"))));
+    }
+
+    @Test
+    void promptWithHistoryIsNeitherServedNorStoredBySemanticCache() {
+        stubDiagram("");
+        when(diagramService.updateById(any(Diagram.class))).thenReturn(true);
+        when(semanticResponseCache.isEnabled()).thenReturn(true);
+        when(semanticResponseCache.get(anyString(), anyString())).thenReturn(
+                new SemanticResponseCache.CachedResponse("<mxfile/>", "别人的回复", 100, 1000));
+        stubModel("add", "登录");
+        // “再加一个”的含义取决于本会话之前的对话
+        when(dbBaseChatMemory.get(anyString(), anyInt())).thenReturn(List.of(new UserMessage("画一个登录流程图")));
+
+        List<JSONObject> events = stream("再加一个");
+
+        assertTrue(events.stream().noneMatch(event -> "别人的回复".equals(event.getStr("content"))));
+        verify(semanticResponseCache, never()).get(anyString(), anyString());
+        verify(semanticResponseCache, never()).put(anyString(), anyString(), any());
+
+        // 没有历史的同一请求照常读写缓存
+        when(dbBaseChatMemory.get(anyString(), anyInt())).thenReturn(List.of());
+        when(semanticResponseCache.get(anyString(), anyString())).thenReturn(null);
+        stream("再加一个");
+        verify(semanticResponseCache).get("qwen", "再加一个");
+        verify(semanticResponseCache).put(eq("qwen"), eq("再加一个"), any());
+    }
+
+    /**
+     * 每次请求的 client 获取 + 提示词组装耗时：按模型复用 vs 原先每次请求重建（工具反射解析、读取绘图指南、新建 advisor）
+     */
+    @Test
+    @Tag("load")
+    void reusedClientSetupIsCheaperThanPerRequestBuild() {
+        int iterations = 2_000;
+        Function<Integer, ChatClient.ChatClientRequestSpec> reused = i -> drawClient.getChatClient("qwen").prompt()
+                .user("画一个登录流程图 " + i)
+                .toolContext(DiagramToolContext.of(String.valueOf(i), null))
+                .advisors(spec -> spec.param(ChatMemory.CONVERSATION_ID, String.valueOf(i)));
+        Function<Integer, ChatClient.ChatClientRequestSpec> rebuilt = i -> ChatClient.builder(multiModelFactory.getChatModel("qwen"))
+                .defaultTools(new CreateDiagramTool(diagramService), new EditDiagramTool(diagramService),
+                        new AppendDiagramTool(diagramService))
+                .defaultSystem(new ClassPathResource("/doc/xml_guide.md"))
+                .defaultSystem(PromptUtil.getSystemPrompt("qwen", true))
+                .defaultAdvisors(new MyLoggerAdvisor())
+                .defaultAdvisors(MessageChatMemoryAdvisor.builder(dbBaseChatMemory).build())
+                .defaultAdvisors(questionAnswerAdvisor)
+                .build()
+                .prompt()
+                .user("画一个登录流程图 " + i)
+                .toolContext(DiagramToolContext.of(String.valueOf(i), null))
+                .advisors(spec -> spec.param(ChatMemory.CONVERSATION_ID, String.valueOf(i)));
+
+        // 预热
+        time(reused, iterations);
+        time(rebuilt, iterations);
+        long reusedNanos = time(reused, iterations);
+        long rebuiltNanos = time(rebuilt, iterations);
+
+        log.info("requests={} reused={}us/req rebuilt={}us/req speedup={}x", iterations,
+                reusedNanos / iterations / 1000.0, rebuiltNanos / iterations / 1000.0,
+                String.format("%.1f", (double) rebuiltNanos / reusedNanos));
+        assertTrue(reusedNanos < rebuiltNanos);
+    }
+
+    /**
+     * 图表 1，版本 7，root 下除 0 / 1 外的 cell
+     */
+    private void stubDiagram(String cells) {
+        when(diagramService.getByIdWithCode(1L)).thenAnswer(invocation -> {
+            Diagram diagram = new Diagram();
+            diagram.setId(1L);
+            diagram.setVersion(7);
+            diagram.setDiagramCode("<mxfile><diagram><mxGraphModel><root><mxCell id=\"0\"/><mxCell id=\"1\" parent=\"0\"/>"
+                    + cells + "</root></mxGraphModel></diagram></mxfile>");
+            return diagram;
+        });
+    }
+
+    /**
+     * 模型 qwen：调用一次编辑工具，对 cell 2 执行 type 操作、值为 value，然后回复
+     */
+    private void stubModel(String type, String value) {
+        ChatModel chatModel = mock(ChatModel.class);
+        when(chatModel.stream(any(Prompt.class))).thenAnswer(invocation -> {
+            Prompt prompt = invocation.getArgument(0);
+            ToolContext toolContext = new ToolContext(((ToolCallingChatOptions) prompt.getOptions()).getToolContext());
+            new EditDiagramTool(diagramService).editDiagram("{\"operations\":[{\"type\":\"" + type
+                    + "\",\"cell_id\":\"2\",\"new_xml\":\"<mxCell id=\\\"2\\\" value=\\\"" + value
+                    + "\\\" vertex=\\\"1\\\" parent=\\\"1\\\"/>\"}]}", toolContext);
+            return Flux.just(new ChatResponse(List.of(new Generation(new AssistantMessage("改好了")))));
+        });
+        when(multiModelFactory.getChatModel("qwen")).thenReturn(chatModel);
+    }
+
+    private List<JSONObject> stream(String message) {
+        List<JSONObject> events = drawClient.doChatStream(message, "1", "qwen", null)
+                .map(JSONUtil::parseObj)
+                .collectList()
+                .block();
+        assertNotNull(events);
+        return events;
+    }
+
+    private static long time(Function<Integer, ChatClient.ChatClientRequestSpec> setup, int iterations) {
+        long start = System.nanoTime();
+        for (int i = 0; i < iterations; i++) {
+            assertNotNull(setup.apply(i));
+        }
+        return System.nanoTime() - start;
+    }
+}
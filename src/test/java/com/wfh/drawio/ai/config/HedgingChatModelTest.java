@@ -0,0 +1,308 @@
+package com.wfh.drawio.ai.config;
+
+import com.sun.net.httpserver.HttpServer;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.ai.chat.messages.AssistantMessage;
+import org.springframework.ai.chat.model.ChatModel;
+import org.springframework.ai.chat.model.ChatResponse;
+import org.springframework.ai.chat.model.Generation;
+import org.springframework.ai.chat.prompt.Prompt;
+import org.springframework.ai.model.tool.ToolCallingChatOptions;
+import org.springframework.ai.openai.OpenAiChatModel;
+import org.springframework.ai.openai.OpenAiChatOptions;
+import org.springframework.ai.openai.api.OpenAiApi;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.stream.Collectors;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTimeoutPreemptively;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+/**
+ * 对冲请求：慢模型被备用模型超越、首选失败立即切换、工具抢占与按错误率路由
+ */
+class HedgingChatModelTest {
+
+    private static final HedgingChatModel.Policy POLICY = new HedgingChatModel.Policy(100, 200, 20, 0.5);
+
+    private SimpleMeterRegistry meterRegistry;
+
+    private HttpServer server;
+
+    private final Map<String, Integer> recordedTokens = new ConcurrentHashMap<>();
+
+    @BeforeEach
+    void setUp() {
+        meterRegistry = new SimpleMeterRegistry();
+    }
+
+    @AfterEach
+    void tearDown() {
+        if (server != null) {
+            server.stop(0);
+        }
+    }
+
+    @Test
+    void slowProviderLosesToBackupOnMockServer() throws Exception {
+        startMockServer();
+        String baseUrl = "http://localhost:" + server.getAddress().getPort();
+        HedgingChatModel.Route slow = route("slow", openAiModel(baseUrl, "slow-model"));
+        HedgingChatModel.Route fast = route("fast", openAiModel(baseUrl, "fast-model"));
+        HedgingChatModel hedging = hedging(slow, fast, POLICY);
+        // 与 ChatClient 一致：请求带上主模型的默认参数
+        Prompt prompt = new Prompt("画一个登录流程图", hedging.getDefaultOptions().copy());
+
+        String text = assertTimeoutPreemptively(Duration.ofSeconds(5), () -> hedging.stream(prompt)
+                .map(HedgingChatModelTest::text)
+                .collect(Collectors.joining())
+                .block());
+
+        assertEquals("from fast-model", text);
+        assertEquals(1, meterRegistry.counter("hedges").count());
+        assertEquals(1, meterRegistry.counter("wins").count());
+        assertTrue(fast.health().getLatencyEwmaMillis() > 0);
+        // 被超过的慢请求按已等待的时间计入，p95 不会只剩快的样本
+        assertEquals(1, slow.health().getTimeouts());
+        assertTrue(slow.health().p95(1) >= POLICY.minDelayMillis());
+        // 只计最终的累计用量一次；被取消的慢请求没有返回用量
+        assertEquals(Map.of("fast", 15), recordedTokens);
+    }
+
+    @Test
+    void fastPrimaryNeverStartsBackup() {
+        ChatModel primary = mock(ChatModel.class);
+        ChatModel backup = mock(ChatModel.class);
+        when(primary.stream(any(Prompt.class))).thenReturn(Flux.just(response("a"), response("b")));
+        HedgingChatModel hedging = hedging(route("p", primary), route("b", backup), POLICY);
+
+        List<String> texts = hedging.stream(new Prompt("hi")).map(HedgingChatModelTest::text).collectList().block();
+
+        assertEquals(List.of("a", "b"), texts);
+        verify(backup, never()).stream(any(Prompt.class));
+        assertEquals(0, meterRegistry.counter("hedges").count());
+    }
+
+    @Test
+    void primaryFailureStartsBackupImmediately() {
+        ChatModel primary = mock(ChatModel.class);
+        ChatModel backup = mock(ChatModel.class);
+        when(primary.call(any(Prompt.class))).thenThrow(new IllegalStateException("503"));
+        when(backup.call(any(Prompt.class))).thenReturn(response("backup"));
+        HedgingChatModel.Route primaryRoute = route("p", primary);
+        // 对冲延迟 10s，失败时不等待
+        HedgingChatModel hedging = hedging(primaryRoute, route("b", backup),
+                new HedgingChatModel.Policy(10_000, 10_000, 20, 0.5));
+
+        ChatResponse result = assertTimeoutPreemptively(Duration.ofSeconds(2),
+                () -> hedging.call(new Prompt("hi")));
+
+        assertEquals("backup", text(result));
+        assertTrue(primaryRoute.health().getErrorRate() > 0);
+    }
+
+    @Test
+    void loserCannotMutateAfterWinnerClaimed() {
+        ChatModel primary = mock(ChatModel.class);
+        ChatModel backup = mock(ChatModel.class);
+        AtomicReference<Prompt> backupPrompt = new AtomicReference<>();
+        // 首选在对冲启动后才执行工具并抢占成功，之后才有输出
+        when(primary.stream(any(Prompt.class))).thenAnswer(invocation -> {
+            Prompt prompt = invocation.getArgument(0);
+            return Mono.delay(Duration.ofMillis(300))
+                    .doOnNext(t -> assertTrue(HedgingChatModel.claim(toolContext(prompt))))
+                    .then(Mono.delay(Duration.ofMillis(300)))
+                    .thenMany(Flux.just(response("primary")));
+        });
+        when(backup.stream(any(Prompt.class))).thenAnswer(invocation -> {
+            backupPrompt.set(invocation.getArgument(0));
+            return Mono.delay(Duration.ofMillis(400)).thenMany(Flux.just(response("backup")));
+        });
+        HedgingChatModel hedging = hedging(route("p", primary), route("b", backup), POLICY);
+        Prompt prompt = new Prompt("hi", OpenAiChatOptions.builder().model("p-model").build());
+
+        List<String> texts = hedging.stream(prompt).map(HedgingChatModelTest::text).collectList().block();
+
+        assertEquals(List.of("primary"), texts);
+        // 备用已启动，但之后的工具调用被拒绝
+        assertFalse(HedgingChatModel.claim(toolContext(backupPrompt.get())));
+        assertEquals(1, meterRegistry.counter("hedges").count());
+        assertEquals(0, meterRegistry.counter("wins").count());
+    }
+
+    @Test
+    void cancelledPrimaryLatencyKeepsHedgeDelayFromShrinking() {
+        ChatModel primary = mock(ChatModel.class);
+        ChatModel backup = mock(ChatModel.class);
+        when(primary.stream(any(Prompt.class))).thenReturn(Mono.delay(Duration.ofSeconds(5)).thenMany(Flux.just(response("p"))));
+        when(backup.stream(any(Prompt.class))).thenReturn(Flux.just(response("b")));
+        HedgingChatModel.Route primaryRoute = route("p", primary);
+        HedgingChatModel.Route backupRoute = route("b", backup);
+        // 首选 p95 = 100ms，之前的快样本
+        for (int i = 0; i < 20; i++) {
+            primaryRoute.health().recordSuccess(100);
+        }
+        HedgingChatModel hedging = hedging(primaryRoute, backupRoute, new HedgingChatModel.Policy(50, 10_000, 20, 0.5));
+
+        for (int i = 0; i < 5; i++) {
+            assertEquals(List.of("b"), hedging.stream(new Prompt("hi")).map(HedgingChatModelTest::text).collectList().block());
+        }
+
+        assertEquals(5, primaryRoute.health().getTimeouts());
+        assertEquals(0, backupRoute.health().getTimeouts());
+        assertEquals(0, primaryRoute.health().getErrorRate());
+        // 25 个样本中 5 个 >= 100ms 的取消样本，p95 不低于此前的 100ms
+        assertTrue(primaryRoute.health().p95(20) >= 100);
+    }
+
+    @Test
+    void brokenBackupIsResolvedOnceAndRequestsRunUnhedged() {
+        ChatModel primary = mock(ChatModel.class);
+        when(primary.call(any(Prompt.class))).thenReturn(response("primary"));
+        AtomicInteger lookups = new AtomicInteger();
+        HedgingChatModel hedging = new HedgingChatModel(route("p", primary), () -> {
+            lookups.incrementAndGet();
+            throw new IllegalArgumentException("未找到支持模型 [missing] 的相关配置");
+        }, POLICY, meterRegistry.counter("hedges"), meterRegistry.counter("wins"), (modelId, usage) -> {
+        });
+
+        for (int i = 0; i < 3; i++) {
+            assertEquals("primary", text(hedging.call(new Prompt("hi"))));
+        }
+
+        assertEquals(1, lookups.get());
+        assertEquals(0, meterRegistry.counter("hedges").count());
+    }
+
+    @Test
+    void unhealthyPrimaryIsRoutedAround() {
+        ChatModel primary = mock(ChatModel.class);
+        ChatModel backup = mock(ChatModel.class);
+        when(backup.stream(any(Prompt.class))).thenReturn(Flux.just(response("backup")));
+        HedgingChatModel.Route primaryRoute = route("p", primary);
+        for (int i = 0; i < 5; i++) {
+            primaryRoute.health().recordFailure();
+        }
+        HedgingChatModel hedging = hedging(primaryRoute, route("b", backup), POLICY);
+
+        List<String> texts = hedging.stream(new Prompt("hi")).map(HedgingChatModelTest::text).collectList().block();
+
+        assertEquals(List.of("backup"), texts);
+        verify(primary, never()).stream(any(Prompt.class));
+    }
+
+    @Test
+    void hedgeDelayFollowsPrimaryP95() {
+        ModelHealth health = new ModelHealth();
+        assertEquals(-1, health.p95(20));
+        for (int i = 1; i <= 100; i++) {
+            health.recordSuccess(i);
+        }
+        assertEquals(95, health.p95(20));
+        for (int i = 0; i < ModelHealth.WINDOW_SIZE; i++) {
+            health.recordSuccess(1000);
+        }
+        // 窗口只保留最近的样本
+        assertEquals(1000, health.p95(20));
+    }
+
+    private HedgingChatModel hedging(HedgingChatModel.Route primary, HedgingChatModel.Route backup,
+                                     HedgingChatModel.Policy policy) {
+        Counter hedges = meterRegistry.counter("hedges");
+        Counter wins = meterRegistry.counter("wins");
+        return new HedgingChatModel(primary, () -> backup, policy, hedges, wins, (modelId, usage) -> {
+            if (usage != null) {
+                recordedTokens.merge(modelId, usage.getTotalTokens(), Integer::sum);
+            }
+        });
+    }
+
+    private static HedgingChatModel.Route route(String id, ChatModel model) {
+        return new HedgingChatModel.Route(id, model, new ModelHealth());
+    }
+
+    private static ChatModel openAiModel(String baseUrl, String modelName) {
+        return OpenAiChatModel.builder()
+                .openAiApi(OpenAiApi.builder().baseUrl(baseUrl).apiKey("test").build())
+                .defaultOptions(OpenAiChatOptions.builder().model(modelName).build())
+                .build();
+    }
+
+    /**
+     * OpenAI 兼容的流式接口：slow-model 5 秒后才返回，其余立即返回
+     */
+    private void startMockServer() throws Exception {
+        server = HttpServer.create(new InetSocketAddress("localhost", 0), 0);
+        server.setExecutor(Executors.newCachedThreadPool());
+        server.createContext("/v1/chat/completions", exchange -> {
+            String body = new String(exchange.getRequestBody().readAllBytes(), StandardCharsets.UTF_8);
+            String model = body.contains("\"slow-model\"") ? "slow-model" : "fast-model";
+            exchange.getResponseHeaders().add("Content-Type", "text/event-stream");
+            exchange.sendResponseHeaders(200, 0);
+            try (OutputStream out = exchange.getResponseBody()) {
+                if ("slow-model".equals(model)) {
+                    Thread.sleep(5000);
+                }
+                for (String content : List.of("from ", model)) {
+                    out.write(("data: " + chunk(model, content, null) + "\n\n").getBytes(StandardCharsets.UTF_8));
+                    out.flush();
+                }
+                out.write(("data: " + chunk(model, "", "stop") + "\n\n").getBytes(StandardCharsets.UTF_8));
+                out.write(("data: " + usageChunk(model) + "\n\n").getBytes(StandardCharsets.UTF_8));
+                out.write("data: [DONE]\n\n".getBytes(StandardCharsets.UTF_8));
+            } catch (Exception e) {
+                // 客户端取消
+            }
+        });
+        server.start();
+    }
+
+    private static String chunk(String model, String content, String finishReason) {
+        return """
+                {"id":"c1","object":"chat.completion.chunk","created":1,"model":"%s",\
+                "choices":[{"index":0,"delta":{"role":"assistant","content":"%s"},"finish_reason":%s}]}"""
+                .formatted(model, content, finishReason == null ? "null" : "\"" + finishReason + "\"");
+    }
+
+    private static String usageChunk(String model) {
+        return """
+                {"id":"c1","object":"chat.completion.chunk","created":1,"model":"%s","choices":[],\
+                "usage":{"prompt_tokens":10,"completion_tokens":5,"total_tokens":15}}""".formatted(model);
+    }
+
+    private static Map<String, Object> toolContext(Prompt prompt) {
+        return ((ToolCallingChatOptions) prompt.getOptions()).getToolContext();
+    }
+
+    private static ChatResponse response(String text) {
+        return new ChatResponse(List.of(new Generation(new AssistantMessage(text))));
+    }
+
+    private static String text(ChatResponse response) {
+        return response.getResults().isEmpty() ? ""
+                : Objects.toString(response.getResult().getOutput().getText(), "");
+    }
+}
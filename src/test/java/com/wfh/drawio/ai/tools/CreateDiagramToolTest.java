@@ -0,0 +1,65 @@
+package com.wfh.drawio.ai.tools;
+
+import com.wfh.drawio.ai.model.StreamEvent;
+import com.wfh.drawio.model.entity.Diagram;
+import com.wfh.drawio.service.DiagramService;
+import org.junit.jupiter.api.Test;
+import org.mockito.ArgumentCaptor;
+import org.springframework.ai.chat.model.ToolContext;
+import reactor.core.publisher.Sinks;
+
+import java.io.Serializable;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+/**
+ * 共享的工具实例按请求的 toolContext 写入对应图表
+ */
+class CreateDiagramToolTest {
+
+    private static final String CELL = """
+            <mxCell id="2" value="A" style="rounded=1;whiteSpace=wrap;html=1;" vertex="1" parent="1">
+              <mxGeometry x="0" y="0" width="120" height="60" as="geometry"/>
+            </mxCell>
+            """;
+
+    @Test
+    void routesEachCallByToolContext() {
+        DiagramService diagramService = mock(DiagramService.class);
+        when(diagramService.getById(any(Serializable.class))).thenAnswer(invocation -> {
+            Diagram diagram = new Diagram();
+            diagram.setId(Long.valueOf(invocation.getArgument(0).toString()));
+            return diagram;
+        });
+        CreateDiagramTool tool = new CreateDiagramTool(diagramService);
+        Sinks.Many<StreamEvent> sink1 = Sinks.many().replay().all();
+        Sinks.Many<StreamEvent> sink2 = Sinks.many().replay().all();
+
+        assertTrue(tool.displayDiagram(CELL, new ToolContext(DiagramToolContext.of("1", sink1))).success);
+        assertTrue(tool.displayDiagram(CELL, new ToolContext(DiagramToolContext.of("2", sink2))).success);
+
+        ArgumentCaptor<Diagram> saved = ArgumentCaptor.forClass(Diagram.class);
+        verify(diagramService, times(2)).updateById(saved.capture());
+        assertEquals(List.of(1L, 2L), saved.getAllValues().stream().map(Diagram::getId).toList());
+        sink1.tryEmitComplete();
+        sink2.tryEmitComplete();
+        assertEquals(3, sink1.asFlux().collectList().block().size());
+        assertEquals(3, sink2.asFlux().collectList().block().size());
+    }
+
+    @Test
+    void worksWithoutSink() {
+        DiagramService diagramService = mock(DiagramService.class);
+        when(diagramService.getById(any(Serializable.class))).thenReturn(new Diagram());
+
+        assertTrue(new CreateDiagramTool(diagramService)
+                .displayDiagram(CELL, new ToolContext(DiagramToolContext.of("1", null))).success);
+    }
+}
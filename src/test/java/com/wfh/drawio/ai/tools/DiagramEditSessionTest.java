@@ -0,0 +1,120 @@
+package com.wfh.drawio.ai.tools;
+
+import com.wfh.drawio.exception.VersionConflictException;
+import com.wfh.drawio.model.entity.Diagram;
+import com.wfh.drawio.service.DiagramService;
+import org.junit.jupiter.api.Test;
+import org.mockito.ArgumentCaptor;
+import org.springframework.ai.chat.model.ToolContext;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+/**
+ * 同一次对话的多次工具调用共用图表工作副本，只读库一次，结束时保存一次；版本冲突后不再保存，结束时报告最新版本
+ */
+class DiagramEditSessionTest {
+
+    private static final String DIAGRAM = """
+            <mxfile><diagram name="Page-1" id="p1"><mxGraphModel><root>
+            <mxCell id="0"/><mxCell id="1" parent="0"/>
+            <mxCell id="2" value="A" vertex="1" parent="1"><mxGeometry x="0" y="0" width="120" height="60" as="geometry"/></mxCell>
+            <mxCell id="3" value="B" vertex="1" parent="1"><mxGeometry x="200" y="0" width="120" height="60" as="geometry"/></mxCell>
+            </root></mxGraphModel></diagram></mxfile>
+            """;
+
+    @Test
+    void sharedSessionLoadsOnceAndPersistsOnFlush() throws Exception {
+        DiagramService diagramService = mockService();
+        DiagramEditSession session = new DiagramEditSession(diagramService, "1", true);
+        ToolContext toolContext = new ToolContext(DiagramToolContext.of("1", null, session));
+
+        String edit = """
+                {"operations":[
+                  {"type":"update","cell_id":"2","new_xml":"<mxCell id=\\"2\\" value=\\"A2\\" vertex=\\"1\\" parent=\\"1\\"/>"},
+                  {"type":"delete","cell_id":"3"}
+                ]}""";
+        assertTrue(new EditDiagramTool(diagramService).editDiagram(edit, toolContext).success);
+        String fragment = "<mxCell id=\"2\" value=\"C\" vertex=\"1\" parent=\"1\"/>";
+        assertTrue(new AppendDiagramTool(diagramService).appendDiagram(fragment, toolContext).success);
+
+        verify(diagramService, times(1)).getByIdWithCode(1L);
+        verify(diagramService, never()).updateById(any(Diagram.class));
+        assertEquals(2, session.cellCount());
+
+        session.flush();
+        session.flush();
+
+        ArgumentCaptor<Diagram> saved = ArgumentCaptor.forClass(Diagram.class);
+        verify(diagramService, times(1)).updateById(saved.capture());
+        String xml = saved.getValue().getDiagramCode();
+        assertEquals(7, saved.getValue().getVersion());
+        assertTrue(xml.contains("value=\"A2\""));
+        assertFalse(xml.contains("value=\"B\""));
+        // 追加片段中的重复 id 被重新映射
+        assertTrue(xml.contains("value=\"C\""));
+        assertEquals(1, xml.split("id=\"2\"", -1).length - 1);
+    }
+
+    @Test
+    void toolWithoutSessionPersistsEachCall() {
+        DiagramService diagramService = mockService();
+        ToolContext toolContext = new ToolContext(DiagramToolContext.of("1", null));
+        String edit = "{\"operations\":[{\"type\":\"delete\",\"cell_id\":\"3\"}]}";
+
+        assertTrue(new EditDiagramTool(diagramService).editDiagram(edit, toolContext).success);
+
+        verify(diagramService, times(1)).updateById(any(Diagram.class));
+    }
+
+    @Test
+    void failedOperationsDoNotMarkDirty() throws Exception {
+        DiagramService diagramService = mockService();
+        DiagramEditSession session = new DiagramEditSession(diagramService, "1", true);
+        ToolContext toolContext = new ToolContext(DiagramToolContext.of("1", null, session));
+        String edit = "{\"operations\":[{\"type\":\"delete\",\"cell_id\":\"404\"}]}";
+
+        new EditDiagramTool(diagramService).editDiagram(edit, toolContext);
+        session.flush();
+
+        verify(diagramService, never()).updateById(any(Diagram.class));
+    }
+
+    @Test
+    void conflictStopsPersistingAndIsReportedOnFlush() throws Exception {
+        DiagramService diagramService = mockService();
+        when(diagramService.updateById(any(Diagram.class))).thenThrow(new VersionConflictException(9));
+        DiagramEditSession session = new DiagramEditSession(diagramService, "1", false);
+        ToolContext toolContext = new ToolContext(DiagramToolContext.of("1", null, session));
+        EditDiagramTool tool = new EditDiagramTool(diagramService);
+
+        // 冲突后工具仍然成功，修改保留在工作副本中
+        assertTrue(tool.editDiagram("{\"operations\":[{\"type\":\"delete\",\"cell_id\":\"3\"}]}", toolContext).success);
+        assertTrue(tool.editDiagram("{\"operations\":[{\"type\":\"delete\",\"cell_id\":\"2\"}]}", toolContext).success);
+
+        assertEquals(9, assertThrows(VersionConflictException.class, session::flush).getLatestVersion());
+        // 冲突后不再反复尝试保存
+        verify(diagramService, times(1)).updateById(any(Diagram.class));
+        assertEquals(0, session.cellCount());
+    }
+
+    private static DiagramService mockService() {
+        DiagramService diagramService = mock(DiagramService.class);
+        when(diagramService.getByIdWithCode(1L)).thenAnswer(invocation -> {
+            Diagram diagram = new Diagram();
+            diagram.setId(1L);
+            diagram.setVersion(7);
+            diagram.setDiagramCode(DIAGRAM);
+            return diagram;
+        });
+        return diagramService;
+    }
+}
@@ -0,0 +1,149 @@
+package com.wfh.drawio.ai.tools;
+
+import org.junit.jupiter.api.Tag;
+import org.junit.jupiter.api.Test;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.w3c.dom.Document;
+
+import javax.xml.parsers.DocumentBuilderFactory;
+import javax.xml.transform.OutputKeys;
+import javax.xml.transform.Transformer;
+import javax.xml.transform.TransformerFactory;
+import javax.xml.transform.dom.DOMSource;
+import javax.xml.transform.stream.StreamResult;
+import java.io.ByteArrayInputStream;
+import java.io.StringWriter;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * 复用的解析器与序列化器：禁止 DTD、不缩进、多线程安全
+ */
+class DrawioXmlProcessorTest {
+
+    private static final Logger log = LoggerFactory.getLogger(DrawioXmlProcessorTest.class);
+
+    @Test
+    void rejectsDoctypeAndExternalEntities() {
+        DrawioXmlProcessor.ValidationResult result = DrawioXmlProcessor.validateAndParseXml(
+                "<!DOCTYPE x [<!ENTITY e SYSTEM \"file:///etc/passwd\">]><root>&e;</root>");
+
+        assertFalse(result.valid);
+        // 失败后同一线程的解析器仍可继续使用
+        assertTrue(DrawioXmlProcessor.validateAndParseXml("<root><mxCell id=\"2\"/></root>").valid);
+    }
+
+    @Test
+    void serializesWithoutIndentation() throws Exception {
+        Document doc = DrawioXmlProcessor.parseDocument("<root><mxCell id=\"2\" value=\"中文\"><mxGeometry/></mxCell></root>");
+
+        assertEquals("<root><mxCell id=\"2\" value=\"中文\"><mxGeometry/></mxCell></root>",
+                DrawioXmlProcessor.convertDocumentToString(doc));
+    }
+
+    @Test
+    void parsesConcurrently() throws Exception {
+        ExecutorService executor = Executors.newFixedThreadPool(4);
+        try {
+            List<Future<String>> futures = new ArrayList<>();
+            for (int i = 0; i < 200; i++) {
+                String id = String.valueOf(i);
+                futures.add(executor.submit(() -> DrawioXmlProcessor.sanitizeAndRemapIds(
+                        "<mxCell id=\"" + id + "-a\" parent=\"1\"/>", new java.util.HashSet<>())));
+            }
+            for (int i = 0; i < futures.size(); i++) {
+                assertEquals("<mxCell id=\"" + i + "-a\" parent=\"1\"/>", futures.get(i).get());
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    /**
+     * 解析 + 序列化耗时与输出大小：复用的加固解析器、不缩进 vs 原先每次新建工厂、缩进输出
+     */
+    @Test
+    @Tag("load")
+    void reusedParserIsFasterAndOutputSmaller() throws Exception {
+        benchmark("small", diagram(20), 2_000);
+        benchmark("medium", diagram(1_000), 200);
+        // 约 5 MB
+        benchmark("5MB", diagram(24_000), 5);
+    }
+
+    private static void benchmark(String name, String xml, int iterations) throws Exception {
+        // 预热
+        runOld(xml, iterations);
+        runNew(xml, iterations);
+        long[] old = runOld(xml, iterations);
+        long[] current = runNew(xml, iterations);
+
+        log.info("{}: input={}KB parse old={}us new={}us, serialize old={}us new={}us, output old={} new={} chars",
+                name, xml.length() / 1024, old[0] / iterations / 1000, current[0] / iterations / 1000,
+                old[1] / iterations / 1000, current[1] / iterations / 1000, old[2], current[2]);
+        // 不缩进时输出不大于输入，原先的缩进输出更大
+        assertTrue(current[2] <= xml.length());
+        assertTrue(current[2] < old[2]);
+    }
+
+    /**
+     * @return 解析总耗时、序列化总耗时、输出字符数
+     */
+    private static long[] runOld(String xml, int iterations) throws Exception {
+        long parseNanos = 0;
+        long serializeNanos = 0;
+        int outputLength = 0;
+        for (int i = 0; i < iterations; i++) {
+            long start = System.nanoTime();
+            Document doc = DocumentBuilderFactory.newInstance().newDocumentBuilder()
+                    .parse(new ByteArrayInputStream(xml.getBytes(StandardCharsets.UTF_8)));
+            long parsed = System.nanoTime();
+            Transformer transformer = TransformerFactory.newInstance().newTransformer();
+            transformer.setOutputProperty(OutputKeys.INDENT, "yes");
+            transformer.setOutputProperty("{http://xml.apache.org/xslt}indent-amount", "2");
+            transformer.setOutputProperty(OutputKeys.OMIT_XML_DECLARATION, "yes");
+            StringWriter writer = new StringWriter();
+            transformer.transform(new DOMSource(doc), new StreamResult(writer));
+            outputLength = writer.toString().length();
+            parseNanos += parsed - start;
+            serializeNanos += System.nanoTime() - parsed;
+        }
+        return new long[]{parseNanos, serializeNanos, outputLength};
+    }
+
+    private static long[] runNew(String xml, int iterations) throws Exception {
+        long parseNanos = 0;
+        long serializeNanos = 0;
+        int outputLength = 0;
+        for (int i = 0; i < iterations; i++) {
+            long start = System.nanoTime();
+            Document doc = DrawioXmlProcessor.parseDocument(xml);
+            long parsed = System.nanoTime();
+            outputLength = DrawioXmlProcessor.convertDocumentToString(doc).length();
+            parseNanos += parsed - start;
+            serializeNanos += System.nanoTime() - parsed;
+        }
+        return new long[]{parseNanos, serializeNanos, outputLength};
+    }
+
+    private static String diagram(int cells) {
+        StringBuilder xml = new StringBuilder("<mxfile><diagram name=\"Page-1\" id=\"p1\"><mxGraphModel><root>"
+                + "<mxCell id=\"0\"/><mxCell id=\"1\" parent=\"0\"/>");
+        for (int i = 2; i < cells + 2; i++) {
+            xml.append("<mxCell id=\"").append(i).append("\" value=\"节点 ").append(i)
+                    .append("\" style=\"rounded=1;whiteSpace=wrap;html=1;fillColor=#dae8fc;strokeColor=#6c8ebf;\" vertex=\"1\" parent=\"1\">")
+                    .append("<mxGeometry x=\"").append(i % 40 * 160).append("\" y=\"").append(i / 40 * 100)
+                    .append("\" width=\"120\" height=\"60\" as=\"geometry\"/></mxCell>");
+        }
+        return xml.append("</root></mxGraphModel></diagram></mxfile>").toString();
+    }
+}
@@ -0,0 +1,155 @@
+package com.wfh.drawio.ai.tools;
+
+import org.junit.jupiter.api.Test;
+
+import java.time.Duration;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTimeoutPreemptively;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * 流式提取 mxCell：自闭合、object 包装、非法嵌套、截断输出与随机变异语料
+ */
+class MxCellExtractorTest {
+
+    private static final String FRAGMENT = """
+            <mxCell id="2" value="A &amp; B" style="rounded=1;" vertex="1" parent="1">
+              <mxGeometry x="0" y="0" width="120" height="60" as="geometry"/>
+            </mxCell>
+            <mxCell id="3" value="C" vertex="1" parent="1"/>
+            <object id="4" label="&lt;b&gt;D&lt;/b&gt;" link="x">
+              <mxCell style="ellipse;" vertex="1" parent="1"><mxGeometry width="80" height="80" as="geometry"/></mxCell>
+            </object>
+            <!-- comment -->
+            <mxCell id="5" edge="1" source="2" target="3" parent="1"><mxGeometry relative="1" as="geometry"/></mxCell>
+            """;
+
+    /**
+     * 模型输出与存储中常见的非法或边界输入
+     */
+    private static final List<String> CORPUS = List.of(
+            "",
+            "   ",
+            "<",
+            "<mxCell",
+            "<mxCell id=\"2\"",
+            "<mxCell id=\"2\" value=\"unterminated",
+            "<mxCell id=\"2\"></mxCel>",
+            "<mxCell id=\"2\"><mxGeometry></mxCell>",
+            "</mxCell><mxCell id=\"2\"/>",
+            "<mxCell id=\"2\" value=\"a & b\"/>",
+            "<mxCell id=\"2\" value=\"&nbsp;\"/>",
+            "<mxCell id='2' value='single'/>",
+            "<mxCell id=\"2\"><![CDATA[<x>]]></mxCell>",
+            "<?xml version=\"1.0\"?><mxGraphModel><root><mxCell id=\"0\"/></root></mxGraphModel>",
+            "<!DOCTYPE x [<!ENTITY e SYSTEM \"file:///etc/passwd\">]><mxCell id=\"2\" value=\"&e;\"/>",
+            "```xml\n<mxCell id=\"2\"/>\n```",
+            "<mxCell id=\"2\"/><mxCell id=\"3\"/></wrapper><mxCell id=\"4\"/>",
+            "<mxCell id=\"中文\" value=\"😀\"/>"
+    );
+
+    @Test
+    void extractsSelfClosingAndWrappedCells() {
+        MxCellExtractor.Result result = MxCellExtractor.extract(FRAGMENT);
+
+        assertTrue(result.complete);
+        assertEquals(List.of("2", "3", "4", "5"), result.cells.stream().map(c -> c.id).toList());
+        assertEquals("<mxCell id=\"3\" value=\"C\" vertex=\"1\" parent=\"1\"/>", result.cells.get(1).xml);
+        assertTrue(result.cells.get(0).xml.contains("value=\"A &amp; B\""));
+        assertTrue(result.cells.get(2).xml.startsWith("<object id=\"4\" label=\"&lt;b&gt;D&lt;/b&gt;\""));
+        for (DrawioXmlProcessor.CellElement cell : result.cells) {
+            assertTrue(DrawioXmlProcessor.validateAndParseXml(cell.xml).valid, cell.xml);
+        }
+    }
+
+    @Test
+    void rejectsNestedCells() {
+        MxCellExtractor.Result result = MxCellExtractor.extract(
+                "<mxCell id=\"2\"><mxCell id=\"3\"/></mxCell><mxCell id=\"4\"/>");
+
+        assertFalse(result.complete);
+        assertEquals(List.of("4"), result.cells.stream().map(c -> c.id).toList());
+    }
+
+    @Test
+    void keepsCompletedCellsOfTruncatedOutput() {
+        String truncated = FRAGMENT.substring(0, FRAGMENT.indexOf("<object"))
+                + "<object id=\"4\" label=\"cut";
+
+        MxCellExtractor.Result result = MxCellExtractor.extract(truncated);
+
+        assertFalse(result.complete);
+        assertEquals(List.of("2", "3"), result.cells.stream().map(c -> c.id).toList());
+    }
+
+    @Test
+    void fuzzCorpusNeverThrows() {
+        List<String> full = ids(MxCellExtractor.extract(FRAGMENT));
+        // 每个截断位置：结果都是完整结果的前缀
+        for (int i = 0; i <= FRAGMENT.length(); i++) {
+            List<String> ids = ids(MxCellExtractor.extract(FRAGMENT.substring(0, i)));
+            assertEquals(full.subList(0, ids.size()), ids, "truncated at " + i);
+        }
+        for (String input : CORPUS) {
+            assertCellsWellFormed(MxCellExtractor.extract(input));
+        }
+        // 固定种子的随机变异
+        Random random = new Random(42);
+        String alphabet = "<>/=\"'& !?-[]";
+        for (int round = 0; round < 2000; round++) {
+            StringBuilder mutated = new StringBuilder(FRAGMENT);
+            for (int j = 0; j < 1 + random.nextInt(4); j++) {
+                int pos = random.nextInt(mutated.length());
+                switch (random.nextInt(3)) {
+                    case 0 -> mutated.deleteCharAt(pos);
+                    case 1 -> mutated.insert(pos, alphabet.charAt(random.nextInt(alphabet.length())));
+                    default -> mutated.setCharAt(pos, alphabet.charAt(random.nextInt(alphabet.length())));
+                }
+            }
+            assertCellsWellFormed(MxCellExtractor.extract(mutated.toString()));
+        }
+    }
+
+    @Test
+    void pathologicalInputIsLinear() {
+        // 没有闭合标签的大量 <mxCell 会让 <mxCell[^>]*>.*?</mxCell> 反复回溯
+        String adversarial = "<mxCell id=\"2\" value=\"x\">".repeat(50_000);
+
+        assertTimeoutPreemptively(Duration.ofSeconds(2), () -> {
+            MxCellExtractor.Result result = MxCellExtractor.extract(adversarial);
+            assertFalse(result.complete);
+        });
+    }
+
+    @Test
+    void extractsLargeDiagram() {
+        // 约 5 MB 的图表，单遍提取
+        String cell = "<mxCell id=\"c%d\" value=\"节点 %d\" style=\"rounded=1;whiteSpace=wrap;html=1;\" vertex=\"1\" parent=\"1\">"
+                + "<mxGeometry x=\"%d\" y=\"%d\" width=\"120\" height=\"60\" as=\"geometry\"/></mxCell>\n";
+        StringBuilder body = new StringBuilder();
+        int count = 0;
+        while (body.length() < 5 * 1024 * 1024) {
+            body.append(cell.formatted(count, count, count % 100 * 150, count / 100 * 100));
+            count++;
+        }
+        String xml = DrawioXmlProcessor.wrapWithModel(body.toString());
+        int expected = count;
+
+        assertTimeoutPreemptively(Duration.ofSeconds(10),
+                () -> assertEquals(expected, DrawioXmlProcessor.extractMxCells(xml).size()));
+    }
+
+    private static List<String> ids(MxCellExtractor.Result result) {
+        return result.cells.stream().map(c -> c.id).toList();
+    }
+
+    private static void assertCellsWellFormed(MxCellExtractor.Result result) {
+        for (DrawioXmlProcessor.CellElement cell : result.cells) {
+            assertTrue(DrawioXmlProcessor.validateAndParseXml(cell.xml).valid, cell.xml);
+        }
+    }
+}
@@ -0,0 +1,84 @@
+package com.wfh.drawio.controller;
+
+import com.wfh.drawio.model.entity.Diagram;
+import com.wfh.drawio.model.entity.User;
+import com.wfh.drawio.model.vo.DiagramVO;
+import com.wfh.drawio.service.DiagramService;
+import com.wfh.drawio.service.SpaceRoleService;
+import com.wfh.drawio.service.UserService;
+import jakarta.servlet.http.HttpServletRequest;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.http.HttpHeaders;
+import org.springframework.test.util.ReflectionTestUtils;
+import org.springframework.test.web.servlet.MockMvc;
+import org.springframework.test.web.servlet.setup.MockMvcBuilders;
+
+import java.util.Date;
+
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.get;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.content;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.header;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.jsonPath;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.status;
+
+/**
+ * 图表接口：条件请求
+ */
+class DiagramControllerTest {
+
+    private static final String ETAG = "\"v3-abc\"";
+
+    private DiagramService diagramService;
+
+    private MockMvc mockMvc;
+
+    @BeforeEach
+    void setUp() {
+        diagramService = mock(DiagramService.class);
+        UserService userService = mock(UserService.class);
+        User loginUser = new User();
+        loginUser.setId(7L);
+        when(userService.getLoginUser(any(HttpServletRequest.class))).thenReturn(loginUser);
+        Diagram diagram = new Diagram();
+        diagram.setId(1L);
+        diagram.setUserId(7L);
+        diagram.setUpdateTime(new Date(1_700_000_000_000L));
+        when(diagramService.getById(1L)).thenReturn(diagram);
+        when(diagramService.getDiagramETag(diagram)).thenReturn(ETAG);
+        DiagramVO diagramVO = new DiagramVO();
+        diagramVO.setId(1L);
+        when(diagramService.getDiagramVO(eq(diagram), any())).thenReturn(diagramVO);
+
+        DiagramController controller = new DiagramController();
+        ReflectionTestUtils.setField(controller, "diagramService", diagramService);
+        ReflectionTestUtils.setField(controller, "userService", userService);
+        ReflectionTestUtils.setField(controller, "spaceRoleService", mock(SpaceRoleService.class));
+        mockMvc = MockMvcBuilders.standaloneSetup(controller).build();
+    }
+
+    @Test
+    void returnsBodyWithValidators() throws Exception {
+        mockMvc.perform(get("/diagram/get/vo").param("id", "1"))
+                .andExpect(status().isOk())
+                .andExpect(header().string(HttpHeaders.ETAG, ETAG))
+                .andExpect(header().string(HttpHeaders.CACHE_CONTROL, "no-cache, private"))
+                .andExpect(jsonPath("$.data.id").value(1));
+    }
+
+    @Test
+    void matchingETagReturns304WithoutBody() throws Exception {
+        mockMvc.perform(get("/diagram/get/vo").param("id", "1").header(HttpHeaders.IF_NONE_MATCH, ETAG))
+                .andExpect(status().isNotModified())
+                .andExpect(header().string(HttpHeaders.ETAG, ETAG))
+                .andExpect(content().string(""));
+
+        verify(diagramService, never()).getDiagramVO(any(), any());
+    }
+}
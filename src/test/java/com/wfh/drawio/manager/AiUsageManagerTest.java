@@ -0,0 +1,146 @@
+package com.wfh.drawio.manager;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.ArgumentCaptor;
+import org.springframework.ai.chat.metadata.DefaultUsage;
+import org.springframework.data.redis.RedisConnectionFailureException;
+import org.springframework.data.redis.connection.StringRedisConnection;
+import org.springframework.data.redis.core.RedisCallback;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import static com.wfh.drawio.constant.RedisPrefixConstant.GLOBAL_AI_TOKEN_KEY;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyLong;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+/**
+ * token 用量本地累加、批量写入与预算判断
+ */
+class AiUsageManagerTest {
+
+    private StringRedisTemplate stringRedisTemplate;
+
+    private SimpleMeterRegistry meterRegistry;
+
+    private AiUsageManager aiUsageManager;
+
+    @BeforeEach
+    void setUp() {
+        stringRedisTemplate = mock(StringRedisTemplate.class);
+        meterRegistry = new SimpleMeterRegistry();
+        aiUsageManager = new AiUsageManager();
+        ReflectionTestUtils.setField(aiUsageManager, "stringRedisTemplate", stringRedisTemplate);
+        ReflectionTestUtils.setField(aiUsageManager, "meterRegistry", meterRegistry);
+        ReflectionTestUtils.setField(aiUsageManager, "dailyTokenBudget", 1000L);
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    void flushWritesOnePipelinePerInterval() {
+        aiUsageManager.record("qwen", new DefaultUsage(100, 50));
+        aiUsageManager.record("qwen", new DefaultUsage(10, 5));
+        aiUsageManager.record("glm", new DefaultUsage(20, 0));
+        when(stringRedisTemplate.executePipelined(any(RedisCallback.class))).thenReturn(List.of(900L, 1L, 1L, 1L, 1L, true));
+
+        aiUsageManager.flush();
+
+        ArgumentCaptor<RedisCallback<Object>> callback = ArgumentCaptor.forClass(RedisCallback.class);
+        verify(stringRedisTemplate, times(1)).executePipelined(callback.capture());
+        StringRedisConnection connection = mock(StringRedisConnection.class);
+        callback.getValue().doInRedis(connection);
+        verify(connection).incrBy(GLOBAL_AI_TOKEN_KEY, 185L);
+        verify(connection).hIncrBy(anyString(), eq("qwen:prompt"), eq(110L));
+        verify(connection).hIncrBy(anyString(), eq("qwen:completion"), eq(55L));
+        verify(connection).hIncrBy(anyString(), eq("glm:prompt"), eq(20L));
+        // 全局总量取 Redis 返回值（含其他节点）
+        assertEquals(900, aiUsageManager.getTodayTokens());
+        assertFalse(aiUsageManager.isTokenBudgetExhausted());
+        assertEquals(165, meterRegistry.counter("drawio.ai.tokens", "model", "qwen", "type", "prompt").count()
+                + meterRegistry.counter("drawio.ai.tokens", "model", "qwen", "type", "completion").count());
+
+        aiUsageManager.record("qwen", new DefaultUsage(80, 20));
+        assertTrue(aiUsageManager.isTokenBudgetExhausted());
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    void failedFlushKeepsUsageForNextRound() {
+        aiUsageManager.record("qwen", new DefaultUsage(100, 50));
+        when(stringRedisTemplate.executePipelined(any(RedisCallback.class)))
+                .thenThrow(new RedisConnectionFailureException("down"))
+                .thenReturn(List.of(150L, 1L, 1L, true));
+
+        aiUsageManager.flush();
+        assertEquals(150, aiUsageManager.getTodayTokens());
+
+        aiUsageManager.flush();
+        ArgumentCaptor<RedisCallback<Object>> callback = ArgumentCaptor.forClass(RedisCallback.class);
+        verify(stringRedisTemplate, times(2)).executePipelined(callback.capture());
+        StringRedisConnection connection = mock(StringRedisConnection.class);
+        callback.getAllValues().get(1).doInRedis(connection);
+        verify(connection).incrBy(GLOBAL_AI_TOKEN_KEY, 150L);
+        assertEquals(150, aiUsageManager.getTodayTokens());
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    void idleFlushOnlyReadsTotal() {
+        when(stringRedisTemplate.executePipelined(any(RedisCallback.class))).thenReturn(List.of(42L));
+
+        aiUsageManager.flush();
+
+        ArgumentCaptor<RedisCallback<Object>> callback = ArgumentCaptor.forClass(RedisCallback.class);
+        verify(stringRedisTemplate).executePipelined(callback.capture());
+        StringRedisConnection connection = mock(StringRedisConnection.class);
+        callback.getValue().doInRedis(connection);
+        verify(connection).incrBy(GLOBAL_AI_TOKEN_KEY, 0L);
+        verify(connection, never()).hIncrBy(anyString(), anyString(), anyLong());
+        assertEquals(42, aiUsageManager.getTodayTokens());
+    }
+
+    @Test
+    void concurrentRecordsAreNotLost() throws Exception {
+        ExecutorService executor = Executors.newFixedThreadPool(8);
+        List<java.util.concurrent.Future<?>> futures = new ArrayList<>();
+        for (int t = 0; t < 8; t++) {
+            String modelId = t % 2 == 0 ? "qwen" : "glm";
+            futures.add(executor.submit(() -> {
+                for (int i = 0; i < 10_000; i++) {
+                    aiUsageManager.record(modelId, new DefaultUsage(2, 1));
+                }
+            }));
+        }
+        for (java.util.concurrent.Future<?> future : futures) {
+            future.get();
+        }
+        executor.shutdown();
+        assertTrue(executor.awaitTermination(5, TimeUnit.SECONDS));
+
+        assertEquals(8 * 10_000 * 3, aiUsageManager.getTodayTokens());
+    }
+
+    @Test
+    void legacyFloatValueIsRounded() {
+        assertEquals(13, AiUsageManager.parseTokens("12.6"));
+        assertEquals(0, AiUsageManager.parseTokens(null));
+        assertEquals(1234, AiUsageManager.parseTokens("1234"));
+    }
+}
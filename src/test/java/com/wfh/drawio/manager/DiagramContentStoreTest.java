@@ -0,0 +1,85 @@
+package com.wfh.drawio.manager;
+
+import cn.hutool.crypto.digest.DigestUtil;
+import com.wfh.drawio.mapper.DiagramBlobMapper;
+import com.wfh.drawio.mapper.DiagramContentMapper;
+import com.wfh.drawio.model.entity.DiagramBlob;
+import com.wfh.drawio.model.entity.DiagramContent;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.InOrder;
+import org.springframework.test.util.ReflectionTestUtils;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.Mockito.inOrder;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+/**
+ * 内容块引用数：首次写入先插入再加锁，删除图表释放引用
+ */
+class DiagramContentStoreTest {
+
+    private DiagramContentMapper diagramContentMapper;
+
+    private DiagramBlobMapper diagramBlobMapper;
+
+    private DiagramContentStore store;
+
+    @BeforeEach
+    void setUp() {
+        diagramContentMapper = mock(DiagramContentMapper.class);
+        diagramBlobMapper = mock(DiagramBlobMapper.class);
+        store = new DiagramContentStore();
+        ReflectionTestUtils.setField(store, "diagramContentMapper", diagramContentMapper);
+        ReflectionTestUtils.setField(store, "diagramBlobMapper", diagramBlobMapper);
+        ReflectionTestUtils.setField(store, "transactionTemplate", new TransactionTemplate(mock(PlatformTransactionManager.class)));
+        store.init();
+    }
+
+    @Test
+    void firstWriteInsertsRowBeforeLockingIt() {
+        String xml = "<mxGraphModel/>";
+        when(diagramContentMapper.selectByIdForUpdate(1L)).thenReturn(content(1L, null));
+
+        store.put(1L, xml);
+
+        InOrder order = inOrder(diagramContentMapper, diagramBlobMapper);
+        order.verify(diagramContentMapper).insertIfAbsent(1L);
+        order.verify(diagramContentMapper).selectByIdForUpdate(1L);
+        order.verify(diagramBlobMapper).insertOrRetain(any(DiagramBlob.class));
+        order.verify(diagramContentMapper).upsertHash(1L, DigestUtil.sha256Hex(xml.getBytes(StandardCharsets.UTF_8)));
+        verify(diagramBlobMapper, never()).release(anyString());
+    }
+
+    @Test
+    void removeReleasesContentReference() {
+        when(diagramContentMapper.selectById(1L)).thenReturn(content(1L, "h1"));
+        when(diagramContentMapper.selectByIdForUpdate(1L)).thenReturn(content(1L, "h1"));
+        when(diagramContentMapper.selectById(2L)).thenReturn(null);
+
+        store.remove(List.of(1L, 2L));
+
+        verify(diagramContentMapper).deleteById(1L);
+        verify(diagramBlobMapper).release("h1");
+        verify(diagramBlobMapper).deleteIfUnreferenced("h1");
+        // 没有内容的图表不加锁
+        verify(diagramContentMapper, never()).selectByIdForUpdate(2L);
+        verify(diagramContentMapper, never()).deleteById(2L);
+    }
+
+    private static DiagramContent content(Long diagramId, String hash) {
+        DiagramContent content = new DiagramContent();
+        content.setDiagramId(diagramId);
+        content.setContentHash(hash);
+        return content;
+    }
+}
@@ -0,0 +1,247 @@
+package com.wfh.drawio.manager;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import com.wfh.drawio.config.RustFsClientConfig;
+import org.apache.commons.lang3.StringUtils;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Tag;
+import org.junit.jupiter.api.Test;
+import org.springframework.test.util.ReflectionTestUtils;
+import software.amazon.awssdk.services.s3.S3Client;
+import software.amazon.awssdk.services.s3.presigner.S3Presigner;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * 预签名下载与流式上传校验，使用本地 HTTP 桩模拟对象存储
+ * <p>
+ * 测试堆由 surefire 限制为 256MB，500MB 的上传若整体读入内存会直接 OOM
+ */
+class RustFsManagerTest {
+
+    private static final byte[] FILE_CONTENT = "<svg xmlns=\"http://www.w3.org/2000/svg\"/>".getBytes(StandardCharsets.UTF_8);
+
+    private static final long LARGE_FILE_SIZE = 500L * 1024 * 1024;
+
+    /**
+     * 超过一个分片（8MB）即走分片上传，默认测试集用小文件覆盖
+     */
+    private static final long MULTIPART_FILE_SIZE = 20L * 1024 * 1024;
+
+    private HttpServer stubServer;
+
+    private S3Presigner presigner;
+
+    private S3Client s3Client;
+
+    private RustFsManager rustFsManager;
+
+    private final AtomicReference<URI> lastRequest = new AtomicReference<>();
+
+    /**
+     * 桩收到的对象字节数（分片上传为各分片之和）
+     */
+    private final AtomicLong receivedBytes = new AtomicLong();
+
+    private final AtomicInteger receivedParts = new AtomicInteger();
+
+    private final AtomicBoolean completed = new AtomicBoolean();
+
+    @BeforeEach
+    void setUp() throws Exception {
+        // 对象存储桩：只接受带签名参数的 GET
+        stubServer = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        stubServer.createContext("/drawio/", exchange -> {
+            lastRequest.set(exchange.getRequestURI());
+            String query = exchange.getRequestURI().getRawQuery();
+            boolean signed = query != null && query.contains("X-Amz-Signature=") && query.contains("X-Amz-Expires=300");
+            byte[] body = signed ? FILE_CONTENT : new byte[0];
+            exchange.sendResponseHeaders(signed ? 200 : 403, body.length == 0 ? -1 : body.length);
+            try (OutputStream out = exchange.getResponseBody()) {
+                out.write(body);
+            }
+        });
+        stubServer.createContext("/drawio/upload/", this::handleUpload);
+        stubServer.start();
+
+        RustFsClientConfig config = new RustFsClientConfig();
+        config.setEndpoint("http://127.0.0.1:" + stubServer.getAddress().getPort());
+        config.setAccessKey("test-access-key");
+        config.setAcessSecret("test-secret");
+        config.setBucketName("drawio");
+        presigner = config.s3Presigner();
+        s3Client = config.s3Client();
+        rustFsManager = new RustFsManager();
+        ReflectionTestUtils.setField(rustFsManager, "clientConfig", config);
+        ReflectionTestUtils.setField(rustFsManager, "s3Client", s3Client);
+        ReflectionTestUtils.setField(rustFsManager, "s3Presigner", presigner);
+    }
+
+    @AfterEach
+    void tearDown() {
+        presigner.close();
+        s3Client.close();
+        stubServer.stop(0);
+    }
+
+    @Test
+    void presignedUrlDownloadsDirectlyFromObjectStorage() throws Exception {
+        String fileUrl = "https://oss.intellidraw.top/drawio/diagram/1/%E6%9E%B6%E6%9E%84.svg";
+
+        String presignedUrl = rustFsManager.presignDownloadUrl(fileUrl, "架构图.svg");
+
+        assertNotNull(presignedUrl);
+        HttpResponse<byte[]> response = HttpClient.newHttpClient().send(
+                HttpRequest.newBuilder(URI.create(presignedUrl)).GET().build(),
+                HttpResponse.BodyHandlers.ofByteArray());
+        assertEquals(200, response.statusCode());
+        assertEquals(new String(FILE_CONTENT, StandardCharsets.UTF_8), new String(response.body(), StandardCharsets.UTF_8));
+        // 路径风格：/桶名/对象key，key 还原为上传时的原始名称
+        assertEquals("/drawio/diagram/1/架构.svg", lastRequest.get().getPath());
+        assertTrue(lastRequest.get().getRawQuery().contains("response-content-disposition="));
+    }
+
+    @Test
+    void foreignUrlFallsBackToProxy() {
+        assertNull(rustFsManager.presignDownloadUrl("https://example.com/drawio/a.png", null));
+        assertNull(rustFsManager.presignDownloadUrl(null, null));
+    }
+
+    @Test
+    @Tag("load")
+    void knownLengthUploadStreamsWithoutBuffering() {
+        String fileUrl = rustFsManager.putObject("upload/known.bin", new GeneratedInputStream(LARGE_FILE_SIZE), LARGE_FILE_SIZE);
+
+        assertEquals("https://oss.intellidraw.top/drawio/upload/known.bin", fileUrl);
+        assertEquals(LARGE_FILE_SIZE, receivedBytes.get());
+        assertEquals(0, receivedParts.get());
+    }
+
+    @Test
+    void unknownLengthUploadUsesMultipart() {
+        String fileUrl = rustFsManager.putObject("upload/unknown.bin", new GeneratedInputStream(MULTIPART_FILE_SIZE));
+
+        assertEquals("https://oss.intellidraw.top/drawio/upload/unknown.bin", fileUrl);
+        assertEquals(MULTIPART_FILE_SIZE, receivedBytes.get());
+        // 20MB / 8MB 分片
+        assertEquals(3, receivedParts.get());
+        assertTrue(completed.get());
+    }
+
+    @Test
+    @Tag("load")
+    void largeUnknownLengthUploadUsesMultipart() {
+        String fileUrl = rustFsManager.putObject("upload/unknown.bin", new GeneratedInputStream(LARGE_FILE_SIZE));
+
+        assertEquals("https://oss.intellidraw.top/drawio/upload/unknown.bin", fileUrl);
+        assertEquals(LARGE_FILE_SIZE, receivedBytes.get());
+        // 500MB / 8MB 分片
+        assertEquals(63, receivedParts.get());
+        assertTrue(completed.get());
+    }
+
+    @Test
+    void smallUnknownLengthUploadUsesSinglePut() {
+        rustFsManager.putObject("upload/small.svg", new ByteArrayInputStream(FILE_CONTENT));
+
+        assertEquals(FILE_CONTENT.length, receivedBytes.get());
+        assertEquals(0, receivedParts.get());
+        assertFalse(completed.get());
+    }
+
+    /**
+     * 最小化的 S3 上传协议：PutObject、CreateMultipartUpload、UploadPart、CompleteMultipartUpload
+     */
+    private void handleUpload(HttpExchange exchange) throws IOException {
+        String query = exchange.getRequestURI().getRawQuery();
+        String body = "";
+        if ("POST".equals(exchange.getRequestMethod()) && "uploads".equals(StringUtils.substringBefore(query, "="))) {
+            drain(exchange.getRequestBody());
+            body = "<InitiateMultipartUploadResult><Bucket>drawio</Bucket><Key>k</Key><UploadId>upload-1</UploadId></InitiateMultipartUploadResult>";
+        } else if ("POST".equals(exchange.getRequestMethod())) {
+            drain(exchange.getRequestBody());
+            completed.set(true);
+            body = "<CompleteMultipartUploadResult><Bucket>drawio</Bucket><Key>k</Key><ETag>\"done\"</ETag></CompleteMultipartUploadResult>";
+        } else {
+            // 签名分块编码时实际内容长度在 x-amz-decoded-content-length 中
+            String decodedLength = exchange.getRequestHeaders().getFirst("x-amz-decoded-content-length");
+            long length = drain(exchange.getRequestBody());
+            receivedBytes.addAndGet(decodedLength != null ? Long.parseLong(decodedLength) : length);
+            if (query != null && query.contains("partNumber=")) {
+                receivedParts.incrementAndGet();
+            }
+            exchange.getResponseHeaders().add("ETag", "\"etag\"");
+            // 桩不计算 MD5，声明服务端加密让 SDK 跳过 ETag 校验
+            exchange.getResponseHeaders().add("x-amz-server-side-encryption", "aws:kms");
+        }
+        byte[] bytes = body.getBytes(StandardCharsets.UTF_8);
+        exchange.sendResponseHeaders(200, bytes.length == 0 ? -1 : bytes.length);
+        try (OutputStream out = exchange.getResponseBody()) {
+            out.write(bytes);
+        }
+    }
+
+    private static long drain(InputStream in) throws IOException {
+        byte[] buffer = new byte[64 * 1024];
+        long total = 0;
+        int n;
+        while ((n = in.read(buffer)) > 0) {
+            total += n;
+        }
+        return total;
+    }
+
+    /**
+     * 按需生成内容的输入流，不占用与长度成比例的内存
+     */
+    private static class GeneratedInputStream extends InputStream {
+
+        private long remaining;
+
+        GeneratedInputStream(long length) {
+            this.remaining = length;
+        }
+
+        @Override
+        public int read() {
+            if (remaining <= 0) {
+                return -1;
+            }
+            remaining--;
+            return (int) (remaining & 0x7F);
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) {
+            if (remaining <= 0) {
+                return -1;
+            }
+            int n = (int) Math.min(len, remaining);
+            Arrays.fill(b, off, off + n, (byte) 'x');
+            remaining -= n;
+            return n;
+        }
+    }
+}
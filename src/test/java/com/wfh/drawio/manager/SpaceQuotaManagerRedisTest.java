@@ -0,0 +1,117 @@
+package com.wfh.drawio.manager;
+
+import com.wfh.drawio.exception.BusinessException;
+import com.wfh.drawio.mapper.DiagramMapper;
+import com.wfh.drawio.mapper.SpaceMapper;
+import com.wfh.drawio.model.entity.Space;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.condition.EnabledIfSystemProperty;
+import org.springframework.data.redis.connection.RedisStandaloneConfiguration;
+import org.springframework.data.redis.connection.lettuce.LettuceConnectionFactory;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+/**
+ * 空间额度 Lua 脚本：需要真实 Redis，mvn test -Ddrawio.test.redis-host=localhost 时运行
+ */
+@EnabledIfSystemProperty(named = "drawio.test.redis-host", matches = ".+")
+class SpaceQuotaManagerRedisTest {
+
+    private static final long SPACE_ID = 987_654_321L;
+
+    private static final String QUOTA_KEY = "space:quota:" + SPACE_ID;
+
+    private LettuceConnectionFactory connectionFactory;
+
+    private StringRedisTemplate stringRedisTemplate;
+
+    private SpaceQuotaManager manager;
+
+    @BeforeEach
+    void setUp() {
+        connectionFactory = new LettuceConnectionFactory(new RedisStandaloneConfiguration(
+                System.getProperty("drawio.test.redis-host"), Integer.getInteger("drawio.test.redis-port", 6379)));
+        connectionFactory.afterPropertiesSet();
+        stringRedisTemplate = new StringRedisTemplate(connectionFactory);
+        stringRedisTemplate.delete(QUOTA_KEY);
+        stringRedisTemplate.opsForSet().remove("space:quota:dirty", String.valueOf(SPACE_ID));
+
+        Space space = new Space();
+        space.setId(SPACE_ID);
+        space.setTotalCount(8L);
+        space.setTotalSize(800L);
+        space.setMaxCount(10L);
+        space.setMaxSize(1000L);
+        SpaceMapper spaceMapper = mock(SpaceMapper.class);
+        when(spaceMapper.selectById(SPACE_ID)).thenReturn(space);
+        manager = new SpaceQuotaManager();
+        ReflectionTestUtils.setField(manager, "stringRedisTemplate", stringRedisTemplate);
+        ReflectionTestUtils.setField(manager, "spaceMapper", spaceMapper);
+        ReflectionTestUtils.setField(manager, "diagramMapper", mock(DiagramMapper.class));
+    }
+
+    @AfterEach
+    void tearDown() {
+        stringRedisTemplate.delete(QUOTA_KEY);
+        stringRedisTemplate.opsForSet().remove("space:quota:dirty", String.valueOf(SPACE_ID));
+        connectionFactory.destroy();
+    }
+
+    @Test
+    void concurrentReservesNeverExceedLimit() throws Exception {
+        AtomicInteger accepted = new AtomicInteger();
+        try (ExecutorService executor = Executors.newFixedThreadPool(8)) {
+            List<Future<?>> futures = new ArrayList<>();
+            for (int i = 0; i < 20; i++) {
+                futures.add(executor.submit(() -> {
+                    try {
+                        manager.reserve(SPACE_ID, 1, 10);
+                        accepted.incrementAndGet();
+                    } catch (BusinessException ignored) {
+                        // 额度不足
+                    }
+                }));
+            }
+            for (Future<?> future : futures) {
+                future.get();
+            }
+        }
+
+        // 从 MySQL 加载的 8 条 + 剩余 2 条
+        assertEquals(2, accepted.get());
+        assertEquals("10", stringRedisTemplate.opsForHash().get(QUOTA_KEY, "count"));
+        assertEquals("820", stringRedisTemplate.opsForHash().get(QUOTA_KEY, "size"));
+        Set<String> dirty = stringRedisTemplate.opsForSet().members("space:quota:dirty");
+        assertTrue(dirty != null && dirty.contains(String.valueOf(SPACE_ID)));
+    }
+
+    @Test
+    void sizeLimitAndReleaseUseSameCounters() {
+        assertEquals("空间大小不足",
+                assertThrows(BusinessException.class, () -> manager.reserve(SPACE_ID, 1, 201)).getMessage());
+
+        manager.reserve(SPACE_ID, 1, 200);
+        manager.release(SPACE_ID, 1, 200);
+        // 替换为更小的文件，大小增量为负，不校验上限
+        manager.reserve(SPACE_ID, 0, -300);
+
+        assertEquals("8", stringRedisTemplate.opsForHash().get(QUOTA_KEY, "count"));
+        assertEquals("500", stringRedisTemplate.opsForHash().get(QUOTA_KEY, "size"));
+    }
+}
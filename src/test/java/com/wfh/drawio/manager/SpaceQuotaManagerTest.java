@@ -0,0 +1,161 @@
+package com.wfh.drawio.manager;
+
+import com.baomidou.mybatisplus.core.MybatisConfiguration;
+import com.baomidou.mybatisplus.core.metadata.TableInfoHelper;
+import com.wfh.drawio.exception.BusinessException;
+import com.wfh.drawio.mapper.DiagramMapper;
+import com.wfh.drawio.mapper.SpaceMapper;
+import com.wfh.drawio.model.entity.Space;
+import org.apache.ibatis.builder.MapperBuilderAssistant;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.ArgumentCaptor;
+import org.redisson.api.RLock;
+import org.redisson.api.RedissonClient;
+import org.springframework.data.redis.core.HashOperations;
+import org.springframework.data.redis.core.SetOperations;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.core.script.RedisScript;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyList;
+import static org.mockito.ArgumentMatchers.anyLong;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.doReturn;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+/**
+ * 空间额度：未加载时从 MySQL 加载后重试、回写绝对值、按图表表校准漂移
+ */
+class SpaceQuotaManagerTest {
+
+    private static final String QUOTA_KEY = "space:quota:1";
+
+    private StringRedisTemplate stringRedisTemplate;
+
+    private HashOperations<String, Object, Object> hashOperations;
+
+    private SetOperations<String, String> setOperations;
+
+    private SpaceMapper spaceMapper;
+
+    private DiagramMapper diagramMapper;
+
+    private SpaceQuotaManager manager;
+
+    @BeforeAll
+    static void initTableInfo() {
+        TableInfoHelper.initTableInfo(new MapperBuilderAssistant(new MybatisConfiguration(), ""), Space.class);
+    }
+
+    @BeforeEach
+    @SuppressWarnings("unchecked")
+    void setUp() {
+        stringRedisTemplate = mock(StringRedisTemplate.class);
+        hashOperations = mock(HashOperations.class);
+        setOperations = mock(SetOperations.class);
+        doReturn(hashOperations).when(stringRedisTemplate).opsForHash();
+        when(stringRedisTemplate.opsForSet()).thenReturn(setOperations);
+        spaceMapper = mock(SpaceMapper.class);
+        diagramMapper = mock(DiagramMapper.class);
+        RedissonClient redissonClient = mock(RedissonClient.class);
+        RLock lock = mock(RLock.class);
+        when(lock.tryLock()).thenReturn(true);
+        when(lock.isHeldByCurrentThread()).thenReturn(true);
+        when(redissonClient.getLock(anyString())).thenReturn(lock);
+        manager = new SpaceQuotaManager();
+        ReflectionTestUtils.setField(manager, "stringRedisTemplate", stringRedisTemplate);
+        ReflectionTestUtils.setField(manager, "spaceMapper", spaceMapper);
+        ReflectionTestUtils.setField(manager, "diagramMapper", diagramMapper);
+        ReflectionTestUtils.setField(manager, "redissonClient", redissonClient);
+    }
+
+    @Test
+    void reserveLoadsSpaceWhenNotInRedisAndRetries() {
+        when(stringRedisTemplate.execute(script("APPLY_SCRIPT"), anyList(), any(Object[].class))).thenReturn(-1L, 0L);
+        when(spaceMapper.selectById(1L)).thenReturn(space(1L, 3L, 300L));
+
+        manager.reserve(1L, 1, 100);
+
+        verify(stringRedisTemplate).execute(script("LOAD_SCRIPT"), eq(List.of(QUOTA_KEY)), eq("3"), eq("300"), eq("10"), eq("1000"));
+        verify(stringRedisTemplate, times(2)).execute(script("APPLY_SCRIPT"), eq(List.of(QUOTA_KEY, "space:quota:dirty")),
+                eq("1"), eq("100"), eq("1"));
+    }
+
+    @Test
+    void reserveRejectsWhenLimitExceeded() {
+        when(stringRedisTemplate.execute(script("APPLY_SCRIPT"), anyList(), any(Object[].class))).thenReturn(1L, 2L);
+
+        assertEquals("空间条数不足", assertThrows(BusinessException.class, () -> manager.reserve(1L, 1, 100)).getMessage());
+        assertEquals("空间大小不足", assertThrows(BusinessException.class, () -> manager.reserve(1L, 1, 100)).getMessage());
+    }
+
+    @Test
+    void flushWritesAbsoluteTotalsAndRequeuesOnFailure() {
+        when(setOperations.pop("space:quota:dirty", 200)).thenReturn(List.of("1", "2")).thenReturn(List.of());
+        when(hashOperations.multiGet(eq(QUOTA_KEY), anyList())).thenReturn(Arrays.asList("4", "400"));
+        when(hashOperations.multiGet(eq("space:quota:2"), anyList())).thenReturn(Arrays.asList("5", "500"));
+        when(spaceMapper.updateById(any(Space.class))).thenReturn(1).thenThrow(new IllegalStateException("db down"));
+
+        manager.flush();
+
+        ArgumentCaptor<Space> captor = ArgumentCaptor.forClass(Space.class);
+        verify(spaceMapper, times(2)).updateById(captor.capture());
+        assertEquals(4L, captor.getAllValues().get(0).getTotalCount());
+        assertEquals(400L, captor.getAllValues().get(0).getTotalSize());
+        verify(setOperations).add("space:quota:dirty", "2");
+        verify(setOperations, never()).add("space:quota:dirty", "1");
+    }
+
+    @Test
+    void reconcileCorrectsDriftFromDiagramRows() {
+        // 1: Redis 与 MySQL 都多算了一次；2: Redis 未加载，MySQL 有偏差；3: 统计期间计数变了
+        when(spaceMapper.selectList(any())).thenReturn(List.of(space(1L, 5L, 500L), space(2L, 2L, 0L), space(3L, 1L, 10L)));
+        when(hashOperations.multiGet(eq(QUOTA_KEY), anyList())).thenReturn(Arrays.asList("5", "500"));
+        when(hashOperations.multiGet(eq("space:quota:2"), anyList())).thenReturn(Arrays.asList(null, null));
+        when(hashOperations.multiGet(eq("space:quota:3"), anyList())).thenReturn(Arrays.asList("1", "10"));
+        when(diagramMapper.selectSpaceUsage(1L, 3L)).thenReturn(List.of(space(1L, 4L, 400L), space(3L, 2L, 20L)));
+        when(stringRedisTemplate.execute(script("RECONCILE_SCRIPT"), eq(List.of(QUOTA_KEY)), any(Object[].class))).thenReturn(1L);
+        when(stringRedisTemplate.execute(script("RECONCILE_SCRIPT"), eq(List.of("space:quota:3")), any(Object[].class))).thenReturn(0L);
+
+        manager.reconcile();
+
+        verify(stringRedisTemplate).execute(script("RECONCILE_SCRIPT"), eq(List.of(QUOTA_KEY)), eq("5"), eq("500"), eq("4"), eq("400"));
+        ArgumentCaptor<Space> captor = ArgumentCaptor.forClass(Space.class);
+        verify(spaceMapper, times(2)).updateById(captor.capture());
+        assertEquals(List.of(1L, 2L), captor.getAllValues().stream().map(Space::getId).toList());
+        assertEquals(4L, captor.getAllValues().get(0).getTotalCount());
+        assertEquals(400L, captor.getAllValues().get(0).getTotalSize());
+        // 空间 2 没有图表
+        assertEquals(0L, captor.getAllValues().get(1).getTotalCount());
+        assertEquals(0L, captor.getAllValues().get(1).getTotalSize());
+        verify(diagramMapper, never()).selectSpaceUsage(eq(4L), anyLong());
+    }
+
+    @SuppressWarnings("unchecked")
+    private static RedisScript<Long> script(String name) {
+        return eq((RedisScript<Long>) ReflectionTestUtils.getField(SpaceQuotaManager.class, name));
+    }
+
+    private static Space space(Long id, Long totalCount, Long totalSize) {
+        Space space = new Space();
+        space.setId(id);
+        space.setTotalCount(totalCount);
+        space.setTotalSize(totalSize);
+        space.setMaxCount(10L);
+        space.setMaxSize(1000L);
+        return space;
+    }
+}
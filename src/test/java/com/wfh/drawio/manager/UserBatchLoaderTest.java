@@ -0,0 +1,81 @@
+package com.wfh.drawio.manager;
+
+import com.wfh.drawio.mapper.UserMapper;
+import com.wfh.drawio.model.entity.User;
+import com.wfh.drawio.model.vo.DiagramVO;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.mockito.ArgumentMatchers.anyCollection;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+/**
+ * 用户批量加载器查询次数校验
+ */
+class UserBatchLoaderTest {
+
+    private UserMapper userMapper;
+
+    private UserBatchLoader userBatchLoader;
+
+    @BeforeEach
+    void setUp() {
+        userMapper = mock(UserMapper.class);
+        when(userMapper.selectByIds(anyCollection())).thenAnswer(invocation -> {
+            Collection<Long> ids = invocation.getArgument(0);
+            // 模拟 ID 为 0 ~ 9 的用户存在
+            return ids.stream().filter(id -> id < 10).map(id -> {
+                User user = new User();
+                user.setId(id);
+                user.setUserName("user" + id);
+                return user;
+            }).toList();
+        });
+        userBatchLoader = new UserBatchLoader();
+        ReflectionTestUtils.setField(userBatchLoader, "userMapper", userMapper);
+        userBatchLoader.init();
+    }
+
+    @Test
+    void fillUserVOQueriesOncePerPage() {
+        List<DiagramVO> page = new ArrayList<>();
+        for (int i = 0; i < 20; i++) {
+            DiagramVO diagramVO = new DiagramVO();
+            diagramVO.setUserId((long) (i % 5) + 1);
+            page.add(diagramVO);
+        }
+        userBatchLoader.fillUserVO(page, DiagramVO::getUserId, DiagramVO::setUserVO);
+
+        verify(userMapper, times(1)).selectByIds(anyCollection());
+        page.forEach(vo -> assertEquals(vo.getUserId(), vo.getUserVO().getId()));
+    }
+
+    @Test
+    void warmPageHitsCacheWithoutQuery() {
+        userBatchLoader.loadUsers(List.of(1L, 2L, 3L));
+        userBatchLoader.loadUsers(List.of(1L, 2L, 3L));
+        assertNotNull(userBatchLoader.loadUser(2L));
+
+        verify(userMapper, times(1)).selectByIds(anyCollection());
+    }
+
+    @Test
+    void missingUserLeavesUserVOEmpty() {
+        DiagramVO diagramVO = new DiagramVO();
+        diagramVO.setUserId(42L);
+        userBatchLoader.fillUserVO(List.of(diagramVO), DiagramVO::getUserId, DiagramVO::setUserVO);
+
+        assertNull(diagramVO.getUserVO());
+    }
+}
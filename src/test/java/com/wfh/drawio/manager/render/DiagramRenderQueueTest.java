@@ -0,0 +1,94 @@
+package com.wfh.drawio.manager.render;
+
+import com.baomidou.mybatisplus.core.MybatisConfiguration;
+import com.baomidou.mybatisplus.core.metadata.TableInfoHelper;
+import com.wfh.drawio.manager.DiagramContentStore;
+import com.wfh.drawio.mapper.DiagramMapper;
+import com.wfh.drawio.model.entity.Diagram;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.apache.ibatis.builder.MapperBuilderAssistant;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.time.Duration;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.LongStream;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTimeoutPreemptively;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyLong;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.timeout;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+/**
+ * 存量回填：后台排队、队列满时等待而不是在调用线程渲染或丢弃
+ */
+class DiagramRenderQueueTest {
+
+    private DiagramMapper diagramMapper;
+
+    private DiagramRenderQueue queue;
+
+    private final CountDownLatch renderBlocked = new CountDownLatch(1);
+
+    @BeforeAll
+    static void initTableInfo() {
+        TableInfoHelper.initTableInfo(new MapperBuilderAssistant(new MybatisConfiguration(), ""), Diagram.class);
+    }
+
+    @BeforeEach
+    void setUp() {
+        diagramMapper = mock(DiagramMapper.class);
+        // 渲染线程卡住，模拟渲染跟不上
+        when(diagramMapper.selectById(anyLong())).thenAnswer(invocation -> {
+            renderBlocked.await(10, TimeUnit.SECONDS);
+            return null;
+        });
+        queue = new DiagramRenderQueue();
+        ReflectionTestUtils.setField(queue, "enabled", true);
+        ReflectionTestUtils.setField(queue, "workers", 1);
+        ReflectionTestUtils.setField(queue, "queueCapacity", 4);
+        ReflectionTestUtils.setField(queue, "diagramMapper", diagramMapper);
+        ReflectionTestUtils.setField(queue, "diagramContentStore", mock(DiagramContentStore.class));
+        ReflectionTestUtils.setField(queue, "meterRegistry", new SimpleMeterRegistry());
+        queue.init();
+    }
+
+    @AfterEach
+    void tearDown() {
+        renderBlocked.countDown();
+        queue.destroy();
+    }
+
+    @Test
+    void backfillReturnsImmediatelyAndWaitsForQueueSpace() {
+        List<Diagram> diagrams = LongStream.rangeClosed(1, 20).mapToObj(id -> {
+            Diagram diagram = new Diagram();
+            diagram.setId(id);
+            return diagram;
+        }).toList();
+        when(diagramMapper.selectList(any())).thenReturn(diagrams);
+
+        boolean started = assertTimeoutPreemptively(Duration.ofSeconds(1), () -> queue.backfill());
+
+        assertTrue(started);
+        // 回填进行中不会重复开始
+        assertFalse(queue.backfill());
+
+        renderBlocked.countDown();
+        // 队列容量只有 4，20 个图表都等到了空位而不是被丢弃
+        verify(diagramMapper, timeout(5000).times(20)).selectById(anyLong());
+        assertEquals(0, ((SimpleMeterRegistry) ReflectionTestUtils.getField(queue, "meterRegistry"))
+                .counter("drawio.render.dropped").count());
+    }
+}
@@ -0,0 +1,115 @@
+package com.wfh.drawio.manager.render;
+
+import org.junit.jupiter.api.Test;
+
+import javax.imageio.ImageIO;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.net.URLEncoder;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Base64;
+import java.util.zip.Deflater;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * 缩略图渲染校验
+ */
+class DiagramThumbnailRendererTest {
+
+    private static final String MODEL = """
+            <mxGraphModel><root>
+              <mxCell id="0"/>
+              <mxCell id="1" parent="0"/>
+              <mxCell id="a" value="开始" style="rounded=1;fillColor=#FF0000;" vertex="1" parent="1">
+                <mxGeometry x="0" y="0" width="400" height="200" as="geometry"/>
+              </mxCell>
+              <object id="b" label="结束">
+                <mxCell style="ellipse;fillColor=#0000FF;" vertex="1" parent="1">
+                  <mxGeometry x="1200" y="400" width="400" height="200" as="geometry"/>
+                </mxCell>
+              </object>
+              <mxCell id="e" edge="1" parent="1" source="a" target="b">
+                <mxGeometry relative="1" as="geometry"/>
+              </mxCell>
+            </root></mxGraphModel>
+            """;
+
+    @Test
+    void rendersShapesScaledToFit() throws Exception {
+        byte[] png = DiagramThumbnailRenderer.renderPng(MODEL, 320, 200);
+
+        assertNotNull(png);
+        BufferedImage image = ImageIO.read(new ByteArrayInputStream(png));
+        // 1600x600 的图按宽度缩放到 320 以内，保持宽高比
+        assertTrue(image.getWidth() <= 320);
+        assertTrue(image.getHeight() < 200);
+        assertEquals(0xFF0000, image.getRGB(30, 20) & 0xFFFFFF);
+        assertEquals(0x0000FF, image.getRGB(image.getWidth() - 40, image.getHeight() - 20) & 0xFFFFFF);
+        // 缩略图只有几 KB
+        assertTrue(png.length < 16 * 1024);
+    }
+
+    @Test
+    void rendersCompressedMxfilePage() throws Exception {
+        String mxfile = "<mxfile><diagram id=\"p1\" name=\"Page-1\">" + compressPage(MODEL) + "</diagram></mxfile>";
+
+        byte[] png = DiagramThumbnailRenderer.renderPng(mxfile, 320, 200);
+
+        assertNotNull(png);
+        BufferedImage image = ImageIO.read(new ByteArrayInputStream(png));
+        assertEquals(0xFF0000, image.getRGB(30, 20) & 0xFFFFFF);
+    }
+
+    @Test
+    void emptyOrInvalidDiagramHasNoThumbnail() {
+        assertNull(DiagramThumbnailRenderer.renderPng("<mxGraphModel><root><mxCell id=\"0\"/></root></mxGraphModel>", 320, 200));
+        assertNull(DiagramThumbnailRenderer.renderPng("not xml", 320, 200));
+        assertNull(DiagramThumbnailRenderer.renderPng(
+                "<!DOCTYPE x [<!ENTITY e SYSTEM \"file:///etc/passwd\">]><mxGraphModel>&e;</mxGraphModel>", 320, 200));
+    }
+
+    @Test
+    void compressedPageBombIsRejected() {
+        // 约 64KB 的压缩数据解压后是 64MB
+        Deflater deflater = new Deflater(Deflater.BEST_COMPRESSION, true);
+        byte[] chunk = new byte[1024 * 1024];
+        Arrays.fill(chunk, (byte) 'a');
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        byte[] buffer = new byte[8192];
+        for (int i = 0; i < 64; i++) {
+            deflater.setInput(chunk);
+            while (!deflater.needsInput()) {
+                out.write(buffer, 0, deflater.deflate(buffer));
+            }
+        }
+        deflater.finish();
+        while (!deflater.finished()) {
+            out.write(buffer, 0, deflater.deflate(buffer));
+        }
+        deflater.end();
+        assertTrue(out.size() < 128 * 1024);
+        String mxfile = "<mxfile><diagram id=\"p1\">" + Base64.getEncoder().encodeToString(out.toByteArray()) + "</diagram></mxfile>";
+
+        assertNull(DiagramThumbnailRenderer.renderPng(mxfile, 320, 200));
+    }
+
+    private static String compressPage(String xml) {
+        byte[] raw = URLEncoder.encode(xml, StandardCharsets.UTF_8).replace("+", "%20").getBytes(StandardCharsets.UTF_8);
+        Deflater deflater = new Deflater(Deflater.DEFAULT_COMPRESSION, true);
+        deflater.setInput(raw);
+        deflater.finish();
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        byte[] buffer = new byte[1024];
+        while (!deflater.finished()) {
+            out.write(buffer, 0, deflater.deflate(buffer));
+        }
+        deflater.end();
+        return Base64.getEncoder().encodeToString(out.toByteArray());
+    }
+}
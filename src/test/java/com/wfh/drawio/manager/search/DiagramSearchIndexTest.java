@@ -0,0 +1,146 @@
+package com.wfh.drawio.manager.search;
+
+import com.baomidou.mybatisplus.core.MybatisConfiguration;
+import com.baomidou.mybatisplus.core.metadata.TableInfoHelper;
+import com.wfh.drawio.manager.DiagramContentStore;
+import com.wfh.drawio.mapper.DiagramMapper;
+import com.wfh.drawio.model.entity.Diagram;
+import org.apache.ibatis.builder.MapperBuilderAssistant;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.listener.RedisMessageListenerContainer;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyCollection;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+/**
+ * 全文检索：范围过滤在索引内生效，全站命中很多时本空间的结果不被挤掉
+ */
+class DiagramSearchIndexTest {
+
+    private static final long MY_SPACE = 42L;
+
+    private static final long ME = 7L;
+
+    @TempDir
+    Path indexDir;
+
+    private DiagramMapper diagramMapper;
+
+    private DiagramSearchIndex index;
+
+    @BeforeAll
+    static void initTableInfo() {
+        TableInfoHelper.initTableInfo(new MapperBuilderAssistant(new MybatisConfiguration(), ""), Diagram.class);
+    }
+
+    @BeforeEach
+    void setUp() throws Exception {
+        diagramMapper = mock(DiagramMapper.class);
+        DiagramContentStore contentStore = mock(DiagramContentStore.class);
+        when(contentStore.getAll(anyCollection())).thenReturn(Map.of());
+        index = newIndex(indexDir, true);
+        ReflectionTestUtils.setField(index, "diagramMapper", diagramMapper);
+        ReflectionTestUtils.setField(index, "diagramContentStore", contentStore);
+        index.init();
+    }
+
+    @AfterEach
+    void tearDown() {
+        index.destroy();
+    }
+
+    @Test
+    void scopeFiltersApplyBeforeTopHits() {
+        List<Diagram> diagrams = new ArrayList<>();
+        // 全站 20 个公共图表都命中，超过 maxHits
+        for (long id = 1; id <= 20; id++) {
+            diagrams.add(diagram(id, null, 100L + id));
+        }
+        diagrams.add(diagram(21, MY_SPACE, ME));
+        diagrams.add(diagram(22, MY_SPACE, 8L));
+        diagrams.add(diagram(23, null, ME));
+        when(diagramMapper.selectList(any())).thenReturn(diagrams).thenReturn(List.of());
+
+        assertNull(index.search("登录流程", null, null, null, false), "重建完成前回退数据库查询");
+        index.rebuild();
+
+        assertEquals(5, index.search("登录流程", null, null, null, false).size());
+        assertEquals(List.of(21L, 22L).stream().sorted().toList(),
+                index.search("登录流程", null, MY_SPACE, null, false).stream().sorted().toList());
+        assertEquals(List.of(21L), index.search("登录", null, MY_SPACE, ME, false));
+        assertEquals(List.of(23L), index.search(null, "流程", null, ME, true));
+        assertTrue(index.search("登录", null, 999L, null, false).isEmpty());
+    }
+
+    @Test
+    void searchPagePagesInsideIndexBeyondMaxHits() {
+        List<Diagram> diagrams = new ArrayList<>();
+        for (long id = 1; id <= 12; id++) {
+            diagrams.add(diagram(id, null, ME));
+        }
+        when(diagramMapper.selectList(any())).thenReturn(diagrams).thenReturn(List.of());
+        index.rebuild();
+
+        // maxHits 为 5，总数与后面的页不受影响
+        DiagramSearchIndex.SearchPage first = index.searchPage("登录流程", null, null, ME, false, 0, 5);
+        DiagramSearchIndex.SearchPage second = index.searchPage("登录流程", null, null, ME, false, 5, 5);
+        DiagramSearchIndex.SearchPage last = index.searchPage("登录流程", null, null, ME, false, 10, 5);
+        assertEquals(12, first.total());
+        assertEquals(5, second.ids().size());
+        assertEquals(2, last.ids().size());
+        List<Long> all = new ArrayList<>(first.ids());
+        all.addAll(second.ids());
+        all.addAll(last.ids());
+        assertEquals(12, all.stream().distinct().count());
+
+        DiagramSearchIndex.SearchPage beyond = index.searchPage("登录流程", null, null, ME, false, 20, 5);
+        assertTrue(beyond.ids().isEmpty());
+        assertEquals(12, beyond.total());
+    }
+
+    @Test
+    void occupiedIndexDirFallsBackToDatabase() throws Exception {
+        DiagramSearchIndex second = newIndex(indexDir, false);
+
+        second.init();
+
+        assertNull(second.search("登录", null, null, null, false));
+        second.destroy();
+    }
+
+    private static DiagramSearchIndex newIndex(Path dir, boolean rebuildOnStartup) {
+        DiagramSearchIndex index = new DiagramSearchIndex();
+        ReflectionTestUtils.setField(index, "enabled", true);
+        ReflectionTestUtils.setField(index, "indexDir", dir.toString());
+        ReflectionTestUtils.setField(index, "rebuildOnStartup", rebuildOnStartup);
+        ReflectionTestUtils.setField(index, "maxHits", 5);
+        ReflectionTestUtils.setField(index, "stringRedisTemplate", mock(StringRedisTemplate.class));
+        ReflectionTestUtils.setField(index, "redisMessageListenerContainer", mock(RedisMessageListenerContainer.class));
+        return index;
+    }
+
+    private static Diagram diagram(long id, Long spaceId, Long userId) {
+        Diagram diagram = new Diagram();
+        diagram.setId(id);
+        diagram.setName("登录流程图 " + id);
+        diagram.setSpaceId(spaceId);
+        diagram.setUserId(userId);
+        return diagram;
+    }
+}
@@ -0,0 +1,200 @@
+package com.wfh.drawio.security;
+
+import com.wfh.drawio.model.entity.SysAuthority;
+import com.wfh.drawio.model.entity.User;
+import org.junit.jupiter.api.Tag;
+import org.junit.jupiter.api.Test;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.data.redis.serializer.JdkSerializationRedisSerializer;
+import org.springframework.security.authentication.UsernamePasswordAuthenticationToken;
+import org.springframework.security.core.Authentication;
+import org.springframework.security.core.GrantedAuthority;
+import org.springframework.security.core.context.SecurityContext;
+import org.springframework.security.core.context.SecurityContextImpl;
+import org.springframework.security.web.savedrequest.SimpleSavedRequest;
+
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertInstanceOf;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * 登录态紧凑格式：往返、空字段、历史 JDK 数据、未知版本与体积对比
+ */
+class CompactSessionRedisSerializerTest {
+
+    private static final Logger log = LoggerFactory.getLogger(CompactSessionRedisSerializerTest.class);
+
+    private final CompactSessionRedisSerializer serializer =
+            new CompactSessionRedisSerializer(getClass().getClassLoader());
+
+    private final JdkSerializationRedisSerializer jdk = new JdkSerializationRedisSerializer(getClass().getClassLoader());
+
+    @Test
+    void userWithAuthoritiesRoundTrips() {
+        User user = user(10);
+
+        byte[] bytes = serializer.serialize(context(user));
+        User restored = principal(serializer.deserialize(bytes));
+
+        assertEquals('D', bytes[0]);
+        assertEquals(user.getId(), restored.getId());
+        assertEquals(user.getUserAccount(), restored.getUserAccount());
+        assertEquals(user.getUserName(), restored.getUserName());
+        assertEquals(user.getUserAvatar(), restored.getUserAvatar());
+        assertEquals(user.getUserProfile(), restored.getUserProfile());
+        assertEquals(user.getUserRole(), restored.getUserRole());
+        assertEquals(user.getGithubAccount(), restored.getGithubAccount());
+        assertEquals(user.getInviteCode(), restored.getInviteCode());
+        assertEquals(user.getCreateTime(), restored.getCreateTime());
+        assertEquals(user.getUpdateTime(), restored.getUpdateTime());
+        assertEquals(authorityCodes(user), authorityCodes(restored));
+        assertEquals(user.getAuthoritieList().get(3).getId(), restored.getAuthoritieList().get(3).getId());
+        // 敏感字段不写入 Redis
+        assertNull(restored.getUserPassword());
+        assertNull(restored.getMpOpenId());
+    }
+
+    @Test
+    void nullOptionalFieldsStayNull() {
+        User user = new User();
+        user.setId(7L);
+        user.setUserAccount("小明");
+        user.setAuthorities(null);
+        SysAuthority noId = new SysAuthority();
+        noId.setAuthority("diagram:view");
+
+        User restored = principal(serializer.deserialize(serializer.serialize(context(user))));
+
+        assertEquals(7L, restored.getId());
+        assertEquals("小明", restored.getUserAccount());
+        assertNull(restored.getUserName());
+        assertNull(restored.getUserAvatar());
+        assertNull(restored.getCreateTime());
+        assertNull(restored.getUpdateTime());
+        assertTrue(restored.getAuthoritieList().isEmpty());
+
+        user.setAuthorities(new ArrayList<>(List.of(noId)));
+        restored = principal(serializer.deserialize(serializer.serialize(context(user))));
+        assertNull(restored.getAuthoritieList().get(0).getId());
+        assertEquals("diagram:view", restored.getAuthoritieList().get(0).getAuthority());
+    }
+
+    @Test
+    void legacyJdkPayloadIsStillReadable() {
+        User user = user(2);
+        byte[] legacy = jdk.serialize(context(user));
+
+        User restored = principal(serializer.deserialize(legacy));
+
+        assertEquals(user.getId(), restored.getId());
+        assertEquals(authorityCodes(user), authorityCodes(restored));
+        // 其他 Session 属性仍走 JDK 格式
+        SimpleSavedRequest savedRequest = new SimpleSavedRequest("/api/diagram/list");
+        byte[] other = serializer.serialize(savedRequest);
+        assertEquals((byte) 0xAC, other[0]);
+        assertEquals("/api/diagram/list",
+                ((SimpleSavedRequest) serializer.deserialize(other)).getRedirectUrl());
+    }
+
+    @Test
+    void unknownVersionYieldsEmptyContext() {
+        byte[] bytes = serializer.serialize(context(user(1)));
+        bytes[2] = 99;
+
+        Object restored = serializer.deserialize(bytes);
+
+        SecurityContext context = assertInstanceOf(SecurityContext.class, restored);
+        assertNull(context.getAuthentication());
+    }
+
+    @Test
+    void compactFormatIsMuchSmallerThanJdk() {
+        SecurityContext context = context(user(10));
+
+        int compact = serializer.serialize(context).length;
+        int legacy = jdk.serialize(context).length;
+
+        log.info("session bytes with 10 authorities: compact={} jdk={}", compact, legacy);
+        assertTrue(compact * 4 < legacy, "compact=" + compact + ", jdk=" + legacy);
+    }
+
+    /**
+     * 反序列化耗时对比，mvn test -Dgroups=load 运行
+     */
+    @Test
+    @Tag("load")
+    void compactDeserializeIsFasterThanJdk() {
+        SecurityContext context = context(user(10));
+        byte[] compact = serializer.serialize(context);
+        byte[] legacy = jdk.serialize(context);
+        int rounds = 20_000;
+        // 预热
+        time(compact, rounds);
+        time(legacy, rounds);
+
+        double compactMicros = time(compact, rounds);
+        double jdkMicros = time(legacy, rounds);
+
+        log.info("deserialize per op: compact={}us jdk={}us", String.format("%.2f", compactMicros),
+                String.format("%.2f", jdkMicros));
+        assertTrue(compactMicros * 5 < jdkMicros, "compact=" + compactMicros + "us, jdk=" + jdkMicros + "us");
+    }
+
+    private double time(byte[] bytes, int rounds) {
+        long start = System.nanoTime();
+        for (int i = 0; i < rounds; i++) {
+            serializer.deserialize(bytes);
+        }
+        return (System.nanoTime() - start) / 1000.0 / rounds;
+    }
+
+    private static User user(int authorityCount) {
+        User user = new User();
+        user.setId(1868000000000000001L);
+        user.setUserAccount("wang");
+        user.setUserPassword("$2a$10$abcdefghijklmnopqrstuvabcdefghijklmnopqrstuv");
+        user.setMpOpenId("OpenId123456");
+        user.setUserName("张三");
+        user.setUserAvatar("https://example.com/avatar.jpg");
+        user.setUserProfile("这是一个用户简介");
+        user.setUserRole("user");
+        user.setGithubAccount("wang");
+        user.setInviteCode("AbC1d2");
+        user.setCreateTime(new Date(1_700_000_000_000L));
+        user.setUpdateTime(new Date(1_700_000_360_000L));
+        List<SysAuthority> authorities = new ArrayList<>();
+        for (int i = 0; i < authorityCount; i++) {
+            SysAuthority authority = new SysAuthority();
+            authority.setId(100L + i);
+            authority.setParentId(1L);
+            authority.setName("权限" + i);
+            authority.setDescription("用于测试的权限描述 " + i);
+            authority.setAuthority("diagram:op" + i);
+            authority.setType(1);
+            authority.setCreateTime(new Date());
+            authorities.add(authority);
+        }
+        user.setAuthorities(authorities);
+        return user;
+    }
+
+    private static SecurityContext context(User user) {
+        return new SecurityContextImpl(UsernamePasswordAuthenticationToken.authenticated(user, null, user.getAuthorities()));
+    }
+
+    private static User principal(Object restored) {
+        Authentication authentication = assertInstanceOf(SecurityContext.class, restored).getAuthentication();
+        assertTrue(authentication.isAuthenticated());
+        return assertInstanceOf(User.class, authentication.getPrincipal());
+    }
+
+    private static List<String> authorityCodes(User user) {
+        return user.getAuthorities().stream().map(GrantedAuthority::getAuthority).toList();
+    }
+}
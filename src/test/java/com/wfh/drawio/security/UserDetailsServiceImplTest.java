@@ -0,0 +1,131 @@
+package com.wfh.drawio.security;
+
+import com.wfh.drawio.mapper.SysAuthorityMapper;
+import com.wfh.drawio.mapper.UserMapper;
+import com.wfh.drawio.model.entity.SysAuthority;
+import com.wfh.drawio.model.entity.User;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.ArgumentCaptor;
+import org.springframework.data.redis.connection.DefaultMessage;
+import org.springframework.data.redis.connection.MessageListener;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.listener.ChannelTopic;
+import org.springframework.data.redis.listener.RedisMessageListenerContainer;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.Optional;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.Mockito.doThrow;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+/**
+ * 登录加载权限：突发登录每次只查用户行，权限集合只查一次；失效广播到其他节点
+ */
+class UserDetailsServiceImplTest {
+
+    private UserMapper userMapper;
+
+    private SysAuthorityMapper sysAuthorityMapper;
+
+    private StringRedisTemplate stringRedisTemplate;
+
+    private MessageListener evictListener;
+
+    private UserAuthorityCache userAuthorityCache;
+
+    private UserDetailsServiceImpl userDetailsService;
+
+    @BeforeEach
+    void setUp() {
+        userMapper = mock(UserMapper.class);
+        sysAuthorityMapper = mock(SysAuthorityMapper.class);
+        stringRedisTemplate = mock(StringRedisTemplate.class);
+        RedisMessageListenerContainer container = mock(RedisMessageListenerContainer.class);
+        userAuthorityCache = new UserAuthorityCache();
+        ReflectionTestUtils.setField(userAuthorityCache, "sysAuthorityMapper", sysAuthorityMapper);
+        ReflectionTestUtils.setField(userAuthorityCache, "stringRedisTemplate", stringRedisTemplate);
+        ReflectionTestUtils.setField(userAuthorityCache, "redisMessageListenerContainer", container);
+        ReflectionTestUtils.setField(userAuthorityCache, "enabled", true);
+        ReflectionTestUtils.setField(userAuthorityCache, "ttlSeconds", 60L);
+        userAuthorityCache.init();
+        ArgumentCaptor<MessageListener> captor = ArgumentCaptor.forClass(MessageListener.class);
+        verify(container).addMessageListener(captor.capture(), any(ChannelTopic.class));
+        evictListener = captor.getValue();
+
+        userDetailsService = new UserDetailsServiceImpl();
+        ReflectionTestUtils.setField(userDetailsService, "userMapper", userMapper);
+        ReflectionTestUtils.setField(userDetailsService, "userAuthorityCache", userAuthorityCache);
+
+        when(userMapper.findAccountByUsername("alice")).thenAnswer(invocation -> Optional.of(user()));
+        when(sysAuthorityMapper.findByUserId(1L)).thenReturn(List.of(authority("diagram:edit")));
+    }
+
+    @Test
+    void burstLoginQueriesAuthoritiesOnce() {
+        for (int i = 0; i < 50; i++) {
+            assertEquals(1, userDetailsService.loadUserByUsername("alice").getAuthorities().size());
+        }
+
+        verify(userMapper, times(50)).findAccountByUsername("alice");
+        verify(sysAuthorityMapper, times(1)).findByUserId(1L);
+    }
+
+    @Test
+    void evictIsBroadcastAndRemoteMessageInvalidates() {
+        userDetailsService.loadUserByUsername("alice");
+
+        userAuthorityCache.evict(1L);
+        userAuthorityCache.evictAll();
+        verify(stringRedisTemplate).convertAndSend("user:authority:evict", "1");
+        verify(stringRedisTemplate).convertAndSend("user:authority:evict", "*");
+
+        // 其他节点撤销了权限
+        userDetailsService.loadUserByUsername("alice");
+        when(sysAuthorityMapper.findByUserId(1L)).thenReturn(List.of());
+        evictListener.onMessage(message("1"), null);
+        assertEquals(0, userDetailsService.loadUserByUsername("alice").getAuthorities().size());
+
+        when(sysAuthorityMapper.findByUserId(1L)).thenReturn(List.of(authority("diagram:edit")));
+        evictListener.onMessage(message("*"), null);
+        assertEquals(1, userDetailsService.loadUserByUsername("alice").getAuthorities().size());
+        verify(sysAuthorityMapper, times(4)).findByUserId(1L);
+    }
+
+    @Test
+    void publishFailureStillEvictsLocally() {
+        userDetailsService.loadUserByUsername("alice");
+        doThrow(new IllegalStateException("redis down")).when(stringRedisTemplate).convertAndSend(anyString(), anyString());
+
+        userAuthorityCache.evict(1L);
+        userDetailsService.loadUserByUsername("alice");
+
+        verify(sysAuthorityMapper, times(2)).findByUserId(1L);
+    }
+
+    private static DefaultMessage message(String body) {
+        return new DefaultMessage("user:authority:evict".getBytes(StandardCharsets.UTF_8), body.getBytes(StandardCharsets.UTF_8));
+    }
+
+    private static User user() {
+        User user = new User();
+        user.setId(1L);
+        user.setUserAccount("alice");
+        return user;
+    }
+
+    private static SysAuthority authority(String code) {
+        SysAuthority authority = new SysAuthority();
+        authority.setId(1L);
+        authority.setAuthority(code);
+        return authority;
+    }
+}
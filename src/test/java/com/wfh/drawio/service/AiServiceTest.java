@@ -0,0 +1,217 @@
+package com.wfh.drawio.service;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Tag;
+import org.junit.jupiter.api.Test;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.test.util.ReflectionTestUtils;
+import org.springframework.web.servlet.mvc.method.annotation.ResponseBodyEmitter;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
+import reactor.core.publisher.Flux;
+
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryMXBean;
+import java.lang.reflect.Proxy;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.Mockito.mock;
+
+/**
+ * SSE 推送：慢客户端下的有界缓存、断开时取消上游、异常时结束流
+ */
+class AiServiceTest {
+
+    private static final Logger log = LoggerFactory.getLogger(AiServiceTest.class);
+
+    private static final int PREFETCH = 32;
+
+    private AiService aiService;
+
+    @BeforeEach
+    void setUp() {
+        aiService = new AiService(mock(DiagramService.class));
+        ReflectionTestUtils.setField(aiService, "timeoutMillis", 60_000L);
+        ReflectionTestUtils.setField(aiService, "prefetch", PREFETCH);
+    }
+
+    @AfterEach
+    void tearDown() {
+        aiService.destroy();
+    }
+
+    @Test
+    void slowClientBoundsBufferAndDisconnectCancelsUpstream() throws Exception {
+        ClientStream client = new ClientStream(5, null);
+        client.start(aiService);
+
+        Thread.sleep(300);
+        long sentBeforeDisconnect = client.sent.get();
+        assertTrue(sentBeforeDisconnect > 0);
+        // 读多少才向上游要多少
+        assertTrue(client.produced.get() - sentBeforeDisconnect <= PREFETCH + 1,
+                "produced=" + client.produced.get() + ", sent=" + sentBeforeDisconnect);
+
+        client.disconnect();
+
+        assertTrue(client.cancelled.await(2, TimeUnit.SECONDS));
+    }
+
+    @Test
+    void sendFailureCancelsUpstream() throws Exception {
+        ClientStream client = new ClientStream(0, new IOException("Broken pipe"));
+        client.start(aiService);
+
+        assertTrue(client.cancelled.await(2, TimeUnit.SECONDS));
+        assertTrue(client.completedWithError.await(2, TimeUnit.SECONDS));
+    }
+
+    @Test
+    void upstreamErrorIsSentAndStreamCompletes() throws Exception {
+        SseEmitter emitter = new SseEmitter(60_000L);
+        List<String> events = new ArrayList<>();
+        CountDownLatch completed = new CountDownLatch(1);
+        initialize(emitter, (method, args) -> {
+            switch (method.getName()) {
+                case "send" -> events.add(String.valueOf(args[0]));
+                case "complete" -> completed.countDown();
+                default -> {
+                }
+            }
+            return null;
+        });
+
+        aiService.bridge(Flux.concat(Flux.just("chunk"), Flux.error(new IllegalStateException("boom"))), emitter);
+
+        assertTrue(completed.await(2, TimeUnit.SECONDS));
+        assertEquals(2, events.size());
+        assertTrue(events.get(1).contains("event:error"), events.get(1));
+        assertTrue(events.get(1).contains("生成失败: boom"), events.get(1));
+    }
+
+    /**
+     * 2000 个慢客户端同时在线：每个流只缓存有限分片，推送不占用平台线程，断开后全部取消上游
+     */
+    @Test
+    @Tag("load")
+    void holdsTwoThousandSlowConsumers() throws Exception {
+        int streams = 2000;
+        MemoryMXBean memory = ManagementFactory.getMemoryMXBean();
+        System.gc();
+        long heapBefore = memory.getHeapMemoryUsage().getUsed();
+        int threadsBefore = ManagementFactory.getThreadMXBean().getThreadCount();
+
+        List<ClientStream> clients = new ArrayList<>(streams);
+        for (int i = 0; i < streams; i++) {
+            ClientStream client = new ClientStream(20, null);
+            client.start(aiService);
+            clients.add(client);
+        }
+        Thread.sleep(2000);
+
+        System.gc();
+        long heapDuring = memory.getHeapMemoryUsage().getUsed();
+        int threadsDuring = ManagementFactory.getThreadMXBean().getThreadCount();
+        long produced = 0;
+        long sent = 0;
+        for (ClientStream client : clients) {
+            long clientSent = client.sent.get();
+            long clientProduced = client.produced.get();
+            assertTrue(clientProduced - clientSent <= PREFETCH + 1);
+            produced += clientProduced;
+            sent += clientSent;
+        }
+        clients.forEach(ClientStream::disconnect);
+        for (ClientStream client : clients) {
+            assertTrue(client.cancelled.await(10, TimeUnit.SECONDS));
+        }
+        log.info("streams={} produced={} sent={} heapDelta={}KB platformThreads={}->{}",
+                streams, produced, sent, (heapDuring - heapBefore) / 1024, threadsBefore, threadsDuring);
+
+        assertTrue(sent > streams, "every client should have received data");
+        // 慢客户端阻塞的是虚拟线程
+        assertTrue(threadsDuring - threadsBefore < 64, "platform threads: " + threadsBefore + " -> " + threadsDuring);
+    }
+
+    /**
+     * 一个 SSE 连接：上游按需生成分片，客户端每次 send 耗时 sendMillis
+     */
+    private static final class ClientStream {
+        private final long sendMillis;
+        private final IOException sendFailure;
+        private final AtomicInteger produced = new AtomicInteger();
+        private final AtomicInteger sent = new AtomicInteger();
+        private final CountDownLatch cancelled = new CountDownLatch(1);
+        private final CountDownLatch completedWithError = new CountDownLatch(1);
+        private final AtomicReference<Runnable> completionCallback = new AtomicReference<>();
+
+        private ClientStream(long sendMillis, IOException sendFailure) {
+            this.sendMillis = sendMillis;
+            this.sendFailure = sendFailure;
+        }
+
+        void start(AiService aiService) throws Exception {
+            SseEmitter emitter = new SseEmitter(60_000L);
+            initialize(emitter, (method, args) -> {
+                switch (method.getName()) {
+                    case "send" -> {
+                        if (sendFailure != null) {
+                            throw sendFailure;
+                        }
+                        Thread.sleep(sendMillis);
+                        sent.incrementAndGet();
+                    }
+                    case "onCompletion" -> completionCallback.set((Runnable) args[0]);
+                    case "completeWithError" -> completedWithError.countDown();
+                    default -> {
+                    }
+                }
+                return null;
+            });
+            String payload = "{\"type\":\"text\",\"content\":\"" + "x".repeat(80) + "\"}";
+            Flux<String> upstream = Flux.<String>generate(sink -> {
+                produced.incrementAndGet();
+                sink.next(payload);
+            }).doOnCancel(cancelled::countDown);
+            aiService.bridge(upstream, emitter);
+        }
+
+        /**
+         * 容器检测到客户端断开后结束异步请求
+         */
+        void disconnect() {
+            completionCallback.get().run();
+        }
+    }
+
+    private interface HandlerInvocation {
+        Object invoke(java.lang.reflect.Method method, Object[] args) throws Throwable;
+    }
+
+    /**
+     * 用代理的 Handler 模拟 Servlet 异步响应
+     */
+    private static void initialize(SseEmitter emitter, HandlerInvocation invocation) throws Exception {
+        Class<?> handlerType = Class.forName(ResponseBodyEmitter.class.getName() + "$Handler");
+        Object handler = Proxy.newProxyInstance(AiServiceTest.class.getClassLoader(), new Class<?>[]{handlerType},
+                (proxy, method, args) -> {
+                    if (method.getName().equals("send") && args[0] instanceof Set<?> items) {
+                        StringBuilder data = new StringBuilder();
+                        items.forEach(item -> data.append(ReflectionTestUtils.invokeGetterMethod(item, "data")));
+                        return invocation.invoke(method, new Object[]{data.toString()});
+                    }
+                    return invocation.invoke(method, args);
+                });
+        ReflectionTestUtils.invokeMethod(emitter, "initialize", handler);
+    }
+}
@@ -0,0 +1,225 @@
+package com.wfh.drawio.service.impl;
+
+import com.baomidou.mybatisplus.core.MybatisConfiguration;
+import com.baomidou.mybatisplus.core.conditions.update.LambdaUpdateWrapper;
+import com.baomidou.mybatisplus.core.metadata.TableInfoHelper;
+import com.baomidou.mybatisplus.extension.plugins.pagination.Page;
+import com.wfh.drawio.event.DiagramChangeEvent;
+import com.wfh.drawio.exception.VersionConflictException;
+import com.wfh.drawio.manager.CacheVersionManager;
+import com.wfh.drawio.manager.DiagramContentStore;
+import com.wfh.drawio.manager.search.DiagramSearchIndex;
+import com.wfh.drawio.mapper.DiagramMapper;
+import com.wfh.drawio.model.dto.diagram.DiagramQueryRequest;
+import com.wfh.drawio.model.entity.Diagram;
+import org.apache.ibatis.builder.MapperBuilderAssistant;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.ArgumentCaptor;
+import org.springframework.context.ApplicationEventPublisher;
+import org.springframework.test.util.ReflectionTestUtils;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyBoolean;
+import static org.mockito.ArgumentMatchers.anyCollection;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+/**
+ * 图表乐观锁：条件更新、冲突返回最新版本、认领产生的版本号；变更事件携带前后所属空间
+ */
+class DiagramServiceImplTest {
+
+    private DiagramMapper diagramMapper;
+
+    private DiagramContentStore diagramContentStore;
+
+    private ApplicationEventPublisher eventPublisher;
+
+    private CacheVersionManager cacheVersionManager;
+
+    private DiagramServiceImpl diagramService;
+
+    @BeforeAll
+    static void initTableInfo() {
+        TableInfoHelper.initTableInfo(new MapperBuilderAssistant(new MybatisConfiguration(), ""), Diagram.class);
+    }
+
+    @BeforeEach
+    void setUp() {
+        diagramMapper = mock(DiagramMapper.class);
+        diagramContentStore = mock(DiagramContentStore.class);
+        eventPublisher = mock(ApplicationEventPublisher.class);
+        cacheVersionManager = mock(CacheVersionManager.class);
+        diagramService = new DiagramServiceImpl();
+        ReflectionTestUtils.setField(diagramService, "baseMapper", diagramMapper);
+        ReflectionTestUtils.setField(diagramService, "diagramContentStore", diagramContentStore);
+        ReflectionTestUtils.setField(diagramService, "transactionTemplate", new TransactionTemplate(mock(PlatformTransactionManager.class)));
+        ReflectionTestUtils.setField(diagramService, "eventPublisher", eventPublisher);
+        ReflectionTestUtils.setField(diagramService, "cacheVersionManager", cacheVersionManager);
+    }
+
+    @Test
+    void updateWithVersionIsConditionalAndAlwaysIncrements() {
+        when(diagramMapper.update(any(Diagram.class), any())).thenReturn(1);
+        Diagram diagram = diagram(3);
+
+        assertTrue(diagramService.updateById(diagram));
+
+        LambdaUpdateWrapper<Diagram> wrapper = captureWrapper();
+        assertEquals("version = version + 1", wrapper.getSqlSet());
+        assertTrue(wrapper.getSqlSegment().contains("version ="), wrapper.getSqlSegment());
+        assertEquals(4, diagram.getVersion());
+    }
+
+    @Test
+    void updateWithoutVersionStillIncrements() {
+        when(diagramMapper.update(any(Diagram.class), any())).thenReturn(1);
+        Diagram diagram = diagram(null);
+
+        assertTrue(diagramService.updateById(diagram));
+
+        LambdaUpdateWrapper<Diagram> wrapper = captureWrapper();
+        assertEquals("version = version + 1", wrapper.getSqlSet());
+        assertFalse(wrapper.getSqlSegment().contains("version"), wrapper.getSqlSegment());
+    }
+
+    @Test
+    void staleVersionThrowsConflictWithLatestVersion() {
+        when(diagramMapper.update(any(Diagram.class), any())).thenReturn(0);
+        when(diagramMapper.selectById(1L)).thenReturn(diagram(5));
+        Diagram diagram = diagram(3);
+        diagram.setDiagramCode("<mxGraphModel/>");
+
+        VersionConflictException e = assertThrows(VersionConflictException.class, () -> diagramService.updateById(diagram));
+
+        assertEquals(5, e.getLatestVersion());
+        verify(diagramContentStore, never()).put(any(), any());
+    }
+
+    @Test
+    void claimReturnsVersionProducedByItsUpdate() {
+        Diagram freeTrial = diagram(7);
+        freeTrial.setDiagramType(Diagram.FREE_TRIAL_TYPE);
+        when(diagramMapper.selectById(1L)).thenReturn(freeTrial);
+        when(diagramMapper.update(any(Diagram.class), any())).thenReturn(1);
+
+        // 调用方读到的是 6，认领按 6 条件更新，而不是认领时重新读到的 7
+        assertEquals(7, diagramService.claimFreeTrialDiagram(1L, 9L, null, null, 6));
+
+        ArgumentCaptor<Diagram> captor = ArgumentCaptor.forClass(Diagram.class);
+        verify(diagramMapper).update(captor.capture(), any());
+        assertEquals(9L, captor.getValue().getUserId());
+        assertTrue(captureWrapper().getSqlSegment().contains("version ="));
+    }
+
+    @Test
+    void movingDiagramIntoSpaceReportsBothSpaces() {
+        // 当前在公共图库
+        when(diagramMapper.selectList(any())).thenReturn(List.of(diagram(3)));
+        when(diagramMapper.update(any(Diagram.class), any())).thenReturn(1);
+        Diagram diagram = diagram(3);
+        diagram.setSpaceId(8L);
+
+        diagramService.updateById(diagram);
+
+        DiagramChangeEvent event = captureEvents(1).get(0);
+        assertEquals(DiagramChangeEvent.ChangeType.UPDATE, event.getChangeType());
+        assertNull(event.getSpaceIdBefore());
+        assertEquals(8L, event.getSpaceIdAfter());
+        assertTrue(event.isPublicAffected());
+    }
+
+    @Test
+    void onlyPublicDiagramChangesBumpPublicCache() {
+        diagramService.onDiagramChange(new DiagramChangeEvent(this, 1L, DiagramChangeEvent.ChangeType.UPDATE, 8L, 8L));
+        verify(cacheVersionManager, never()).bump(any());
+
+        diagramService.onDiagramChange(new DiagramChangeEvent(this, 1L, DiagramChangeEvent.ChangeType.DELETE, null, null));
+        diagramService.onDiagramChange(new DiagramChangeEvent(this, 1L, DiagramChangeEvent.ChangeType.UPDATE, 8L, null));
+        verify(cacheVersionManager, times(2)).bump("all_diagram");
+    }
+
+    @Test
+    void removeByIdsPublishesDeletePerDiagram() {
+        Diagram first = diagram(1);
+        first.setSpaceId(8L);
+        Diagram second = diagram(1);
+        second.setId(2L);
+        second.setSpaceId(8L);
+        // 3 已经不存在
+        when(diagramMapper.selectList(any())).thenReturn(List.of(first, second));
+        when(diagramMapper.deleteByIds(anyCollection())).thenReturn(2);
+        when(diagramMapper.deleteByIds(anyCollection(), anyBoolean())).thenReturn(2);
+
+        assertTrue(diagramService.removeByIds(List.of(1L, 2L, 3L)));
+
+        List<DiagramChangeEvent> events = captureEvents(2);
+        assertEquals(List.of(1L, 2L), events.stream().map(DiagramChangeEvent::getDiagramId).toList());
+        assertTrue(events.stream().allMatch(event -> event.getChangeType() == DiagramChangeEvent.ChangeType.DELETE
+                && Long.valueOf(8L).equals(event.getSpaceIdBefore()) && !event.isPublicAffected()));
+        verify(diagramContentStore).remove(List.of(1L, 2L, 3L));
+    }
+
+    @Test
+    void searchPageUsesIndexTotalAndRelevanceOrder() {
+        DiagramSearchIndex diagramSearchIndex = mock(DiagramSearchIndex.class);
+        ReflectionTestUtils.setField(diagramService, "diagramSearchIndex", diagramSearchIndex);
+        when(diagramSearchIndex.searchPage("登录", null, 8L, null, false, 20, 10))
+                .thenReturn(new DiagramSearchIndex.SearchPage(List.of(3L, 1L, 2L), 1500));
+        Diagram first = diagram(1);
+        first.setSpaceId(8L);
+        Diagram third = diagram(1);
+        third.setId(3L);
+        third.setSpaceId(8L);
+        // 2 已移到其他空间，索引尚未更新
+        Diagram moved = diagram(1);
+        moved.setId(2L);
+        moved.setSpaceId(9L);
+        when(diagramMapper.selectByIds(anyCollection())).thenReturn(List.of(first, moved, third));
+        DiagramQueryRequest request = new DiagramQueryRequest();
+        request.setSearchText("登录");
+        request.setSpaceId(8L);
+
+        Page<Diagram> page = diagramService.searchPage(new Page<>(3, 10), request);
+
+        assertEquals(1500, page.getTotal());
+        assertEquals(List.of(3L, 1L), page.getRecords().stream().map(Diagram::getId).toList());
+        // 没有回退到按 ID 列表回表的查询条件
+        verify(diagramSearchIndex, never()).search(any(), any(), any(), any(), anyBoolean());
+    }
+
+    private List<DiagramChangeEvent> captureEvents(int count) {
+        ArgumentCaptor<DiagramChangeEvent> captor = ArgumentCaptor.forClass(DiagramChangeEvent.class);
+        verify(eventPublisher, times(count)).publishEvent(captor.capture());
+        return captor.getAllValues();
+    }
+
+    @SuppressWarnings("unchecked")
+    private LambdaUpdateWrapper<Diagram> captureWrapper() {
+        ArgumentCaptor<LambdaUpdateWrapper<Diagram>> captor = ArgumentCaptor.forClass(LambdaUpdateWrapper.class);
+        verify(diagramMapper).update(any(Diagram.class), captor.capture());
+        return captor.getValue();
+    }
+
+    private static Diagram diagram(Integer version) {
+        Diagram diagram = new Diagram();
+        diagram.setId(1L);
+        diagram.setName("流程图");
+        diagram.setVersion(version);
+        return diagram;
+    }
+}
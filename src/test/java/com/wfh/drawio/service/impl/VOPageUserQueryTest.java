@@ -0,0 +1,180 @@
+package com.wfh.drawio.service.impl;
+
+import com.baomidou.mybatisplus.extension.plugins.pagination.Page;
+import com.wfh.drawio.manager.UserBatchLoader;
+import com.wfh.drawio.mapper.UserMapper;
+import com.wfh.drawio.model.entity.Diagram;
+import com.wfh.drawio.model.entity.DiagramRoom;
+import com.wfh.drawio.model.entity.RoomMember;
+import com.wfh.drawio.model.entity.Space;
+import com.wfh.drawio.model.entity.SpaceUser;
+import com.wfh.drawio.model.entity.User;
+import com.wfh.drawio.model.vo.DiagramVO;
+import com.wfh.drawio.model.vo.RoomMemberVO;
+import com.wfh.drawio.model.vo.RoomVO;
+import com.wfh.drawio.model.vo.SpaceUserVO;
+import com.wfh.drawio.model.vo.SpaceVO;
+import com.wfh.drawio.service.SpaceService;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.function.LongFunction;
+import java.util.function.Supplier;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.mockito.ArgumentMatchers.anyCollection;
+import static org.mockito.Mockito.clearInvocations;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+/**
+ * 分页封装查询次数：每页一次 selectByIds，缓存命中时不再查询
+ */
+class VOPageUserQueryTest {
+
+    private static final int PAGE_SIZE = 20;
+
+    private UserMapper userMapper;
+
+    private UserBatchLoader userBatchLoader;
+
+    @BeforeEach
+    void setUp() {
+        userMapper = mock(UserMapper.class);
+        when(userMapper.selectByIds(anyCollection())).thenAnswer(invocation -> {
+            Collection<Long> ids = invocation.getArgument(0);
+            return ids.stream().map(id -> {
+                User user = new User();
+                user.setId(id);
+                user.setUserName("user" + id);
+                return user;
+            }).toList();
+        });
+        userBatchLoader = new UserBatchLoader();
+        ReflectionTestUtils.setField(userBatchLoader, "userMapper", userMapper);
+        userBatchLoader.init();
+    }
+
+    @Test
+    void diagramVOPage() {
+        DiagramServiceImpl diagramService = new DiagramServiceImpl();
+        ReflectionTestUtils.setField(diagramService, "userBatchLoader", userBatchLoader);
+        Page<Diagram> page = page(userId -> {
+            Diagram diagram = new Diagram();
+            diagram.setUserId(userId);
+            return diagram;
+        });
+
+        assertQueriesOncePerPage(() -> {
+            List<DiagramVO> records = diagramService.getDiagramVOPage(page, null).getRecords();
+            assertEquals("user1", records.get(0).getUserVO().getUserName());
+            return records;
+        });
+    }
+
+    @Test
+    void spaceVOPage() {
+        SpaceServiceImpl spaceService = new SpaceServiceImpl();
+        ReflectionTestUtils.setField(spaceService, "userBatchLoader", userBatchLoader);
+        Page<Space> page = page(userId -> {
+            Space space = new Space();
+            space.setUserId(userId);
+            return space;
+        });
+
+        assertQueriesOncePerPage(() -> {
+            List<SpaceVO> records = spaceService.getSpaceVOPage(page, null).getRecords();
+            assertEquals("user1", records.get(0).getUserVO().getUserName());
+            return records;
+        });
+    }
+
+    @Test
+    void roomVOPage() {
+        DiagramRoomServiceImpl roomService = new DiagramRoomServiceImpl();
+        ReflectionTestUtils.setField(roomService, "userBatchLoader", userBatchLoader);
+        Page<DiagramRoom> page = page(userId -> {
+            DiagramRoom room = new DiagramRoom();
+            room.setOwnerId(userId);
+            return room;
+        });
+
+        assertQueriesOncePerPage(() -> {
+            List<RoomVO> records = roomService.getDiagramRoomVOPage(page, null).getRecords();
+            assertEquals("user1", records.get(0).getUserVO().getUserName());
+            return records;
+        });
+    }
+
+    @Test
+    void roomMemberVOPage() {
+        RoomMemberServiceImpl roomMemberService = new RoomMemberServiceImpl();
+        ReflectionTestUtils.setField(roomMemberService, "userBatchLoader", userBatchLoader);
+        ReflectionTestUtils.setField(roomMemberService, "userService", new UserServiceImpl());
+        Page<RoomMember> page = page(userId -> {
+            RoomMember roomMember = new RoomMember();
+            roomMember.setUserId(userId);
+            return roomMember;
+        });
+
+        assertQueriesOncePerPage(() -> {
+            List<RoomMemberVO> records = roomMemberService.getRoomMemberVOList(page.getRecords());
+            assertEquals("user1", records.get(0).getUserName());
+            return records;
+        });
+    }
+
+    @Test
+    void spaceUserVOPage() {
+        SpaceService spaceService = mock(SpaceService.class);
+        Space space = new Space();
+        space.setId(1L);
+        when(spaceService.listByIds(anyCollection())).thenReturn(List.of(space));
+        SpaceUserServiceImpl spaceUserService = new SpaceUserServiceImpl();
+        ReflectionTestUtils.setField(spaceUserService, "userBatchLoader", userBatchLoader);
+        ReflectionTestUtils.setField(spaceUserService, "userService", new UserServiceImpl());
+        ReflectionTestUtils.setField(spaceUserService, "spaceService", spaceService);
+        Page<SpaceUser> page = page(userId -> {
+            SpaceUser spaceUser = new SpaceUser();
+            spaceUser.setUserId(userId);
+            spaceUser.setSpaceId(1L);
+            return spaceUser;
+        });
+
+        assertQueriesOncePerPage(() -> {
+            List<SpaceUserVO> records = spaceUserService.getSpaceUserVOList(page.getRecords());
+            assertEquals("user1", records.get(0).getUser().getUserName());
+            return records;
+        });
+    }
+
+    /**
+     * 一页 20 条记录，5 个不同用户
+     */
+    private static <T> Page<T> page(LongFunction<T> recordFactory) {
+        List<T> records = new ArrayList<>();
+        for (int i = 0; i < PAGE_SIZE; i++) {
+            records.add(recordFactory.apply((long) (i % 5) + 1));
+        }
+        Page<T> page = new Page<>(1, PAGE_SIZE, PAGE_SIZE);
+        page.setRecords(records);
+        return page;
+    }
+
+    private void assertQueriesOncePerPage(Supplier<List<?>> loadPage) {
+        assertEquals(PAGE_SIZE, loadPage.get().size());
+        verify(userMapper, times(1)).selectByIds(anyCollection());
+
+        // 再次加载同一页全部命中缓存
+        clearInvocations(userMapper);
+        assertEquals(PAGE_SIZE, loadPage.get().size());
+        verify(userMapper, never()).selectByIds(anyCollection());
+    }
+}